@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call overhead of {@link MethodInvoker} against {@link Method#invoke}, for
+ * methods with 0, 3 and 8 arguments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodInvokerBenchmark {
+  @Param({"0", "3", "8"})
+  public int arguments;
+
+  private final Service service = new Service();
+  private Method method;
+  private MethodInvoker invoker;
+  private Object[] params;
+
+  @Setup
+  public void setUp() throws Exception {
+    switch (arguments) {
+      case 0:
+        method = Service.class.getMethod("none");
+        params = new Object[0];
+        break;
+      case 3:
+        method = Service.class.getMethod("three", String.class, int.class, Long.class);
+        params = new Object[] {"a", 1, 2L};
+        break;
+      default:
+        method = Service.class.getMethod("eight", String.class, int.class, long.class,
+            boolean.class, Integer.class, String.class, double.class, Object.class);
+        params = new Object[] {"a", 1, 2L, true, 3, "b", 4.0, this};
+    }
+    invoker = MethodInvoker.create(method);
+  }
+
+  @Benchmark
+  public Object reflection() throws Exception {
+    return method.invoke(service, params);
+  }
+
+  @Benchmark
+  public Object invoker() throws Throwable {
+    return invoker.invoke(service, params);
+  }
+
+  public static class Service {
+    public Object none() {
+      return this;
+    }
+
+    public Object three(String a, int b, Long c) {
+      return a;
+    }
+
+    public Object eight(String a, int b, long c, boolean d, Integer e, String f, double g,
+        Object h) {
+      return h;
+    }
+  }
+}
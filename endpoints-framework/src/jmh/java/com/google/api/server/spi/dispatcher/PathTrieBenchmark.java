@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.dispatcher;
+
+import com.google.api.server.spi.dispatcher.PathTrie.Resolution;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PathTrie} and {@link CompiledPathTrie} lookups over route tables of various
+ * sizes. Run with {@code -prof gc}
+ * to see the bytes allocated per lookup ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathTrieBenchmark {
+  private static final int LOOKUP_COUNT = 1024;
+
+  @Param({"10", "1000", "10000"})
+  public int routeCount;
+
+  private PathTrie<Integer> trie;
+  private Resolution<Integer> resolution;
+  private CompiledPathTrie<Integer> compiledTrie;
+  private Resolution<Integer> compiledResolution;
+  private String[] paths;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    PathTrie.Builder<Integer> builder = PathTrie.builder();
+    // Each route alternates between a literal collection, a parameterized resource and a custom
+    // method, spread over APIs and versions like a servlet hosting many APIs would be.
+    for (int i = 0; i < routeCount; i++) {
+      builder.add(HttpMethod.GET, routeTemplate(i), i);
+    }
+    trie = builder.build();
+    resolution = trie.newResolution();
+    compiledTrie = CompiledPathTrie.compile(trie);
+    compiledResolution = compiledTrie.newResolution();
+    Random random = new Random(42);
+    paths = new String[LOOKUP_COUNT];
+    for (int i = 0; i < LOOKUP_COUNT; i++) {
+      paths[i] = requestPath(random.nextInt(routeCount), random);
+    }
+  }
+
+  @Benchmark
+  public Integer resolveReusable() {
+    String path = paths[next++ & (LOOKUP_COUNT - 1)];
+    return trie.resolve(HttpMethod.GET, path, resolution) ? resolution.getValue() : null;
+  }
+
+  @Benchmark
+  public Integer resolveCompiled() {
+    String path = paths[next++ & (LOOKUP_COUNT - 1)];
+    return compiledTrie.resolve(HttpMethod.GET, path, compiledResolution)
+        ? compiledResolution.getValue() : null;
+  }
+
+  @Benchmark
+  public PathTrie.Result<Integer> resolveResult() {
+    return trie.resolve(HttpMethod.GET, paths[next++ & (LOOKUP_COUNT - 1)]);
+  }
+
+  private static String routeTemplate(int route) {
+    String prefix = "api" + route / 30 + "/v" + (route % 3 + 1) + "/";
+    switch (route % 3) {
+      case 0:
+        return prefix + "collection" + route;
+      case 1:
+        return prefix + "collection" + route + "/{id}/items/{itemId}";
+      default:
+        return prefix + "collection" + route + "/{id}:batchGet";
+    }
+  }
+
+  private static String requestPath(int route, Random random) {
+    String prefix = "api" + route / 30 + "/v" + (route % 3 + 1) + "/collection" + route;
+    switch (route % 3) {
+      case 0:
+        return prefix;
+      case 1:
+        return prefix + "/" + random.nextInt(100000) + "/items/item" + random.nextInt(1000);
+      default:
+        return prefix + "/" + random.nextInt(100000) + ":batchGet";
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import com.google.api.server.spi.EndpointMethod;
+import com.google.api.server.spi.EndpointsContext;
+import com.google.api.server.spi.ServiceException;
+import com.google.api.server.spi.ServletInitializationParameters;
+import com.google.api.server.spi.SystemService;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.api.server.spi.testing.ArrayEndpoint;
+import com.google.api.server.spi.testing.MultipleParameterEndpoint;
+import com.google.common.collect.ImmutableMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link RestServletRequestParamReader} on the {@code test-utils} endpoints, with a
+ * {@link ParameterBindingPlan} compiled for every request or once ahead of time. Run with
+ * {@code -prof gc} to see the bytes allocated per read ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParamReaderBenchmark {
+  @Param({"multipleParameters", "repeatedParameters"})
+  public String endpoint;
+
+  private Object service;
+  private EndpointMethod method;
+  private ApiMethodConfig methodConfig;
+  private ApiSerializationConfig serializationConfig;
+  private ParameterBindingPlan bindingPlan;
+  private ServletInitializationParameters initParameters;
+  private EndpointsContext context;
+
+  @Setup
+  public void setUp() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    Map<String, String> pathParameters;
+    String serviceName;
+    String methodName;
+    if ("multipleParameters".equals(endpoint)) {
+      service = new MultipleParameterEndpoint();
+      serviceName = MultipleParameterEndpoint.class.getName();
+      methodName = "param";
+      pathParameters = ImmutableMap.of("parent", "p", "child", "c");
+      request.addParameter("query", "q");
+      request.addParameter("queryb", "b");
+      request.addParameter("querya", "a");
+    } else {
+      service = new ArrayEndpoint();
+      serviceName = ArrayEndpoint.class.getName();
+      methodName = "setListOfIntegers";
+      pathParameters = ImmutableMap.of();
+      request.addParameter("list", new String[] {"1", "2", "3", "4"});
+      request.addParameter("array", new String[] {"5", "6", "7", "8"});
+    }
+    SystemService systemService = SystemService.builder()
+        .withDefaults(ParamReaderBenchmark.class.getClassLoader())
+        .addService(service.getClass(), service)
+        .build();
+    method = systemService.resolveService(serviceName, methodName);
+    methodConfig = systemService.getEndpoints().get(0).getConfig().getApiClassConfig()
+        .getMethods().get(method);
+    serializationConfig = systemService.getSerializationConfig(serviceName);
+    bindingPlan = ParameterBindingPlan.compile(method, methodConfig, serializationConfig);
+    initParameters = ServletInitializationParameters.builder().build();
+    context = new EndpointsContext("POST", "", request, new MockHttpServletResponse(), false);
+    context.setRawPathParameters(pathParameters);
+  }
+
+  @Benchmark
+  public Object[] compiledPerRequest() throws ServiceException {
+    return new RestServletRequestParamReader(service, method, context, null, serializationConfig,
+        methodConfig, initParameters).read();
+  }
+
+  @Benchmark
+  public Object[] precompiled() throws ServiceException {
+    return new RestServletRequestParamReader(service, method, bindingPlan, context, null,
+        methodConfig, initParameters).read();
+  }
+}
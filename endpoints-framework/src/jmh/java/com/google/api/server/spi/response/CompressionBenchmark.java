@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.api.server.spi.response.ResultWriterBenchmark.Item;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures the compression of serialized list responses of about 200 and 800 KB with pooled
+ * deflaters, against a new {@link GZIPOutputStream} per response. The {@code bytesIn} and
+ * {@code bytesOut} counters report the body sizes before and after compression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+  @Param({"1350", "5400"})
+  private int itemCount;
+
+  private ResponseBuffer body;
+  private byte[] bodyBytes;
+
+  @Setup
+  public void setUp() throws IOException {
+    ObjectWriter objectWriter = ServletResponseResultWriter.createObjectWriter(null);
+    List<Item> items = new ArrayList<>();
+    for (int i = 0; i < itemCount; i++) {
+      items.add(new Item("item" + i, i, i % 2 == 0));
+    }
+    body = new ResponseBuffer(0);
+    objectWriter.writeValue(body,
+        CollectionResponse.<Item>builder().setItems(items).setNextPageToken("next").build());
+    bodyBytes = body.toByteArray();
+  }
+
+  @TearDown
+  public void tearDown() {
+    body.release();
+  }
+
+  @Benchmark
+  public int pooledDeflater(Sizes sizes) {
+    ResponseBuffer out = new ResponseBuffer(body.size() / 4);
+    ResponseCompression.compress(body, ResponseCompression.Encoding.GZIP, out);
+    int size = out.size();
+    out.release();
+    sizes.record(body.size(), size);
+    return size;
+  }
+
+  @Benchmark
+  public int gzipOutputStream(Sizes sizes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bodyBytes.length / 4);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(bodyBytes);
+    }
+    sizes.record(bodyBytes.length, out.size());
+    return out.size();
+  }
+
+  /**
+   * Reports the uncompressed and compressed bytes per operation.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Sizes {
+    public long bytesIn;
+    public long bytesOut;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytesIn = 0;
+      bytesOut = 0;
+    }
+
+    void record(int in, int out) {
+      // Keeps the last sizes, which are the same for every operation.
+      bytesIn = in;
+      bytesOut = out;
+    }
+  }
+}
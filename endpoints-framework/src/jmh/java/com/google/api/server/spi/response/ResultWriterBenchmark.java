@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ServletResponseResultWriter#write} of a list of small beans, with and without
+ * {@code addContentLength}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultWriterBenchmark {
+  @Param({"10", "5000"})
+  private int itemCount;
+
+  @Param({"false", "true"})
+  private boolean addContentLength;
+
+  private ObjectWriter objectWriter;
+  private CollectionResponse<Item> result;
+
+  @Setup
+  public void setUp() {
+    objectWriter = ServletResponseResultWriter.createObjectWriter(null);
+    List<Item> items = new ArrayList<>();
+    for (int i = 0; i < itemCount; i++) {
+      items.add(new Item("item" + i, i, i % 2 == 0));
+    }
+    result = CollectionResponse.<Item>builder().setItems(items).setNextPageToken("next").build();
+  }
+
+  @Benchmark
+  public MockHttpServletResponse write() throws IOException {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    new ServletResponseResultWriter(response, objectWriter, false, addContentLength)
+        .write(result, 200);
+    return response;
+  }
+
+  public static class Item {
+    private final String name;
+    private final long count;
+    private final boolean active;
+
+    Item(String name, long count, boolean active) {
+      this.name = name;
+      this.count = count;
+      this.active = active;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public boolean isActive() {
+      return active;
+    }
+  }
+}
@@ -18,9 +18,13 @@ package com.google.api.server.spi;
 import com.google.api.server.spi.config.model.ApiSerializationConfig;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonInclude.Value;
@@ -33,6 +37,7 @@ import javax.annotation.Nullable;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
@@ -73,6 +78,14 @@ public class ConfiguredObjectMapper {
     return delegate.writer();
   }
 
+  /**
+   * Returns the hit, miss and eviction counts of the global cache of object mappers, which is
+   * shared by all builders.
+   */
+  public static CacheStats cacheStats() {
+    return Builder.globalCache.stats();
+  }
+
   /**
    * Constructs a new {@link Builder} for creating {@link ConfiguredObjectMapper} instances.
    *
@@ -88,31 +101,48 @@ public class ConfiguredObjectMapper {
   public static class Builder {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-    private int maxCacheSize;
+    private static final int MAX_CACHE_SIZE = 1000;
+
     private ApiSerializationConfig config;
     private ImmutableSet.Builder<Module> modules = ImmutableSet.builder();
 
+    // Global Cache, evicting the least recently used mappers beyond its maximum size.
+    private static final Cache<CacheKey, ConfiguredObjectMapper> globalCache =
+        newCache(MAX_CACHE_SIZE);
 
-    // Global Cache
-    private static final Map<CacheKey, ConfiguredObjectMapper> globalCache =
-        Maps.newConcurrentMap();
-
-    // Instance Cache
-    // TODO: Consider replacing this with commons.cache, which is currently not included /
-    // repackaged in the SDK.
-    private final Map<CacheKey, ConfiguredObjectMapper> cache;
+    // Instance Cache, or else a map which is cleared once it reaches the maximum size.
+    private final Cache<CacheKey, ConfiguredObjectMapper> cache;
+    private final Map<CacheKey, ConfiguredObjectMapper> mutableCache;
+    private final int maxCacheSize;
 
     private Builder() {
-      this(globalCache, 1000);
+      this(globalCache);
+    }
+
+    @VisibleForTesting
+    Builder(Cache<CacheKey, ConfiguredObjectMapper> cache) {
+      this.cache = Preconditions.checkNotNull(cache, "cache should not be null");
+      this.mutableCache = null;
+      this.maxCacheSize = 0;
     }
 
     @VisibleForTesting
     Builder(Map<CacheKey, ConfiguredObjectMapper> mutableCache, int maxCacheSize) {
       Preconditions.checkArgument(maxCacheSize > 0, "cache should be positive");
-      this.cache = Preconditions.checkNotNull(mutableCache, "cache should not be null");
+      this.cache = null;
+      this.mutableCache = Preconditions.checkNotNull(mutableCache, "cache should not be null");
       this.maxCacheSize = maxCacheSize;
     }
 
+    @VisibleForTesting
+    static Cache<CacheKey, ConfiguredObjectMapper> newCache(int maxCacheSize) {
+      Preconditions.checkArgument(maxCacheSize > 0, "cache should be positive");
+      return CacheBuilder.newBuilder()
+          .maximumSize(maxCacheSize)
+          .recordStats()
+          .build();
+    }
+
     /**
      * Sets the {@link ApiSerializationConfig} that should be used to construct the backing {@link
      * ObjectMapper}. This replaces the previous configuration, {@code null} can be used to clear
@@ -145,38 +175,52 @@ public class ConfiguredObjectMapper {
      */
     public ConfiguredObjectMapper build() {
       CacheKey key = new CacheKey(config, modules.build());
-      ConfiguredObjectMapper instance = cache.get(key);
-      if (instance == null) {
-        ObjectMapper mapper =
-            ObjectMapperUtil.createStandardObjectMapper(key.apiSerializationConfig);
-        mapper.setDefaultPropertyInclusion(Include.NON_EMPTY);
-        Stream.of(
-            //empty Strings must be serialized
-            String.class,
-            //Empty optionals should serialized by default
-            Optional.class, OptionalLong.class, OptionalDouble.class, OptionalInt.class)
-            .forEach(clazz -> mapper.configOverride(clazz)
-                .setIncludeAsProperty(Value.construct(Include.NON_NULL, Include.USE_DEFAULTS)));
-        mapper.configOverride(Map.class)
-            .setIncludeAsProperty(Value.construct(Include.USE_DEFAULTS, Include.NON_NULL));
-        for (Module module : key.modulesSet) {
-          mapper.registerModule(module);
-        }
-        instance = new ConfiguredObjectMapper(mapper);
+      if (mutableCache != null) {
+        return buildInMap(key);
+      }
+      try {
+        return cache.get(key, () -> create(key));
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      }
+    }
 
+    private ConfiguredObjectMapper buildInMap(CacheKey key) {
+      ConfiguredObjectMapper instance = mutableCache.get(key);
+      if (instance == null) {
+        instance = create(key);
         // Evict all entries if the cache grows beyond a certain size.
-        if (maxCacheSize <= cache.size()) {
-          cache.clear();
+        if (maxCacheSize <= mutableCache.size()) {
+          mutableCache.clear();
         }
-
-        cache.put(key, instance);
-        logger.atFine().log("Cache miss, created ObjectMapper");
+        mutableCache.put(key, instance);
       } else {
         logger.atFine().log("Cache hit, reusing ObjectMapper");
       }
       return instance;
     }
 
+    private static ConfiguredObjectMapper create(CacheKey key) {
+      ObjectMapper mapper =
+          ObjectMapperUtil.createStandardObjectMapper(key.apiSerializationConfig);
+      mapper.setDefaultPropertyInclusion(Include.NON_EMPTY);
+      Stream.of(
+          //empty Strings must be serialized
+          String.class,
+          //Empty optionals should serialized by default
+          Optional.class, OptionalLong.class, OptionalDouble.class, OptionalInt.class)
+          .forEach(clazz -> mapper.configOverride(clazz)
+              .setIncludeAsProperty(Value.construct(Include.NON_NULL, Include.USE_DEFAULTS)));
+      mapper.configOverride(Map.class)
+          .setIncludeAsProperty(Value.construct(Include.USE_DEFAULTS, Include.NON_NULL));
+      for (Module module : key.modulesSet) {
+        mapper.registerModule(module);
+      }
+      logger.atFine().log("Cache miss, created ObjectMapper");
+      return new ConfiguredObjectMapper(mapper);
+    }
+
     /**
      * Builds a {@link ConfiguredObjectMapper} using the configuration specified in this builder,
      * and a customized ObjectMapper instance. Returned instance is NOT cached.
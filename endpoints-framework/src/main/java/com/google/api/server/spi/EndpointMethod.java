@@ -102,6 +102,8 @@ public class EndpointMethod {
 
   private List<String> parameterNames;
 
+  private volatile MethodInvoker invoker;
+
   private EndpointMethod(Class<?> endpointClass, Method method, TypeToken<?> declaringClass) {
     this.endpointClass = endpointClass;
     this.endpointToken = TypeToken.of(endpointClass);
@@ -165,6 +167,19 @@ public class EndpointMethod {
     return method;
   }
 
+  /**
+   * Returns the invoker of the method, which is created on first use.
+   */
+  public MethodInvoker getInvoker() {
+    MethodInvoker result = invoker;
+    if (result == null) {
+      // Racing threads may create equivalent invokers, of which one is kept.
+      result = MethodInvoker.create(method);
+      invoker = result;
+    }
+    return result;
+  }
+
   /**
    * Returns the return type of the method.
    */
@@ -15,20 +15,34 @@
  */
 package com.google.api.server.spi;
 
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.api.server.spi.dispatcher.DispatcherContext;
+import com.google.api.server.spi.request.Attribute;
+import com.google.api.server.spi.request.AuthenticatorChain;
 import com.google.common.base.Preconditions;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- * Context for dispatching Endpoints methods.
+ * Context for dispatching Endpoints methods. This holds all per-request state: path parameters,
+ * the method configuration and the authenticated user. The standard {@link Attribute}s are only
+ * set on the request once authenticators or the API method may read them; see
+ * {@link #bindStandardAttributes()}.
  */
 public class EndpointsContext extends DispatcherContext {
   private final HttpServletRequest request;
   private final HttpServletResponse response;
   private final boolean prettyPrint;
 
+  private ApiMethodConfig methodConfig;
+  private AuthenticatorChain authenticators;
+  private boolean clientIdWhitelistEnabled;
+  private boolean skipTokenAuth;
+  private boolean attributesBound;
+  private User authenticatedUser;
+
   public EndpointsContext(String httpMethod, String path, HttpServletRequest request,
       HttpServletResponse response, boolean prettyPrint) {
     super(httpMethod, path);
@@ -48,4 +62,55 @@ public class EndpointsContext extends DispatcherContext {
   public boolean isPrettyPrintEnabled() {
     return prettyPrint;
   }
+
+  /**
+   * Sets the method that the request is dispatched to, with the authenticators resolved for it,
+   * and the flags that follow from the servlet configuration.
+   */
+  public void setMethod(ApiMethodConfig methodConfig, AuthenticatorChain authenticators,
+      boolean clientIdWhitelistEnabled, boolean skipTokenAuth) {
+    this.methodConfig = methodConfig;
+    this.authenticators = authenticators;
+    this.clientIdWhitelistEnabled = clientIdWhitelistEnabled;
+    this.skipTokenAuth = skipTokenAuth;
+  }
+
+  public ApiMethodConfig getMethodConfig() {
+    return methodConfig;
+  }
+
+  /**
+   * Returns the authenticators of the method, or null if they were not resolved by its handler.
+   */
+  public AuthenticatorChain getAuthenticators() {
+    return authenticators;
+  }
+
+  /**
+   * Sets the standard {@link Attribute}s of the method on the request, like
+   * {@link Attribute#bindStandardRequestAttributes}, for the authenticators and API methods which
+   * read them. Only the first call after {@link #setMethod} sets them.
+   */
+  public void bindStandardAttributes() {
+    if (attributesBound || methodConfig == null) {
+      return;
+    }
+    attributesBound = true;
+    request.setAttribute(Attribute.ENABLE_CLIENT_ID_WHITELIST, clientIdWhitelistEnabled);
+    request.setAttribute(Attribute.API_METHOD_CONFIG, methodConfig);
+    if (skipTokenAuth) {
+      request.setAttribute(Attribute.SKIP_TOKEN_AUTH, true);
+    }
+  }
+
+  /**
+   * Returns the user authenticated for the request, or null if it was not authenticated yet.
+   */
+  public User getAuthenticatedUser() {
+    return authenticatedUser;
+  }
+
+  public void setAuthenticatedUser(User authenticatedUser) {
+    this.authenticatedUser = authenticatedUser;
+  }
 }
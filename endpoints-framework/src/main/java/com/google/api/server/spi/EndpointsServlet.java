@@ -16,6 +16,7 @@
 package com.google.api.server.spi;
 
 import com.google.api.server.spi.SystemService.EndpointNode;
+import com.google.api.server.spi.auth.GoogleAuth;
 import com.google.api.server.spi.config.ApiConfigException;
 import com.google.api.server.spi.config.model.ApiClassConfig.MethodConfigMap;
 import com.google.api.server.spi.config.model.ApiConfig;
@@ -25,14 +26,17 @@ import com.google.api.server.spi.handlers.ApiProxyHandler;
 import com.google.api.server.spi.handlers.CorsHandler;
 import com.google.api.server.spi.handlers.EndpointsMethodHandler;
 import com.google.api.server.spi.handlers.ExplorerHandler;
+import com.google.api.server.spi.response.ResponseCache;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 
 import java.io.IOException;
-import java.util.Enumeration;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map.Entry;
 
 import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -43,11 +47,13 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class EndpointsServlet extends HttpServlet {
   private static final String EXPLORER_PATH = "explorer";
+  private static final byte[] NOT_FOUND_BODY = "Not Found".getBytes(StandardCharsets.US_ASCII);
 
   private ServletInitializationParameters initParameters;
   private SystemService systemService;
   private PathDispatcher<EndpointsContext> dispatcher;
   private CorsHandler corsHandler;
+  private ResponseCache responseCache;
 
   @Override
   public void init(ServletConfig config) throws ServletException {
@@ -55,8 +61,18 @@ public class EndpointsServlet extends HttpServlet {
     ClassLoader classLoader = getClass().getClassLoader();
     this.initParameters = ServletInitializationParameters.fromServletConfig(config, classLoader);
     this.systemService = createSystemService(classLoader, initParameters);
+    this.responseCache = createResponseCache();
     this.dispatcher = createDispatcher();
     this.corsHandler = new CorsHandler();
+    GoogleAuth.retainPublicKeySources();
+  }
+
+  @Override
+  public void destroy() {
+    // The refresh thread would otherwise keep the class loader of the application alive. It is
+    // shared by the servlets of the application, so it is only stopped once all are destroyed.
+    GoogleAuth.releasePublicKeySources();
+    super.destroy();
   }
 
   protected ServletInitializationParameters getInitParameters() {
@@ -67,38 +83,66 @@ public class EndpointsServlet extends HttpServlet {
     return systemService;
   }
 
+  /**
+   * Returns the hit, miss and eviction counts of the route cache, which are only recorded if the
+   * route cache and its stats are enabled.
+   */
+  protected CacheStats getRouteCacheStats() {
+    return dispatcher.getRouteCacheStats();
+  }
+
+  /**
+   * Returns the cache of GET responses, or null if it is disabled. Servlets of the same context
+   * share it.
+   */
+  protected ResponseCache getResponseCache() {
+    return responseCache;
+  }
+
   @Override
   public void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String method = getRequestMethod(request);
     if ("OPTIONS".equals(method)) {
       corsHandler.handle(request, response);
     } else {
-      String path = Strings.stripSlash(
-          request.getRequestURI().substring(request.getServletPath().length()));
+      String path = getRequestPath(request);
       EndpointsContext context = new EndpointsContext(method, path, request, response,
           initParameters.isPrettyPrintEnabled());
       if (!dispatcher.dispatch(method, path, context)) {
         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-        response.getWriter().append("Not Found");
+        response.setContentLength(NOT_FOUND_BODY.length);
+        response.getOutputStream().write(NOT_FOUND_BODY);
       }
     }
   }
 
   private String getRequestMethod(HttpServletRequest request) {
-    Enumeration headerNames = request.getHeaderNames();
-    String methodOverride = null;
-    while (headerNames.hasMoreElements()) {
-      String headerName = (String) headerNames.nextElement();
-      if (headerName.toLowerCase().equals("x-http-method-override")) {
-        methodOverride = request.getHeader(headerName);
-        break;
-      }
-    }
+    // Header names are case insensitive in getHeader.
+    String methodOverride = request.getHeader(Headers.METHOD_OVERRIDE);
     return methodOverride != null ? methodOverride.toUpperCase() : request.getMethod();
   }
 
+  /**
+   * Returns the request path after the servlet path, without leading and trailing slashes.
+   */
+  private static String getRequestPath(HttpServletRequest request) {
+    String uri = request.getRequestURI();
+    int start = request.getServletPath().length();
+    int end = uri.length();
+    while (start < end && uri.charAt(start) == '/') {
+      start++;
+    }
+    while (end > start && uri.charAt(end - 1) == '/') {
+      end--;
+    }
+    return uri.substring(start, end);
+  }
+
   private PathDispatcher<EndpointsContext> createDispatcher() {
-    PathDispatcher.Builder<EndpointsContext> builder = PathDispatcher.builder();
+    PathDispatcher.Builder<EndpointsContext> builder = PathDispatcher.<EndpointsContext>builder()
+        .setRouteCacheSize(initParameters.getRouteCacheSize())
+        .setRouteCacheAdmissionThreshold(initParameters.getRouteCacheAdmissionThreshold())
+        .setRouteCacheStatsEnabled(initParameters.isRouteCacheStatsEnabled());
     List<EndpointNode> endpoints = systemService.getEndpoints();
     // We're building an ImmutableList here, because it will eventually be used for JSON-RPC.
     ImmutableList.Builder<EndpointsMethodHandler> handlersBuilder = ImmutableList.builder();
@@ -125,6 +169,31 @@ public class EndpointsServlet extends HttpServlet {
     return builder.build();
   }
 
+  /**
+   * Returns the response cache of the servlet context, creating it for the first servlet. It is
+   * shared so that API methods can invalidate responses of any servlet, which requires the
+   * servlets enabling it to agree on its size.
+   */
+  private ResponseCache createResponseCache() throws ServletException {
+    int size = initParameters.getResponseCacheSize();
+    if (size == 0) {
+      return null;
+    }
+    ServletContext servletContext = getServletContext();
+    synchronized (servletContext) {
+      ResponseCache cache = ResponseCache.from(servletContext);
+      if (cache == null) {
+        cache = new ResponseCache(size);
+        servletContext.setAttribute(ResponseCache.SERVLET_CONTEXT_ATTRIBUTE, cache);
+      } else if (cache.maximumWeight() != size) {
+        throw new ServletException(String.format(
+            "responseCacheSize of servlet %s is %d, but the response cache of the servlet context "
+                + "was created with %d", getServletName(), size, cache.maximumWeight()));
+      }
+      return cache;
+    }
+  }
+
   private SystemService createSystemService(ClassLoader classLoader,
       ServletInitializationParameters initParameters) throws ServletException {
     try {
@@ -145,7 +214,7 @@ public class EndpointsServlet extends HttpServlet {
   protected EndpointsMethodHandler createEndpointsMethodHandler(EndpointMethod method,
       ApiMethodConfig methodConfig) {
     return new EndpointsMethodHandler(initParameters, getServletContext(), method,
-        methodConfig, systemService);
+        methodConfig, systemService, responseCache);
   }
 
   /**
@@ -24,6 +24,11 @@ public class Headers {
    */
   public static final String ORIGIN = "Origin";
 
+  /**
+   * The HTTP method that a POST request stands for, for clients which cannot send it.
+   */
+  public static final String METHOD_OVERRIDE = "X-HTTP-Method-Override";
+
   /**
    * The HTTP method for which an OPTIONS request is asking for permission to send.
    */
@@ -64,4 +69,67 @@ public class Headers {
    * OPTIONS request.
    */
   public static final String ACCESS_CONTROL_ALLOW_HEADERS = "Access-Control-Allow-Headers";
+
+  /**
+   * The content codings, such as gzip, which a client accepts for the response.
+   */
+  public static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+  /**
+   * The content coding applied to a response body.
+   */
+  public static final String CONTENT_ENCODING = "Content-Encoding";
+
+  /**
+   * The request headers, besides the method and URL, which a response depends on.
+   */
+  public static final String VARY = "Vary";
+
+  /**
+   * The entity tag of a response, which identifies the version of the resource.
+   */
+  public static final String ETAG = "ETag";
+
+  /**
+   * The entity tags of the cached responses of a client. A GET request is answered with 304 Not
+   * Modified if one of them is still current.
+   */
+  public static final String IF_NONE_MATCH = "If-None-Match";
+
+  /**
+   * The entity tags of which one must be current for a request to be applied, for example for
+   * updates with optimistic concurrency.
+   */
+  public static final String IF_MATCH = "If-Match";
+
+  /**
+   * Whether and for how long a response may be cached by clients and proxies.
+   */
+  public static final String CACHE_CONTROL = "Cache-Control";
+
+  /**
+   * The byte range of a media download which a client requests.
+   */
+  public static final String RANGE = "Range";
+
+  /**
+   * The entity tag which a {@link #RANGE} request depends on. If it is no longer current, the
+   * whole media is sent.
+   */
+  public static final String IF_RANGE = "If-Range";
+
+  /**
+   * The byte range of a partial media response, and the total length.
+   */
+  public static final String CONTENT_RANGE = "Content-Range";
+
+  /**
+   * Whether a response supports {@link #RANGE} requests.
+   */
+  public static final String ACCEPT_RANGES = "Accept-Ranges";
+
+  /**
+   * The length of a response body, in bytes.
+   */
+  public static final String CONTENT_LENGTH = "Content-Length";
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.primitives.Primitives;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invokes an endpoint method through a {@link MethodHandle}, instead of {@link Method#invoke}.
+ * Each invoker holds its own handle of the exact type {@code (Object, Object[])Object}, which
+ * spreads, casts and unboxes the parameters and applies the primitive widening conversions of
+ * {@link Method#invoke}. The handle is called with {@link MethodHandle#invokeExact}, so the JIT
+ * compiler can customize and inline it for the method alone, instead of sharing one call site
+ * between all endpoint methods. Parameters are only checked like {@link Method#invoke} does when
+ * a cast fails, to tell invalid parameters from exceptions of the method. Exceptions thrown by the
+ * method are rethrown as they are, without being wrapped in an
+ * {@link InvocationTargetException}.
+ *
+ * <p>Methods which the framework cannot access, for example because their class is not public,
+ * are invoked by reflection.
+ */
+public final class MethodInvoker {
+  private static final MethodType INVOKER_TYPE =
+      MethodType.methodType(Object.class, Object.class, Object[].class);
+  // The primitive widening conversions which Method.invoke applies to unboxed parameters.
+  private static final ImmutableSetMultimap<Class<?>, Class<?>> WIDENING_CONVERSIONS =
+      ImmutableSetMultimap.<Class<?>, Class<?>>builder()
+          .putAll(byte.class, short.class, int.class, long.class, float.class, double.class)
+          .putAll(short.class, int.class, long.class, float.class, double.class)
+          .putAll(char.class, int.class, long.class, float.class, double.class)
+          .putAll(int.class, long.class, float.class, double.class)
+          .putAll(long.class, float.class, double.class)
+          .putAll(float.class, double.class)
+          .build();
+
+  private final Method method;
+  private final MethodHandle handle;
+  private final Class<?>[] parameterTypes;
+
+  private MethodInvoker(Method method, MethodHandle handle) {
+    this.method = method;
+    this.handle = handle;
+    this.parameterTypes = method.getParameterTypes();
+  }
+
+  /**
+   * Creates an invoker for a method.
+   */
+  public static MethodInvoker create(Method method) {
+    return new MethodInvoker(method, createHandle(method));
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  /**
+   * Invokes the method on a service.
+   *
+   * @throws ArgumentException if the parameters cannot be passed to the method, or the method
+   *     cannot be accessed
+   * @throws Throwable any exception thrown by the method
+   */
+  public Object invoke(Object service, Object[] params) throws Throwable {
+    if (params.length != parameterTypes.length) {
+      throw new ArgumentException("wrong number of arguments");
+    }
+    if (handle == null) {
+      try {
+        return method.invoke(service, params);
+      } catch (IllegalArgumentException | IllegalAccessException e) {
+        throw new ArgumentException(e);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+    try {
+      return (Object) handle.invokeExact(service, params);
+    } catch (ClassCastException | NullPointerException e) {
+      // The parameters are converted before the method is called, so parameters of the right
+      // types cannot fail, and the exception was thrown by the method.
+      checkParameters(params);
+      throw e;
+    }
+  }
+
+  /**
+   * Checks parameters like {@link Method#invoke}.
+   *
+   * @throws ArgumentException if a parameter has the wrong type
+   */
+  private void checkParameters(Object[] params) {
+    for (int i = 0; i < params.length; i++) {
+      Object param = params[i];
+      Class<?> parameterType = parameterTypes[i];
+      if (param == null ? parameterType.isPrimitive()
+          : !Primitives.wrap(parameterType).isInstance(param) && !WIDENING_CONVERSIONS
+              .containsEntry(Primitives.unwrap(param.getClass()), parameterType)) {
+        throw new ArgumentException("argument type mismatch");
+      }
+    }
+  }
+
+  private static MethodHandle createHandle(Method method) {
+    MethodHandle handle;
+    try {
+      handle = MethodHandles.lookup().unreflect(method);
+    } catch (IllegalAccessException e) {
+      // The method is invoked by reflection instead.
+      return null;
+    }
+    if (Modifier.isStatic(method.getModifiers())) {
+      handle = MethodHandles.dropArguments(handle, 0, Object.class);
+    }
+    // Void methods return null.
+    return handle.asType(handle.type().generic())
+        .asSpreader(Object[].class, method.getParameterCount())
+        .asType(INVOKER_TYPE);
+  }
+
+  /**
+   * Thrown if parameters cannot be passed to a method, where {@link Method#invoke} throws an
+   * {@link IllegalArgumentException} or {@link IllegalAccessException}.
+   */
+  public static final class ArgumentException extends IllegalArgumentException {
+    ArgumentException(String message) {
+      super(message);
+    }
+
+    ArgumentException(Throwable cause) {
+      super(cause.getMessage(), cause);
+    }
+  }
+}
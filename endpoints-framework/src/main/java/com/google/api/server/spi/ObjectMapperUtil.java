@@ -154,7 +154,7 @@ public class ObjectMapperUtil {
 
     @Override
     public boolean isEmpty(SerializerProvider provider, Object value) {
-      return ObjectMapperUtil.isEmpty(value);
+      return isDeeplyEmpty(value);
     }
 
     @Override
@@ -168,13 +168,16 @@ public class ObjectMapperUtil {
     }
   }
 
-  private static boolean isEmpty(Object value) {
+  /**
+   * Returns whether a value is a deeply empty array, collection or map.
+   */
+  public static boolean isDeeplyEmpty(Object value) {
     Class<?> clazz = value.getClass();
     if (clazz.isArray()) {
       int len = Array.getLength(value);
       for (int i = 0; i < len; i++) {
         Object element = Array.get(value, i);
-        if (element != null && !isEmpty(element)) {
+        if (element != null && !isDeeplyEmpty(element)) {
           return false;
         }
       }
@@ -182,7 +185,7 @@ public class ObjectMapperUtil {
     } else if (Collection.class.isAssignableFrom(clazz)) {
       Collection<?> c = (Collection<?>) value;
       for (Object element : c) {
-        if (element != null && !isEmpty(element)) {
+        if (element != null && !isDeeplyEmpty(element)) {
           return false;
         }
       }
@@ -190,7 +193,7 @@ public class ObjectMapperUtil {
     } else if (Map.class.isAssignableFrom(clazz)) {
       Map<?, ?> m = (Map<?, ?>) value;
       for (Object entryValue : m.values()) {
-        if (entryValue != null && !isEmpty(entryValue)) {
+        if (entryValue != null && !isDeeplyEmpty(entryValue)) {
           return false;
         }
       }
@@ -15,6 +15,8 @@
  */
 package com.google.api.server.spi;
 
+import com.google.api.server.spi.request.MediaUpload;
+import com.google.api.server.spi.response.ServletResponseResultWriter;
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -44,6 +46,15 @@ public abstract class ServletInitializationParameters {
   private static final String API_EXPLORER_URL_TEMPLATE = "apiExplorerUrlTemplate";
   private static final String PARAMETER_VALIDATION = "enableValidation";
   private static final String CONTENT_TYPE_VALIDATION = "enableContentTypeValidation";
+  private static final String ROUTE_CACHE_SIZE = "routeCacheSize";
+  private static final String ROUTE_CACHE_ADMISSION_THRESHOLD = "routeCacheAdmissionThreshold";
+  private static final String ROUTE_CACHE_STATS = "enableRouteCacheStats";
+  private static final String RESPONSE_COMPRESSION = "enableResponseCompression";
+  private static final String RESPONSE_COMPRESSION_THRESHOLD = "responseCompressionThreshold";
+  private static final String ETAGS = "enableETags";
+  private static final String RESPONSE_CACHE_SIZE = "responseCacheSize";
+  private static final String STREAMING_FLUSH_THRESHOLD = "streamingFlushThreshold";
+  private static final String MEDIA_UPLOAD_SPILL_THRESHOLD = "mediaUploadSpillThreshold";
 
   private static final Splitter CSV_SPLITTER = Splitter.on(',').omitEmptyStrings().trimResults();
   private static final Joiner CSV_JOINER = Joiner.on(',').skipNulls();
@@ -98,7 +109,61 @@ public abstract class ServletInitializationParameters {
    * Returns whether the request content type validation is enabled.
    */
   public abstract boolean isContentTypeValidationEnabled();
-  
+
+  /**
+   * Returns the maximum number of resolved routes cached in front of the path dispatcher, or 0 if
+   * the route cache is disabled.
+   */
+  public abstract int getRouteCacheSize();
+
+  /**
+   * Returns how many times a route must be resolved before it is admitted in the route cache.
+   */
+  public abstract int getRouteCacheAdmissionThreshold();
+
+  /**
+   * Returns whether the route cache records hit, miss and eviction counts.
+   */
+  public abstract boolean isRouteCacheStatsEnabled();
+
+  /**
+   * Returns whether responses are compressed for clients which accept gzip or deflate, unless the
+   * API or method opts out with {@link com.google.api.server.spi.config.ApiResponseCompression}.
+   */
+  public abstract boolean isResponseCompressionEnabled();
+
+  /**
+   * Returns the minimum size of the response bodies to compress, in bytes.
+   */
+  public abstract int getResponseCompressionThreshold();
+
+  /**
+   * Returns whether GET responses get an entity tag from a hash of their body, and are answered
+   * with 304 Not Modified if it matches the {@code If-None-Match} header. Tags supplied by API
+   * methods through {@link com.google.api.server.spi.response.EntityTags} are always used.
+   */
+  public abstract boolean isETagsEnabled();
+
+  /**
+   * Returns the maximum total size of the GET responses cached in memory, in bytes, or 0 if the
+   * response cache is disabled. Only methods with a public or private
+   * {@link com.google.api.server.spi.config.ApiCacheControl} and a positive max age are cached.
+   * The cache is shared by the servlets of a context, which must all set the same size.
+   */
+  public abstract int getResponseCacheSize();
+
+  /**
+   * Returns after how many bytes streamed results, such as an {@link java.util.Iterator} or a
+   * {@link com.google.api.server.spi.response.StreamingCollectionResponse}, are sent in parts.
+   */
+  public abstract int getStreamingFlushThreshold();
+
+  /**
+   * Returns above how many bytes the media upload parts which must be buffered, because further
+   * parts follow them, are written to a temporary file instead of memory.
+   */
+  public abstract int getMediaUploadSpillThreshold();
+
   @Nullable
   public abstract String getApiExplorerUrlTemplate();
 
@@ -111,6 +176,16 @@ public abstract class ServletInitializationParameters {
         .setAddContentLength(false)
         .setParameterValidationEnabled(true)
         .setContentTypeValidationEnabled(false)
+        .setRouteCacheSize(0)
+        .setRouteCacheAdmissionThreshold(2)
+        .setRouteCacheStatsEnabled(false)
+        .setResponseCompressionEnabled(false)
+        .setResponseCompressionThreshold(1024)
+        .setETagsEnabled(false)
+        .setResponseCacheSize(0)
+        .setStreamingFlushThreshold(
+            ServletResponseResultWriter.DEFAULT_STREAMING_FLUSH_THRESHOLD)
+        .setMediaUploadSpillThreshold(MediaUpload.DEFAULT_SPILL_THRESHOLD)
         .setApiExplorerUrlTemplate(null);
   }
 
@@ -163,6 +238,60 @@ public abstract class ServletInitializationParameters {
      */
     public abstract Builder setContentTypeValidationEnabled(boolean enabledContentTypeValidation);
 
+    /**
+     * Sets the maximum number of resolved routes to cache in front of the path dispatcher.
+     * Defaults to {@code 0}, which disables the route cache.
+     */
+    public abstract Builder setRouteCacheSize(int routeCacheSize);
+
+    /**
+     * Sets how many times a route must be resolved before it is admitted in the route cache, so
+     * that paths requested only once do not evict hot routes. Defaults to {@code 2}.
+     */
+    public abstract Builder setRouteCacheAdmissionThreshold(int routeCacheAdmissionThreshold);
+
+    /**
+     * Sets if the route cache should record hit, miss and eviction counts. Defaults to
+     * {@code false}.
+     */
+    public abstract Builder setRouteCacheStatsEnabled(boolean routeCacheStats);
+
+    /**
+     * Sets if responses should be compressed for clients which accept gzip or deflate. Defaults
+     * to {@code false}.
+     */
+    public abstract Builder setResponseCompressionEnabled(boolean responseCompression);
+
+    /**
+     * Sets the minimum size of the response bodies to compress, in bytes. Smaller bodies are sent
+     * as is. Defaults to {@code 1024}.
+     */
+    public abstract Builder setResponseCompressionThreshold(int responseCompressionThreshold);
+
+    /**
+     * Sets if GET responses should get an entity tag from a hash of their body, for conditional
+     * requests. Defaults to {@code false}.
+     */
+    public abstract Builder setETagsEnabled(boolean eTags);
+
+    /**
+     * Sets the maximum total size of the cached GET responses, in bytes. Defaults to {@code 0},
+     * which disables the response cache.
+     */
+    public abstract Builder setResponseCacheSize(int responseCacheSize);
+
+    /**
+     * Sets after how many bytes streamed results are sent in parts. Smaller results are buffered
+     * and written like any other. Defaults to 32 KiB.
+     */
+    public abstract Builder setStreamingFlushThreshold(int streamingFlushThreshold);
+
+    /**
+     * Sets above how many bytes buffered media upload parts are written to a temporary file. The
+     * last media part of a request is always streamed. Defaults to 1 MiB.
+     */
+    public abstract Builder setMediaUploadSpillThreshold(int mediaUploadSpillThreshold);
+
     /**
      * Sets if pretty printing should be enabled for responses by default. Defaults to {@code true}.
      */
@@ -240,6 +369,49 @@ public abstract class ServletInitializationParameters {
         builder.setContentTypeValidationEnabled(
                 parseBoolean(enabledContentTypeValidation, CONTENT_TYPE_VALIDATION));
       }
+      String routeCacheSize = config.getInitParameter(ROUTE_CACHE_SIZE);
+      if (routeCacheSize != null) {
+        builder.setRouteCacheSize(parseInt(routeCacheSize, 0, ROUTE_CACHE_SIZE));
+      }
+      String routeCacheAdmissionThreshold =
+          config.getInitParameter(ROUTE_CACHE_ADMISSION_THRESHOLD);
+      if (routeCacheAdmissionThreshold != null) {
+        builder.setRouteCacheAdmissionThreshold(
+            parseInt(routeCacheAdmissionThreshold, 1, ROUTE_CACHE_ADMISSION_THRESHOLD));
+      }
+      String routeCacheStats = config.getInitParameter(ROUTE_CACHE_STATS);
+      if (routeCacheStats != null) {
+        builder.setRouteCacheStatsEnabled(parseBoolean(routeCacheStats, ROUTE_CACHE_STATS));
+      }
+      String responseCompression = config.getInitParameter(RESPONSE_COMPRESSION);
+      if (responseCompression != null) {
+        builder.setResponseCompressionEnabled(
+            parseBoolean(responseCompression, RESPONSE_COMPRESSION));
+      }
+      String responseCompressionThreshold =
+          config.getInitParameter(RESPONSE_COMPRESSION_THRESHOLD);
+      if (responseCompressionThreshold != null) {
+        builder.setResponseCompressionThreshold(
+            parseInt(responseCompressionThreshold, 0, RESPONSE_COMPRESSION_THRESHOLD));
+      }
+      String eTags = config.getInitParameter(ETAGS);
+      if (eTags != null) {
+        builder.setETagsEnabled(parseBoolean(eTags, ETAGS));
+      }
+      String responseCacheSize = config.getInitParameter(RESPONSE_CACHE_SIZE);
+      if (responseCacheSize != null) {
+        builder.setResponseCacheSize(parseInt(responseCacheSize, 0, RESPONSE_CACHE_SIZE));
+      }
+      String streamingFlushThreshold = config.getInitParameter(STREAMING_FLUSH_THRESHOLD);
+      if (streamingFlushThreshold != null) {
+        builder.setStreamingFlushThreshold(
+            parseInt(streamingFlushThreshold, 1, STREAMING_FLUSH_THRESHOLD));
+      }
+      String mediaUploadSpillThreshold = config.getInitParameter(MEDIA_UPLOAD_SPILL_THRESHOLD);
+      if (mediaUploadSpillThreshold != null) {
+        builder.setMediaUploadSpillThreshold(
+            parseInt(mediaUploadSpillThreshold, 0, MEDIA_UPLOAD_SPILL_THRESHOLD));
+      }
       builder.setApiExplorerUrlTemplate(config.getInitParameter(API_EXPLORER_URL_TEMPLATE));
     }
     return builder.build();
@@ -256,6 +428,20 @@ public abstract class ServletInitializationParameters {
         descriptionForErrors, booleanString));
   }
 
+  private static int parseInt(String intString, int minimum, String descriptionForErrors) {
+    try {
+      int value = Integer.parseInt(intString.trim());
+      if (value >= minimum) {
+        return value;
+      }
+    } catch (NumberFormatException e) {
+      // handled below
+    }
+    throw new IllegalArgumentException(String.format(
+        "Expected an integer of at least %d for '%s' servlet initialization parameter but got '%s'",
+        minimum, descriptionForErrors, intString));
+  }
+
   private static Class<?> getClassForName(String className, ClassLoader classLoader)
       throws ServletException {
     try {
@@ -278,6 +464,16 @@ public abstract class ServletInitializationParameters {
           put(ADD_CONTENT_LENGTH, Boolean.toString(isAddContentLength()));
           put(PARAMETER_VALIDATION, Boolean.toString(isParameterValidationEnabled()));
           put(CONTENT_TYPE_VALIDATION, Boolean.toString(isContentTypeValidationEnabled()));
+          put(ROUTE_CACHE_SIZE, Integer.toString(getRouteCacheSize()));
+          put(ROUTE_CACHE_ADMISSION_THRESHOLD, Integer.toString(getRouteCacheAdmissionThreshold()));
+          put(ROUTE_CACHE_STATS, Boolean.toString(isRouteCacheStatsEnabled()));
+          put(RESPONSE_COMPRESSION, Boolean.toString(isResponseCompressionEnabled()));
+          put(RESPONSE_COMPRESSION_THRESHOLD,
+              Integer.toString(getResponseCompressionThreshold()));
+          put(ETAGS, Boolean.toString(isETagsEnabled()));
+          put(RESPONSE_CACHE_SIZE, Integer.toString(getResponseCacheSize()));
+          put(STREAMING_FLUSH_THRESHOLD, Integer.toString(getStreamingFlushThreshold()));
+          put(MEDIA_UPLOAD_SPILL_THRESHOLD, Integer.toString(getMediaUploadSpillThreshold()));
           put(API_EXPLORER_URL_TEMPLATE, getApiExplorerUrlTemplate());
       }};
   }
@@ -34,8 +34,10 @@ import com.google.api.server.spi.discovery.ProxyingDiscoveryService;
 import com.google.api.server.spi.request.ParamReader;
 import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.InternalServerErrorException;
+import com.google.api.server.spi.response.NotModifiedException;
 import com.google.api.server.spi.response.RedirectException;
 import com.google.api.server.spi.response.ResultWriter;
+import com.google.api.server.spi.response.StreamedResultException;
 import com.google.api.server.spi.response.UnauthorizedException;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
@@ -47,7 +49,6 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.flogger.FluentLogger;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -67,6 +68,14 @@ public class SystemService {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final String OAUTH_EXCEPTION_CLASS =
       "com.google.appengine.api.oauth.OAuthRequestException";
+  // Classifies exception classes once, instead of walking their hierarchy for every error.
+  private static final ClassValue<ExceptionKind> EXCEPTION_KINDS =
+      new ClassValue<ExceptionKind>() {
+        @Override
+        protected ExceptionKind computeValue(Class<?> clazz) {
+          return ExceptionKind.of(clazz);
+        }
+      };
 
   public static final String MIME_JSON = "application/json; charset=UTF-8";
 
@@ -343,42 +352,105 @@ public class SystemService {
    */
   public void invokeServiceMethod(Object service, Method method, int status, ParamReader paramReader,
       ResultWriter resultWriter) throws IOException, RedirectException {
+    invokeServiceMethod(service, getInvoker(service, method), status, paramReader, resultWriter);
+  }
+
+  /**
+   * Returns the invoker of the {@link EndpointMethod} of a service method, or a new one if the
+   * method is not one of the service's endpoint methods.
+   */
+  private MethodInvoker getInvoker(Object service, Method method) {
+    EndpointNode endpointNode = service == null ? null : endpoints.get(service);
+    if (endpointNode != null) {
+      for (EndpointMethod endpointMethod : endpointNode.methods.values()) {
+        if (endpointMethod.getMethod().equals(method)) {
+          return endpointMethod.getInvoker();
+        }
+      }
+    }
+    return MethodInvoker.create(method);
+  }
 
+  /**
+   * Invokes a service method with an invoker created ahead of time, such as the one of its
+   * {@link EndpointMethod}.
+   */
+  public void invokeServiceMethod(Object service, MethodInvoker invoker, int status,
+      ParamReader paramReader, ResultWriter resultWriter) throws IOException, RedirectException {
+    Object[] params;
     try {
-      Object[] params = paramReader.read();
+      params = paramReader.read();
       logger.atFine().log("params=%s (String)", Arrays.toString(params));
-      Object response = method.invoke(service, params);
+    } catch (IllegalArgumentException e) {
+      writeBadRequest(e, resultWriter);
+      return;
+    } catch (ServiceException e) {
+      logger.at(e.getLogLevel()).withCause(e)
+          .log("exception occurred while calling backend method");
+      resultWriter.writeError(e);
+      return;
+    }
+    Object response;
+    try {
+      response = invoker.invoke(service, params);
+    } catch (MethodInvoker.ArgumentException e) {
+      writeBadRequest(e, resultWriter);
+      return;
+    } catch (Throwable cause) {
+      writeMethodError(cause, resultWriter);
+      return;
+    }
+    try {
       resultWriter.write(response, status);
-    } catch (IllegalArgumentException | IllegalAccessException e) {
-      logger.atSevere().withCause(e).log("exception occurred while calling backend method");
-      resultWriter.writeError(new BadRequestException(e));
-    } catch (InvocationTargetException e) {
-      Throwable cause = e.getCause();
-      Level level = Level.INFO;
-      if (cause instanceof RedirectException) {
+    } catch (StreamedResultException e) {
+      writeMethodError(e.getCause(), resultWriter);
+    } catch (IllegalArgumentException e) {
+      writeBadRequest(e, resultWriter);
+    }
+  }
+
+  private static void writeBadRequest(IllegalArgumentException e, ResultWriter resultWriter)
+      throws IOException {
+    logger.atSevere().withCause(e).log("exception occurred while calling backend method");
+    resultWriter.writeError(new BadRequestException(e));
+  }
+
+  /**
+   * Writes the error response for an exception thrown by a service method.
+   */
+  private void writeMethodError(Throwable cause, ResultWriter resultWriter)
+      throws IOException, RedirectException {
+    Level level = Level.INFO;
+    switch (EXCEPTION_KINDS.get(cause.getClass())) {
+      case REDIRECT:
         throw (RedirectException) cause;
-      } else if (cause instanceof ServiceException) {
+      case NOT_MODIFIED:
+        // An expected outcome of conditional requests.
+        level = Level.FINE;
+        resultWriter.writeError((ServiceException) cause);
+        break;
+      case SERVICE:
         resultWriter.writeError((ServiceException) cause);
-      } else if (cause instanceof IllegalArgumentException) {
+        break;
+      case ILLEGAL_ARGUMENT:
         resultWriter.writeError(
             isIllegalArgumentBackendError
                 ? new InternalServerErrorException(cause) : new BadRequestException(cause));
-      } else if (isOAuthRequestException(cause.getClass())) {
+        break;
+      case OAUTH:
         resultWriter.writeError(new UnauthorizedException(cause));
-      } else if (cause.getCause() != null && cause.getCause() instanceof ServiceException) {
-        ServiceException serviceException = (ServiceException) cause.getCause();
-        level = serviceException.getLogLevel();
-        resultWriter.writeError(serviceException);
-      } else {
-        level = Level.SEVERE;
-        resultWriter.writeError(new InternalServerErrorException(cause));
-      }
-      logger.at(level).withCause(cause).log("exception occurred while calling backend method");
-    } catch (ServiceException e) {
-      logger.at(e.getLogLevel()).withCause(e)
-          .log("exception occurred while calling backend method");
-      resultWriter.writeError(e);
+        break;
+      default:
+        if (cause.getCause() instanceof ServiceException) {
+          ServiceException serviceException = (ServiceException) cause.getCause();
+          level = serviceException.getLogLevel();
+          resultWriter.writeError(serviceException);
+        } else {
+          level = Level.SEVERE;
+          resultWriter.writeError(new InternalServerErrorException(cause));
+        }
     }
+    logger.at(level).withCause(cause).log("exception occurred while calling backend method");
   }
 
   /**
@@ -412,6 +484,28 @@ public class SystemService {
     return false;
   }
 
+  /**
+   * How an exception thrown by a service method is reported.
+   */
+  private enum ExceptionKind {
+    REDIRECT, NOT_MODIFIED, SERVICE, ILLEGAL_ARGUMENT, OAUTH, OTHER;
+
+    static ExceptionKind of(Class<?> clazz) {
+      if (RedirectException.class.isAssignableFrom(clazz)) {
+        return REDIRECT;
+      } else if (NotModifiedException.class.isAssignableFrom(clazz)) {
+        return NOT_MODIFIED;
+      } else if (ServiceException.class.isAssignableFrom(clazz)) {
+        return SERVICE;
+      } else if (IllegalArgumentException.class.isAssignableFrom(clazz)) {
+        return ILLEGAL_ARGUMENT;
+      } else if (isOAuthRequestException(clazz)) {
+        return OAUTH;
+      }
+      return OTHER;
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private static <T> Class<? super T> getServiceClass(T service) {
     Class<?> clazz = service.getClass();
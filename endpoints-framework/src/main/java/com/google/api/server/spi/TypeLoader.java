@@ -179,6 +179,8 @@ public final class TypeLoader {
         loadAnnotation(classLoader, "com.google.api.server.spi.config.ApiFrontendLimitRule"));
     annotationTypes.put("ApiCacheControl",
         loadAnnotation(classLoader, "com.google.api.server.spi.config.ApiCacheControl"));
+    annotationTypes.put("ApiMethodCacheControl",
+        loadAnnotation(classLoader, "com.google.api.server.spi.config.ApiMethodCacheControl"));
     annotationTypes.put("ApiNamespace",
         loadAnnotation(classLoader, "com.google.api.server.spi.config.ApiNamespace"));
     annotationTypes.put("ApiTransformer",
@@ -223,6 +225,8 @@ public final class TypeLoader {
     injectedClassTypes.add(classLoader.loadClass("javax.servlet.http.HttpServletRequest"));
     injectedClassTypes.add(classLoader.loadClass("javax.servlet.ServletContext"));
     injectedClassTypes.add(classLoader.loadClass("com.google.api.server.spi.auth.common.User"));
+    injectedClassTypes.add(classLoader.loadClass("java.io.InputStream"));
+    injectedClassTypes.add(classLoader.loadClass("com.google.api.server.spi.request.MediaUpload"));
     return Collections.unmodifiableSet(injectedClassTypes);
   }
 
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.auth;
+
+import com.google.api.server.spi.Strings;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.config.scope.AuthScopeExpression;
+import com.google.api.server.spi.config.scope.AuthScopeExpressions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The scope expression, client ids and audiences of an API method, compiled once so that tokens
+ * are checked with bitset tests and set lookups rather than list scans.
+ */
+public final class CompiledAuthConfig {
+  // Weak keys are compared by identity, so equal configurations of other methods do not match.
+  private static final ConcurrentMap<ApiMethodConfig, CompiledAuthConfig> COMPILED =
+      new MapMaker().weakKeys().makeMap();
+
+  private final AuthScopeExpression scopeExpression;
+  private final ImmutableSet<String> clientIds;
+  private final boolean skipClientIdCheck;
+  private final ImmutableSet<String> audiences;
+
+  private CompiledAuthConfig(ApiMethodConfig config) {
+    this.scopeExpression = config.getScopeExpression();
+    List<String> allowedClientIds = config.getClientIds();
+    this.clientIds = toSet(allowedClientIds);
+    this.skipClientIdCheck = GoogleAuth.SKIP_CLIENT_ID_CHECK_LIST.equals(allowedClientIds);
+    this.audiences = toSet(config.getAudiences());
+  }
+
+  public static CompiledAuthConfig compile(ApiMethodConfig config) {
+    return new CompiledAuthConfig(config);
+  }
+
+  /**
+   * Returns the compiled form of a method configuration, compiling it on first use only. The
+   * configuration must not be changed afterwards, which holds once it is served.
+   */
+  public static CompiledAuthConfig of(ApiMethodConfig config) {
+    return COMPILED.computeIfAbsent(config, CompiledAuthConfig::compile);
+  }
+
+  AuthScopeExpression getScopeExpression() {
+    return scopeExpression;
+  }
+
+  /**
+   * Determines whether whitespace-separated token scopes are sufficient for the method.
+   */
+  boolean isAuthorized(String scopes) {
+    return AuthScopeExpressions.isAuthorized(scopeExpression, scopes);
+  }
+
+  /**
+   * Determines whether token scopes are sufficient for the method.
+   */
+  boolean isAuthorized(String[] scopes) {
+    return AuthScopeExpressions.isAuthorized(scopeExpression, scopes);
+  }
+
+  /**
+   * Check if the client id in auth token is whitelisted, like
+   * {@link GoogleAuth#checkClientId(String, List, boolean)}.
+   *
+   * @param allowSkipClientIdCheck true only for OAuth2 access token request.
+   */
+  boolean checkClientId(String clientId, boolean allowSkipClientIdCheck) {
+    return isWhitelisted(clientId, clientIds) || (allowSkipClientIdCheck && skipClientIdCheck);
+  }
+
+  /**
+   * Check if the audience in auth token is whitelisted, like
+   * {@link GoogleAuth#checkAudience(String, List, String)}.
+   */
+  boolean checkAudience(String audience, String clientId) {
+    return isWhitelisted(audience, audiences)
+        || (!Strings.isEmptyOrWhitespace(audience) && audience.equals(clientId));
+  }
+
+  private static boolean isWhitelisted(String item, ImmutableSet<String> whitelist) {
+    return !Strings.isEmptyOrWhitespace(item) && whitelist.contains(item);
+  }
+
+  private static ImmutableSet<String> toSet(List<String> whitelist) {
+    return whitelist == null ? ImmutableSet.<String>of() : ImmutableSet.copyOf(whitelist);
+  }
+}
@@ -29,7 +29,6 @@ import com.google.appengine.api.oauth.OAuthServiceFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableSet;
 
 import com.google.common.flogger.FluentLogger;
 import java.util.logging.Level;
@@ -58,7 +57,7 @@ class GoogleAppEngineAuthenticator implements Authenticator {
 
   @VisibleForTesting
   String getOAuth2ClientIdDev(String token) throws ServiceUnavailableException {
-    GoogleAuth.TokenInfo tokenInfo = GoogleAuth.getTokenInfoRemote(token);
+    GoogleAuth.TokenInfo tokenInfo = GoogleAuth.getTokenInfo(token);
     return tokenInfo != null ? tokenInfo.clientId : null;
   }
 
@@ -74,7 +73,8 @@ class GoogleAppEngineAuthenticator implements Authenticator {
     if (!GoogleAuth.isOAuth2Token(token)) {
       return null;
     }
-    AuthScopeExpression scopeExpression = config.getScopeExpression();
+    CompiledAuthConfig authConfig = CompiledAuthConfig.of(config);
+    AuthScopeExpression scopeExpression = authConfig.getScopeExpression();
     String[] allScopes = scopeExpression.getAllScopes();
     String clientId = null;
     if (EnvUtil.isRunningOnAppEngineProd()) {
@@ -83,7 +83,7 @@ class GoogleAppEngineAuthenticator implements Authenticator {
         boolean authorized = false;
         if (authorizedScopes != null) {
           // Authorize against the scopes based on the scope expression.
-          authorized = scopeExpression.isAuthorized(ImmutableSet.copyOf(authorizedScopes));
+          authorized = authConfig.isAuthorized(authorizedScopes);
         }
         if (!authorized) {
           logger.atWarning().log(
@@ -100,7 +100,7 @@ class GoogleAppEngineAuthenticator implements Authenticator {
     }
     // Check client id.
     if ((Attribute.from(request).isEnabled(Attribute.ENABLE_CLIENT_ID_WHITELIST)
-        && !GoogleAuth.checkClientId(clientId, config.getClientIds(), true))) {
+        && !authConfig.checkClientId(clientId, true))) {
       logger.atWarning().log("ClientId is not allowed: %s", clientId);
       return null;
     }
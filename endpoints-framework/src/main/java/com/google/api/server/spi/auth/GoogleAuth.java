@@ -28,11 +28,15 @@ import com.google.api.server.spi.request.Attribute;
 import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
 import com.google.common.flogger.FluentLogger;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -42,16 +46,20 @@ import javax.servlet.http.HttpServletRequest;
 public class GoogleAuth {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-  // Identifies JSON Web Tokens
-  // From java/com/google/gaia/client/AuthSubRequestDetector.java
-  private static final String BASE64_REGEX = "[a-zA-Z0-9+/=_-]{6,}+";
-  private static final Pattern JWT_PATTERN =
-      Pattern.compile(String.format("%s\\.%s\\.%s", BASE64_REGEX, BASE64_REGEX, BASE64_REGEX));
+  // Identifies JSON Web Tokens: three dot-separated segments of at least 6 base64 characters.
+  private static final int MIN_JWT_SEGMENT_LENGTH = 6;
+  private static final boolean[] BASE64_CHARS = base64Chars();
+  private static final HashFunction TOKEN_HASH = Hashing.sha256();
 
   // Remote API for validating access or id token.
   private static final String TOKEN_INFO_ENDPOINT =
       "https://www.googleapis.com/oauth2/v2/tokeninfo";
 
+  // Token info is cached for at most 5 minutes, or 10 seconds for invalid tokens, so that revoked
+  // tokens are not accepted much longer.
+  private static final TokenInfoCache TOKEN_INFO_CACHE =
+      new TokenInfoCache(10000, 300, 10, TimeUnit.SECONDS);
+
   @VisibleForTesting
   static final String AUTHORIZATION_HEADER = "Authorization";
 
@@ -118,7 +126,44 @@ public class GoogleAuth {
     if (token == null) {
       return false;
     }
-    return JWT_PATTERN.matcher(token).matches();
+    int segments = 1;
+    int segmentLength = 0;
+    for (int i = 0; i < token.length(); i++) {
+      char c = token.charAt(i);
+      if (c == '.') {
+        if (segmentLength < MIN_JWT_SEGMENT_LENGTH || ++segments > 3) {
+          return false;
+        }
+        segmentLength = 0;
+      } else if (c < BASE64_CHARS.length && BASE64_CHARS[c]) {
+        segmentLength++;
+      } else {
+        return false;
+      }
+    }
+    return segments == 3 && segmentLength >= MIN_JWT_SEGMENT_LENGTH;
+  }
+
+  private static boolean[] base64Chars() {
+    boolean[] chars = new boolean[128];
+    for (char c = 'a'; c <= 'z'; c++) {
+      chars[c] = true;
+      chars[Character.toUpperCase(c)] = true;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      chars[c] = true;
+    }
+    for (char c : "+/=_-".toCharArray()) {
+      chars[c] = true;
+    }
+    return chars;
+  }
+
+  /**
+   * Hashes a token, to key caches without keeping the raw token.
+   */
+  static HashCode hashToken(String token) {
+    return TOKEN_HASH.hashString(token, StandardCharsets.UTF_8);
   }
 
   public static boolean isOAuth2Token(String token) {
@@ -181,6 +226,18 @@ public class GoogleAuth {
     @Key("error_description") public String errorDescription;
   }
 
+  /**
+   * Get OAuth2 token info from a cache, or else from the remote token validation API. The token
+   * info is shared by the requests with the same token, so callers must check scopes and client
+   * ids for each request.
+   */
+  public static TokenInfo getTokenInfo(String token) throws ServiceUnavailableException {
+    if (!isOAuth2Token(token) && !isJwt(token)) {
+      return null;
+    }
+    return TOKEN_INFO_CACHE.get(token, GoogleAuth::getTokenInfoRemote);
+  }
+
   /**
    * Get OAuth2 token info from remote token validation API.
    * Retries IOExceptions and 5xx responses once.
@@ -204,6 +261,22 @@ public class GoogleAuth {
     }
   }
 
+  /**
+   * Registers an owner, such as a servlet, of the background refresh of the public keys used to
+   * verify tokens. Each owner must call {@link #releasePublicKeySources} when it is destroyed.
+   */
+  public static void retainPublicKeySources() {
+    PublicKeySource.retainShared();
+  }
+
+  /**
+   * Releases an owner of the background refresh of the public keys. Once the last owner is
+   * released, the refresh and its thread are stopped; keys are then only fetched by requests.
+   */
+  public static void releasePublicKeySources() {
+    PublicKeySource.releaseShared();
+  }
+
   @VisibleForTesting
   static TokenInfo parseTokenInfo(HttpRequest request)
       throws IOException, ServiceUnavailableException {
@@ -15,8 +15,11 @@
  */
 package com.google.api.server.spi.auth;
 
+import com.google.api.client.auth.openidconnect.IdToken;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GoogleOAuthConstants;
+import com.google.api.client.util.Clock;
 import com.google.api.server.spi.Client;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.config.Authenticator;
@@ -24,39 +27,142 @@ import com.google.api.server.spi.config.Singleton;
 import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.api.server.spi.request.Attribute;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import javax.servlet.http.HttpServletRequest;
 
 /**
  * Authenticator for Google issued JSON Web Token, currently specific for Google Id Token.
+ *
+ * <p>Verified tokens are cached by their hash until they expire, minus the verifier's accepted
+ * clock skew, so that repeated requests with the same token skip signature verification. Client
+ * ids and audiences are still checked for each request.
  */
 @Singleton
 public class GoogleJwtAuthenticator implements Authenticator {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final int ID_TOKEN_CACHE_SIZE = 10000;
   private final GoogleIdTokenVerifier verifier;
+  // Google ID tokens are valid for an hour; this bounds tokens with a later expiration time.
+  private final Cache<HashCode, GoogleIdToken> idTokenCache = CacheBuilder.newBuilder()
+      .maximumSize(ID_TOKEN_CACHE_SIZE)
+      .expireAfterWrite(1, TimeUnit.HOURS)
+      .recordStats()
+      .build();
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder verificationCount = new LongAdder();
+  private final LongAdder verificationFailureCount = new LongAdder();
+  private final LongAdder verificationNanos = new LongAdder();
 
   public GoogleJwtAuthenticator() {
-    this(new GoogleIdTokenVerifier.Builder(Client.getInstance().getHttpTransport(),
-        Client.getInstance().getJsonFactory()).build());
+    this(new KeySourceVerifier(new PublicKeySource(Client.getInstance().getHttpTransport(),
+        Client.getInstance().getJsonFactory(),
+        GoogleOAuthConstants.DEFAULT_PUBLIC_CERTS_ENCODED_URL)));
   }
 
   public GoogleJwtAuthenticator(GoogleIdTokenVerifier verifier) {
     this.verifier = verifier;
   }
 
+  /**
+   * Returns the stats of the verified token cache. Load counts and times are those of token
+   * verifications, so {@link CacheStats#averageLoadPenalty()} is the verification latency.
+   */
+  public CacheStats getIdTokenCacheStats() {
+    return new CacheStats(hitCount.sum(), missCount.sum(), verificationCount.sum(),
+        verificationFailureCount.sum(), verificationNanos.sum(),
+        idTokenCache.stats().evictionCount());
+  }
+
   @VisibleForTesting
   GoogleIdToken verifyToken(String token) {
     if (token == null) {
       return null;
     }
+    HashCode key = GoogleAuth.hashToken(token);
+    GoogleIdToken idToken = idTokenCache.asMap().get(key);
+    if (idToken != null) {
+      if (!isExpired(idToken)) {
+        hitCount.increment();
+        return idToken;
+      }
+      idTokenCache.asMap().remove(key, idToken);
+    }
+    missCount.increment();
+    long start = System.nanoTime();
     try {
-      return verifier.verify(token);
+      idToken = verifier.verify(token);
     } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
       logger.atWarning().withCause(e).log("error while verifying JWT");
+      idToken = null;
+    } finally {
+      verificationNanos.add(System.nanoTime() - start);
+    }
+    if (idToken == null) {
+      verificationFailureCount.increment();
       return null;
     }
+    verificationCount.increment();
+    // Tokens without an expiration time are not cached.
+    if (idToken.getPayload().getExpirationTimeSeconds() != null && !isExpired(idToken)) {
+      idTokenCache.put(key, idToken);
+    }
+    return idToken;
+  }
+
+  /**
+   * Verifies tokens with the keys of a {@link PublicKeySource}, instead of the verifier's
+   * own {@link com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager}. The key is
+   * looked up by the token's key id; only tokens without one are checked against every key.
+   */
+  @VisibleForTesting
+  static class KeySourceVerifier extends GoogleIdTokenVerifier {
+    private final PublicKeySource keySource;
+
+    KeySourceVerifier(PublicKeySource keySource) {
+      super(new GoogleIdTokenVerifier.Builder(
+          keySource.getTransport(), keySource.getJsonFactory()));
+      this.keySource = keySource;
+    }
+
+    @Override
+    public boolean verify(GoogleIdToken idToken) throws GeneralSecurityException, IOException {
+      // Checks the issuer, audience and times, without the signature.
+      if (!verify((IdToken) idToken)) {
+        return false;
+      }
+      String keyId = idToken.getHeader().getKeyId();
+      if (keyId != null) {
+        PublicKey publicKey = keySource.getPublicKey(keyId);
+        if (publicKey == null) {
+          logger.atWarning().log("Unknown key id: %s", keyId);
+          return false;
+        }
+        return idToken.verifySignature(publicKey);
+      }
+      for (PublicKey publicKey : keySource.getPublicKeys()) {
+        if (idToken.verifySignature(publicKey)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private boolean isExpired(GoogleIdToken idToken) {
+    Clock clock = verifier.getClock();
+    long expiresAt = (idToken.getPayload().getExpirationTimeSeconds()
+        - verifier.getAcceptableTimeSkewSeconds()) * 1000;
+    return expiresAt <= clock.currentTimeMillis();
   }
 
   @Override
@@ -82,15 +188,16 @@ public class GoogleJwtAuthenticator implements Authenticator {
     String audience = (String) idToken.getPayload().getAudience();
 
     ApiMethodConfig config = attr.get(Attribute.API_METHOD_CONFIG);
+    CompiledAuthConfig authConfig = CompiledAuthConfig.of(config);
 
     // Check client id.
     if ((attr.isEnabled(Attribute.ENABLE_CLIENT_ID_WHITELIST)
-        && !GoogleAuth.checkClientId(clientId, config.getClientIds(), false))) {
+        && !authConfig.checkClientId(clientId, false))) {
       logger.atWarning().log("ClientId is not allowed: %s", clientId);
       return null;
     }
     // Check audience.
-    if (!GoogleAuth.checkAudience(audience, config.getAudiences(), clientId)) {
+    if (!authConfig.checkAudience(audience, clientId)) {
       logger.atWarning().log("Audience is not allowed: %s", audience);
       return null;
     }
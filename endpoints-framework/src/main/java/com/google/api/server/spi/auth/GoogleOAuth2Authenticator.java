@@ -24,7 +24,6 @@ import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.api.server.spi.request.Attribute;
 import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableSet;
 
 import com.google.common.flogger.FluentLogger;
 
@@ -50,7 +49,7 @@ public class GoogleOAuth2Authenticator implements Authenticator {
       return null;
     }
 
-    GoogleAuth.TokenInfo tokenInfo = getTokenInfoRemote(token);
+    GoogleAuth.TokenInfo tokenInfo = getTokenInfo(token);
     if (tokenInfo == null) {
       return null;
     }
@@ -64,16 +63,16 @@ public class GoogleOAuth2Authenticator implements Authenticator {
       logger.atWarning().log("Access token does not contain a valid scope");
       return null;
     }
-    String[] authorizedScopes = tokenInfo.scopes.split("\\s+");
-    if (!config.getScopeExpression().isAuthorized(ImmutableSet.copyOf(authorizedScopes))) {
-      logger.atWarning().log(
-          "Access token does not contain sufficient scopes from: %s", config.getScopeExpression());
+    CompiledAuthConfig authConfig = CompiledAuthConfig.of(config);
+    if (!authConfig.isAuthorized(tokenInfo.scopes)) {
+      logger.atWarning().log("Access token does not contain sufficient scopes from: %s",
+          authConfig.getScopeExpression());
       return null;
     }
 
     // Check clientId.
     if (attr.isEnabled(Attribute.ENABLE_CLIENT_ID_WHITELIST)
-        && !GoogleAuth.checkClientId(tokenInfo.clientId, config.getClientIds(), true)) {
+        && !authConfig.checkClientId(tokenInfo.clientId, true)) {
       logger.atWarning().log("ClientId is not allowed: %s", tokenInfo.clientId);
       return null;
     }
@@ -91,7 +90,7 @@ public class GoogleOAuth2Authenticator implements Authenticator {
   }
 
   @VisibleForTesting
-  TokenInfo getTokenInfoRemote(String token) throws ServiceUnavailableException {
-    return GoogleAuth.getTokenInfoRemote(token);
+  TokenInfo getTokenInfo(String token) throws ServiceUnavailableException {
+    return GoogleAuth.getTokenInfo(token);
   }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.auth;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.json.webtoken.JsonWebToken;
+import com.google.api.client.util.Clock;
+import com.google.api.server.spi.Client;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.Authenticator;
+import com.google.api.server.spi.config.Singleton;
+import com.google.api.server.spi.config.model.ApiIssuerConfigs;
+import com.google.api.server.spi.config.model.ApiIssuerConfigs.IssuerConfig;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.request.Attribute;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Authenticator for JSON Web Tokens of the issuers configured with
+ * {@link com.google.api.server.spi.config.ApiIssuer}, which it verifies locally with the keys
+ * published at their {@code jwksUri}. A token is accepted if:
+ * <ul>
+ * <li>its {@code iss} is the issuer of one of the API's issuer configs,</li>
+ * <li>one of its audiences is accepted for that issuer by the method's
+ * {@link com.google.api.server.spi.config.ApiIssuerAudience} config,</li>
+ * <li>it is not expired, allowing for 5 minutes of clock skew, and</li>
+ * <li>it is signed with RS256 or ES256 by a key of the issuer, found by its {@code kid}.</li>
+ * </ul>
+ *
+ * <p>The keys of each issuer are refreshed in the background, so verifying a token makes no
+ * network call, unless it is signed with a key id which is not known yet.
+ */
+@Singleton
+public class JwksAuthenticator implements Authenticator {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final long CLOCK_SKEW_SECONDS = 300;
+  private static final ImmutableSet<String> ALGORITHMS = ImmutableSet.of("RS256", "ES256");
+
+  private final JsonFactory jsonFactory;
+  private final Clock clock;
+  private final Function<String, PublicKeySource> keySourceFactory;
+  private final ConcurrentMap<String, PublicKeySource> keySources = new ConcurrentHashMap<>();
+  // The issuer configs of each API, by iss value.
+  private final LoadingCache<ApiIssuerConfigs, ImmutableMap<String, IssuerConfig>> issuers =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(CacheLoader.from(JwksAuthenticator::indexIssuers));
+
+  public JwksAuthenticator() {
+    this(Client.getInstance().getJsonFactory(), Clock.SYSTEM,
+        jwksUri -> new PublicKeySource(Client.getInstance().getHttpTransport(),
+            Client.getInstance().getJsonFactory(), jwksUri));
+  }
+
+  @VisibleForTesting
+  JwksAuthenticator(JsonFactory jsonFactory, Clock clock,
+      Function<String, PublicKeySource> keySourceFactory) {
+    this.jsonFactory = jsonFactory;
+    this.clock = clock;
+    this.keySourceFactory = keySourceFactory;
+  }
+
+  @Override
+  public User authenticate(HttpServletRequest request) {
+    Attribute attr = Attribute.from(request);
+    if (attr.isEnabled(Attribute.SKIP_TOKEN_AUTH)) {
+      return null;
+    }
+
+    String token = GoogleAuth.getAuthToken(request);
+    if (!GoogleAuth.isJwt(token)) {
+      return null;
+    }
+    JsonWebSignature jws;
+    try {
+      jws = JsonWebSignature.parse(jsonFactory, token);
+    } catch (IOException | IllegalArgumentException e) {
+      logger.atWarning().withCause(e).log("Failed to parse JWT");
+      return null;
+    }
+    JsonWebToken.Payload payload = jws.getPayload();
+
+    ApiMethodConfig config = attr.get(Attribute.API_METHOD_CONFIG);
+    IssuerConfig issuer = issuers.getUnchecked(
+        config.getApiClassConfig().getApiConfig().getIssuers()).get(payload.getIssuer());
+    if (issuer == null) {
+      logger.atFine().log("Issuer is not configured: %s", payload.getIssuer());
+      return null;
+    }
+    // Check audience.
+    ImmutableSet<String> audiences = config.getIssuerAudiences().getAudiences(issuer.getName());
+    if (payload.getAudienceAsList().stream().noneMatch(audiences::contains)) {
+      logger.atWarning().log(
+          "Audience is not allowed for issuer %s: %s", issuer.getName(), payload.getAudience());
+      return null;
+    }
+    // Check times.
+    if (!isCurrent(payload)) {
+      logger.atWarning().log("Token is expired or not yet valid");
+      return null;
+    }
+    if (!verifySignature(jws, issuer)) {
+      return null;
+    }
+
+    Object email = payload.get("email");
+    User user = new User(payload.getSubject(), email instanceof String ? (String) email : null);
+    if (attr.isEnabled(Attribute.REQUIRE_APPENGINE_USER)) {
+      com.google.appengine.api.users.User appEngineUser = user.getEmail() == null
+          ? null : new com.google.appengine.api.users.User(user.getEmail(), "");
+      attr.set(Attribute.AUTHENTICATED_APPENGINE_USER, appEngineUser);
+      logger.atInfo().log("appEngineUser = %s", appEngineUser);
+    } else {
+      logger.atInfo().log("user = %s", user);
+    }
+    return user;
+  }
+
+  private boolean isCurrent(JsonWebToken.Payload payload) {
+    long now = clock.currentTimeMillis();
+    Long expirationTime = payload.getExpirationTimeSeconds();
+    Long issuedAtTime = payload.getIssuedAtTimeSeconds();
+    Long notBeforeTime = payload.getNotBeforeTimeSeconds();
+    return expirationTime != null
+        && now <= (expirationTime + CLOCK_SKEW_SECONDS) * 1000
+        && (issuedAtTime == null || now >= (issuedAtTime - CLOCK_SKEW_SECONDS) * 1000)
+        && (notBeforeTime == null || now >= (notBeforeTime - CLOCK_SKEW_SECONDS) * 1000);
+  }
+
+  private boolean verifySignature(JsonWebSignature jws, IssuerConfig issuer) {
+    String algorithm = jws.getHeader().getAlgorithm();
+    if (!ALGORITHMS.contains(algorithm)) {
+      logger.atWarning().log("Unsupported signature algorithm: %s", algorithm);
+      return false;
+    }
+    if (issuer.getJwksUri() == null) {
+      logger.atWarning().log("Issuer %s has no jwksUri", issuer.getName());
+      return false;
+    }
+    PublicKeySource keySource = keySources.computeIfAbsent(issuer.getJwksUri(), keySourceFactory);
+    try {
+      String keyId = jws.getHeader().getKeyId();
+      if (keyId != null) {
+        PublicKey publicKey = keySource.getPublicKey(keyId);
+        if (publicKey == null) {
+          logger.atWarning().log("Unknown key id for issuer %s: %s", issuer.getName(), keyId);
+          return false;
+        }
+        return isKeyFor(publicKey, algorithm) && jws.verifySignature(publicKey);
+      }
+      for (PublicKey publicKey : keySource.getPublicKeys()) {
+        if (isKeyFor(publicKey, algorithm) && jws.verifySignature(publicKey)) {
+          return true;
+        }
+      }
+      return false;
+    } catch (GeneralSecurityException | IOException e) {
+      logger.atWarning().withCause(e).log("Failed to verify JWT of issuer %s", issuer.getName());
+      return false;
+    }
+  }
+
+  private static boolean isKeyFor(PublicKey publicKey, String algorithm) {
+    return algorithm.equals("RS256")
+        ? publicKey instanceof RSAPublicKey : publicKey instanceof ECPublicKey;
+  }
+
+  private static ImmutableMap<String, IssuerConfig> indexIssuers(ApiIssuerConfigs configs) {
+    Map<String, IssuerConfig> issuers = new LinkedHashMap<>();
+    for (IssuerConfig issuer : configs.asMap().values()) {
+      if (issuer.getIssuer() != null) {
+        issuers.putIfAbsent(issuer.getIssuer(), issuer);
+      }
+    }
+    return ImmutableMap.copyOf(issuers);
+  }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.auth;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.SecurityUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+/**
+ * Public keys for verifying token signatures, fetched from a URL and refreshed in the background.
+ * The URL may serve a JSON Web Key Set ({@code {"keys": [...]}}) with RSA and P-256 EC keys, or,
+ * like Google's certificate endpoint, an object mapping key ids to PEM encoded X.509 certificates.
+ *
+ * <p>Unlike {@link com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager}, which
+ * fetches expired certificates on the request thread while holding a lock, request threads only
+ * read the current key set, which a scheduled task replaces ahead of its expiration. If refreshes
+ * fail, they are retried with backoff, and the last key set is still used until it is stale by
+ * more than a maximum staleness. Only then, or before the first fetch, do request threads fetch
+ * the keys themselves. Requests for an unknown key id also trigger a fetch, in case the keys were
+ * rotated, at most every 30 seconds. That fetch does not hold the lock, and concurrent requests
+ * for unknown key ids fail fast instead of waiting for it.
+ *
+ * <p>Closing a source cancels its refresh. Owners of the shared scheduler, such as servlets,
+ * {@linkplain #retainShared retain} it and {@linkplain #releaseShared release} it when destroyed.
+ * Once the last owner releases it, the sources which use it are closed and it is shut down, so
+ * that its thread does not outlive the web application.
+ */
+final class PublicKeySource implements Closeable {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final long DEFAULT_MAX_STALENESS_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long MIN_REFRESH_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long MIN_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long MIN_REFETCH_INTERVAL_MILLIS = 30000;
+
+  private final HttpTransport transport;
+  private final JsonFactory jsonFactory;
+  private final String url;
+  private final Clock clock;
+  private final ScheduledExecutorService scheduler;
+  private final long maxStalenessMillis;
+  private final AtomicReference<KeySet> keys = new AtomicReference<>();
+  private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+  private final AtomicLong lastFetchAt = new AtomicLong(Long.MIN_VALUE / 2);
+  private final Object fetchLock = new Object();
+  private volatile ScheduledFuture<?> refreshTask;
+  private volatile boolean closed;
+
+  PublicKeySource(HttpTransport transport, JsonFactory jsonFactory, String url) {
+    this(transport, jsonFactory, url, Clock.SYSTEM, null, DEFAULT_MAX_STALENESS_MILLIS);
+  }
+
+  /**
+   * @param scheduler the scheduler of background refreshes, or null to use the shared one
+   */
+  @VisibleForTesting
+  PublicKeySource(HttpTransport transport, JsonFactory jsonFactory, String url, Clock clock,
+      @Nullable ScheduledExecutorService scheduler, long maxStalenessMillis) {
+    this.transport = transport;
+    this.jsonFactory = jsonFactory;
+    this.url = url;
+    this.clock = clock;
+    this.scheduler = scheduler;
+    this.maxStalenessMillis = maxStalenessMillis;
+    if (scheduler == null) {
+      SharedScheduler.register(this);
+    }
+  }
+
+  /**
+   * Adds an owner of the shared scheduler, which must later {@linkplain #releaseShared release} it.
+   */
+  static void retainShared() {
+    SharedScheduler.retain();
+  }
+
+  /**
+   * Removes an owner of the shared scheduler. Once there are none left, closes all sources which
+   * use it, and shuts it down. Sources created later start a new one.
+   */
+  static void releaseShared() {
+    SharedScheduler.release();
+  }
+
+  HttpTransport getTransport() {
+    return transport;
+  }
+
+  JsonFactory getJsonFactory() {
+    return jsonFactory;
+  }
+
+  /**
+   * Returns all current public keys, fetching them only if there are none that may be used.
+   */
+  ImmutableCollection<PublicKey> getPublicKeys() throws GeneralSecurityException, IOException {
+    return current().publicKeys.values();
+  }
+
+  /**
+   * Returns the current public key with an id, or null if there is none, even after fetching the
+   * keys again.
+   */
+  PublicKey getPublicKey(String keyId) throws GeneralSecurityException, IOException {
+    PublicKey publicKey = current().publicKeys.get(keyId);
+    if (publicKey != null) {
+      return publicKey;
+    }
+    long now = clock.currentTimeMillis();
+    long lastFetch = lastFetchAt.get();
+    if (now - lastFetch < MIN_REFETCH_INTERVAL_MILLIS
+        || !lastFetchAt.compareAndSet(lastFetch, now)) {
+      // The keys were fetched recently, or are being fetched for another request.
+      return keys.get().publicKeys.get(keyId);
+    }
+    logger.atInfo().log("Fetching %s for unknown key id %s", url, keyId);
+    return fetch().publicKeys.get(keyId);
+  }
+
+  /**
+   * Cancels the background refresh. The keys can still be read, and are fetched by request
+   * threads once they are stale.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    ScheduledFuture<?> task = refreshTask;
+    if (task != null) {
+      task.cancel(false);
+    }
+    if (scheduler == null) {
+      SharedScheduler.unregister(this);
+    }
+  }
+
+  @VisibleForTesting
+  boolean isClosed() {
+    return closed;
+  }
+
+  private KeySet current() throws GeneralSecurityException, IOException {
+    KeySet current = keys.get();
+    if (isUsable(current)) {
+      return current;
+    }
+    synchronized (fetchLock) {
+      current = keys.get();
+      if (isUsable(current)) {
+        return current;
+      }
+      current = fetch();
+      if (refreshScheduled.compareAndSet(false, true)) {
+        schedule(refreshDelay(current), MIN_RETRY_DELAY_MILLIS);
+      }
+      return current;
+    }
+  }
+
+  private boolean isUsable(KeySet keySet) {
+    if (keySet == null) {
+      return false;
+    }
+    long staleness = clock.currentTimeMillis() - keySet.expiresAt;
+    if (staleness > maxStalenessMillis) {
+      return false;
+    }
+    if (staleness > 0) {
+      logger.atWarning().atMostEvery(1, TimeUnit.MINUTES).log(
+          "Using public keys from %s which expired %d ms ago", url, staleness);
+    }
+    return true;
+  }
+
+  /**
+   * Returns when to refresh a key set: once three quarters of its lifetime have passed.
+   */
+  private static long refreshDelay(KeySet keySet) {
+    long lifetime = keySet.expiresAt - keySet.fetchedAt;
+    return Math.max(MIN_REFRESH_DELAY_MILLIS, lifetime - lifetime / 4);
+  }
+
+  private void schedule(long delayMillis, long retryDelayMillis) {
+    if (closed) {
+      return;
+    }
+    try {
+      ScheduledExecutorService executor = scheduler != null ? scheduler : SharedScheduler.get();
+      ScheduledFuture<?> task = executor.schedule(
+          () -> refresh(retryDelayMillis), delayMillis, TimeUnit.MILLISECONDS);
+      refreshTask = task;
+      if (closed && task != null) {
+        // Closed while scheduling.
+        task.cancel(false);
+      }
+    } catch (RejectedExecutionException e) {
+      // Request threads fetch the keys once they are stale.
+      logger.atWarning().withCause(e).log("Cannot refresh public keys in the background");
+      refreshScheduled.set(false);
+    }
+  }
+
+  private void refresh(long retryDelayMillis) {
+    if (closed) {
+      return;
+    }
+    KeySet keySet;
+    try {
+      synchronized (fetchLock) {
+        keySet = fetch();
+      }
+    } catch (GeneralSecurityException | IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to refresh public keys from %s, retrying in %d ms", url, retryDelayMillis);
+      schedule(retryDelayMillis, Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS));
+      return;
+    }
+    schedule(refreshDelay(keySet), MIN_RETRY_DELAY_MILLIS);
+  }
+
+  private KeySet fetch() throws GeneralSecurityException, IOException {
+    long fetchedAt = clock.currentTimeMillis();
+    lastFetchAt.set(fetchedAt);
+    HttpResponse response =
+        transport.createRequestFactory().buildGetRequest(new GenericUrl(url)).execute();
+    GenericJson json;
+    try {
+      json = jsonFactory.createJsonParser(response.getContent(), StandardCharsets.UTF_8)
+          .parseAndClose(GenericJson.class);
+    } finally {
+      response.disconnect();
+    }
+    ImmutableMap<String, PublicKey> publicKeys = json.get("keys") instanceof List
+        ? parseJwks((List<?>) json.get("keys")) : parseCertificates(json);
+    long expiresAt = fetchedAt + TimeUnit.SECONDS.toMillis(getMaxAge(response.getHeaders()));
+    KeySet keySet = new KeySet(publicKeys, fetchedAt, expiresAt);
+    // Fetches for unknown key ids run concurrently with others, so the latest one is kept.
+    keys.accumulateAndGet(keySet,
+        (current, fetched) -> current == null || fetched.fetchedAt >= current.fetchedAt
+            ? fetched : current);
+    return keySet;
+  }
+
+  private static ImmutableMap<String, PublicKey> parseCertificates(Map<String, Object> json)
+      throws GeneralSecurityException {
+    CertificateFactory factory = SecurityUtils.getX509CertificateFactory();
+    ImmutableMap.Builder<String, PublicKey> publicKeys = ImmutableMap.builder();
+    for (Map.Entry<String, Object> certificate : json.entrySet()) {
+      X509Certificate x509 = (X509Certificate) factory.generateCertificate(
+          new ByteArrayInputStream(
+              String.valueOf(certificate.getValue()).getBytes(StandardCharsets.UTF_8)));
+      publicKeys.put(certificate.getKey(), x509.getPublicKey());
+    }
+    return publicKeys.build();
+  }
+
+  /**
+   * Parses the signing keys of a JSON Web Key Set. Keys without an id are indexed by their
+   * position, so they are only used for tokens without a key id.
+   */
+  private static ImmutableMap<String, PublicKey> parseJwks(List<?> jwks)
+      throws GeneralSecurityException {
+    ImmutableMap.Builder<String, PublicKey> publicKeys = ImmutableMap.builder();
+    for (int i = 0; i < jwks.size(); i++) {
+      Map<?, ?> jwk = (Map<?, ?>) jwks.get(i);
+      if ("enc".equals(jwk.get("use"))) {
+        continue;
+      }
+      PublicKey publicKey;
+      if ("RSA".equals(jwk.get("kty"))) {
+        publicKey = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+            decodeUnsigned(jwk.get("n")), decodeUnsigned(jwk.get("e"))));
+      } else if ("EC".equals(jwk.get("kty")) && "P-256".equals(jwk.get("crv"))) {
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec("secp256r1"));
+        ECPoint point = new ECPoint(decodeUnsigned(jwk.get("x")), decodeUnsigned(jwk.get("y")));
+        publicKey = KeyFactory.getInstance("EC").generatePublic(
+            new ECPublicKeySpec(point, parameters.getParameterSpec(ECParameterSpec.class)));
+      } else {
+        logger.atFine().log("Ignoring unsupported key: %s", jwk.get("kid"));
+        continue;
+      }
+      Object keyId = jwk.get("kid");
+      publicKeys.put(keyId != null ? keyId.toString() : "#" + i, publicKey);
+    }
+    return publicKeys.build();
+  }
+
+  private static BigInteger decodeUnsigned(Object base64Url) throws GeneralSecurityException {
+    if (!(base64Url instanceof String)) {
+      throw new GeneralSecurityException("Missing key parameter");
+    }
+    try {
+      return new BigInteger(1, BaseEncoding.base64Url().omitPadding()
+          .decode(CharMatcher.is('=').trimTrailingFrom((String) base64Url)));
+    } catch (IllegalArgumentException e) {
+      throw new GeneralSecurityException("Invalid key parameter", e);
+    }
+  }
+
+  /**
+   * Returns how long a response may be cached, in seconds, from its Cache-Control and Age headers.
+   */
+  @VisibleForTesting
+  static long getMaxAge(HttpHeaders headers) {
+    long maxAge = 0;
+    if (headers.getCacheControl() != null) {
+      for (String directive : Splitter.on(',').trimResults().split(headers.getCacheControl())) {
+        int equals = directive.indexOf('=');
+        if (equals > 0 && directive.substring(0, equals).trim().equalsIgnoreCase("max-age")) {
+          try {
+            maxAge = Long.parseLong(directive.substring(equals + 1).trim());
+          } catch (NumberFormatException e) {
+            // Ignore the directive.
+          }
+        }
+      }
+    }
+    if (headers.getAge() != null) {
+      maxAge -= headers.getAge();
+    }
+    return Math.max(0, maxAge);
+  }
+
+  private static final class KeySet {
+    private final ImmutableMap<String, PublicKey> publicKeys;
+    private final long fetchedAt;
+    private final long expiresAt;
+
+    private KeySet(ImmutableMap<String, PublicKey> publicKeys, long fetchedAt, long expiresAt) {
+      this.publicKeys = publicKeys;
+      this.fetchedAt = fetchedAt;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * The scheduler shared by key sources, which is only created when used, the open sources which
+   * use it, and the number of its owners.
+   */
+  private static final class SharedScheduler {
+    // Guarded by the class.
+    private static ScheduledExecutorService executor;
+    private static int owners;
+    private static final Set<PublicKeySource> sources =
+        Collections.newSetFromMap(new WeakHashMap<>());
+
+    static synchronized ScheduledExecutorService get() {
+      if (executor == null) {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("endpoints-public-key-refresh-%d")
+            .setDaemon(true)
+            .build());
+      }
+      return executor;
+    }
+
+    static synchronized void register(PublicKeySource source) {
+      sources.add(source);
+    }
+
+    static synchronized void unregister(PublicKeySource source) {
+      sources.remove(source);
+    }
+
+    static synchronized void retain() {
+      owners++;
+    }
+
+    static synchronized void release() {
+      checkState(owners > 0, "The shared scheduler has no owners");
+      if (--owners == 0) {
+        shutdown();
+      }
+    }
+
+    private static void shutdown() {
+      for (PublicKeySource source : ImmutableList.copyOf(sources)) {
+        source.close();
+      }
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+    }
+  }
+}
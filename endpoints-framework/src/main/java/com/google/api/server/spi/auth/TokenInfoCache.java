@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.auth;
+
+import com.google.api.server.spi.auth.GoogleAuth.TokenInfo;
+import com.google.api.server.spi.response.ServiceUnavailableException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of OAuth2 token info, so that repeated requests with the same token do not each
+ * call the remote token info API. Tokens are keyed by their SHA-256 hash; the raw tokens are not
+ * kept. Valid tokens are cached until they expire, for at most a maximum TTL, and invalid tokens
+ * for a short negative TTL. Failed lookups are not cached. Concurrent lookups of the same token
+ * wait for a single remote call.
+ *
+ * <p>Only the token info is cached: callers still check scopes and client ids for each request.
+ */
+final class TokenInfoCache {
+  /**
+   * Looks up the token info of a token, returning null if the token is invalid.
+   */
+  interface Loader {
+    TokenInfo load(String token) throws ServiceUnavailableException;
+  }
+
+  private final Cache<HashCode, Entry> cache;
+  private final Ticker ticker;
+  private final long maxTtlNanos;
+  private final long negativeTtlNanos;
+
+  /**
+   * @param maximumSize the maximum number of cached tokens
+   * @param maxTtl how long valid tokens are cached at most
+   * @param negativeTtl how long invalid tokens are cached
+   */
+  TokenInfoCache(long maximumSize, long maxTtl, long negativeTtl, TimeUnit unit) {
+    this(maximumSize, maxTtl, negativeTtl, unit, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  TokenInfoCache(long maximumSize, long maxTtl, long negativeTtl, TimeUnit unit, Ticker ticker) {
+    Preconditions.checkArgument(maxTtl > 0, "maxTtl must be positive");
+    Preconditions.checkArgument(negativeTtl >= 0, "negativeTtl must not be negative");
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(maxTtl, unit)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+    this.ticker = ticker;
+    this.maxTtlNanos = unit.toNanos(maxTtl);
+    this.negativeTtlNanos = unit.toNanos(negativeTtl);
+  }
+
+  /**
+   * Returns the token info of a token, from the cache or else from a loader.
+   *
+   * @return a copy of the token info, with the remaining lifetime as {@code expiresIn}, or null if
+   *     the token is invalid
+   */
+  TokenInfo get(String token, Loader loader) throws ServiceUnavailableException {
+    HashCode key = GoogleAuth.hashToken(token);
+    Entry[] loaded = new Entry[1];
+    Entry entry = get(key, token, loader, loaded);
+    long now = ticker.read();
+    if (entry.expiresAt - now <= 0 && entry != loaded[0]) {
+      // Entries expire before the cache's own TTL if the token does.
+      cache.asMap().remove(key, entry);
+      entry = get(key, token, loader, loaded);
+      now = ticker.read();
+    }
+    if (entry == loaded[0] && entry.expiresAt - now <= 0) {
+      // Entries without a TTL are returned to the call which loaded them, but not kept.
+      cache.asMap().remove(key, entry);
+    }
+    return entry.copyTokenInfo(now);
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Returns the cached entry of a token, loading it if needed into {@code loaded[0]}.
+   */
+  private Entry get(HashCode key, String token, Loader loader, Entry[] loaded)
+      throws ServiceUnavailableException {
+    try {
+      return cache.get(key, () -> loaded[0] = load(token, loader));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), ServiceUnavailableException.class);
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private Entry load(String token, Loader loader) throws ServiceUnavailableException {
+    TokenInfo tokenInfo = loader.load(token);
+    long ttl;
+    if (tokenInfo == null) {
+      ttl = negativeTtlNanos;
+    } else if (tokenInfo.expiresIn != null) {
+      ttl = Math.min(TimeUnit.SECONDS.toNanos(tokenInfo.expiresIn), maxTtlNanos);
+    } else {
+      ttl = maxTtlNanos;
+    }
+    long now = ticker.read();
+    return new Entry(tokenInfo, now, now + ttl);
+  }
+
+  private static final class Entry {
+    private final TokenInfo tokenInfo;
+    private final long loadedAt;
+    private final long expiresAt;
+
+    private Entry(TokenInfo tokenInfo, long loadedAt, long expiresAt) {
+      this.tokenInfo = tokenInfo;
+      this.loadedAt = loadedAt;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Copies the token info, as callers may change it.
+     */
+    private TokenInfo copyTokenInfo(long now) {
+      if (tokenInfo == null) {
+        return null;
+      }
+      TokenInfo copy = new TokenInfo();
+      copy.email = tokenInfo.email;
+      copy.clientId = tokenInfo.clientId;
+      copy.scopes = tokenInfo.scopes;
+      copy.userId = tokenInfo.userId;
+      copy.audience = tokenInfo.audience;
+      if (tokenInfo.expiresIn != null) {
+        long age = TimeUnit.NANOSECONDS.toSeconds(now - loadedAt);
+        copy.expiresIn = (int) Math.max(0, tokenInfo.expiresIn - age);
+      }
+      copy.verifiedEmail = tokenInfo.verifiedEmail;
+      copy.errorDescription = tokenInfo.errorDescription;
+      return copy;
+    }
+  }
+}
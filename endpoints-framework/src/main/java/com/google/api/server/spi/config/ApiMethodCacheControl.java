@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation for the cache control configuration of a single API method, which takes precedence
+ * over the one of its API ({@link Api#cacheControl()}). Only applies to GET methods.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ApiMethodCacheControl {
+
+  /**
+   * The cache control type, one of the {@link ApiCacheControl.Type} constants. Defaults to the
+   * type of the API.
+   */
+  String type() default "";
+
+  /**
+   * The maximum age that results may be cached, in seconds. Defaults to the maximum age of the
+   * API.
+   */
+  int maxAge() default Api.UNSPECIFIED_INT;
+}
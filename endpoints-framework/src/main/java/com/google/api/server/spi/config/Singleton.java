@@ -15,19 +15,22 @@
  */
 package com.google.api.server.spi.config;
 
-import com.google.common.base.Function;
-import com.google.common.base.Predicates;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
-import java.util.HashMap;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
 import java.util.List;
-import java.util.Map;
-import java.util.logging.Level;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 /**
  * Annotation used with Authenticator to denote only one instance will be
@@ -40,48 +43,90 @@ public @interface Singleton {
 
   /**
    * Instantiates instances of A, honoring the @{@link Singleton} contract.
-   * Return a default instance when passed null values.
+   * Return a default instance when passed null values. Safe for concurrent use.
    */
   class Instantiator<A> {
 
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-    private volatile Map<Class<? extends A>, A> instances = new HashMap<>();
+    // Marks classes which cannot be instantiated, since the map does not take null values.
+    private static final Supplier<Object> NOT_INSTANTIABLE = () -> null;
 
-    private final A defaultValue;
+    private final ConcurrentMap<Class<? extends A>, Supplier<?>> factories =
+        new ConcurrentHashMap<>();
 
-    private final Function<Class<? extends A>, A> instantiator
-        = new Function<Class<? extends A>, A>() {
-      @Override
-      public A apply(Class<? extends A> clazz) {
-        try {
-          if (clazz.getAnnotation(Singleton.class) != null) {
-            if (!instances.containsKey(clazz)) {
-              instances.put(clazz, clazz.newInstance());
-            }
-            return instances.get(clazz);
-          } else {
-            return clazz.newInstance();
-          }
-        } catch (IllegalAccessException | InstantiationException e) {
-          logger.atWarning().log("Could not instantiate: %s", clazz.getName());
-          return null;
-        }
-      }
-    };
+    private final A defaultValue;
 
     public Instantiator(A defaultValue) {
       this.defaultValue = defaultValue;
     }
 
     public A getInstanceOrDefault(Class<? extends A> clazz) {
-      return clazz == null ? defaultValue : instantiator.apply(clazz);
+      if (clazz == null) {
+        return defaultValue;
+      }
+      Supplier<A> factory = getFactory(clazz);
+      return factory == null ? null : factory.get();
     }
 
     public Iterable<A> getInstancesOrDefault(List<Class<? extends A>> classes) {
-      return classes == null ? ImmutableList.of(defaultValue)
-          : Iterables.filter(Iterables.transform(classes, instantiator),
-              Predicates.notNull());
+      if (classes == null) {
+        return ImmutableList.of(defaultValue);
+      }
+      ImmutableList.Builder<A> instances = ImmutableList.builder();
+      for (Class<? extends A> clazz : classes) {
+        A instance = getInstanceOrDefault(clazz);
+        if (instance != null) {
+          instances.add(instance);
+        }
+      }
+      return instances.build();
+    }
+
+    /**
+     * Returns a factory for instances of clazz. The factory of a @{@link Singleton} class always
+     * returns the same instance, other factories create a new instance on each call through a
+     * constructor handle looked up once.
+     *
+     * @return the factory, or null if clazz has no accessible nullary constructor
+     */
+    @SuppressWarnings("unchecked")
+    public Supplier<A> getFactory(Class<? extends A> clazz) {
+      Supplier<?> factory = factories.get(clazz);
+      if (factory == null) {
+        // Not computed within the map, since singleton constructors may instantiate others.
+        factory = createFactory(clazz);
+        Supplier<?> existing = factories.putIfAbsent(clazz, factory);
+        if (existing != null) {
+          factory = existing;
+        }
+      }
+      return factory == NOT_INSTANTIABLE ? null : (Supplier<A>) factory;
+    }
+
+    private static Supplier<?> createFactory(Class<?> clazz) {
+      MethodHandle constructor;
+      try {
+        if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+          throw new InstantiationException(clazz.getName());
+        }
+        constructor = MethodHandles.lookup()
+            .unreflectConstructor(clazz.getDeclaredConstructor())
+            .asType(MethodType.methodType(Object.class));
+      } catch (ReflectiveOperationException e) {
+        logger.atWarning().log("Could not instantiate: %s", clazz.getName());
+        return NOT_INSTANTIABLE;
+      }
+      Supplier<Object> factory = () -> {
+        try {
+          return constructor.invokeExact();
+        } catch (Throwable e) {
+          Throwables.throwIfUnchecked(e);
+          throw new IllegalStateException("Could not instantiate: " + clazz.getName(), e);
+        }
+      };
+      return clazz.getAnnotation(Singleton.class) != null ? Suppliers.memoize(factory::get)
+          : factory;
     }
 
   }
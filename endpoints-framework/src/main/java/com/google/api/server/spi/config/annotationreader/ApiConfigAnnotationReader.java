@@ -25,6 +25,7 @@ import com.google.api.server.spi.config.ApiIssuer;
 import com.google.api.server.spi.config.ApiIssuerAudience;
 import com.google.api.server.spi.config.Authenticator;
 import com.google.api.server.spi.config.Transformer;
+import com.google.api.server.spi.config.model.ApiCacheControlConfig;
 import com.google.api.server.spi.config.model.ApiClassConfig;
 import com.google.api.server.spi.config.model.ApiClassConfig.MethodConfigMap;
 import com.google.api.server.spi.config.model.ApiConfig;
@@ -315,6 +316,7 @@ public class ApiConfigAnnotationReader implements ApiConfigSource {
       throws IllegalArgumentException, SecurityException, IllegalAccessException,
           InvocationTargetException, NoSuchMethodException {
     Class<? extends Annotation> apiMethodClass = annotationTypes.get("ApiMethod");
+    Class<? extends Annotation> cacheControlClass = annotationTypes.get("ApiMethodCacheControl");
 
     final EndpointMethod finalMethod = overrides.iterator().next();
     ApiMethodConfig methodConfig = methodConfigMap.getOrCreate(finalMethod);
@@ -328,6 +330,13 @@ public class ApiConfigAnnotationReader implements ApiConfigSource {
       if (apiMethod != null) {
         readApiMethodInstance(config, apiMethod);
       }
+      Annotation cacheControl = method.getMethod().getAnnotation(cacheControlClass);
+      if (cacheControl != null) {
+        ApiCacheControlConfig cacheControlConfig =
+            new ApiCacheControlConfig(methodConfig.getCacheControlConfig());
+        readApiCacheControl(new ApiCacheControlAnnotationConfig(cacheControlConfig), cacheControl);
+        methodConfig.setCacheControlConfig(cacheControlConfig);
+      }
       methodConfig.setDeprecated(deprecated 
           || method.getMethod().getAnnotation(Deprecated.class) != null);
     }
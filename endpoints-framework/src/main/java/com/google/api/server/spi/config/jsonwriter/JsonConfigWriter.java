@@ -442,9 +442,8 @@ public class JsonConfigWriter implements ApiConfigWriter {
     if (config.hasResourceInResponse()) {
       responseNode.put("body", "autoTemplate(backendResponse)");
 
-      // TODO: Get from ApiMethodConfig.
       TypeToken<?> returnType = ApiAnnotationIntrospector.getSchemaType(
-          serviceMethod.getReturnType(), config.getApiClassConfig().getApiConfig());
+          config.getReturnType(), config.getApiClassConfig().getApiConfig());
       descriptorMethodNode.set("response",
           convertMethodResponseType(descriptorSchemasNode, returnType, config));
     } else {
@@ -25,10 +25,12 @@ import com.google.api.server.spi.config.AuthLevel;
 import com.google.api.server.spi.config.Authenticator;
 import com.google.api.server.spi.config.model.ApiParameterConfig.Classification;
 import com.google.api.server.spi.config.scope.AuthScopeExpression;
+import com.google.api.server.spi.request.MediaUpload;
 import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.InternalServerErrorException;
+import com.google.api.server.spi.response.MediaContent;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
@@ -37,8 +39,11 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.TypeToken;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
@@ -47,6 +52,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -73,7 +79,7 @@ public class ApiMethodConfig {
       @Override
       public String guessResourceName(
           ApiConfig config, EndpointMethod method, Map<String, Class<?>> classTypes) {
-        TypeToken<?> returnType = method.getReturnType();
+        TypeToken<?> returnType = Types.getResponseType(method.getReturnType());
         if (isValidCollectionType(returnType)) {
           return Types.getSimpleName(
               Types.getTypeParameter(returnType, 0), config.getSerializationConfig()).toLowerCase();
@@ -153,7 +159,8 @@ public class ApiMethodConfig {
      */
     public String guessResourceName(
         ApiConfig config, EndpointMethod method, Map<String, Class<?>> classTypes) {
-      return Types.getSimpleName(method.getReturnType(), config.getSerializationConfig())
+      return Types.getSimpleName(
+          Types.getResponseType(method.getReturnType()), config.getSerializationConfig())
           .toLowerCase();
     }
   }
@@ -187,6 +194,8 @@ public class ApiMethodConfig {
   private int responseStatus;
   private Class<?>[] exceptionTypes;
   private List<ApiMetricCostConfig> metricCosts;
+  // If null, use the cache control of the API.
+  private ApiCacheControlConfig cacheControlConfig;
 
   private final TypeLoader typeLoader;
 
@@ -219,6 +228,8 @@ public class ApiMethodConfig {
     this.responseStatus = original.responseStatus;
     this.typeLoader = original.typeLoader;
     this.metricCosts = original.metricCosts;
+    this.cacheControlConfig = original.cacheControlConfig == null
+        ? null : new ApiCacheControlConfig(original.cacheControlConfig);
 
     // Parameter configs are mutable, so we need to do a deep copy.
     this.parameterConfigs = new ArrayList<>(original.parameterConfigs.size());
@@ -255,10 +266,11 @@ public class ApiMethodConfig {
     authenticators = null;
     ignored = false;
     apiKeyRequired = null;
-    returnType = endpointMethod.getReturnType();
+    returnType = Types.getResponseType(endpointMethod.getReturnType());
     responseStatus = RESPONSE_STATUS_UNSPECIFIED;
     exceptionTypes = endpointMethod.getMethod().getExceptionTypes();
     metricCosts = ImmutableList.of();
+    cacheControlConfig = null;
   }
 
   private RestMethod getRestMethod(Method method) {
@@ -290,7 +302,8 @@ public class ApiMethodConfig {
           apiKeyRequired == config.apiKeyRequired &&
           Objects.equals(returnType, config.returnType) &&
           responseStatus == config.responseStatus &&
-          Objects.equals(metricCosts, config.metricCosts);
+          Objects.equals(metricCosts, config.metricCosts) &&
+          Objects.equals(cacheControlConfig, config.cacheControlConfig);
     } else {
       return false;
     }
@@ -300,7 +313,8 @@ public class ApiMethodConfig {
   public int hashCode() {
     return Objects.hash(endpointMethodName, parameterConfigs, name, path, httpMethod,
         scopeExpression, audiences, clientIds, authenticators, typeLoader,
-        ignored, issuerAudiences, apiKeyRequired, returnType, responseStatus, metricCosts);
+        ignored, issuerAudiences, apiKeyRequired, returnType, responseStatus, metricCosts,
+        cacheControlConfig);
   }
 
   public ApiClassConfig getApiClassConfig() {
@@ -584,6 +598,46 @@ public class ApiMethodConfig {
     return returnType != Void.TYPE && returnType != Void.class;
   }
 
+  /**
+   * Returns whether or not the method returns {@link MediaContent}, which is sent as raw bytes
+   * instead of JSON.
+   */
+  public boolean isMediaDownload() {
+    return getReturnType().isSubtypeOf(MediaContent.class);
+  }
+
+  /**
+   * Returns the type of the JSON response, or null if there is none. Media downloads respond with
+   * the metadata type of their {@link MediaContent} unless {@code alt=media} is requested.
+   */
+  @Nullable
+  public TypeToken<?> getJsonResponseType() {
+    if (!isMediaDownload()) {
+      return hasResourceInResponse() ? getReturnType() : null;
+    }
+    TypeToken<?> metadataType =
+        getReturnType().resolveType(MediaContent.class.getTypeParameters()[0]);
+    Type type = metadataType.getType();
+    if (type instanceof TypeVariable || type instanceof WildcardType || type == Void.class) {
+      return null;
+    }
+    return metadataType;
+  }
+
+  /**
+   * Returns whether or not the method has a {@link MediaUpload} or {@link InputStream} parameter,
+   * which is bound to uploaded media.
+   */
+  public boolean isMediaUpload() {
+    for (ApiParameterConfig parameter : parameterConfigs) {
+      Class<?> type = parameter.getType().getRawType();
+      if (type == MediaUpload.class || type == InputStream.class) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public void setMetricCosts(List<ApiMetricCostConfig> metricCosts) {
     this.metricCosts = metricCosts;
   }
@@ -591,4 +645,19 @@ public class ApiMethodConfig {
   public List<ApiMetricCostConfig> getMetricCosts() {
     return metricCosts;
   }
+
+  /**
+   * Sets the cache control of this method, which overrides the one of the API.
+   */
+  public void setCacheControlConfig(ApiCacheControlConfig cacheControlConfig) {
+    this.cacheControlConfig = cacheControlConfig;
+  }
+
+  /**
+   * Returns the cache control of this method, or of the API if the method does not override it.
+   */
+  public ApiCacheControlConfig getCacheControlConfig() {
+    return cacheControlConfig != null
+        ? cacheControlConfig : apiClassConfig.getApiConfig().getCacheControlConfig();
+  }
 }
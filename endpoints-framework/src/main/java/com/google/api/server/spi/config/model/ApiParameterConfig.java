@@ -215,12 +215,12 @@ public class ApiParameterConfig {
    * Gets the type that acts as the source for schema generation. In the case of resource
    * serialization, the schema is based on the type being serialized. Simple serializers just
    * convert from one type to another, in which case the schema would be derived from the target
-   * type instead.
+   * type instead. Streamed resources are described as a list of their elements.
    */
   public TypeToken<?> getSchemaBaseType() {
     List<Class<? extends Transformer<?, ?>>> serializers = getSerializers();
     if (serializers.isEmpty()) {
-      return getType();
+      return Types.getRequestType(getType());
     } else if (ResourceTransformer.class.isAssignableFrom(serializers.get(0))) {
       return getType();
     } else {
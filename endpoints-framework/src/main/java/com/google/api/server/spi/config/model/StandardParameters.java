@@ -29,6 +29,11 @@ public final class StandardParameters {
   public static final String QUOTA_USER = "quotaUser";
   public static final String USER_IP = "userIp";
 
+  /**
+   * The {@link #ALT} value which requests the raw bytes of a media download.
+   */
+  public static final String ALT_MEDIA = "media";
+
   public static final ImmutableSet<String> STANDARD_PARAM_NAMES =
       new ImmutableSet.Builder<String>()
           .add(ALT)
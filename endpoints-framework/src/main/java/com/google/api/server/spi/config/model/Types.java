@@ -25,8 +25,10 @@ import com.google.api.server.spi.config.ResourceSchema;
 import com.google.api.server.spi.config.ResourceTransformer;
 import com.google.api.server.spi.config.Transformer;
 import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.StreamingCollectionResponse;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.reflect.TypeParameter;
 import com.google.common.reflect.TypeToken;
 
 import java.lang.reflect.GenericArrayType;
@@ -37,9 +39,12 @@ import java.lang.reflect.WildcardType;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
@@ -212,6 +217,45 @@ public abstract class Types {
     return null;
   }
 
+  /**
+   * Returns the type whose schema describes a method's response. Streamed results, which are
+   * {@link Iterator} or {@link Stream}, are described as a {@link List}, and
+   * {@link StreamingCollectionResponse} as a {@link CollectionResponse}.
+   */
+  public static TypeToken<?> getResponseType(@Nullable TypeToken<?> returnType) {
+    if (returnType == null) {
+      return null;
+    } else if (returnType.isSubtypeOf(StreamingCollectionResponse.class)) {
+      return collectionResponseOf(
+          returnType.resolveType(StreamingCollectionResponse.class.getTypeParameters()[0]));
+    } else if (returnType.isSubtypeOf(Iterator.class)) {
+      return listOf(returnType.resolveType(Iterator.class.getTypeParameters()[0]));
+    } else if (returnType.isSubtypeOf(Stream.class)) {
+      return listOf(returnType.resolveType(Stream.class.getTypeParameters()[0]));
+    }
+    return returnType;
+  }
+
+  /**
+   * Returns the type whose schema describes a request resource. Streamed resources, which are
+   * {@link Iterator} or {@link com.google.api.server.spi.request.StreamingBody}, are described as
+   * a {@link List}.
+   */
+  public static TypeToken<?> getRequestType(@Nullable TypeToken<?> parameterType) {
+    if (parameterType != null && parameterType.isSubtypeOf(Iterator.class)) {
+      return listOf(parameterType.resolveType(Iterator.class.getTypeParameters()[0]));
+    }
+    return parameterType;
+  }
+
+  private static <T> TypeToken<List<T>> listOf(TypeToken<T> itemType) {
+    return new TypeToken<List<T>>() {}.where(new TypeParameter<T>() {}, itemType);
+  }
+
+  private static <T> TypeToken<CollectionResponse<T>> collectionResponseOf(TypeToken<T> itemType) {
+    return new TypeToken<CollectionResponse<T>>() {}.where(new TypeParameter<T>() {}, itemType);
+  }
+
   /**
    * Returns the type parameter at a specified index.
    *
@@ -22,6 +22,9 @@ import java.util.List;
  * capabilities.
  */
 abstract class AbstractAuthScopeExpression implements AuthScopeExpression {
+  // Expressions are immutable, so racing threads can at worst compile the expression twice.
+  private volatile CompiledAuthScopeExpression compiled;
+
   /**
    * Encodes the expression to match what the {@link AuthScopeExpressions#interpret(List)} would
    * accept.
@@ -34,6 +37,23 @@ abstract class AbstractAuthScopeExpression implements AuthScopeExpression {
    */
   abstract List<String> encodeMutable();
 
+  /**
+   * Gets the conjunctions of scopes which authorize a user, any of which is sufficient.
+   */
+  abstract List<List<String>> getConjuncts();
+
+  /**
+   * Gets the compiled form of the expression, compiling it on first use.
+   */
+  CompiledAuthScopeExpression compile() {
+    CompiledAuthScopeExpression result = compiled;
+    if (result == null) {
+      result = new CompiledAuthScopeExpression(this);
+      compiled = result;
+    }
+    return result;
+  }
+
   @Override
   public String toString() {
     return toLoggingForm();
@@ -17,6 +17,7 @@ package com.google.api.server.spi.config.scope;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
 import java.util.Arrays;
@@ -54,11 +55,34 @@ public class AuthScopeExpressions {
         innerAuthScopeExpressions.add(innerAuthScopeExpression);
       }
     }
-    if (innerAuthScopeExpressions.size() == 1) {
-      return innerAuthScopeExpressions.get(0);
-    } else {
-      return new DisjunctAuthScopeExpression(innerAuthScopeExpressions);
+    AbstractAuthScopeExpression expression = innerAuthScopeExpressions.size() == 1
+        ? innerAuthScopeExpressions.get(0)
+        : new DisjunctAuthScopeExpression(innerAuthScopeExpressions);
+    // Compile while the configuration is loaded, rather than on the first request.
+    expression.compile();
+    return expression;
+  }
+
+  /**
+   * Determines whether the whitespace-separated scopes a user has, as in an OAuth2 token info,
+   * are sufficient for an expression. Expressions created by {@link #interpret(List)} are
+   * compiled into bitset tests.
+   */
+  public static boolean isAuthorized(AuthScopeExpression authScopeExpression, String scopes) {
+    if (authScopeExpression instanceof AbstractAuthScopeExpression) {
+      return ((AbstractAuthScopeExpression) authScopeExpression).compile().isAuthorized(scopes);
+    }
+    return authScopeExpression.isAuthorized(CompiledAuthScopeExpression.tokenize(scopes));
+  }
+
+  /**
+   * Determines whether the scopes a user has are sufficient for an expression.
+   */
+  public static boolean isAuthorized(AuthScopeExpression authScopeExpression, String[] scopes) {
+    if (authScopeExpression instanceof AbstractAuthScopeExpression) {
+      return ((AbstractAuthScopeExpression) authScopeExpression).compile().isAuthorized(scopes);
     }
+    return authScopeExpression.isAuthorized(ImmutableSet.copyOf(scopes));
   }
 
   /**
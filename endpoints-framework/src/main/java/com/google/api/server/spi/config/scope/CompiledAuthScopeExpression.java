@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.config.scope;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@code AuthScopeExpression} compiled into bitset tests. Each scope of the expression is
+ * interned into a small integer id, and the expression into the bit masks of its conjunctions, so
+ * that a user's scopes are matched with a single map lookup per scope. Expressions with more
+ * scopes than bits in a mask are evaluated on scope sets instead.
+ */
+final class CompiledAuthScopeExpression {
+  private final AbstractAuthScopeExpression expression;
+  // Null if the expression has too many scopes to be compiled.
+  private final ImmutableMap<String, Integer> scopeIds;
+  private final long[] conjunctMasks;
+
+  CompiledAuthScopeExpression(AbstractAuthScopeExpression expression) {
+    this.expression = expression;
+    List<List<String>> conjuncts = expression.getConjuncts();
+    Map<String, Integer> ids = new HashMap<>();
+    long[] masks = new long[conjuncts.size()];
+    for (int i = 0; masks != null && i < masks.length; i++) {
+      for (String scope : conjuncts.get(i)) {
+        Integer id = ids.get(scope);
+        if (id == null) {
+          id = ids.size();
+          ids.put(scope, id);
+        }
+        if (id >= Long.SIZE) {
+          masks = null;
+          break;
+        }
+        masks[i] |= 1L << id;
+      }
+    }
+    this.scopeIds = masks == null ? null : ImmutableMap.copyOf(ids);
+    this.conjunctMasks = masks;
+  }
+
+  /**
+   * Determines whether the whitespace-separated scopes a user has are sufficient for the
+   * expression.
+   */
+  boolean isAuthorized(String scopes) {
+    if (scopeIds == null) {
+      return expression.isAuthorized(tokenize(scopes));
+    }
+    long mask = 0;
+    int length = scopes.length();
+    int start = 0;
+    while (start < length) {
+      while (start < length && isWhitespace(scopes.charAt(start))) {
+        start++;
+      }
+      int end = start;
+      while (end < length && !isWhitespace(scopes.charAt(end))) {
+        end++;
+      }
+      if (end > start) {
+        mask |= maskOf(scopes.substring(start, end));
+      }
+      start = end;
+    }
+    return matches(mask);
+  }
+
+  /**
+   * Determines whether the scopes a user has are sufficient for the expression.
+   */
+  boolean isAuthorized(String[] scopes) {
+    if (scopeIds == null) {
+      return expression.isAuthorized(ImmutableSet.copyOf(scopes));
+    }
+    long mask = 0;
+    for (String scope : scopes) {
+      mask |= maskOf(scope);
+    }
+    return matches(mask);
+  }
+
+  private long maskOf(String scope) {
+    Integer id = scopeIds.get(scope);
+    return id == null ? 0 : 1L << id;
+  }
+
+  private boolean matches(long mask) {
+    for (long conjunctMask : conjunctMasks) {
+      if ((mask & conjunctMask) == conjunctMask) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Splits scopes on whitespace, like {@code scopes.split("\\s+")} but without a regex.
+   */
+  static ImmutableSet<String> tokenize(String scopes) {
+    ImmutableSet.Builder<String> tokens = ImmutableSet.builder();
+    int length = scopes.length();
+    int start = 0;
+    while (start < length) {
+      while (start < length && isWhitespace(scopes.charAt(start))) {
+        start++;
+      }
+      int end = start;
+      while (end < length && !isWhitespace(scopes.charAt(end))) {
+        end++;
+      }
+      if (end > start) {
+        tokens.add(scopes.substring(start, end));
+      }
+      start = end;
+    }
+    return tokens.build();
+  }
+
+  // Matches the \s character class of regular expressions.
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
@@ -60,6 +60,18 @@ class ConjunctAuthScopeExpression extends AbstractAuthScopeExpression {
     return true;
   }
 
+  @Override
+  List<List<String>> getConjuncts() {
+    if (innerExpressions.isEmpty()) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<String> scopes = ImmutableList.builder();
+    for (SingleAuthScopeExpression innerExpression : innerExpressions) {
+      scopes.add(innerExpression.getScope());
+    }
+    return ImmutableList.<List<String>>of(scopes.build());
+  }
+
   @Override
   List<String> encode() {
     return ImmutableList.of(doEncode());
@@ -60,6 +60,15 @@ class DisjunctAuthScopeExpression extends AbstractAuthScopeExpression {
     return false;
   }
 
+  @Override
+  List<List<String>> getConjuncts() {
+    ImmutableList.Builder<List<String>> conjuncts = ImmutableList.builder();
+    for (AbstractAuthScopeExpression innerExpression : innerExpressions) {
+      conjuncts.addAll(innerExpression.getConjuncts());
+    }
+    return conjuncts.build();
+  }
+
   @Override
   List<String> encode() {
     return ImmutableList.copyOf(encodeMutable());
@@ -47,6 +47,11 @@ class SingleAuthScopeExpression extends AbstractAuthScopeExpression {
     return scope;
   }
 
+  @Override
+  List<List<String>> getConjuncts() {
+    return ImmutableList.<List<String>>of(ImmutableList.of(scope));
+  }
+
   @Override
   List<String> encode() {
     return ImmutableList.of(scope);
@@ -154,6 +154,7 @@ public class DiscoveryGenerator {
         .setVersion(apiKey.getVersion());
 
     final AuthScopeRepository scopeRepo = new AuthScopeRepository();
+    boolean mediaDownload = false;
 
     for (ApiConfig config : apiConfigs) {
       // API descriptions should be identical across all configs, but the last one will take
@@ -186,9 +187,13 @@ public class DiscoveryGenerator {
       for (ApiMethodConfig methodConfig : config.getApiClassConfig().getMethods().values()) {
         if (!methodConfig.isIgnored()) {
           writeApiMethod(config, servicePath, doc, methodConfig, schemaRepo, scopeRepo);
+          mediaDownload |= methodConfig.isMediaDownload();
         }
       }
     }
+    if (mediaDownload) {
+      doc.getParameters().put(StandardParameters.ALT, createAltParameter(true));
+    }
 
     Map<String, ScopesElement> scopeElements = new LinkedHashMap<>();
     for (Entry<String, String> entry : scopeRepo.getDescriptionsByScope().entrySet()) {
@@ -233,9 +238,17 @@ public class DiscoveryGenerator {
       Schema schema = schemaRepo.getOrAdd(requestType, config);
       method.setRequest(new Request().set$ref(schema.name()).setParameterName("resource"));
     }
-    if (methodConfig.hasResourceInResponse()) {
-      TypeToken<?> returnType =
-          ApiAnnotationIntrospector.getSchemaType(methodConfig.getReturnType(), config);
+    if (methodConfig.isMediaUpload()) {
+      // Media is uploaded to the method path itself, so no upload protocol paths are advertised.
+      method.setSupportsMediaUpload(true)
+          .setMediaUpload(new RestMethod.MediaUpload().setAccept(Lists.newArrayList("*/*")));
+    }
+    if (methodConfig.isMediaDownload()) {
+      method.setSupportsMediaDownload(true);
+    }
+    TypeToken<?> responseType = methodConfig.getJsonResponseType();
+    if (responseType != null) {
+      TypeToken<?> returnType = ApiAnnotationIntrospector.getSchemaType(responseType, config);
       Schema schema = schemaRepo.getOrAdd(returnType, config);
       method.setResponse(new Response().set$ref(schema.name()));
     }
@@ -545,16 +558,26 @@ public class DiscoveryGenerator {
     }
   }
 
-  private static Map<String, JsonSchema> createStandardParameters() {
-    TreeMap<String, JsonSchema> params = new TreeMap<>();
-    params.put(StandardParameters.ALT, new JsonSchema()
+  private static JsonSchema createAltParameter(boolean mediaDownload) {
+    List<String> values = Lists.newArrayList("json");
+    List<String> descriptions =
+        Lists.newArrayList("Responses with Content-Type of application/json");
+    if (mediaDownload) {
+      values.add(StandardParameters.ALT_MEDIA);
+      descriptions.add("Media download with context-dependent Content-Type");
+    }
+    return new JsonSchema()
         .setDefault("json")
         .setDescription("Data format for the response.")
-        .setEnum(Lists.newArrayList("json"))
-        .setEnumDescriptions(
-            Lists.newArrayList("Responses with Content-Type of application/json"))
+        .setEnum(values)
+        .setEnumDescriptions(descriptions)
         .setLocation("query")
-        .setType("string"));
+        .setType("string");
+  }
+
+  private static Map<String, JsonSchema> createStandardParameters() {
+    TreeMap<String, JsonSchema> params = new TreeMap<>();
+    params.put(StandardParameters.ALT, createAltParameter(false));
     params.put(StandardParameters.FIELDS, new JsonSchema()
         .setDescription(
             "Selector specifying which fields to include in a partial response.")
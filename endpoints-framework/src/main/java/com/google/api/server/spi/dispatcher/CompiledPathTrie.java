@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.dispatcher;
+
+import com.google.api.server.spi.dispatcher.PathTrie.MethodInfo;
+import com.google.api.server.spi.dispatcher.PathTrie.Resolution;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * An immutable, flattened form of a {@link PathTrie}, which resolves paths exactly like the trie
+ * it was compiled from. Nodes are numbered, and all their data is stored in flat arrays:
+ *
+ * <ul>
+ *   <li>every distinct literal segment is interned once, in an open addressing table mapping the
+ *       segment (including its leading delimiter) to an int id,</li>
+ *   <li>the literal children of a node are a range of parallel int arrays of segment ids (sorted,
+ *       for binary search) and child node ids,</li>
+ *   <li>the parameter child of a node is an int node id, or -1,</li>
+ *   <li>the values of a node are slots indexed by node id and {@link HttpMethod#ordinal()}.</li>
+ * </ul>
+ *
+ * A path segment is therefore hashed once against the interned table, whatever the number of
+ * APIs and versions sharing the trie, and walking the trie never dereferences per-node objects.
+ */
+final class CompiledPathTrie<T> {
+  private static final int METHOD_COUNT = HttpMethod.values().length;
+  private static final int ROOT = 0;
+  private static final int NO_NODE = -1;
+
+  // Interned literal segments, with their cached hash codes and ids.
+  private final String[] segments;
+  private final int[] segmentHashes;
+  private final int[] segmentIds;
+  // The literal children of node n are at [childOffsets[n], childOffsets[n + 1]).
+  private final int[] childOffsets;
+  private final int[] childSegmentIds;
+  private final int[] childNodes;
+  private final int[] parameterChildNodes;
+  private final MethodInfo<T>[] methodSlots;
+  private final int maxParameterCount;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private CompiledPathTrie(PathTrie<T> trie) {
+    // Number the nodes breadth first, interning literal segments along the way. The literal
+    // children of each node are kept sorted by segment id.
+    List<PathTrie<T>> nodes = new ArrayList<>();
+    List<TreeMap<Integer, Integer>> literalChildren = new ArrayList<>();
+    List<Integer> parameterChildren = new ArrayList<>();
+    Map<String, Integer> internedSegments = Maps.newHashMap();
+    nodes.add(trie);
+    for (int i = 0; i < nodes.size(); i++) {
+      PathTrie<T> node = nodes.get(i);
+      TreeMap<Integer, Integer> children = new TreeMap<>();
+      for (Entry<String, PathTrie<T>> entry : node.getLiteralSubTries().entrySet()) {
+        Integer segmentId = internedSegments.get(entry.getKey());
+        if (segmentId == null) {
+          segmentId = internedSegments.size();
+          internedSegments.put(entry.getKey(), segmentId);
+        }
+        children.put(segmentId, nodes.size());
+        nodes.add(entry.getValue());
+      }
+      literalChildren.add(children);
+      if (node.getParameterSubTrie() != null) {
+        parameterChildren.add(nodes.size());
+        nodes.add(node.getParameterSubTrie());
+      } else {
+        parameterChildren.add(NO_NODE);
+      }
+    }
+
+    int tableSize = PathTrie.tableSizeFor(internedSegments.size());
+    this.segments = new String[tableSize];
+    this.segmentHashes = new int[tableSize];
+    this.segmentIds = new int[tableSize];
+    for (Entry<String, Integer> entry : internedSegments.entrySet()) {
+      int hash = entry.getKey().hashCode();
+      int slot = PathTrie.spread(hash) & (tableSize - 1);
+      while (segments[slot] != null) {
+        slot = (slot + 1) & (tableSize - 1);
+      }
+      segments[slot] = entry.getKey();
+      segmentHashes[slot] = hash;
+      segmentIds[slot] = entry.getValue();
+    }
+
+    int nodeCount = nodes.size();
+    int childCount = 0;
+    for (TreeMap<Integer, Integer> children : literalChildren) {
+      childCount += children.size();
+    }
+    this.childOffsets = new int[nodeCount + 1];
+    this.childSegmentIds = new int[childCount];
+    this.childNodes = new int[childCount];
+    this.parameterChildNodes = Ints.toArray(parameterChildren);
+    this.methodSlots = new MethodInfo[nodeCount * METHOD_COUNT];
+    int offset = 0;
+    for (int i = 0; i < nodeCount; i++) {
+      childOffsets[i] = offset;
+      for (Entry<Integer, Integer> child : literalChildren.get(i).entrySet()) {
+        childSegmentIds[offset] = child.getKey();
+        childNodes[offset] = child.getValue();
+        offset++;
+      }
+      for (Entry<HttpMethod, MethodInfo<T>> entry : nodes.get(i).getMethodInfos().entrySet()) {
+        methodSlots[i * METHOD_COUNT + entry.getKey().ordinal()] = entry.getValue();
+      }
+    }
+    childOffsets[nodeCount] = offset;
+    this.maxParameterCount = trie.getMaxParameterCount();
+  }
+
+  /**
+   * Compiles a {@link PathTrie}.
+   */
+  static <T> CompiledPathTrie<T> compile(PathTrie<T> trie) {
+    return new CompiledPathTrie<>(Preconditions.checkNotNull(trie, "trie"));
+  }
+
+  /**
+   * Returns a new {@link Resolution} able to hold the parameters of any path in this trie.
+   */
+  Resolution<T> newResolution() {
+    return new Resolution<>(maxParameterCount);
+  }
+
+  /**
+   * Attempts to resolve a path, with the same semantics as
+   * {@link PathTrie#resolve(HttpMethod, String, Resolution)}.
+   *
+   * @return whether or not the path was resolved
+   */
+  boolean resolve(HttpMethod method, String path, Resolution<T> resolution) {
+    Preconditions.checkNotNull(method, "method");
+    Preconditions.checkNotNull(path, "path");
+    resolution.reset(path);
+    int start = path.startsWith("/") ? 0 : -1;
+    int methodOrdinal = method.ordinal();
+    if (resolve(ROOT, methodOrdinal, path, start, true, resolution, 0)) {
+      return true;
+    }
+    return path.indexOf(':') >= 0
+        && resolve(ROOT, methodOrdinal, path, start, false, resolution, 0);
+  }
+
+  private boolean resolve(int node, int methodOrdinal, String path, int delimiterIndex,
+      boolean splitOnColon, Resolution<T> resolution, int parameterCount) {
+    int length = path.length();
+    if (delimiterIndex < length) {
+      char delimiter = delimiterIndex < 0 ? '/' : path.charAt(delimiterIndex);
+      int start = delimiterIndex + 1;
+      int end = start;
+      int hash = delimiter;
+      while (end < length) {
+        char c = path.charAt(end);
+        if (c == '/' || (splitOnColon && c == ':')) {
+          break;
+        }
+        hash = 31 * hash + c;
+        end++;
+      }
+      int child = getLiteralChild(node, getSegmentId(path, delimiter, start, end, hash));
+      if (child != NO_NODE && resolve(
+          child, methodOrdinal, path, end, splitOnColon, resolution, parameterCount)) {
+        return true;
+      }
+      child = parameterChildNodes[node];
+      if (child != NO_NODE) {
+        resolution.setParameterBounds(parameterCount, start, end);
+        return resolve(
+            child, methodOrdinal, path, end, splitOnColon, resolution, parameterCount + 1);
+      }
+      return false;
+    }
+    MethodInfo<T> methodInfo = methodSlots[node * METHOD_COUNT + methodOrdinal];
+    if (methodInfo != null) {
+      Preconditions.checkState(parameterCount == methodInfo.parameterNames.size());
+      resolution.setResult(methodInfo);
+      return true;
+    }
+    return false;
+  }
+
+  private int getSegmentId(String path, char delimiter, int start, int end, int hash) {
+    int mask = segments.length - 1;
+    int length = end - start;
+    for (int slot = PathTrie.spread(hash) & mask; ; slot = (slot + 1) & mask) {
+      String segment = segments[slot];
+      if (segment == null) {
+        return -1;
+      }
+      if (segmentHashes[slot] == hash && segment.length() == length + 1
+          && segment.charAt(0) == delimiter && segment.regionMatches(1, path, start, length)) {
+        return segmentIds[slot];
+      }
+    }
+  }
+
+  private int getLiteralChild(int node, int segmentId) {
+    if (segmentId < 0) {
+      return NO_NODE;
+    }
+    int index = Arrays.binarySearch(
+        childSegmentIds, childOffsets[node], childOffsets[node + 1], segmentId);
+    return index < 0 ? NO_NODE : childNodes[index];
+  }
+}
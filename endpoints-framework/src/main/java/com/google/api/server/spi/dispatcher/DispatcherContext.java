@@ -26,7 +26,7 @@ import java.util.Map;
 public class DispatcherContext {
   private final String httpMethod;
   private final String path;
-  private ImmutableMap<String, String> rawPathParameters = ImmutableMap.of();
+  private Map<String, String> rawPathParameters = ImmutableMap.of();
 
   public DispatcherContext(String httpMethod, String path) {
     this.httpMethod = Preconditions.checkNotNull(httpMethod, "httpMethod").toUpperCase();
@@ -43,13 +43,18 @@ public class DispatcherContext {
 
   /**
    * Gets the URL-decoded string values of the path parameters that were specified in the current
-   * request.
+   * request. When set by {@link PathDispatcher}, the map is an unmodifiable view which decodes
+   * values on first access.
    */
-  public ImmutableMap<String, String> getRawPathParameters() {
+  public Map<String, String> getRawPathParameters() {
     return rawPathParameters;
   }
 
+  /**
+   * Sets the path parameters of the current request. The map is used as is, without a copy, and
+   * must not be modified afterwards.
+   */
   public void setRawPathParameters(Map<String, String> rawPathParameters) {
-    this.rawPathParameters = ImmutableMap.copyOf(rawPathParameters);
+    this.rawPathParameters = Preconditions.checkNotNull(rawPathParameters, "rawPathParameters");
   }
 }
@@ -15,8 +15,9 @@
  */
 package com.google.api.server.spi.dispatcher;
 
-import com.google.api.server.spi.dispatcher.PathTrie.Result;
+import com.google.api.server.spi.dispatcher.PathTrie.Resolution;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
 
 import java.io.IOException;
 
@@ -24,36 +25,68 @@ import java.io.IOException;
  * A low-level dispatcher that executes a handler based on an HTTP method and a path. The dispatcher
  * is not responsible for most error handling. {@link DispatcherHandler} is allowed to throw an
  * {@link IOException} in the event that a low-level error (e.g. error writing a servlet response)
- * takes place. This is a fairly simple wrapper around {@link PathTrie}.
+ * takes place. Paths are collected in a {@link PathTrie}, which is compiled into a flat
+ * {@link CompiledPathTrie} when the dispatcher is built. Optionally, resolved routes are kept in a
+ * bounded {@link RouteCache}, so that hot paths are not resolved segment by segment each time.
  */
 public class PathDispatcher<ContextT extends DispatcherContext> {
-  private final PathTrie<DispatcherHandler<ContextT>> trie;
+  private static final CacheStats EMPTY_STATS = new CacheStats(0, 0, 0, 0, 0, 0);
+
+  private final CompiledPathTrie<DispatcherHandler<ContextT>> trie;
+  private final RouteCache<DispatcherHandler<ContextT>> routeCache;
 
   private PathDispatcher(Builder<ContextT> builder) {
-    this.trie = builder.trieBuilder.build();
+    this.trie = CompiledPathTrie.compile(builder.trieBuilder.build());
+    this.routeCache = builder.routeCacheSize > 0
+        ? new RouteCache<>(builder.routeCacheSize, builder.routeCacheAdmissionThreshold,
+            builder.routeCacheStatsEnabled)
+        : null;
   }
 
   /**
-   * Attempts to dispatch to a handler, given an HTTP method and path.
+   * Attempts to dispatch to a handler, given an HTTP method and path. The path parameters of the
+   * context are backed by a resolution owned by this dispatch, and decoded when first read.
    *
    * @return whether or not a handler was executed
    * @throws IOException if the underlying handler threw an exception.
+   * @throws IllegalArgumentException if a path parameter contains a malformed escape
    */
   public boolean dispatch(String httpMethod, String path, ContextT context) throws IOException {
     Preconditions.checkNotNull(httpMethod, "httpMethod");
     Preconditions.checkNotNull(path, "path");
     HttpMethod method = HttpMethod.fromString(httpMethod);
     if (method != null) {
-      Result<DispatcherHandler<ContextT>> result = trie.resolve(method, path);
-      if (result != null) {
-        context.setRawPathParameters(result.getRawParameters());
-        result.getResult().handle(context);
+      if (routeCache != null) {
+        RouteCache.Entry<DispatcherHandler<ContextT>> entry = routeCache.get(method, path);
+        if (entry != null) {
+          context.setRawPathParameters(entry.getParameters());
+          entry.getValue().handle(context);
+          return true;
+        }
+      }
+      // A resolution is a few ints and an array of values, and is never reused, so the parameter
+      // view handed to the context stays valid for as long as the context is kept.
+      Resolution<DispatcherHandler<ContextT>> resolution = trie.newResolution();
+      if (trie.resolve(method, path, resolution)) {
+        context.setRawPathParameters(resolution.getRawParameters());
+        if (routeCache != null) {
+          routeCache.put(method, path, resolution.getValue(), resolution.getRawParameters());
+        }
+        resolution.getValue().handle(context);
         return true;
       }
     }
     return false;
   }
 
+  /**
+   * Returns the hit, miss and eviction counts of the route cache. All counts are zero if the
+   * cache or its stats are disabled.
+   */
+  public CacheStats getRouteCacheStats() {
+    return routeCache != null ? routeCache.stats() : EMPTY_STATS;
+  }
+
   public static <T extends DispatcherContext> Builder<T> builder() {
     return new Builder<>();
   }
@@ -61,6 +94,9 @@ public class PathDispatcher<ContextT extends DispatcherContext> {
   public static class Builder<T extends DispatcherContext> {
 
     private final PathTrie.Builder<DispatcherHandler<T>> trieBuilder = PathTrie.builder(false);
+    private int routeCacheSize;
+    private int routeCacheAdmissionThreshold = 2;
+    private boolean routeCacheStatsEnabled;
 
     public Builder<T> add(String httpMethod, String pathTemplate, DispatcherHandler<T> handler) {
       Preconditions.checkNotNull(httpMethod, "httpMethod");
@@ -70,6 +106,36 @@ public class PathDispatcher<ContextT extends DispatcherContext> {
       return this;
     }
 
+    /**
+     * Sets the maximum number of resolved routes to cache. Defaults to 0, which disables the
+     * cache.
+     */
+    public Builder<T> setRouteCacheSize(int routeCacheSize) {
+      Preconditions.checkArgument(routeCacheSize >= 0, "routeCacheSize must not be negative");
+      this.routeCacheSize = routeCacheSize;
+      return this;
+    }
+
+    /**
+     * Sets how many times a route must be resolved before it is cached. Defaults to 2, so that
+     * paths seen only once do not evict hot routes.
+     */
+    public Builder<T> setRouteCacheAdmissionThreshold(int routeCacheAdmissionThreshold) {
+      Preconditions.checkArgument(
+          routeCacheAdmissionThreshold > 0, "routeCacheAdmissionThreshold must be positive");
+      this.routeCacheAdmissionThreshold = routeCacheAdmissionThreshold;
+      return this;
+    }
+
+    /**
+     * Sets if the route cache should record hit, miss and eviction counts. Defaults to
+     * {@code false}.
+     */
+    public Builder<T> setRouteCacheStatsEnabled(boolean routeCacheStatsEnabled) {
+      this.routeCacheStatsEnabled = routeCacheStatsEnabled;
+      return this;
+    }
+
     public PathDispatcher<T> build() {
       return new PathDispatcher<>(this);
     }
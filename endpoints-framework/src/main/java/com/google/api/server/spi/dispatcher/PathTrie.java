@@ -24,6 +24,8 @@ import com.google.common.collect.Maps;
 import com.google.common.flogger.FluentLogger;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
@@ -31,6 +33,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -56,16 +60,42 @@ public class PathTrie<T> {
   //this will split a String while capturing the delimiter
   private static final String SPLITTER_WITH_DELIMITER = "((?=[%1$s]))";
 
-  private final ImmutableMap<String, PathTrie<T>> subTries;
+  // Literal sub-tries in an open addressing table, keyed by the segment including its leading
+  // delimiter. Lookups hash a range of the request path, so no segment string is allocated.
+  private final String[] literalSegments;
+  private final PathTrie<T>[] literalSubTries;
+  private final PathTrie<T> parameterSubTrie;
   private final ImmutableMap<HttpMethod, MethodInfo<T>> httpMethodMap;
+  private final int maxParameterCount;
 
+  @SuppressWarnings({"unchecked", "rawtypes"})
   private PathTrie(Builder<T> builder) {
     this.httpMethodMap = ImmutableMap.copyOf(builder.httpMethodMap);
-    ImmutableMap.Builder<String, PathTrie<T>> subTriesBuilder = ImmutableMap.builder();
+    int tableSize = tableSizeFor(builder.subBuilders.size());
+    this.literalSegments = new String[tableSize];
+    this.literalSubTries = new PathTrie[tableSize];
+    PathTrie<T> parameterSubTrie = null;
+    int maxParameterCount = 0;
+    for (MethodInfo<T> methodInfo : httpMethodMap.values()) {
+      maxParameterCount = Math.max(maxParameterCount, methodInfo.parameterNames.size());
+    }
     for (Entry<String, Builder<T>> entry : builder.subBuilders.entrySet()) {
-      subTriesBuilder.put(entry.getKey(), new PathTrie<>(entry.getValue()));
+      PathTrie<T> subTrie = new PathTrie<>(entry.getValue());
+      maxParameterCount = Math.max(maxParameterCount, subTrie.maxParameterCount);
+      String segment = entry.getKey();
+      if (PARAMETER_PATH_SEGMENT.equals(segment)) {
+        parameterSubTrie = subTrie;
+      } else {
+        int slot = spread(segment.hashCode()) & (tableSize - 1);
+        while (literalSegments[slot] != null) {
+          slot = (slot + 1) & (tableSize - 1);
+        }
+        literalSegments[slot] = segment;
+        literalSubTries[slot] = subTrie;
+      }
     }
-    this.subTries = subTriesBuilder.build();
+    this.parameterSubTrie = parameterSubTrie;
+    this.maxParameterCount = maxParameterCount;
   }
 
   /**
@@ -74,49 +104,132 @@ public class PathTrie<T> {
    * URL-decoded values. If the path cannot be resolved, null is returned.
    */
   public Result<T> resolve(HttpMethod method, String path) {
+    Resolution<T> resolution = newResolution();
+    if (!resolve(method, path, resolution)) {
+      return null;
+    }
+    return new Result<>(resolution.getValue(), resolution.getRawParameters());
+  }
+
+  /**
+   * Attempts to resolve a path into a reusable {@link Resolution}, which must have been created
+   * by {@link #newResolution()} on this trie. Unlike {@link #resolve(HttpMethod, String)}, this
+   * does not allocate: the path is scanned in place, and parameter values are only extracted (and
+   * URL-decoded when they contain escapes) when read from {@link Resolution#getRawParameters()}.
+   *
+   * @return whether or not the path was resolved
+   * @throws IllegalArgumentException if a parameter of the resolved path has a malformed escape
+   */
+  public boolean resolve(HttpMethod method, String path, Resolution<T> resolution) {
     Preconditions.checkNotNull(method, "method");
     Preconditions.checkNotNull(path, "path");
-    Result<T> resolve = resolve(method, getPathSegments(path, "/:", false), 0, new ArrayList<>());
-    if (resolve == null) {
-      //required for backward compatibility of clients not encoding : in path segments as expected
-      resolve = resolve(method, getPathSegments(path, "/", false), 0, new ArrayList<>());
+    resolution.reset(path);
+    int start = path.startsWith("/") ? 0 : -1;
+    if (resolve(method, path, start, true, resolution, 0)) {
+      return true;
     }
-    return resolve;
+    //required for backward compatibility of clients not encoding : in path segments as expected,
+    //which only makes a difference if there is a colon to begin with
+    return path.indexOf(':') >= 0 && resolve(method, path, start, false, resolution, 0);
   }
 
-  private Result<T> resolve(
-      HttpMethod method, List<String> pathSegments, int index, List<String> rawParameters) {
-    if (index < pathSegments.size()) {
-      String segment = pathSegments.get(index);
-      PathTrie<T> subTrie = subTries.get(segment);
-      if (subTrie != null) {
-        Result<T> result = subTrie.resolve(method, pathSegments, index + 1, rawParameters);
-        if (result != null) {
-          return result;
+  /**
+   * Returns a new {@link Resolution} able to hold the parameters of any path in this trie.
+   */
+  public Resolution<T> newResolution() {
+    return new Resolution<>(maxParameterCount);
+  }
+
+  /**
+   * Resolves the segment starting at {@code delimiterIndex}, which is either the index of the
+   * delimiter in the path, or -1 for the implicit leading slash.
+   */
+  private boolean resolve(HttpMethod method, String path, int delimiterIndex,
+      boolean splitOnColon, Resolution<T> resolution, int parameterCount) {
+    int length = path.length();
+    if (delimiterIndex < length) {
+      char delimiter = delimiterIndex < 0 ? '/' : path.charAt(delimiterIndex);
+      int start = delimiterIndex + 1;
+      int end = start;
+      int hash = delimiter;
+      while (end < length) {
+        char c = path.charAt(end);
+        if (c == '/' || (splitOnColon && c == ':')) {
+          break;
         }
+        hash = 31 * hash + c;
+        end++;
       }
-      subTrie = subTries.get(PARAMETER_PATH_SEGMENT);
+      PathTrie<T> subTrie = getLiteralSubTrie(path, delimiter, start, end, hash);
+      if (subTrie != null && subTrie.resolve(
+          method, path, end, splitOnColon, resolution, parameterCount)) {
+        return true;
+      }
+      subTrie = parameterSubTrie;
       if (subTrie != null) {
         // TODO: We likely need to enforce non-empty values here.
-        rawParameters.add(segment.substring(1));
-        Result<T> result = subTrie.resolve(method, pathSegments, index + 1, rawParameters);
-        if (result == null) {
-          rawParameters.remove(rawParameters.size() - 1);
-        }
-        return result;
+        resolution.setParameterBounds(parameterCount, start, end);
+        return subTrie.resolve(method, path, end, splitOnColon, resolution, parameterCount + 1);
       }
-      return null;
-    } else if (httpMethodMap.containsKey(method)) {
-      MethodInfo<T> methodInfo = httpMethodMap.get(method);
-      ImmutableList<String> parameterNames = methodInfo.parameterNames;
-      Preconditions.checkState(rawParameters.size() == parameterNames.size());
-      Map<String, String> rawParameterMap = Maps.newHashMap();
-      for (int i = 0; i < parameterNames.size(); i++) {
-        rawParameterMap.put(parameterNames.get(i), decodeUri(rawParameters.get(i)));
+      return false;
+    }
+    MethodInfo<T> methodInfo = httpMethodMap.get(method);
+    if (methodInfo != null) {
+      Preconditions.checkState(parameterCount == methodInfo.parameterNames.size());
+      resolution.setResult(methodInfo);
+      return true;
+    }
+    return false;
+  }
+
+  private PathTrie<T> getLiteralSubTrie(
+      String path, char delimiter, int start, int end, int hash) {
+    int mask = literalSegments.length - 1;
+    int length = end - start;
+    for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+      String segment = literalSegments[slot];
+      if (segment == null) {
+        return null;
+      }
+      if (segment.length() == length + 1 && segment.charAt(0) == delimiter
+          && segment.regionMatches(1, path, start, length)) {
+        return literalSubTries[slot];
       }
-      return new Result<>(methodInfo.value, rawParameterMap);
     }
-    return null;
+  }
+
+  // The accessors below are used by CompiledPathTrie to flatten this trie.
+
+  Map<String, PathTrie<T>> getLiteralSubTries() {
+    Map<String, PathTrie<T>> subTries = Maps.newHashMap();
+    for (int i = 0; i < literalSegments.length; i++) {
+      if (literalSegments[i] != null) {
+        subTries.put(literalSegments[i], literalSubTries[i]);
+      }
+    }
+    return subTries;
+  }
+
+  PathTrie<T> getParameterSubTrie() {
+    return parameterSubTrie;
+  }
+
+  ImmutableMap<HttpMethod, MethodInfo<T>> getMethodInfos() {
+    return httpMethodMap;
+  }
+
+  int getMaxParameterCount() {
+    return maxParameterCount;
+  }
+
+  static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  // Keeps the table at most half full, so probe sequences stay short and always end on an empty
+  // slot.
+  static int tableSizeFor(int entries) {
+    return Integer.highestOneBit(Math.max(1, entries) * 2) << 1;
   }
 
   /**
@@ -141,6 +254,139 @@ public class PathTrie<T> {
     }
   }
 
+  /**
+   * A reusable holder for the outcome of {@link #resolve(HttpMethod, String, Resolution)}. The
+   * path parameters are kept as index ranges into the resolved path, and are exposed through an
+   * array-backed map view. The view is only valid until the next resolution, and a resolution
+   * must not be shared between threads.
+   */
+  public static final class Resolution<T> {
+    private final int[] parameterBounds;
+    private final String[] parameterValues;
+    private final ParameterView parameterView = new ParameterView();
+    private String path;
+    private MethodInfo<T> methodInfo;
+
+    Resolution(int maxParameterCount) {
+      this.parameterBounds = new int[maxParameterCount * 2];
+      this.parameterValues = new String[maxParameterCount];
+    }
+
+    public T getValue() {
+      return methodInfo == null ? null : methodInfo.value;
+    }
+
+    /**
+     * Returns a map from parameter names to URL-decoded values, backed by this resolution.
+     */
+    public Map<String, String> getRawParameters() {
+      return parameterView;
+    }
+
+    void reset(String path) {
+      this.path = path;
+      this.methodInfo = null;
+    }
+
+    void setParameterBounds(int index, int start, int end) {
+      parameterBounds[index * 2] = start;
+      parameterBounds[index * 2 + 1] = end;
+    }
+
+    /**
+     * Sets the method the path resolved to, rejecting malformed escapes in its parameters now
+     * rather than when they are decoded.
+     *
+     * @throws IllegalArgumentException if a parameter contains a malformed escape
+     */
+    void setResult(MethodInfo<T> methodInfo) {
+      ImmutableList<String> parameterNames = methodInfo.parameterNames;
+      for (int i = 0; i < parameterNames.size(); i++) {
+        checkEscapes(parameterNames.get(i), path, parameterBounds[i * 2],
+            parameterBounds[i * 2 + 1]);
+      }
+      this.methodInfo = methodInfo;
+      Arrays.fill(parameterValues, 0, parameterNames.size(), null);
+    }
+
+    private int parameterCount() {
+      return methodInfo == null ? 0 : methodInfo.parameterNames.size();
+    }
+
+    private int indexOf(Object name) {
+      if (methodInfo != null) {
+        ImmutableList<String> parameterNames = methodInfo.parameterNames;
+        for (int i = 0; i < parameterNames.size(); i++) {
+          if (parameterNames.get(i).equals(name)) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+    private String getParameterValue(int index) {
+      String value = parameterValues[index];
+      if (value == null) {
+        int start = parameterBounds[index * 2];
+        int end = parameterBounds[index * 2 + 1];
+        value = decodeUri(path, start, end);
+        parameterValues[index] = value;
+      }
+      return value;
+    }
+
+    private final class ParameterView extends AbstractMap<String, String> {
+      @Override
+      public int size() {
+        return parameterCount();
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+      }
+
+      @Override
+      public String get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : getParameterValue(index);
+      }
+
+      @Override
+      public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+          @Override
+          public int size() {
+            return parameterCount();
+          }
+
+          @Override
+          public Iterator<Entry<String, String>> iterator() {
+            return new Iterator<Entry<String, String>>() {
+              private int index;
+
+              @Override
+              public boolean hasNext() {
+                return index < parameterCount();
+              }
+
+              @Override
+              public Entry<String, String> next() {
+                if (!hasNext()) {
+                  throw new NoSuchElementException();
+                }
+                int current = index++;
+                return new SimpleImmutableEntry<>(
+                    methodInfo.parameterNames.get(current), getParameterValue(current));
+              }
+            };
+          }
+        };
+      }
+    }
+  }
+
   /**
    * Returns a new, path conflict validating {@link PathTrie.Builder}.
    *
@@ -262,17 +508,44 @@ public class PathTrie<T> {
     return pathSegments;
   }
 
-  private static String decodeUri(String value) {
-    try {
-      return URLDecoder.decode(value, "UTF-8");
-    } catch (UnsupportedEncodingException e) {
-      return value;
+  /**
+   * Checks that every percent sign in a path parameter starts an escape of two hex digits, which
+   * guarantees that decoding the parameter later cannot fail.
+   */
+  private static void checkEscapes(String parameterName, String path, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (path.charAt(i) == '%') {
+        if (end - i < 3 || !isHexDigit(path.charAt(i + 1)) || !isHexDigit(path.charAt(i + 2))) {
+          throw new IllegalArgumentException(
+              String.format("Malformed escape in path parameter '%s'", parameterName));
+        }
+        i += 2;
+      }
+    }
+  }
+
+  private static boolean isHexDigit(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+  }
+
+  private static String decodeUri(String path, int start, int end) {
+    String value = path.substring(start, end);
+    for (int i = start; i < end; i++) {
+      char c = path.charAt(i);
+      if (c == '%' || c == '+') {
+        try {
+          return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+          return value;
+        }
+      }
     }
+    return value;
   }
 
-  private static class MethodInfo<T> {
-    private final ImmutableList<String> parameterNames;
-    private final T value;
+  static class MethodInfo<T> {
+    final ImmutableList<String> parameterNames;
+    final T value;
 
     MethodInfo(List<String> parameterNames, T value) {
       this.parameterNames = ImmutableList.copyOf(parameterNames);
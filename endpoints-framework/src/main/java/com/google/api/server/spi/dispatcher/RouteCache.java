@@ -0,0 +1,199 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.dispatcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, lock-free cache of resolved routes, keyed by HTTP method and raw path. Entries are
+ * immutable and published with atomic array operations, so readers never see a partially built
+ * entry, and concurrent writers can at worst drop an insertion or evict an entry early.
+ *
+ * <p>The table is two-way set associative: each key may live in one of two adjacent slots. When
+ * both are taken, the entry that was not read since the last eviction in that set is replaced
+ * (second chance). An optional admission filter keeps one-off paths (for example, with
+ * ever-changing ids) from evicting hot routes: a path is only cached once it was missed
+ * {@code admissionThreshold} times, as counted in a small, periodically halved frequency table.
+ */
+final class RouteCache<T> {
+  private final AtomicReferenceArray<Entry<T>> table;
+  private final int mask;
+  private final int admissionThreshold;
+  private final AtomicIntegerArray frequencies;
+  private final AtomicInteger frequencySamples = new AtomicInteger();
+  private final int frequencySampleSize;
+  private final boolean recordStats;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+
+  /**
+   * @param maximumSize the maximum number of cached routes, rounded up to a power of two
+   * @param admissionThreshold how many misses a route needs before it is cached
+   * @param recordStats whether or not hit, miss and eviction counts are recorded
+   */
+  RouteCache(int maximumSize, int admissionThreshold, boolean recordStats) {
+    Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+    Preconditions.checkArgument(admissionThreshold > 0, "admissionThreshold must be positive");
+    int size = Math.max(2, Integer.highestOneBit(maximumSize - 1) << 1);
+    this.table = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+    this.admissionThreshold = admissionThreshold;
+    this.frequencies = admissionThreshold > 1 ? new AtomicIntegerArray(size) : null;
+    this.frequencySampleSize = size * 10;
+    this.recordStats = recordStats;
+  }
+
+  /**
+   * Returns the cached route for a method and path, or null.
+   */
+  Entry<T> get(HttpMethod method, String path) {
+    int hash = hash(method, path);
+    int slot = indexFor(hash);
+    Entry<T> entry = table.get(slot);
+    if (entry == null || !entry.matches(hash, method, path)) {
+      entry = table.get(slot + 1);
+      if (entry == null || !entry.matches(hash, method, path)) {
+        if (recordStats) {
+          missCount.increment();
+        }
+        return null;
+      }
+    }
+    entry.referenced = true;
+    if (recordStats) {
+      hitCount.increment();
+    }
+    return entry;
+  }
+
+  /**
+   * Caches a resolved route, if it is admitted.
+   */
+  void put(HttpMethod method, String path, T value, Map<String, String> parameters) {
+    int hash = hash(method, path);
+    if (!admit(hash)) {
+      return;
+    }
+    // Only admitted routes pay for copying their parameters.
+    Entry<T> entry = new Entry<>(hash, method, path, value, ImmutableMap.copyOf(parameters));
+    int slot = indexFor(hash);
+    for (int i = slot; i < slot + 2; i++) {
+      Entry<T> existing = table.get(i);
+      if (existing == null) {
+        if (table.compareAndSet(i, null, entry)) {
+          return;
+        }
+      } else if (existing.matches(hash, method, path)) {
+        // Another thread cached the same route first.
+        return;
+      }
+    }
+    Entry<T> first = table.get(slot);
+    Entry<T> second = table.get(slot + 1);
+    int victimSlot;
+    Entry<T> victim;
+    if (first != null && !first.referenced) {
+      victimSlot = slot;
+      victim = first;
+    } else if (second != null && !second.referenced) {
+      victimSlot = slot + 1;
+      victim = second;
+    } else {
+      if (second != null) {
+        second.referenced = false;
+      }
+      victimSlot = slot;
+      victim = first;
+    }
+    // If another thread replaced the victim in the meantime, drop this insertion.
+    if (table.compareAndSet(victimSlot, victim, entry) && victim != null && recordStats) {
+      evictionCount.increment();
+    }
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts, if stats are recorded.
+   */
+  CacheStats stats() {
+    return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0, evictionCount.sum());
+  }
+
+  private boolean admit(int hash) {
+    if (frequencies == null) {
+      return true;
+    }
+    int frequency = frequencies.incrementAndGet(indexFor(hash * 0x9E3779B9));
+    int samples = frequencySamples.incrementAndGet();
+    if (samples >= frequencySampleSize && frequencySamples.compareAndSet(samples, 0)) {
+      // Age the frequencies so that formerly hot routes do not stay admitted forever.
+      for (int i = 0; i < frequencies.length(); i++) {
+        frequencies.getAndUpdate(i, count -> count >>> 1);
+      }
+    }
+    return frequency >= admissionThreshold;
+  }
+
+  private int indexFor(int hash) {
+    return (hash ^ (hash >>> 16)) & mask & ~1;
+  }
+
+  private static int hash(HttpMethod method, String path) {
+    return 31 * path.hashCode() + method.ordinal();
+  }
+
+  /**
+   * A cached route, with its fully resolved value and path parameters.
+   */
+  static final class Entry<T> {
+    private final int hash;
+    private final HttpMethod method;
+    private final String path;
+    private final T value;
+    private final ImmutableMap<String, String> parameters;
+    // Second chance bit. Races on it only affect which entry is evicted next.
+    private boolean referenced;
+
+    private Entry(int hash, HttpMethod method, String path, T value,
+        ImmutableMap<String, String> parameters) {
+      this.hash = hash;
+      this.method = method;
+      this.path = path;
+      this.value = value;
+      this.parameters = parameters;
+    }
+
+    T getValue() {
+      return value;
+    }
+
+    ImmutableMap<String, String> getParameters() {
+      return parameters;
+    }
+
+    private boolean matches(int hash, HttpMethod method, String path) {
+      return this.hash == hash && this.method == method && this.path.equals(path);
+    }
+  }
+}
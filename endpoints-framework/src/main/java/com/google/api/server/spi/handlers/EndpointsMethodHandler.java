@@ -18,30 +18,54 @@ package com.google.api.server.spi.handlers;
 import static org.apache.http.HttpHeaders.CONTENT_TYPE;
 import static org.apache.http.HttpHeaders.LOCATION;
 
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.api.server.spi.EndpointMethod;
 import com.google.api.server.spi.EndpointsContext;
+import com.google.api.server.spi.MethodInvoker;
 import com.google.api.server.spi.Headers;
 import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.ServletInitializationParameters;
 import com.google.api.server.spi.SystemService;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.ApiCacheControl;
+import com.google.api.server.spi.config.ApiResponseCompression;
+import com.google.api.server.spi.config.AuthLevel;
+import com.google.api.server.spi.config.model.ApiCacheControlConfig;
 import com.google.api.server.spi.config.model.ApiConfig;
+import com.google.api.server.spi.config.model.ApiIssuerAudienceConfig;
 import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.api.server.spi.config.model.ApiSerializationConfig;
 import com.google.api.server.spi.config.model.StandardParameters;
 import com.google.api.server.spi.dispatcher.DispatcherHandler;
 import com.google.api.server.spi.request.Attribute;
+import com.google.api.server.spi.request.AuthenticatorChain;
+import com.google.api.server.spi.request.Auth;
 import com.google.api.server.spi.request.ParamReader;
+import com.google.api.server.spi.request.ParameterBindingPlan;
 import com.google.api.server.spi.request.RestServletRequestParamReader;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.FieldMask;
 import com.google.api.server.spi.response.InternalServerErrorException;
 import com.google.api.server.spi.response.RedirectException;
+import com.google.api.server.spi.response.ResponseCache;
+import com.google.api.server.spi.response.ResponseCompression;
+import com.google.api.server.spi.response.ResponseSizeEstimator;
 import com.google.api.server.spi.response.RestResponseResultWriter;
+import com.google.api.server.spi.response.RestResponseResultWriter.PreEncodedError;
 import com.google.api.server.spi.response.ResultWriter;
+import com.google.api.server.spi.response.ServletResponseResultWriter;
+import com.google.api.server.spi.response.UnauthorizedException;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
 import com.google.common.flogger.FluentLogger;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -52,24 +76,87 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class EndpointsMethodHandler {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final String BACKEND_ERROR_MESSAGE = "backend error";
   private final ServletInitializationParameters initParameters;
   private final ServletContext servletContext;
   private final EndpointMethod endpointMethod;
   private final ApiMethodConfig methodConfig;
   private final SystemService systemService;
   private final RestHandler restHandler;
+  private final MethodInvoker invoker;
   private final String restPath;
+  private final ApiSerializationConfig serializationConfig;
+  private final ParameterBindingPlan bindingPlan;
+  private final AuthenticatorChain authenticators;
+  private final boolean skipTokenAuth;
+  // Resolved once, since looking up mappers is costly compared to writing small responses.
+  private final ObjectWriter objectWriter;
+  private final ObjectWriter prettyObjectWriter;
+  private final ObjectWriter errorObjectWriter;
+  private final ObjectWriter prettyErrorObjectWriter;
+  private final PreEncodedError backendError;
+  private final PreEncodedError prettyBackendError;
+  private final ResponseSizeEstimator sizeEstimator = new ResponseSizeEstimator();
+  private final ResponseCompression compression;
+  private final boolean hashEntityTags;
+  private final String cacheControl;
+  private final ResponseCache responseCache;
+  private final ResponseCache.MethodId cacheMethodId;
+  private final boolean privateCache;
+  private final int cacheMaxAge;
 
   public EndpointsMethodHandler(ServletInitializationParameters initParameters,
       ServletContext servletContext, EndpointMethod endpointMethod, ApiMethodConfig methodConfig,
       SystemService systemService) {
+    this(initParameters, servletContext, endpointMethod, methodConfig, systemService, null);
+  }
+
+  /**
+   * Creates a handler which serves GET requests from a response cache, if the cache control of
+   * the method allows it.
+   */
+  public EndpointsMethodHandler(ServletInitializationParameters initParameters,
+      ServletContext servletContext, EndpointMethod endpointMethod, ApiMethodConfig methodConfig,
+      SystemService systemService, @Nullable ResponseCache responseCache) {
     this.initParameters = initParameters;
     this.servletContext = servletContext;
     this.endpointMethod = endpointMethod;
     this.methodConfig = methodConfig;
     this.systemService = systemService;
     this.restHandler = new RestHandler();
+    this.invoker = endpointMethod.getInvoker();
     this.restPath = createRestPath(methodConfig);
+    this.serializationConfig =
+        systemService.getSerializationConfig(endpointMethod.getEndpointClass().getName());
+    this.bindingPlan =
+        ParameterBindingPlan.compile(endpointMethod, methodConfig, serializationConfig);
+    this.authenticators = AuthenticatorChain.of(methodConfig.getAuthenticators());
+    this.skipTokenAuth = Attribute.isTokenAuthSkipped(methodConfig, initParameters);
+    this.objectWriter = ServletResponseResultWriter.createObjectWriter(serializationConfig);
+    this.prettyObjectWriter = ServletResponseResultWriter.prettyPrinting(objectWriter);
+    this.errorObjectWriter = ServletResponseResultWriter.createObjectWriter(null);
+    this.prettyErrorObjectWriter = ServletResponseResultWriter.prettyPrinting(errorObjectWriter);
+    this.backendError = preEncodeBackendError(errorObjectWriter);
+    this.prettyBackendError = preEncodeBackendError(prettyErrorObjectWriter);
+    this.compression = isResponseCompressionEnabled(initParameters, endpointMethod)
+        ? new ResponseCompression(initParameters.getResponseCompressionThreshold()) : null;
+    this.hashEntityTags =
+        initParameters.isETagsEnabled() && "GET".equals(methodConfig.getHttpMethod());
+    ApiCacheControlConfig cacheControlConfig = methodConfig.getCacheControlConfig();
+    // Media is streamed from its source and never held in the response cache.
+    boolean cacheable = "GET".equals(methodConfig.getHttpMethod())
+        && !methodConfig.isMediaDownload() && isCacheable(cacheControlConfig)
+        && cacheControlConfig.getMaxAge() > 0;
+    // Public caching is set for whole APIs too, but responses which may depend on the user must
+    // not be served to other callers, so they are cached per user.
+    this.privateCache = ApiCacheControl.Type.PRIVATE.equals(cacheControlConfig.getType())
+        || (isCacheable(cacheControlConfig) && isUserSpecific(methodConfig, bindingPlan));
+    this.cacheControl = "GET".equals(methodConfig.getHttpMethod())
+        ? createCacheControl(cacheControlConfig, privateCache) : null;
+    this.responseCache = cacheable ? responseCache : null;
+    this.cacheMethodId =
+        ResponseCache.methodId(endpointMethod.getEndpointClass(), endpointMethod.getMethod());
+    this.cacheMaxAge = cacheControlConfig.getMaxAge();
   }
 
   public String getRestMethod() {
@@ -87,8 +174,8 @@ public class EndpointsMethodHandler {
   @VisibleForTesting
   protected ParamReader createRestParamReader(EndpointsContext context,
       ApiSerializationConfig serializationConfig, Object apiService) {
-    return new RestServletRequestParamReader(apiService, endpointMethod, context,
-        servletContext, serializationConfig, methodConfig, initParameters);
+    return new RestServletRequestParamReader(apiService, endpointMethod, bindingPlan, context,
+        servletContext, methodConfig, initParameters);
   }
 
   /**
@@ -103,7 +190,22 @@ public class EndpointsMethodHandler {
   }
 
   private void writeError(EndpointsContext context, ServiceException error) throws IOException {
-      _createResultWriter(context, null).writeError(error);
+    createResultWriter(context, errorObjectWriter, prettyErrorObjectWriter).writeError(error);
+  }
+
+  private void writeBackendError(EndpointsContext context) throws IOException {
+    createResultWriter(context, errorObjectWriter, prettyErrorObjectWriter).writeError(
+        StandardParameters.shouldPrettyPrint(context) ? prettyBackendError : backendError);
+  }
+
+  private PreEncodedError preEncodeBackendError(ObjectWriter writer) {
+    try {
+      return RestResponseResultWriter.preEncodeError(
+          new InternalServerErrorException(BACKEND_ERROR_MESSAGE), writer,
+          initParameters.isExceptionCompatibilityEnabled());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to encode the backend error", e);
+    }
   }
 
   /*
@@ -150,10 +252,40 @@ public class EndpointsMethodHandler {
   }
 
   private ResultWriter _createResultWriter(EndpointsContext context,
-      ApiSerializationConfig serializationConfig) {
-    return new RestResponseResultWriter(context.getResponse(), serializationConfig,
-        StandardParameters.shouldPrettyPrint(context),
-        initParameters.isAddContentLength(),
+      ApiSerializationConfig serializationConfig) throws ServiceException {
+    RestResponseResultWriter writer;
+    if (serializationConfig != this.serializationConfig) {
+      writer = new RestResponseResultWriter(context.getResponse(), serializationConfig,
+          StandardParameters.shouldPrettyPrint(context),
+          initParameters.isAddContentLength(),
+          initParameters.isExceptionCompatibilityEnabled());
+    } else {
+      writer = createResultWriter(context, objectWriter, prettyObjectWriter);
+    }
+    if (compression != null) {
+      writer.setCompression(compression, ResponseCompression.negotiate(
+          context.getRequest().getHeader(Headers.ACCEPT_ENCODING)));
+    }
+    writer.setEntityTags(context.getRequest(), hashEntityTags);
+    writer.setCacheControl(cacheControl);
+    writer.setStreamingFlushThreshold(initParameters.getStreamingFlushThreshold());
+    if (methodConfig.isMediaDownload() && isAltMedia(context.getRequest())) {
+      writer.setMediaRequest(context.getRequest());
+    }
+    String fields = context.getRequest().getParameter(StandardParameters.FIELDS);
+    if (!Strings.isNullOrEmpty(fields)) {
+      writer.setFieldMask(FieldMask.compile(fields));
+    }
+    return writer;
+  }
+
+  private RestResponseResultWriter createResultWriter(EndpointsContext context,
+      ObjectWriter writer, ObjectWriter prettyWriter) {
+    if (StandardParameters.shouldPrettyPrint(context)) {
+      writer = prettyWriter;
+    }
+    return new RestResponseResultWriter(context.getResponse(), writer, writer,
+        initParameters.isAddContentLength(), sizeEstimator,
         initParameters.isExceptionCompatibilityEnabled());
   }
 
@@ -162,11 +294,12 @@ public class EndpointsMethodHandler {
     public void handle(EndpointsContext context) throws IOException {
       try {
         HttpServletRequest request = context.getRequest();
-        Attribute.bindStandardRequestAttributes(request, methodConfig, initParameters);
-        String serviceName = endpointMethod.getEndpointClass().getName();
-        Object service = systemService.findService(serviceName);
-        ApiSerializationConfig serializationConfig = systemService.getSerializationConfig(
-            serviceName);
+        context.setMethod(methodConfig, authenticators,
+            initParameters.isClientIdWhitelistEnabled(), skipTokenAuth);
+        if (!methodConfig.isMediaDownload() && isAltMedia(request)) {
+          throw new BadRequestException("alt=media is not supported by this method");
+        }
+        Object service = systemService.findService(endpointMethod.getEndpointClass().getName());
         ParamReader reader = createRestParamReader(context, serializationConfig, service);
         ResultWriter writer = createResultWriter(context, serializationConfig);
         if (request.getHeader(Headers.ORIGIN) != null) {
@@ -174,21 +307,140 @@ public class EndpointsMethodHandler {
           CorsHandler.allowOrigin(request, response);
           CorsHandler.setAccessControlAllowCredentials(response);
         }
-        systemService.invokeServiceMethod(service, endpointMethod.getMethod(), methodConfig.getEffectiveResponseStatus(), reader, writer);
+        if (responseCache != null && writer instanceof ServletResponseResultWriter
+            && writeCached(context, (ServletResponseResultWriter) writer)) {
+          return;
+        }
+        try {
+          systemService.invokeServiceMethod(
+              service, invoker, methodConfig.getEffectiveResponseStatus(), reader, writer);
+        } finally {
+          if (reader instanceof Closeable) {
+            // Releases uploaded media.
+            ((Closeable) reader).close();
+          }
+        }
       } catch (RedirectException e) {
         writeRedirect(context, e);
       } catch (ServiceException e) {
         writeError(context, e);
       } catch (Exception e) {
+        if (context.getResponse().isCommitted()) {
+          // A streamed response failed midway. The status was already sent, so the connection is
+          // aborted for the client to notice that the body is incomplete.
+          logger.atWarning().withCause(e).log("streamed response failed after it was committed");
+          throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
         // All exceptions here are unexpected, including the ServiceException that may be thrown by
         // the findService call. We return an internal server error and leave the details in the
         // backend log.
         logger.atWarning().withCause(e).log("exception occurred while invoking backend method");
-        writeError(context, new InternalServerErrorException("backend error"));
+        writeBackendError(context);
       }
     }
   }
 
+  /**
+   * Writes the cached response of a request, or else sets up the writer to cache it.
+   *
+   * @return whether the response was cached
+   */
+  private boolean writeCached(EndpointsContext context, ServletResponseResultWriter writer)
+      throws ServiceException, IOException {
+    HttpServletRequest request = context.getRequest();
+    String user = null;
+    if (privateCache) {
+      // Runs the same authenticators and client id checks as an invocation would, so a cached
+      // response is never served to a request which the method would reject.
+      User authenticatedUser = Auth.getAuthenticatedUser(context);
+      if (authenticatedUser != null) {
+        user = getCacheUser(authenticatedUser);
+      } else if (methodConfig.getAuthLevel() == AuthLevel.REQUIRED
+          && bindingPlan.hasUserParameter()) {
+        throw new UnauthorizedException("Valid user credentials are required.");
+      }
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, String[]> queryParameters = request.getParameterMap();
+    ResponseCache.Key key =
+        ResponseCache.key(cacheMethodId, context.getRawPathParameters(), queryParameters, user);
+    ResponseCache.Entry entry = responseCache.get(key);
+    if (entry != null) {
+      writer.writeCached(entry);
+      return true;
+    }
+    writer.setResponseCache(responseCache, key, cacheMaxAge);
+    return false;
+  }
+
+  /**
+   * Returns whether the raw media of a download is requested, rather than its JSON metadata.
+   */
+  private static boolean isAltMedia(HttpServletRequest request) {
+    return StandardParameters.ALT_MEDIA.equals(request.getParameter(StandardParameters.ALT));
+  }
+
+  private static boolean isCacheable(ApiCacheControlConfig cacheControlConfig) {
+    return ApiCacheControl.Type.PUBLIC.equals(cacheControlConfig.getType())
+        || ApiCacheControl.Type.PRIVATE.equals(cacheControlConfig.getType());
+  }
+
+  /**
+   * Returns whether a response may depend on the user. Besides methods taking the user, this
+   * includes methods which can read it from the request, and methods with authentication
+   * configured, whose requests must be authenticated even when served from the cache.
+   */
+  private static boolean isUserSpecific(ApiMethodConfig methodConfig,
+      ParameterBindingPlan bindingPlan) {
+    return methodConfig.getAuthLevel() == AuthLevel.REQUIRED || bindingPlan.hasUserParameter()
+        || bindingPlan.hasRequestParameter() || hasAuthentication(methodConfig);
+  }
+
+  private static boolean hasAuthentication(ApiMethodConfig methodConfig) {
+    List<?> authenticators = methodConfig.getAuthenticators();
+    List<String> audiences = methodConfig.getAudiences();
+    ApiIssuerAudienceConfig issuerAudiences = methodConfig.getIssuerAudiences();
+    return (authenticators != null && !authenticators.isEmpty())
+        || (audiences != null && !audiences.isEmpty())
+        || (issuerAudiences.isSpecified() && !issuerAudiences.isEmpty());
+  }
+
+  /**
+   * Returns the user part of the cache key. Both the id and the email are used, since users
+   * authenticated by different issuers may have the same id.
+   */
+  private static String getCacheUser(User user) {
+    String id = user.getId() == null ? "-" : user.getId().length() + ":" + user.getId();
+    return user.getEmail() == null ? id : id + "@" + user.getEmail();
+  }
+
+  /**
+   * Returns the Cache-Control header of a method, or null if it did not opt in to caching, in
+   * which case no header is sent.
+   */
+  @Nullable
+  private static String createCacheControl(ApiCacheControlConfig cacheControlConfig,
+      boolean privateCache) {
+    if (!isCacheable(cacheControlConfig)) {
+      return null;
+    }
+    String type = privateCache ? ApiCacheControl.Type.PRIVATE : cacheControlConfig.getType();
+    return type + ", max-age=" + Math.max(0, cacheControlConfig.getMaxAge());
+  }
+
+  private static boolean isResponseCompressionEnabled(
+      ServletInitializationParameters initParameters, EndpointMethod endpointMethod) {
+    if (!initParameters.isResponseCompressionEnabled()) {
+      return false;
+    }
+    ApiResponseCompression annotation =
+        endpointMethod.getMethod().getAnnotation(ApiResponseCompression.class);
+    if (annotation == null) {
+      annotation = endpointMethod.getEndpointClass().getAnnotation(ApiResponseCompression.class);
+    }
+    return annotation == null || annotation.enabled();
+  }
+
   private static String createRestPath(ApiMethodConfig methodConfig) {
     // Don't include the api name or version if the path starts with a slash.
     if (methodConfig.getPath().startsWith("/")) {
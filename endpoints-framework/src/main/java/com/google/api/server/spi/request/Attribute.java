@@ -70,6 +70,11 @@ public class Attribute {
    * have failed anyway because of unauthorized client id or audience.
    */
   public static final String ID_TOKEN = "endpoints:Id-Token";
+  /**
+   * If set, a {@link String} with the entity tag of the current response, as supplied by the API
+   * method through {@link com.google.api.server.spi.response.EntityTags}.
+   */
+  public static final String ENTITY_TAG = "endpoints:Entity-Tag";
 
   private final HttpServletRequest request;
 
@@ -95,7 +100,8 @@ public class Attribute {
   }
 
   public boolean isEnabled(String attr) {
-    return request.getAttribute(attr) == null ? false : (Boolean) request.getAttribute(attr);
+    Object value = request.getAttribute(attr);
+    return value == null ? false : (Boolean) value;
   }
 
   public static Attribute bindStandardRequestAttributes(HttpServletRequest request,
@@ -104,11 +110,20 @@ public class Attribute {
     Attribute attr = Attribute.from(request);
     attr.set(Attribute.ENABLE_CLIENT_ID_WHITELIST, initParameters.isClientIdWhitelistEnabled());
     attr.set(Attribute.API_METHOD_CONFIG, methodConfig);
-    // No clientId is allowed. Producer is not interested in Jwt/OAuth2 authentication.
-    if (initParameters.isClientIdWhitelistEnabled()
-        && Strings.isEmptyOrNull(methodConfig.getClientIds())) {
+    if (isTokenAuthSkipped(methodConfig, initParameters)) {
       attr.set(Attribute.SKIP_TOKEN_AUTH, true);
     }
     return attr;
   }
+
+  /**
+   * Returns whether token-based authentications should be skipped for a method, which is the
+   * value of {@link #SKIP_TOKEN_AUTH} once the standard attributes are bound.
+   */
+  public static boolean isTokenAuthSkipped(ApiMethodConfig methodConfig,
+      ServletInitializationParameters initParameters) {
+    // No clientId is allowed. Producer is not interested in Jwt/OAuth2 authentication.
+    return initParameters.isClientIdWhitelistEnabled()
+        && Strings.isEmptyOrNull(methodConfig.getClientIds());
+  }
 }
@@ -15,24 +15,21 @@
  */
 package com.google.api.server.spi.request;
 
+import com.google.api.server.spi.EndpointsContext;
 import com.google.api.server.spi.EnvUtil;
 import com.google.api.server.spi.ServiceException;
-import com.google.api.server.spi.auth.EndpointsAuthenticator;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.config.Authenticator;
-import com.google.api.server.spi.config.Singleton;
 import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.common.annotations.VisibleForTesting;
 
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 
 /**
  * Utilities for end user authentication.
  */
 public class Auth {
-  private static final Singleton.Instantiator<Authenticator> INSTANTIATOR
-      = new Singleton.Instantiator<Authenticator>(new EndpointsAuthenticator());
-
   /**
    * Must be used to instantiate new {@link Authenticator}s to honor
    * {@link com.google.api.server.spi.config.Singleton} contract.
@@ -41,42 +38,70 @@ public class Auth {
    * com.google.api.server.spi.config.Singleton}
    */
   public static Authenticator instantiateAuthenticator(Class<? extends Authenticator> clazz) {
-    return INSTANTIATOR.getInstanceOrDefault(clazz);
+    return AuthenticatorChain.instantiate(clazz);
   }
 
   private final HttpServletRequest request;
   private final Attribute attr;
   private final ApiMethodConfig config;
+  private final AuthenticatorChain authenticators;
 
   @VisibleForTesting
   Auth(HttpServletRequest request) {
+    this(request, null);
+  }
+
+  private Auth(HttpServletRequest request, @Nullable AuthenticatorChain authenticators) {
     this.request = request;
     attr = Attribute.from(request);
     config = attr.get(Attribute.API_METHOD_CONFIG);
+    this.authenticators = authenticators;
   }
 
   static Auth from(HttpServletRequest request) {
     return new Auth(request);
   }
 
+  /**
+   * Returns the {@code Auth} of a dispatched request, with the authenticators resolved by its
+   * method handler. Binds the standard attributes, which the authenticators read, to the request.
+   */
+  static Auth from(EndpointsContext context) {
+    context.bindStandardAttributes();
+    return new Auth(context.getRequest(), context.getAuthenticators());
+  }
+
+  /**
+   * Returns the authenticator chain resolved for the API method, or resolves it from the method
+   * configuration if it was not resolved by a method handler.
+   */
+  private AuthenticatorChain getAuthenticatorChain() {
+    return authenticators != null
+        ? authenticators : AuthenticatorChain.of(config.getAuthenticators());
+  }
+
   @VisibleForTesting
   Iterable<Authenticator> getAuthenticatorInstances() {
-    return INSTANTIATOR.getInstancesOrDefault(config.getAuthenticators());
+    return getAuthenticatorChain().getInstances();
   }
 
   /**
    * Authenticate the request and retrieve a {@code User}. Should only run once per request.
    */
   User authenticate() throws ServiceException {
-    Iterable<Authenticator> authenticators = getAuthenticatorInstances();
-    User user = null;
-    if (authenticators != null) {
-      for (Authenticator authenticator : authenticators) {
-        user = authenticator.authenticate(request);
-        if (user != null) {
-          break;
-        }
-      }
+    return getAuthenticatorChain().authenticate(request);
+  }
+
+  /**
+   * Returns the user authenticated for a dispatched request, authenticating it on the first call.
+   *
+   * @return the user, or null if the request is not authenticated
+   */
+  public static User getAuthenticatedUser(EndpointsContext context) throws ServiceException {
+    User user = context.getAuthenticatedUser();
+    if (user == null) {
+      user = from(context).authenticate();
+      context.setAuthenticatedUser(user);
     }
     return user;
   }
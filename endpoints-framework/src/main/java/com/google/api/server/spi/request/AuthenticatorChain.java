@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import com.google.api.server.spi.ServiceException;
+import com.google.api.server.spi.auth.EndpointsAuthenticator;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.Authenticator;
+import com.google.api.server.spi.config.Singleton;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The authenticators of an API method, resolved once when the method is set up. Instances of
+ * @{@link Singleton} authenticators are created eagerly and shared; other authenticators are
+ * created for each request through a cached constructor handle, since they may keep state.
+ */
+public final class AuthenticatorChain {
+  private static final Singleton.Instantiator<Authenticator> INSTANTIATOR =
+      new Singleton.Instantiator<Authenticator>(new EndpointsAuthenticator());
+
+  private final Authenticator[] instances;
+  // Indexed like instances, set only for authenticators created per request.
+  private final Supplier<Authenticator>[] factories;
+
+  private AuthenticatorChain(Authenticator[] instances, Supplier<Authenticator>[] factories) {
+    this.instances = instances;
+    this.factories = factories;
+  }
+
+  /**
+   * Resolves a list of authenticator classes, skipping those which cannot be instantiated.
+   *
+   * @param classes the authenticator classes, or null for the default authenticator
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public static AuthenticatorChain of(@Nullable List<Class<? extends Authenticator>> classes) {
+    if (classes == null) {
+      return new AuthenticatorChain(
+          new Authenticator[] {INSTANTIATOR.getInstanceOrDefault(null)}, new Supplier[1]);
+    }
+    List<Authenticator> instances = new ArrayList<>(classes.size());
+    List<Supplier<Authenticator>> factories = new ArrayList<>(classes.size());
+    for (Class<? extends Authenticator> clazz : classes) {
+      Supplier<Authenticator> factory = INSTANTIATOR.getFactory(clazz);
+      if (factory == null) {
+        continue;
+      }
+      boolean singleton = clazz.getAnnotation(Singleton.class) != null;
+      instances.add(singleton ? factory.get() : null);
+      factories.add(singleton ? null : factory);
+    }
+    return new AuthenticatorChain(instances.toArray(new Authenticator[0]),
+        factories.toArray(new Supplier[0]));
+  }
+
+  /**
+   * Must be used to instantiate new {@link Authenticator}s to honor the {@link Singleton}
+   * contract.
+   */
+  static Authenticator instantiate(Class<? extends Authenticator> clazz) {
+    return INSTANTIATOR.getInstanceOrDefault(clazz);
+  }
+
+  /**
+   * Returns the instances for a request, creating those which are not singletons.
+   */
+  List<Authenticator> getInstances() {
+    ImmutableList.Builder<Authenticator> builder = ImmutableList.builder();
+    for (int i = 0; i < instances.length; i++) {
+      builder.add(get(i));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Runs the authenticators in order, until one of them returns a user. Authenticators after
+   * that one are not instantiated.
+   *
+   * @return the user, or null if no authenticator accepted the request
+   */
+  User authenticate(HttpServletRequest request) throws ServiceException {
+    for (int i = 0; i < instances.length; i++) {
+      User user = get(i).authenticate(request);
+      if (user != null) {
+        return user;
+      }
+    }
+    return null;
+  }
+
+  private Authenticator get(int index) {
+    Supplier<Authenticator> factory = factories[index];
+    return factory == null ? instances[index] : factory.get();
+  }
+}
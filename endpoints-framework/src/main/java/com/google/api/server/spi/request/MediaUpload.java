@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.FileBackedOutputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Media uploaded with a request, which is read as a stream instead of being embedded in JSON. A
+ * parameter of this type, or of type {@link InputStream}, is bound to the raw request body, to a
+ * file part of a {@code multipart/form-data} request, or to the media part of a
+ * {@code multipart/related} request, whose first part is the JSON resource:
+ * <p>
+ * <code>
+ * public Photo upload(Photo metadata, MediaUpload media) throws IOException {
+ *   try (InputStream in = media.getInputStream()) {
+ *     return store(metadata, media.getContentType(), in);
+ *   }
+ * }
+ * </code>
+ *
+ * <p>Parts are read in order, so named parameters and the resource must precede the media. The
+ * last media part of a request is streamed from the request, and can only be read once while the
+ * API method runs. Media parts which are followed by further media are buffered, in a temporary
+ * file above the {@code mediaUploadSpillThreshold}. With several media parameters, a named one
+ * is bound to the {@code multipart/form-data} part with the same name.
+ */
+public final class MediaUpload implements Closeable {
+  /**
+   * The default size above which buffered parts are written to a temporary file, 1 MiB.
+   */
+  public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+  private final String contentType;
+  private final String fileName;
+  private final long length;
+  private final InputStream stream;
+  private final FileBackedOutputStream buffer;
+
+  private MediaUpload(@Nullable String contentType, @Nullable String fileName, long length,
+      InputStream stream, @Nullable FileBackedOutputStream buffer) {
+    this.contentType = contentType;
+    this.fileName = fileName;
+    this.length = length;
+    this.stream = stream;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Returns media which is read directly from a request stream.
+   */
+  static MediaUpload stream(InputStream stream, @Nullable String contentType,
+      @Nullable String fileName, long length) {
+    return new MediaUpload(contentType, fileName, length, stream, null);
+  }
+
+  /**
+   * Reads a stream into memory, or into a temporary file if it is larger than
+   * {@code spillThreshold}, so that the request can be read further.
+   */
+  static MediaUpload buffer(InputStream stream, @Nullable String contentType,
+      @Nullable String fileName, int spillThreshold) throws IOException {
+    FileBackedOutputStream buffer = new FileBackedOutputStream(spillThreshold);
+    try {
+      long length = ByteStreams.copy(stream, buffer);
+      buffer.close();
+      return new MediaUpload(
+          contentType, fileName, length, buffer.asByteSource().openStream(), buffer);
+    } catch (IOException e) {
+      buffer.reset();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the content type of the media, or null if the client did not send one.
+   */
+  @Nullable
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Returns the file name of a {@code multipart/form-data} part, or null.
+   */
+  @Nullable
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * Returns the number of bytes of the media, or -1 if it is unknown.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  public InputStream getInputStream() {
+    return stream;
+  }
+
+  /**
+   * Closes the stream and deletes the temporary file of a buffered part, if any. Media is closed
+   * after the API method returns.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      stream.close();
+    } finally {
+      if (buffer != null) {
+        buffer.reset();
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import javax.annotation.Nullable;
+
+/**
+ * Describes how a single endpoint method parameter is bound, as precomputed by
+ * {@link ParameterBindingPlan}.
+ */
+public final class ParameterBinder {
+  /**
+   * Where the value of a parameter comes from.
+   */
+  public enum Kind {
+    /** The authenticated {@link com.google.api.server.spi.auth.common.User}. */
+    USER,
+    /** The authenticated App Engine user. */
+    APPENGINE_USER,
+    /** The {@link javax.servlet.http.HttpServletRequest}. */
+    REQUEST,
+    /** The {@link javax.servlet.ServletContext}. */
+    SERVLET_CONTEXT,
+    /** An uploaded {@link MediaUpload} or {@link java.io.InputStream}. */
+    MEDIA,
+    /** The request resource, for parameters without a name. */
+    RESOURCE,
+    /** A standard parameter, see {@link com.google.api.server.spi.config.model.StandardParameters}. */
+    STANDARD,
+    /** A named path or query parameter. */
+    NAMED
+  }
+
+  private final Kind kind;
+  private final int index;
+  private final String name;
+  private final Class<?> parameterClass;
+  private final ObjectReader reader;
+  private final ObjectReader elementArrayReader;
+  private final boolean required;
+  private final String defaultValue;
+  private final boolean repeated;
+  private final ParameterConverter converter;
+
+  ParameterBinder(Kind kind, int index, @Nullable String name, Class<?> parameterClass,
+      @Nullable ObjectReader reader, @Nullable ObjectReader elementArrayReader, boolean required,
+      @Nullable String defaultValue, boolean repeated, @Nullable ParameterConverter converter) {
+    this.kind = kind;
+    this.index = index;
+    this.name = name;
+    this.parameterClass = parameterClass;
+    this.reader = reader;
+    this.elementArrayReader = elementArrayReader;
+    this.required = required;
+    this.defaultValue = defaultValue;
+    this.repeated = repeated;
+    this.converter = converter;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Returns the position of the parameter in the method signature.
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Returns the {@link com.google.api.server.spi.config.Named} value of the parameter, or null.
+   */
+  @Nullable
+  public String getName() {
+    return name;
+  }
+
+  public Class<?> getParameterClass() {
+    return parameterClass;
+  }
+
+  /**
+   * Returns the reader for the parameter class, for resource, standard and named parameters.
+   */
+  @Nullable
+  public ObjectReader getReader() {
+    return reader;
+  }
+
+  /**
+   * Returns a reader for an array of the element type, if the parameter is a generic collection.
+   */
+  @Nullable
+  public ObjectReader getElementArrayReader() {
+    return elementArrayReader;
+  }
+
+  public boolean isCollection() {
+    return elementArrayReader != null;
+  }
+
+  /**
+   * Returns whether or not a null value is rejected, that is the parameter is not
+   * {@code @Nullable} or has a primitive type.
+   */
+  public boolean isRequired() {
+    return required;
+  }
+
+  @Nullable
+  public String getDefaultValue() {
+    return defaultValue;
+  }
+
+  public boolean isRepeated() {
+    return repeated;
+  }
+
+  /**
+   * Returns the converter from string values, if the parameter can be bound without Jackson.
+   */
+  @Nullable
+  ParameterConverter getConverter() {
+    return converter;
+  }
+}
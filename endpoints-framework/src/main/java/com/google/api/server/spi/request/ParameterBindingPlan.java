@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import com.google.api.server.spi.EndpointMethod;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.annotationreader.AnnotationUtil;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.config.model.ApiParameterConfig;
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.api.server.spi.config.model.StandardParameters;
+import com.google.api.server.spi.request.ParameterBinder.Kind;
+import com.google.common.base.Strings;
+import com.google.common.reflect.TypeToken;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The parameter bindings of an endpoint method, compiled once so that reading a request is a loop
+ * over an array of {@link ParameterBinder}s, instead of re-deriving the injection kind, readers and
+ * annotations of every parameter for every request.
+ */
+public final class ParameterBindingPlan {
+  private static final String APPENGINE_USER_CLASS_NAME = "com.google.appengine.api.users.User";
+
+  private final ObjectReader objectReader;
+  private final ParameterBinder[] binders;
+  private final Class<?> resourceClass;
+  private final ObjectReader streamingElementReader;
+  private final int mediaParameterCount;
+
+  private ParameterBindingPlan(ObjectReader objectReader, ParameterBinder[] binders,
+      Class<?> resourceClass, ObjectReader streamingElementReader, int mediaParameterCount) {
+    this.objectReader = objectReader;
+    this.binders = binders;
+    this.resourceClass = resourceClass;
+    this.streamingElementReader = streamingElementReader;
+    this.mediaParameterCount = mediaParameterCount;
+  }
+
+  /**
+   * Compiles the bindings of a method.
+   *
+   * @param method the endpoint method
+   * @param methodConfig the method configuration, which provides default values and repeated
+   *     parameters, or null
+   * @param serializationConfig the serialization configuration of the API, or null
+   */
+  public static ParameterBindingPlan compile(EndpointMethod method,
+      @Nullable ApiMethodConfig methodConfig,
+      @Nullable ApiSerializationConfig serializationConfig) {
+    ObjectReader objectReader = ServletRequestParamReader.createObjectReader(serializationConfig);
+    Class<?>[] paramClasses = method.getParameterClasses();
+    TypeToken<?>[] paramTypes = method.getParameterTypes();
+    List<String> parameterNames;
+    try {
+      parameterNames = ServletRequestParamReader.getParameterNames(method);
+    } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+      throw new IllegalArgumentException(
+          "Unable to read the parameter names of " + method.getMethod(), e);
+    }
+    Map<String, ApiParameterConfig> parameterConfigs = new HashMap<>();
+    if (methodConfig != null) {
+      for (ApiParameterConfig config : methodConfig.getParameterConfigs()) {
+        if (config.getName() != null) {
+          parameterConfigs.put(config.getName(), config);
+        }
+      }
+    }
+    ParameterBinder[] binders = new ParameterBinder[paramClasses.length];
+    Class<?> resourceClass = null;
+    TypeToken<?> resourceType = null;
+    int resourceCount = 0;
+    int mediaParameterCount = 0;
+    for (int i = 0; i < paramClasses.length; i++) {
+      Class<?> clazz = paramClasses[i];
+      String name = parameterNames.get(i);
+      Kind kind;
+      if (User.class.isAssignableFrom(clazz)) {
+        // User type parameter requires no Named annotation (ignored if present)
+        kind = Kind.USER;
+      } else if (APPENGINE_USER_CLASS_NAME.equals(clazz.getName())) {
+        kind = Kind.APPENGINE_USER;
+      } else if (clazz == HttpServletRequest.class) {
+        kind = Kind.REQUEST;
+      } else if (clazz == ServletContext.class) {
+        kind = Kind.SERVLET_CONTEXT;
+      } else if (clazz == MediaUpload.class || clazz == InputStream.class) {
+        kind = Kind.MEDIA;
+        mediaParameterCount++;
+      } else if (Strings.isNullOrEmpty(name)) {
+        kind = Kind.RESOURCE;
+        resourceClass = clazz;
+        resourceType = paramTypes[i];
+        resourceCount++;
+      } else if (StandardParameters.isStandardParamName(name)) {
+        kind = Kind.STANDARD;
+      } else {
+        kind = Kind.NAMED;
+      }
+      if (kind == Kind.MEDIA) {
+        binders[i] = new ParameterBinder(kind, i, Strings.emptyToNull(name), clazz, null, null,
+            isRequiredParameter(method.getMethod(), i, clazz), null, false, null);
+        continue;
+      } else if (kind.compareTo(Kind.RESOURCE) < 0) {
+        binders[i] =
+            new ParameterBinder(kind, i, null, clazz, null, null, false, null, false, null);
+        continue;
+      }
+      ObjectReader reader = objectReader.forType(clazz);
+      Class<?> elementClass = null;
+      ObjectReader elementArrayReader = null;
+      if (kind == Kind.NAMED && Collection.class.isAssignableFrom(clazz)
+          && paramTypes[i].getType() instanceof ParameterizedType) {
+        elementClass = EndpointMethod.getClassFromType(
+            ((ParameterizedType) paramTypes[i].getType()).getActualTypeArguments()[0]);
+        elementArrayReader = objectReader.forType(Array.newInstance(elementClass, 0).getClass());
+      }
+      ApiParameterConfig config = name == null ? null : parameterConfigs.get(name);
+      boolean repeated = config != null && config.isRepeated();
+      ParameterConverter converter = null;
+      if (kind == Kind.NAMED) {
+        converter = createConverter(
+            clazz, elementClass, reader, repeated, serializationConfig);
+      }
+      binders[i] = new ParameterBinder(kind, i, Strings.emptyToNull(name), clazz,
+          reader, elementArrayReader,
+          isRequiredParameter(method.getMethod(), i, clazz),
+          config != null ? config.getDefaultValue() : null,
+          repeated, converter);
+    }
+    if (resourceCount != 1) {
+      return new ParameterBindingPlan(objectReader, binders, null, null, mediaParameterCount);
+    }
+    ObjectReader streamingElementReader = null;
+    if (resourceClass == Iterator.class || resourceClass == StreamingBody.class) {
+      streamingElementReader = objectReader.forType(objectReader.getTypeFactory().constructType(
+          resourceType.resolveType(Iterator.class.getTypeParameters()[0]).getType()));
+    }
+    return new ParameterBindingPlan(
+        objectReader, binders, resourceClass, streamingElementReader, mediaParameterCount);
+  }
+
+  /**
+   * Returns a converter from the string values of a named parameter, or null if the parameter must
+   * be read by Jackson.
+   */
+  @Nullable
+  private static ParameterConverter createConverter(Class<?> clazz, @Nullable Class<?> elementClass,
+      ObjectReader reader, boolean repeated,
+      @Nullable ApiSerializationConfig serializationConfig) {
+    if (!repeated) {
+      return ParameterConverter.forClass(clazz, serializationConfig);
+    } else if (clazz.isArray()) {
+      return ParameterConverter.forArray(clazz, serializationConfig);
+    } else if (elementClass != null) {
+      // Creates a collection like Jackson does, to find its concrete class.
+      Collection<?> emptyCollection;
+      try {
+        emptyCollection = reader.readValue(reader.createArrayNode());
+      } catch (IOException e) {
+        return null;
+      }
+      return ParameterConverter.forCollection(emptyCollection, elementClass, serializationConfig);
+    }
+    return null;
+  }
+
+  private static boolean isRequiredParameter(Method method, int i, Class<?> clazz) {
+    return AnnotationUtil.getNullableParameter(
+        method, i, com.google.api.server.spi.config.Nullable.class) == null
+        || clazz.isPrimitive();
+  }
+
+  /**
+   * Returns the reader configured for the API.
+   */
+  public ObjectReader getObjectReader() {
+    return objectReader;
+  }
+
+  /**
+   * Returns the binders, in parameter order. The array must not be modified.
+   */
+  ParameterBinder[] getBinders() {
+    return binders;
+  }
+
+  /**
+   * Returns whether the method takes the authenticated user, as a {@code User} or an App Engine
+   * user.
+   */
+  public boolean hasUserParameter() {
+    for (ParameterBinder binder : binders) {
+      if (binder.getKind() == Kind.USER || binder.getKind() == Kind.APPENGINE_USER) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the method takes the {@code HttpServletRequest}, from which it may read the
+   * user or anything else about the caller.
+   */
+  public boolean hasRequestParameter() {
+    for (ParameterBinder binder : binders) {
+      if (binder.getKind() == Kind.REQUEST) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public int getParameterCount() {
+    return binders.length;
+  }
+
+  public ParameterBinder getBinder(int index) {
+    return binders[index];
+  }
+
+  /**
+   * Returns the class of the single resource parameter, or null if the method has none or several
+   * of them. Only in the first case, the resource can be bound while it is read.
+   */
+  @Nullable
+  public Class<?> getResourceClass() {
+    return resourceClass;
+  }
+
+  /**
+   * Returns the reader for the elements of the single resource parameter, if it is an
+   * {@link Iterator} or a {@link StreamingBody}, or null.
+   */
+  @Nullable
+  public ObjectReader getStreamingElementReader() {
+    return streamingElementReader;
+  }
+
+  /**
+   * Returns the number of {@link MediaUpload} and {@link InputStream} parameters.
+   */
+  public int getMediaParameterCount() {
+    return mediaParameterCount;
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.api.server.spi.config.model.Serializers;
+import com.google.api.server.spi.types.DateAndTime;
+import com.google.api.server.spi.types.SimpleDate;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Primitives;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Converts the string values of query and path parameters to parameter values directly, instead
+ * of wrapping them in JSON nodes for Jackson.
+ *
+ * <p>Converters only accept the canonical form of a value, which Jackson converts to the same
+ * result, and throw {@link IllegalArgumentException} otherwise. Callers then fall back to Jackson,
+ * which either handles the other forms (such as surrounding whitespace or {@code "null"}) or
+ * reports the error, so results and error messages do not depend on which path was taken.
+ */
+final class ParameterConverter {
+  /**
+   * Converts a single string value.
+   */
+  interface ValueConverter {
+    Object convert(String value);
+  }
+
+  // Jackson maps this value to Double.MIN_NORMAL, unlike Double.parseDouble.
+  private static final String NASTY_SMALL_DOUBLE = "2.2250738585072012e-308";
+
+  private static final ImmutableMap<Class<?>, ValueConverter> CONVERTERS =
+      ImmutableMap.<Class<?>, ValueConverter>builder()
+          .put(String.class, value -> value)
+          .put(Boolean.class, ParameterConverter::parseBoolean)
+          .put(boolean.class, ParameterConverter::parseBoolean)
+          .put(Integer.class, ParameterConverter::parseInt)
+          .put(int.class, ParameterConverter::parseInt)
+          .put(Long.class, ParameterConverter::parseLong)
+          .put(long.class, ParameterConverter::parseLong)
+          .put(Float.class, value -> Float.parseFloat(checkDecimal(value)))
+          .put(float.class, value -> Float.parseFloat(checkDecimal(value)))
+          .put(Double.class, value -> Double.parseDouble(checkDecimal(value)))
+          .put(double.class, value -> Double.parseDouble(checkDecimal(value)))
+          .put(Date.class,
+              value -> new Date(new com.google.api.client.util.DateTime(value).getValue()))
+          .put(DateAndTime.class, DateAndTime::parseRfc3339String)
+          .put(SimpleDate.class, ParameterConverter::parseSimpleDate)
+          .build();
+
+  private final ValueConverter valueConverter;
+  // For repeated parameters, either the array component type or the collection factory is set.
+  private final Class<?> componentType;
+  private final Supplier<Collection<Object>> collectionFactory;
+
+  private ParameterConverter(ValueConverter valueConverter, @Nullable Class<?> componentType,
+      @Nullable Supplier<Collection<Object>> collectionFactory) {
+    this.valueConverter = valueConverter;
+    this.componentType = componentType;
+    this.collectionFactory = collectionFactory;
+  }
+
+  /**
+   * Returns a converter for single values of a class, or null if Jackson must be used.
+   */
+  @Nullable
+  static ParameterConverter forClass(Class<?> clazz,
+      @Nullable ApiSerializationConfig serializationConfig) {
+    ValueConverter converter = valueConverter(clazz, serializationConfig);
+    return converter == null ? null : new ParameterConverter(converter, null, null);
+  }
+
+  /**
+   * Returns a converter for repeated values, filling an array of a class, or null if Jackson must
+   * be used.
+   */
+  @Nullable
+  static ParameterConverter forArray(Class<?> arrayClass,
+      @Nullable ApiSerializationConfig serializationConfig) {
+    Class<?> componentType = arrayClass.getComponentType();
+    ValueConverter converter = valueConverter(componentType, serializationConfig);
+    return converter == null ? null : new ParameterConverter(converter, componentType, null);
+  }
+
+  /**
+   * Returns a converter for repeated values, filling a collection of the same class as
+   * {@code emptyCollection}, or null if Jackson must be used.
+   */
+  @Nullable
+  static ParameterConverter forCollection(Collection<?> emptyCollection, Class<?> elementClass,
+      @Nullable ApiSerializationConfig serializationConfig) {
+    ValueConverter converter = valueConverter(elementClass, serializationConfig);
+    Supplier<Collection<Object>> factory = collectionFactory(emptyCollection.getClass());
+    return converter == null || factory == null
+        ? null : new ParameterConverter(converter, null, factory);
+  }
+
+  /**
+   * Converts parameter values. Single valued parameters only use the first value.
+   *
+   * @throws IllegalArgumentException if a value is not in its canonical form
+   */
+  Object convert(String[] values) {
+    if (componentType != null) {
+      Object array = Array.newInstance(componentType, values.length);
+      for (int i = 0; i < values.length; i++) {
+        Array.set(array, i, valueConverter.convert(values[i]));
+      }
+      return array;
+    } else if (collectionFactory != null) {
+      Collection<Object> collection = collectionFactory.get();
+      for (String value : values) {
+        collection.add(valueConverter.convert(value));
+      }
+      return collection;
+    }
+    return valueConverter.convert(values[0]);
+  }
+
+  @Nullable
+  private static ValueConverter valueConverter(Class<?> clazz,
+      @Nullable ApiSerializationConfig serializationConfig) {
+    if (!Serializers.getSerializerClasses(clazz, serializationConfig).isEmpty()
+        || !Serializers.getSerializerClasses(Primitives.wrap(clazz), serializationConfig)
+            .isEmpty()) {
+      // Transformers are only applied by Jackson.
+      return null;
+    }
+    if (clazz.isEnum() && !hasJacksonAnnotations(clazz)) {
+      return enumConverter(clazz);
+    }
+    return CONVERTERS.get(clazz);
+  }
+
+  @Nullable
+  private static Supplier<Collection<Object>> collectionFactory(Class<?> collectionClass) {
+    if (collectionClass == ArrayList.class) {
+      return ArrayList::new;
+    } else if (collectionClass == HashSet.class) {
+      return HashSet::new;
+    } else if (collectionClass == LinkedHashSet.class) {
+      return LinkedHashSet::new;
+    } else if (collectionClass == TreeSet.class) {
+      return TreeSet::new;
+    } else if (collectionClass == LinkedList.class) {
+      return LinkedList::new;
+    }
+    return null;
+  }
+
+  private static ValueConverter enumConverter(Class<?> enumClass) {
+    ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+    for (Object constant : enumClass.getEnumConstants()) {
+      builder.put(((Enum<?>) constant).name(), constant);
+    }
+    Map<String, Object> constants = builder.build();
+    return value -> {
+      Object constant = constants.get(value);
+      if (constant == null) {
+        throw new IllegalArgumentException(value);
+      }
+      return constant;
+    };
+  }
+
+  /**
+   * Returns whether or not an enum may be (de)serialized differently by Jackson annotations, such
+   * as {@code @JsonProperty} on constants or {@code @JsonCreator} methods.
+   */
+  private static boolean hasJacksonAnnotations(Class<?> enumClass) {
+    return hasJacksonAnnotation(enumClass.getDeclaredFields())
+        || hasJacksonAnnotation(enumClass.getDeclaredMethods());
+  }
+
+  private static boolean hasJacksonAnnotation(AccessibleObject[] members) {
+    for (AccessibleObject member : members) {
+      for (Annotation annotation : member.getAnnotations()) {
+        if (annotation.annotationType().getName().startsWith("com.fasterxml.jackson.")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static Boolean parseBoolean(String value) {
+    if ("true".equals(value)) {
+      return Boolean.TRUE;
+    } else if ("false".equals(value)) {
+      return Boolean.FALSE;
+    }
+    throw new IllegalArgumentException(value);
+  }
+
+  private static Integer parseInt(String value) {
+    // Longer values may overflow, which Jackson reports with its own message.
+    return Integer.parseInt(checkInteger(value, 10));
+  }
+
+  private static Long parseLong(String value) {
+    return Long.parseLong(checkInteger(value, 19));
+  }
+
+  private static String checkInteger(String value, int maxDigits) {
+    int start = !value.isEmpty() && value.charAt(0) == '-' ? 1 : 0;
+    int length = value.length();
+    if (length == start || length - start > maxDigits) {
+      throw new IllegalArgumentException(value);
+    }
+    for (int i = start; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        throw new IllegalArgumentException(value);
+      }
+    }
+    return value;
+  }
+
+  private static String checkDecimal(String value) {
+    if (value.isEmpty() || NASTY_SMALL_DOUBLE.equals(value)) {
+      throw new IllegalArgumentException(value);
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+        throw new IllegalArgumentException(value);
+      }
+    }
+    return value;
+  }
+
+  private static SimpleDate parseSimpleDate(String value) {
+    if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+      throw new IllegalArgumentException(value);
+    }
+    return new SimpleDate(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10));
+  }
+
+  private static int digits(String value, int start, int end) {
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        throw new IllegalArgumentException(value);
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+}
@@ -21,32 +21,37 @@ import com.google.api.server.spi.EndpointsContext;
 import com.google.api.server.spi.IoUtil;
 import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.ServletInitializationParameters;
-import com.google.api.server.spi.Strings;
 import com.google.api.server.spi.config.model.ApiMethodConfig;
-import com.google.api.server.spi.config.model.ApiParameterConfig;
 import com.google.api.server.spi.config.model.ApiSerializationConfig;
 import com.google.api.server.spi.response.BadRequestException;
 import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 
 import com.google.common.flogger.FluentLogger;
+import org.apache.commons.fileupload.FileItemHeaders;
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.util.Enumeration;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
@@ -56,26 +61,37 @@ import javax.servlet.http.HttpServletRequest;
  * with {@link com.google.api.server.spi.EndpointsServlet}, and tries to emulate existing behavior
  * by stuffing path and query parameters into the main request body.
  */
-public class RestServletRequestParamReader extends ServletRequestParamReader {
+public class RestServletRequestParamReader extends ServletRequestParamReader
+    implements Closeable {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final Splitter COMPOSITE_PATH_SPLITTER = Splitter.on(',');
+  private static final String[] NO_VALUES = new String[0];
+
+  private static final String MULTIPART = "multipart/";
+  private static final String MULTIPART_RELATED = "multipart/related";
 
   private final Map<String, String> rawPathParameters;
-  private final Map<String, ApiParameterConfig> parameterConfigMap;
+  private final List<MediaUpload> uploads = new ArrayList<>();
 
   public RestServletRequestParamReader(Object apiService, EndpointMethod method,
       EndpointsContext endpointsContext, ServletContext servletContext,
       ApiSerializationConfig serializationConfig, ApiMethodConfig methodConfig, ServletInitializationParameters initializationParameters) {
     super(apiService, method, endpointsContext, servletContext, serializationConfig, methodConfig, initializationParameters);
     this.rawPathParameters = endpointsContext.getRawPathParameters();
-    ImmutableMap.Builder<String, ApiParameterConfig> builder = ImmutableMap.builder();
-    for (ApiParameterConfig config : methodConfig.getParameterConfigs()) {
-      if (config.getName() != null) {
-        builder.put(config.getName(), config);
-      }
-    }
-    this.parameterConfigMap = builder.build();
+  }
+
+  /**
+   * Creates a reader with a binding plan compiled ahead of time, which should be preferred when
+   * the same method is read repeatedly.
+   */
+  public RestServletRequestParamReader(Object apiService, EndpointMethod method,
+      ParameterBindingPlan bindingPlan, EndpointsContext endpointsContext,
+      ServletContext servletContext, ApiMethodConfig methodConfig,
+      ServletInitializationParameters initializationParameters) {
+    super(apiService, method, bindingPlan, endpointsContext, servletContext, methodConfig,
+        initializationParameters);
+    this.rawPathParameters = endpointsContext.getRawPathParameters();
   }
 
   @Override
@@ -83,114 +99,333 @@ public class RestServletRequestParamReader extends ServletRequestParamReader {
     // Assumes input stream to be encoded in UTF-8
     // TODO: Take charset from content-type as encoding
     try {
-      EndpointMethod method = getMethod();
-      if (method.getParameterClasses().length == 0) {
+      if (bindingPlan.getParameterCount() == 0) {
         return new Object[0];
       }
       HttpServletRequest servletRequest = endpointsContext.getRequest();
-      ObjectNode body = (ObjectNode) objectReader.createObjectNode();
-      ObjectNode params = (ObjectNode) objectReader.createObjectNode();
+      if (bindingPlan.getMediaParameterCount() > 0) {
+        return validateParameters(readMedia(servletRequest));
+      }
+      ResourceBinder resource;
+      Map<String, String> formFields = ImmutableMap.of();
       // multipart/form-data requests can be used for requests which have no resource body. In
       // this case, each part represents a named parameter instead.
       if (ServletFileUpload.isMultipartContent(servletRequest)) {
         try {
           ServletFileUpload upload = new ServletFileUpload();
           FileItemIterator iter = upload.getItemIterator(servletRequest);
-          ObjectNode obj = (ObjectNode) objectReader.createObjectNode();
+          formFields = new HashMap<>();
           while (iter.hasNext()) {
             FileItemStream item = iter.next();
             if (item.isFormField()) {
-              obj.put(item.getFieldName(), IoUtil.readStream(item.openStream()));
+              formFields.put(item.getFieldName(), IoUtil.readStream(item.openStream()));
             } else {
               throw new BadRequestException("unable to parse multipart form field");
             }
           }
-          params = obj;
         } catch (FileUploadException e) {
           throw new BadRequestException("unable to parse multipart request", e);
         }
+        resource = this::bindEmptyResource;
       } else {
-        String requestBody = IoUtil.readRequestBody(servletRequest);
-        logger.atFine().log("requestBody=%s", requestBody);
-        // Unlike the Lily protocol, which essentially always requires a JSON body to exist (due to
-        // path and query parameters being injected into the body), bodies are optional here, so we
-        // create an empty body and inject named parameters to make deserialize work.
-        if (!Strings.isEmptyOrWhitespace(requestBody)) {
-          validateRequestContentType(servletRequest);
-          JsonNode node = objectReader.readTree(requestBody);
-          if (!node.isObject()) {
-            throw new BadRequestException("expected a JSON object body");
+        resource = readResource(servletRequest);
+      }
+      return validateParameters(
+          deserializeParams(resource, new RequestParameters(servletRequest, formFields)));
+    } catch (MismatchedInputException e) {
+      logger.atInfo().withCause(e).log("Unable to read request parameter(s)");
+      throw translateJsonException(e);
+    } catch (IOException e) {
+      logger.atInfo().withCause(e).log("Unable to read request parameter(s)");
+      throw new BadRequestException("Parse error", "parseError", e);
+    }
+  }
+
+  /**
+   * Reads the request body. Unlike the Lily protocol, which essentially always requires a JSON
+   * body to exist (due to path and query parameters being injected into the body), bodies are
+   * optional here, so a missing body is bound like an empty object. If the method has a single
+   * resource parameter, the body is bound to it while it is parsed, without an intermediate copy.
+   */
+  private ResourceBinder readResource(HttpServletRequest servletRequest)
+      throws IOException, ServiceException {
+    ObjectReader streamingElementReader = bindingPlan.getStreamingElementReader();
+    JsonParser parser = createRequestParser();
+    boolean streaming = false;
+    try {
+      JsonToken token;
+      try {
+        token = parser == null ? null : parser.nextToken();
+      } catch (IOException e) {
+        validateRequestContentType(servletRequest);
+        throw e;
+      }
+      if (token == null) {
+        return this::bindEmptyResource;
+      }
+      validateRequestContentType(servletRequest);
+      if (streamingElementReader != null) {
+        // The parser stays open for the API method to read the elements.
+        StreamingBody<?> body = StreamingBody.create(parser, streamingElementReader,
+            StreamingBody.isNdjson(servletRequest.getContentType()));
+        streaming = true;
+        return clazz -> body;
+      }
+      if (token != JsonToken.START_OBJECT) {
+        throw new BadRequestException("expected a JSON object body");
+      }
+      Class<?> resourceClass = bindingPlan.getResourceClass();
+      if (resourceClass != null) {
+        Object resource = objectReader.forType(resourceClass).readValue(parser);
+        return clazz -> resource;
+      }
+      // Several resource parameters, or none, which still requires a valid body.
+      JsonNode body = parser.readValueAsTree();
+      return clazz -> objectReader.forType(clazz).readValue(body);
+    } finally {
+      if (parser != null && !streaming) {
+        parser.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the request of a method with media parameters. The body is either the media itself,
+   * {@code multipart/form-data} with named parameters and media files, or
+   * {@code multipart/related} with a JSON resource followed by the media. Reading stops at the
+   * last media part, which is streamed to the API method.
+   */
+  private Object[] readMedia(HttpServletRequest servletRequest)
+      throws IOException, ServiceException {
+    RequestParameters parameters = new RequestParameters(servletRequest, ImmutableMap.of());
+    String contentType = servletRequest.getContentType();
+    if (!isMultipart(contentType)) {
+      if (servletRequest.getContentLength() == 0) {
+        return deserializeParams(this::bindEmptyResource, parameters, binder -> null);
+      }
+      MediaUpload upload = MediaUpload.stream(servletRequest.getInputStream(),
+          contentType, null, servletRequest.getContentLength());
+      uploads.add(upload);
+      ParameterBinder target = findMediaBinder("", ImmutableMap.of(), true);
+      return deserializeParams(this::bindEmptyResource, parameters,
+          binder -> binder == target ? toParameter(binder, upload) : null);
+    }
+    boolean related =
+        contentType.regionMatches(true, 0, MULTIPART_RELATED, 0, MULTIPART_RELATED.length());
+    Map<String, String> formFields = new HashMap<>();
+    Map<ParameterBinder, MediaUpload> media = new HashMap<>();
+    ResourceBinder resource = this::bindEmptyResource;
+    try {
+      FileItemIterator iter = new MediaFileUpload().getItemIterator(servletRequest);
+      int remaining = bindingPlan.getMediaParameterCount();
+      for (boolean first = true; remaining > 0 && iter.hasNext(); first = false) {
+        FileItemStream item = iter.next();
+        if (related && first) {
+          validateRequestContentType(item.getContentType());
+          JsonNode metadata = objectReader.readTree(item.openStream());
+          if (metadata != null && !metadata.isMissingNode()) {
+            if (!metadata.isObject()) {
+              throw new BadRequestException("expected a JSON object body");
+            }
+            resource = clazz -> objectReader.forType(clazz).readValue(metadata);
           }
-          body = (ObjectNode) node;
+          continue;
         }
-      }
-      Map<String, Class<?>> parameterMap = getParameterMap(method);
-      // First add query parameters, then add path parameters. If the parameters already exist in
-      // the resource, then the they aren't added to the body object. For compatibility reasons,
-      // the order of precedence is resource field > query parameter > path parameter.
-      for (Enumeration<?> e = servletRequest.getParameterNames(); e.hasMoreElements(); ) {
-        String parameterName = (String) e.nextElement();
-        Class<?> parameterClass = parameterMap.get(parameterName);
-        ApiParameterConfig parameterConfig = parameterConfigMap.get(parameterName);
-        if (parameterClass != null && parameterConfig.isRepeated()) {
-          ArrayNode values = params.putArray(parameterName);
-          for (String value : servletRequest.getParameterValues(parameterName)) {
-            values.add(value);
+        ParameterBinder binder =
+            findMediaBinder(item.getFieldName(), media, related || !item.isFormField());
+        if (binder == null) {
+          if (related || !item.isFormField()) {
+            throw new BadRequestException("unexpected media part");
           }
-        } else {
-          params.put(parameterName, servletRequest.getParameterValues(parameterName)[0]);
+          formFields.put(item.getFieldName(), IoUtil.readStream(item.openStream()));
+          continue;
         }
+        remaining--;
+        MediaUpload upload = remaining == 0
+            ? MediaUpload.stream(item.openStream(), item.getContentType(), item.getName(), -1)
+            : MediaUpload.buffer(item.openStream(), item.getContentType(), item.getName(),
+                initParameters.getMediaUploadSpillThreshold());
+        uploads.add(upload);
+        media.put(binder, upload);
       }
-      for (Entry<String, String> entry : rawPathParameters.entrySet()) {
-        String parameterName = entry.getKey();
-        Class<?> parameterClass = parameterMap.get(parameterName);
-        if (parameterClass != null && !params.has(parameterName)) {
-          if (parameterConfigMap.get(parameterName).isRepeated()) {
-            ArrayNode values = params.putArray(parameterName);
-            for (String value : COMPOSITE_PATH_SPLITTER.split(entry.getValue())) {
-              values.add(value);
-            }
-          } else {
-            params.put(parameterName, entry.getValue());
-          }
+    } catch (FileUploadException e) {
+      throw new BadRequestException("unable to parse multipart request", e);
+    }
+    return deserializeParams(resource, new RequestParameters(servletRequest, formFields),
+        binder -> media.containsKey(binder) ? toParameter(binder, media.get(binder)) : null);
+  }
+
+  /**
+   * Returns whether a body is multipart, whatever the HTTP method. Media updates are usually sent
+   * with PUT or PATCH, which {@link ServletFileUpload#isMultipartContent} does not accept.
+   */
+  private static boolean isMultipart(@Nullable String contentType) {
+    return contentType != null
+        && contentType.regionMatches(true, 0, MULTIPART, 0, MULTIPART.length());
+  }
+
+  /**
+   * Finds the media parameter for a part: the unbound one with the same name, or else, if
+   * {@code anyName} is set, the first unbound one without a name.
+   */
+  @Nullable
+  private ParameterBinder findMediaBinder(@Nullable String fieldName,
+      Map<ParameterBinder, MediaUpload> bound, boolean anyName) {
+    ParameterBinder unnamed = null;
+    for (ParameterBinder binder : bindingPlan.getBinders()) {
+      if (binder.getKind() != ParameterBinder.Kind.MEDIA || bound.containsKey(binder)) {
+        continue;
+      }
+      if (binder.getName() != null && binder.getName().equals(fieldName)) {
+        return binder;
+      } else if (anyName && unnamed == null
+          && (binder.getName() == null || Strings.isNullOrEmpty(fieldName))) {
+        unnamed = binder;
+      }
+    }
+    return unnamed;
+  }
+
+  private static Object toParameter(ParameterBinder binder, MediaUpload upload) {
+    return binder.getParameterClass() == InputStream.class ? upload.getInputStream() : upload;
+  }
+
+  /**
+   * Closes the media of the request, which deletes the temporary files of buffered parts.
+   */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (MediaUpload upload : uploads) {
+      try {
+        upload.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    uploads.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private Object bindEmptyResource(Class<?> clazz) throws IOException {
+    if (bindingPlan.getStreamingElementReader() != null) {
+      return StreamingBody.empty();
+    }
+    return objectReader.forType(clazz).readValue(objectReader.createObjectNode());
+  }
+
+  /**
+   * Looks up a named parameter. For compatibility reasons, the order of precedence is resource
+   * field > query parameter > multipart form field > path parameter > default value, where
+   * resource fields are bound with the resource itself.
+   */
+  private JsonNode getParameter(HttpServletRequest servletRequest, Map<String, String> formFields,
+      ParameterBinder binder) {
+    String parameterName = binder.getName();
+    boolean repeated = binder.isRepeated();
+    String[] queryValues = servletRequest.getParameterValues(parameterName);
+    if (queryValues != null && queryValues.length > 0) {
+      if (repeated) {
+        ArrayNode values = (ArrayNode) objectReader.createArrayNode();
+        for (String value : queryValues) {
+          values.add(value);
         }
+        return values;
       }
-      for (Entry<String, ApiParameterConfig> entry : parameterConfigMap.entrySet()) {
-        if (!params.has(entry.getKey()) && entry.getValue().getDefaultValue() != null) {
-          params.put(entry.getKey(), entry.getValue().getDefaultValue());
+      return TextNode.valueOf(queryValues[0]);
+    }
+    String formValue = formFields.get(parameterName);
+    if (formValue != null) {
+      return TextNode.valueOf(formValue);
+    }
+    String pathValue = rawPathParameters.get(parameterName);
+    if (pathValue != null) {
+      if (repeated) {
+        ArrayNode values = (ArrayNode) objectReader.createArrayNode();
+        for (String value : COMPOSITE_PATH_SPLITTER.split(pathValue)) {
+          values.add(value);
         }
+        return values;
       }
-      return validateParameters(deserializeParams(body, params));
-    } catch (MismatchedInputException e) {
-      logger.atInfo().withCause(e).log("Unable to read request parameter(s)");
-      throw translateJsonException(e);
-    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException
-        | IOException e) {
-      logger.atInfo().withCause(e).log("Unable to read request parameter(s)");
-      throw new BadRequestException("Parse error", "parseError", e);
+      return TextNode.valueOf(pathValue);
+    }
+    if (binder.getDefaultValue() != null) {
+      return TextNode.valueOf(binder.getDefaultValue());
+    }
+    return null;
+  }
+
+  /**
+   * Looks up named parameters with the same precedence as {@link #getParameter}, providing the raw
+   * values where they would be read from plain strings.
+   */
+  private final class RequestParameters implements StringParameterLookup {
+    private final HttpServletRequest servletRequest;
+    private final Map<String, String> formFields;
+
+    RequestParameters(HttpServletRequest servletRequest, Map<String, String> formFields) {
+      this.servletRequest = servletRequest;
+      this.formFields = formFields;
+    }
+
+    @Override
+    public JsonNode get(ParameterBinder binder) {
+      return getParameter(servletRequest, formFields, binder);
+    }
+
+    @Override
+    public String[] getValues(ParameterBinder binder) {
+      String parameterName = binder.getName();
+      boolean repeated = binder.isRepeated();
+      String[] queryValues = servletRequest.getParameterValues(parameterName);
+      if (queryValues != null && queryValues.length > 0) {
+        return queryValues;
+      }
+      String formValue = formFields.get(parameterName);
+      if (formValue != null) {
+        // Form fields and default values are single values, even for repeated parameters.
+        return repeated ? null : new String[] {formValue};
+      }
+      String pathValue = rawPathParameters.get(parameterName);
+      if (pathValue != null) {
+        return repeated
+            ? COMPOSITE_PATH_SPLITTER.splitToList(pathValue).toArray(NO_VALUES)
+            : new String[] {pathValue};
+      }
+      if (binder.getDefaultValue() != null) {
+        return repeated ? null : new String[] {binder.getDefaultValue()};
+      }
+      return NO_VALUES;
     }
   }
-  
+
   private void validateRequestContentType(HttpServletRequest httpServletRequest) throws ServiceException {
+    validateRequestContentType(httpServletRequest.getContentType());
+  }
+
+  private void validateRequestContentType(@Nullable String contentType) throws ServiceException {
     if (!initParameters.isContentTypeValidationEnabled()) {
       return;
     }
-    String contentType = httpServletRequest.getContentType();
+    if (bindingPlan.getStreamingElementReader() != null && StreamingBody.isNdjson(contentType)) {
+      return;
+    }
     if (Objects.isNull(contentType) || !contentType.startsWith("application/json")) {
       throw new ServiceException(406, "Expecting application/json content-type.");
     }
   }
 
-  private static ImmutableMap<String, Class<?>> getParameterMap(EndpointMethod method)
-      throws IllegalAccessException, NoSuchMethodException, InvocationTargetException {
-    ImmutableMap.Builder<String, Class<?>> builder = ImmutableMap.builder();
-    List<String> parameterNames = getParameterNames(method);
-    for (int i = 0; i < parameterNames.size(); i++) {
-      String parameterName = parameterNames.get(i);
-      if (parameterName != null) {
-        builder.put(parameterName, method.getParameterClasses()[i]);
-      }
+  /**
+   * Also reads the parts of {@code multipart/related} requests, which have no field names and
+   * would be skipped otherwise.
+   */
+  private static final class MediaFileUpload extends ServletFileUpload {
+    @Override
+    protected String getFieldName(FileItemHeaders headers) {
+      String fieldName = super.getFieldName(headers);
+      return fieldName != null ? fieldName : "";
     }
-    return builder.build();
   }
 }
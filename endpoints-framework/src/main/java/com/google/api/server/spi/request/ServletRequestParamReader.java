@@ -24,7 +24,6 @@ import com.google.api.server.spi.ServletInitializationParameters;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.config.AuthLevel;
 import com.google.api.server.spi.config.Named;
-import com.google.api.server.spi.config.Nullable;
 import com.google.api.server.spi.config.annotationreader.AnnotationUtil;
 import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.api.server.spi.config.model.ApiSerializationConfig;
@@ -35,13 +34,12 @@ import com.google.api.server.spi.types.DateAndTime;
 import com.google.api.server.spi.types.SimpleDate;
 import com.google.appengine.api.datastore.Blob;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Strings;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
-import com.google.common.reflect.TypeToken;
 
 import com.fasterxml.jackson.core.Base64Variants;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
@@ -51,7 +49,6 @@ import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.exc.InvalidFormatException;
 import com.fasterxml.jackson.databind.exc.MismatchedInputException;
 import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.ConstraintViolation;
@@ -60,24 +57,26 @@ import javax.validation.Validation;
 import javax.validation.Validator;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
 import org.hibernate.validator.messageinterpolation.ParameterMessageInterpolator;
 
 /**
@@ -87,7 +86,6 @@ public class ServletRequestParamReader extends AbstractParamReader {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final Set<SimpleModule> READER_MODULES;
-  private static final String APPENGINE_USER_CLASS_NAME = "com.google.appengine.api.users.User";
   private static final Validator VALIDATOR = Validation.byDefaultProvider()
           .configure()
           .messageInterpolator(new ParameterMessageInterpolator())
@@ -145,127 +143,185 @@ public class ServletRequestParamReader extends AbstractParamReader {
     return parameterNames;
   }
 
-  protected Object[] deserializeParams(JsonNode body, JsonNode parameters) throws IOException, IllegalAccessException,
-      InvocationTargetException, NoSuchMethodException, ServiceException {
-    EndpointMethod method = getMethod();
-    Class<?>[] paramClasses = method.getParameterClasses();
-    TypeToken<?>[] paramTypes = method.getParameterTypes();
-    Object[] params = new Object[paramClasses.length];
-    List<String> parameterNames = getParameterNames(method);
-    for (int i = 0; i < paramClasses.length; i++) {
-      TypeToken<?> type = paramTypes[i];
-      Class<?> clazz = paramClasses[i];
-      if (User.class.isAssignableFrom(clazz)) {
-        // User type parameter requires no Named annotation (ignored if present)
-        User user = getUser();
-        if (user == null && methodConfig != null
-            && methodConfig.getAuthLevel() == AuthLevel.REQUIRED) {
-          throw new UnauthorizedException("Valid user credentials are required.");
-        }
-        if (user == null || clazz.isAssignableFrom(user.getClass())) {
-          params[i] = user;
-          logger.atFine().log("deserialize: User injected into param[%d]", i);
-        } else {
-          logger.atWarning().log(
-              "deserialize: User object of type %s is not assignable to %s. User will be null.",
-              user.getClass().getName(), clazz.getName());
-        }
-      } else if (APPENGINE_USER_CLASS_NAME.equals(clazz.getName())) {
-        // User type parameter requires no Named annotation (ignored if present)
-        com.google.appengine.api.users.User appEngineUser = getAppEngineUser();
-        if (appEngineUser == null && methodConfig != null
-            && methodConfig.getAuthLevel() == AuthLevel.REQUIRED) {
-          throw new UnauthorizedException("Valid user credentials are required.");
-        }
-        params[i] = appEngineUser;
-        logger.atFine().log("deserialize: App Engine User injected into param[%d]", i);
-      } else if (clazz == HttpServletRequest.class) {
-        // HttpServletRequest type parameter requires no Named annotation (ignored if present)
-        params[i] = endpointsContext.getRequest();
-        logger.atFine().log("deserialize: HttpServletRequest injected into param[%d]", i);
-      } else if (clazz == ServletContext.class) {
-        // ServletContext type parameter requires no Named annotation (ignored if present)
-        params[i] = servletContext;
-        logger.atFine().log("deserialize: ServletContext %s injected into param[%d]",
-            params[i], i);
-      } else {
-        String name = parameterNames.get(i);
-        if (Strings.isNullOrEmpty(name)) {
-          params[i] = (body == null) ? null : objectReader.forType(clazz).readValue(body);
-          logger.atFine().log("deserialize: %s %s injected into unnamed param[%d]",
-              clazz, params[i], i);
-        } else if (StandardParameters.isStandardParamName(name)) {
-          params[i] = getStandardParamValue(parameters, name);
-        } else {
-          JsonNode nodeValue = parameters.get(name);
-          if (nodeValue == null) {
-            params[i] = null;
+  /**
+   * Binds the request resource to the type of an unnamed parameter.
+   */
+  protected interface ResourceBinder {
+    Object bind(Class<?> clazz) throws IOException;
+  }
+
+  /**
+   * Binds the uploaded media of a request to a {@link MediaUpload} or {@link java.io.InputStream}
+   * parameter, or returns null if the request has none for it.
+   */
+  protected interface MediaBinder {
+    Object bind(ParameterBinder binder) throws IOException, ServiceException;
+  }
+
+  /**
+   * Looks up the value of a named parameter, or returns null if the request does not have one.
+   */
+  protected interface ParameterLookup {
+    JsonNode get(ParameterBinder binder);
+  }
+
+  /**
+   * A {@link ParameterLookup} which also provides the raw string values of parameters, so that
+   * common parameter types are converted without building JSON nodes for Jackson.
+   */
+  protected interface StringParameterLookup extends ParameterLookup {
+    /**
+     * Returns the string values of a named parameter, an empty array if the request does not have
+     * one, or null if the value can only be read by {@link #get}.
+     */
+    @Nullable
+    String[] getValues(ParameterBinder binder);
+  }
+
+  protected Object[] deserializeParams(JsonNode body, JsonNode parameters) throws IOException,
+      IllegalAccessException, InvocationTargetException, NoSuchMethodException, ServiceException {
+    return deserializeParams(
+        clazz -> body == null ? null : objectReader.forType(clazz).readValue(body),
+        binder -> parameters.get(binder.getName()));
+  }
+
+  protected Object[] deserializeParams(ResourceBinder resource, ParameterLookup parameters)
+      throws IOException, ServiceException {
+    // Media is only uploaded with REST requests.
+    return deserializeParams(resource, parameters, binder -> null);
+  }
+
+  protected Object[] deserializeParams(ResourceBinder resource, ParameterLookup parameters,
+      MediaBinder media) throws IOException, ServiceException {
+    ParameterBinder[] binders = bindingPlan.getBinders();
+    Object[] params = new Object[binders.length];
+    for (int i = 0; i < binders.length; i++) {
+      ParameterBinder binder = binders[i];
+      Class<?> clazz = binder.getParameterClass();
+      switch (binder.getKind()) {
+        case USER:
+          // User type parameter requires no Named annotation (ignored if present)
+          User user = getUser();
+          if (user == null && methodConfig != null
+              && methodConfig.getAuthLevel() == AuthLevel.REQUIRED) {
+            throw new UnauthorizedException("Valid user credentials are required.");
+          }
+          if (user == null || clazz.isAssignableFrom(user.getClass())) {
+            params[i] = user;
+            logger.atFine().log("deserialize: User injected into param[%d]", i);
           } else {
-            // Check for collection type
-            if (Collection.class.isAssignableFrom(clazz)
-                && type.getType() instanceof ParameterizedType) {
-              params[i] =
-                  deserializeCollection(clazz, (ParameterizedType) type.getType(), nodeValue);
-            } else {
-              params[i] = objectReader.forType(clazz).readValue(nodeValue);
-            }
+            logger.atWarning().log(
+                "deserialize: User object of type %s is not assignable to %s. User will be null.",
+                user.getClass().getName(), clazz.getName());
+          }
+          break;
+        case APPENGINE_USER:
+          // User type parameter requires no Named annotation (ignored if present)
+          com.google.appengine.api.users.User appEngineUser = getAppEngineUser();
+          if (appEngineUser == null && methodConfig != null
+              && methodConfig.getAuthLevel() == AuthLevel.REQUIRED) {
+            throw new UnauthorizedException("Valid user credentials are required.");
+          }
+          params[i] = appEngineUser;
+          logger.atFine().log("deserialize: App Engine User injected into param[%d]", i);
+          break;
+        case REQUEST:
+          // HttpServletRequest type parameter requires no Named annotation (ignored if present)
+          // The API method may read the standard attributes, e.g. through EntityTags.
+          endpointsContext.bindStandardAttributes();
+          params[i] = endpointsContext.getRequest();
+          logger.atFine().log("deserialize: HttpServletRequest injected into param[%d]", i);
+          break;
+        case SERVLET_CONTEXT:
+          // ServletContext type parameter requires no Named annotation (ignored if present)
+          params[i] = servletContext;
+          logger.atFine().log("deserialize: ServletContext %s injected into param[%d]",
+              params[i], i);
+          break;
+        case MEDIA:
+          params[i] = media.bind(binder);
+          if (params[i] == null && binder.isRequired()) {
+            throw new BadRequestException("media upload required");
           }
-          if (params[i] == null && isRequiredParameter(method, i)) {
-            throw new BadRequestException("null value for parameter '" + name + "' not allowed");
+          logger.atFine().log("deserialize: media injected into param[%d]", i);
+          break;
+        case RESOURCE:
+          params[i] = resource.bind(clazz);
+          logger.atFine().log("deserialize: %s %s injected into unnamed param[%d]",
+              clazz, params[i], i);
+          break;
+        case STANDARD:
+          params[i] = getStandardParamValue(parameters, binder);
+          break;
+        case NAMED:
+          params[i] = readNamedParameter(parameters, binder);
+          if (params[i] == null && binder.isRequired()) {
+            throw new BadRequestException(
+                "null value for parameter '" + binder.getName() + "' not allowed");
           }
           logger.atFine().log("deserialize: %s %s injected into param[%d] named {%s}",
-              clazz, params[i], i, name);
-        }
+              clazz, params[i], i, binder.getName());
+          break;
       }
     }
     return params;
   }
 
-  private boolean isRequiredParameter(EndpointMethod method, int i) {
-    return AnnotationUtil.getNullableParameter(method.getMethod(), i, Nullable.class) == null
-        || method.getParameterTypes()[i].isPrimitive();
-  }
-
   @VisibleForTesting
   User getUser() throws ServiceException {
-    return Auth.from(endpointsContext.getRequest()).authenticate();
+    return Auth.getAuthenticatedUser(endpointsContext);
   }
 
   @VisibleForTesting
   com.google.appengine.api.users.User getAppEngineUser() throws ServiceException {
-    return Auth.from(endpointsContext.getRequest()).authenticateAppEngineUser();
+    return Auth.from(endpointsContext).authenticateAppEngineUser();
   }
 
-  private Object getStandardParamValue(JsonNode body, String paramName) {
-    if (!StandardParameters.isStandardParamName(paramName)) {
-      throw new IllegalArgumentException("paramName");
-    } else if (StandardParameters.USER_IP.equals(paramName)) {
+  private Object getStandardParamValue(ParameterLookup parameters, ParameterBinder binder) {
+    String paramName = binder.getName();
+    if (StandardParameters.USER_IP.equals(paramName)) {
       return endpointsContext.getRequest().getRemoteAddr();
     } else if (StandardParameters.PRETTY_PRINT.equals(paramName)) {
       return StandardParameters.shouldPrettyPrint(endpointsContext);
     }
-    JsonNode value = body.get(paramName);
+    JsonNode value = parameters.get(binder);
     if (value == null && StandardParameters.ALT.equals(paramName)) {
       return "json";
     }
     return value != null ? value.asText() : null;
   }
 
-  private <T> Collection<T> deserializeCollection(Class<?> clazz, ParameterizedType collectionType,
-      JsonNode nodeValue) throws IOException {
-    @SuppressWarnings("unchecked")
-    Class<? extends Collection<T>> collectionClass = (Class<? extends Collection<T>>) clazz;
-    @SuppressWarnings("unchecked")
-    Class<T> paramClass =
-        (Class<T>) EndpointMethod.getClassFromType(collectionType.getActualTypeArguments()[0]);
-    @SuppressWarnings("unchecked")
-    Class<T[]> arrayClazz = (Class<T[]>) Array.newInstance(paramClass, 0).getClass();
-    Collection<T> collection =
-        objectReader.forType(collectionClass).readValue(objectReader.createArrayNode());
-    if (nodeValue != null) {
-      T[] array = objectReader.forType(arrayClazz).readValue(nodeValue);
-      collection.addAll(Arrays.asList(array));
+  private static Object readNamedParameter(ParameterLookup parameters, ParameterBinder binder)
+      throws IOException {
+    ParameterConverter converter = binder.getConverter();
+    if (converter != null && parameters instanceof StringParameterLookup) {
+      String[] values = ((StringParameterLookup) parameters).getValues(binder);
+      if (values != null) {
+        if (values.length == 0) {
+          return null;
+        }
+        try {
+          return converter.convert(values);
+        } catch (RuntimeException e) {
+          // Not in canonical form, Jackson either reads the value or reports the error.
+        }
+      }
+    }
+    JsonNode nodeValue = parameters.get(binder);
+    if (nodeValue == null) {
+      return null;
     }
+    return binder.isCollection()
+        ? deserializeCollection(binder, nodeValue)
+        : binder.getReader().readValue(nodeValue);
+  }
+
+  private static Collection<Object> deserializeCollection(ParameterBinder binder,
+      JsonNode nodeValue) throws IOException {
+    ObjectReader reader = binder.getReader();
+    Collection<Object> collection = reader.readValue(reader.createArrayNode());
+    Object[] array = binder.getElementArrayReader().readValue(nodeValue);
+    collection.addAll(Arrays.asList(array));
     return collection;
   }
 
@@ -339,6 +395,7 @@ public class ServletRequestParamReader extends AbstractParamReader {
   protected final ObjectReader objectReader;
   protected final ApiMethodConfig methodConfig;
   protected final ServletInitializationParameters initParameters;
+  protected final ParameterBindingPlan bindingPlan;
 
   public ServletRequestParamReader(
       Object apiService, EndpointMethod method,
@@ -347,51 +404,113 @@ public class ServletRequestParamReader extends AbstractParamReader {
       ApiSerializationConfig serializationConfig,
       ApiMethodConfig methodConfig,
       ServletInitializationParameters initParameters) {
+    this(apiService, method,
+        ParameterBindingPlan.compile(method, methodConfig, serializationConfig),
+        endpointsContext, servletContext, methodConfig, initParameters);
+  }
+
+  /**
+   * Creates a reader with a binding plan compiled ahead of time, which should be preferred when
+   * the same method is read repeatedly.
+   */
+  public ServletRequestParamReader(
+      Object apiService, EndpointMethod method,
+      ParameterBindingPlan bindingPlan,
+      EndpointsContext endpointsContext,
+      ServletContext servletContext,
+      ApiMethodConfig methodConfig,
+      ServletInitializationParameters initParameters) {
     super(apiService, method);
 
     this.methodConfig = methodConfig;
     this.endpointsContext = endpointsContext;
     this.servletContext = servletContext;
+    this.bindingPlan = bindingPlan;
+    this.objectReader = bindingPlan.getObjectReader();
+    this.initParameters = initParameters;
+  }
 
+  static ObjectReader createObjectReader(ApiSerializationConfig serializationConfig) {
     LinkedHashSet<SimpleModule> modules = new LinkedHashSet<>();
     modules.addAll(READER_MODULES);
-    this.objectReader = ConfiguredObjectMapper
+    return ConfiguredObjectMapper
         .builder()
         .apiSerializationConfig(serializationConfig)
         .addRegisteredModules(modules)
         .build()
         .reader()
         .with(Base64Variants.MIME_NO_LINEFEEDS);
-    this.initParameters = initParameters;
   }
 
   @Override
   public Object[] read() throws ServiceException {
     // Assumes input stream to be encoded in UTF-8
     // TODO: Take charset from content-type as encoding
-    try {
-      String requestBody = IoUtil.readStream(endpointsContext.getRequest().getInputStream());
-      logger.atFine().log("requestBody=%s", requestBody);
-      if (requestBody == null || requestBody.trim().isEmpty()) {
+    try (JsonParser parser = createRequestParser()) {
+      if (parser == null || parser.nextToken() == null) {
         return new Object[0];
       }
-      JsonNode node = objectReader.readTree(requestBody);
-      if (!node.isObject()) {
+      if (parser.currentToken() != JsonToken.START_OBJECT) {
         throw new BadRequestException("expected a JSON object body");
       }
       //this convention comes from gapi.client to separate params and body
-      JsonNode resource = node.get("resource");
-      ((ObjectNode) node).remove("resource");
-      return validateParameters(deserializeParams(resource, node));
+      Class<?> resourceClass = bindingPlan.getResourceClass();
+      ObjectReader streamingElementReader = bindingPlan.getStreamingElementReader();
+      Object resource = null;
+      JsonNode resourceNode = null;
+      Map<String, JsonNode> parameters = new HashMap<>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.getCurrentName();
+        parser.nextToken();
+        if (!"resource".equals(fieldName)) {
+          parameters.put(fieldName, parser.readValueAsTree());
+        } else if (resourceClass != null && streamingElementReader == null) {
+          resource = parser.currentToken() == JsonToken.VALUE_NULL
+              ? null : objectReader.forType(resourceClass).readValue(parser);
+          resourceNode = null;
+        } else {
+          resourceNode = parser.readValueAsTree();
+          resource = null;
+        }
+      }
+      ResourceBinder resourceBinder;
+      if (streamingElementReader != null) {
+        // The resource shares the body with the parameters, so it was read in full.
+        Object value = resourceNode == null || resourceNode.isNull() ? StreamingBody.empty()
+            : createStreamingBody(resourceNode, streamingElementReader);
+        resourceBinder = clazz -> value;
+      } else if (resourceNode != null) {
+        JsonNode node = resourceNode;
+        resourceBinder = clazz -> objectReader.forType(clazz).readValue(node);
+      } else {
+        Object value = resource;
+        resourceBinder = clazz -> value;
+      }
+      return validateParameters(
+          deserializeParams(resourceBinder, binder -> parameters.get(binder.getName())));
     } catch (MismatchedInputException e) {
       logger.atInfo().withCause(e).log("Unable to read request parameter(s)");
       throw translateJsonException(e);
-    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException
-        | IOException e) {
+    } catch (IOException e) {
       throw new BadRequestException(e);
     }
   }
 
+  private StreamingBody<?> createStreamingBody(JsonNode node, ObjectReader elementReader)
+      throws IOException, ServiceException {
+    JsonParser parser = node.traverse(objectReader);
+    parser.nextToken();
+    return StreamingBody.create(parser, elementReader, false);
+  }
+
+  /**
+   * Returns a parser over the possibly compressed request body, or null if there is no body.
+   */
+  protected JsonParser createRequestParser() throws IOException {
+    InputStream inputStream = IoUtil.getRequestInputStream(endpointsContext.getRequest());
+    return inputStream == null ? null : objectReader.createParser(inputStream);
+  }
+
   BadRequestException translateJsonException(MismatchedInputException e) {
     String reason = "parseError";
     
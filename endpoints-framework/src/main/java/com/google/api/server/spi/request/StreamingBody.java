@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import com.google.api.server.spi.response.BadRequestException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A request resource which is read one element at a time, so that large bulk requests are not
+ * held in memory. An unnamed parameter of this type, or of type {@link Iterator}, is bound to the
+ * elements of a JSON array body, or of a newline delimited JSON body if the content type is
+ * {@value #NDJSON_CONTENT_TYPE}. Its schema is the same as for a {@link java.util.List}:
+ * <p>
+ * <code>
+ * public void importGreetings(StreamingBody&lt;Greeting&gt; greetings) {
+ *   while (greetings.hasNext()) {
+ *     save(greetings.next());
+ *   }
+ * }
+ * </code>
+ *
+ * <p>The body is parsed while it is iterated, so a malformed element is only reported when it is
+ * reached, by a {@link ReadException} with a {@link BadRequestException} that names the index of
+ * the element. Unless it is caught, the API method fails with that bad request error. The body
+ * can only be read while the API method runs.
+ */
+public final class StreamingBody<T> implements Iterator<T>, Closeable {
+  /**
+   * The content type of newline delimited JSON bodies.
+   */
+  public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+  private final JsonParser parser;
+  private final ObjectReader elementReader;
+  private final JsonToken endToken;
+  private int index;
+  private boolean peeked;
+  private boolean done;
+
+  private StreamingBody(@Nullable JsonParser parser, @Nullable ObjectReader elementReader,
+      boolean ndjson) {
+    this.parser = parser;
+    this.elementReader = elementReader;
+    this.endToken = ndjson ? null : JsonToken.END_ARRAY;
+    // The first element of a newline delimited body was already read to detect an empty body.
+    this.peeked = ndjson;
+    this.done = parser == null;
+  }
+
+  /**
+   * Returns a body without elements.
+   */
+  static <T> StreamingBody<T> empty() {
+    return new StreamingBody<>(null, null, false);
+  }
+
+  /**
+   * Returns a body over the values of a parser, which is positioned on the start of a JSON array
+   * or, for newline delimited JSON, on the first value.
+   */
+  static <T> StreamingBody<T> create(JsonParser parser, ObjectReader elementReader,
+      boolean ndjson) throws BadRequestException {
+    if (!ndjson && parser.currentToken() != JsonToken.START_ARRAY) {
+      throw new BadRequestException("expected a JSON array body");
+    }
+    return new StreamingBody<>(parser, elementReader, ndjson);
+  }
+
+  /**
+   * Returns whether a content type is {@value #NDJSON_CONTENT_TYPE}.
+   */
+  static boolean isNdjson(@Nullable String contentType) {
+    return contentType != null && contentType.startsWith(NDJSON_CONTENT_TYPE);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (!peeked && !done) {
+      JsonToken token;
+      try {
+        token = parser.nextToken();
+      } catch (IOException e) {
+        throw failure(e);
+      }
+      peeked = true;
+      if (token == endToken) {
+        close();
+      } else if (token == null) {
+        throw failure(null);
+      }
+    }
+    return !done;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    peeked = false;
+    try {
+      T element = elementReader.readValue(parser);
+      index++;
+      return element;
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  /**
+   * Returns the number of elements read so far.
+   */
+  public int getCount() {
+    return index;
+  }
+
+  /**
+   * Stops reading the body. Remaining elements are not validated.
+   */
+  @Override
+  public void close() {
+    if (!done) {
+      done = true;
+      try {
+        parser.close();
+      } catch (IOException e) {
+        // The request body is closed by the container anyway.
+      }
+    }
+  }
+
+  private ReadException failure(@Nullable IOException e) {
+    close();
+    String message = e instanceof JsonProcessingException
+        ? ((JsonProcessingException) e).getOriginalMessage()
+        : e != null ? e.getMessage() : "unexpected end of body";
+    return new ReadException(new BadRequestException(
+        "Parse error for element [" + index + "]: " + message, "parseError", e));
+  }
+
+  /**
+   * Thrown when an element cannot be read. The API method fails with its cause, unless it is
+   * caught.
+   */
+  public static final class ReadException extends RuntimeException {
+    ReadException(BadRequestException cause) {
+      super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized BadRequestException getCause() {
+      return (BadRequestException) super.getCause();
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import javax.annotation.Nullable;
+
+/**
+ * A single byte range of a {@code Range} header, resolved against the length of the media.
+ */
+final class ByteRange {
+  private static final String BYTES_UNIT = "bytes=";
+
+  /**
+   * The range of requests which cannot be satisfied, for example because they start after the
+   * end of the media.
+   */
+  static final ByteRange UNSATISFIABLE = new ByteRange(0, -1);
+
+  private final long first;
+  private final long last;
+
+  private ByteRange(long first, long last) {
+    this.first = first;
+    this.last = last;
+  }
+
+  /**
+   * Parses a {@code Range} header. Returns null if it should be ignored, because it is malformed,
+   * ends before it starts, or has several ranges, in which case the whole media is sent.
+   */
+  @Nullable
+  static ByteRange parse(String header, long length) {
+    if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())
+        || header.indexOf(',') >= 0) {
+      return null;
+    }
+    String spec = header.substring(BYTES_UNIT.length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return null;
+    }
+    long first;
+    long last;
+    try {
+      if (dash == 0) {
+        // The last bytes, for example "-500".
+        long suffix = Long.parseLong(spec.substring(1));
+        if (suffix < 0) {
+          return null;
+        } else if (suffix == 0) {
+          return UNSATISFIABLE;
+        }
+        first = Math.max(0, length - suffix);
+        last = length - 1;
+      } else {
+        first = Long.parseLong(spec.substring(0, dash));
+        if (dash == spec.length() - 1) {
+          last = length - 1;
+        } else {
+          last = Long.parseLong(spec.substring(dash + 1));
+          if (last < first) {
+            // Syntactically invalid, so it is ignored rather than unsatisfiable (RFC 7233 2.1).
+            return null;
+          }
+          last = Math.min(last, length - 1);
+        }
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (first < 0) {
+      return null;
+    }
+    return first >= length ? UNSATISFIABLE : new ByteRange(first, last);
+  }
+
+  long getFirst() {
+    return first;
+  }
+
+  long getLength() {
+    return last - first + 1;
+  }
+
+  /**
+   * Returns the value of the {@code Content-Range} header.
+   */
+  String toContentRange(long length) {
+    return this == UNSATISFIABLE
+        ? "bytes */" + length : "bytes " + first + "-" + last + "/" + length;
+  }
+}
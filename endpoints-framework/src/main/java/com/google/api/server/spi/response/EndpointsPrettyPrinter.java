@@ -34,6 +34,10 @@ public class EndpointsPrettyPrinter extends DefaultPrettyPrinter {
     indentObjectsWith(indenter);
   }
 
+  private EndpointsPrettyPrinter(EndpointsPrettyPrinter base) {
+    super(base);
+  }
+
   @Override
   public void writeObjectFieldValueSeparator(JsonGenerator jg) throws IOException {
     jg.writeRaw(": ");
@@ -41,7 +45,8 @@ public class EndpointsPrettyPrinter extends DefaultPrettyPrinter {
 
   @Override
   public EndpointsPrettyPrinter createInstance() {
-    return this;
+    // The nesting level is per generator, so that writers can be shared between threads.
+    return new EndpointsPrettyPrinter(this);
   }
 
   private static class SpaceIndenter implements Indenter {
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.api.server.spi.Headers;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.request.Attribute;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Entity tags (ETags) and conditional requests.
+ *
+ * <p>If enabled for the servlet, the entity tags of GET responses are computed from a hash of the
+ * serialized body. API methods can also supply a cheap version of their resource instead, which
+ * lets them answer {@code If-None-Match} and {@code If-Match} requests before building a response:
+ *
+ * <pre>
+ * public Item get(@Named("id") String id, HttpServletRequest request) throws ServiceException {
+ *   EntityTags.checkVersion(request, store.getVersion(id));
+ *   return store.get(id);
+ * }
+ * </pre>
+ *
+ * <p>Entity tags are strong, but compressed bodies get a suffix with the content coding, such as
+ * {@code ;gzip}. The suffix is ignored when comparing tags, so that clients can send back any of
+ * them. Versions cannot contain the separator, so a version never looks like a compressed tag.
+ */
+public final class EntityTags {
+  /**
+   * A fast, non-cryptographic hash for the bodies, computed while they are written.
+   */
+  static final HashFunction BODY_HASH = Hashing.murmur3_128();
+
+  /**
+   * Separates the content coding suffix of a compressed body's tag.
+   */
+  private static final char ENCODING_SEPARATOR = ';';
+
+  private static final String GZIP_SUFFIX =
+      ENCODING_SEPARATOR + ResponseCompression.Encoding.GZIP.getHeaderValue();
+  private static final String DEFLATE_SUFFIX =
+      ENCODING_SEPARATOR + ResponseCompression.Encoding.DEFLATE.getHeaderValue();
+
+  private EntityTags() {}
+
+  /**
+   * Sets the entity tag of the response to a version of the resource, and checks the
+   * preconditions of the request against it:
+   *
+   * <ul>
+   *   <li>If an {@code If-Match} header is present, one of its tags must match the version.
+   *   <li>If an {@code If-None-Match} header matches the version, the cached response of the client
+   *       is current for GET requests, and other requests fail.
+   * </ul>
+   *
+   * @param request the request of the API method
+   * @param version the current version of the resource, or null if it does not exist. Versions
+   *     must not contain double quotes or semicolons.
+   * @throws NotModifiedException if the cached response of a GET request is current
+   * @throws PreconditionFailedException if a precondition of another request fails
+   */
+  public static void checkVersion(HttpServletRequest request, @Nullable String version)
+      throws NotModifiedException, PreconditionFailedException {
+    String entityTag = null;
+    if (version != null) {
+      entityTag = setVersion(request, version);
+    }
+    String ifMatch = request.getHeader(Headers.IF_MATCH);
+    if (ifMatch != null && !matches(ifMatch, entityTag, false)) {
+      throw new PreconditionFailedException("The resource was modified");
+    }
+    String ifNoneMatch = request.getHeader(Headers.IF_NONE_MATCH);
+    if (ifNoneMatch != null && matches(ifNoneMatch, entityTag, true)) {
+      if (isSafe(request)) {
+        throw new NotModifiedException(entityTag);
+      }
+      throw new PreconditionFailedException("The resource already exists");
+    }
+  }
+
+  /**
+   * Sets the entity tag of the response to a version of the resource, without checking
+   * preconditions. A GET request is still answered with 304 Not Modified if the version matches,
+   * but only after the method returns.
+   *
+   * @return the entity tag, including quotes
+   */
+  public static String setVersion(HttpServletRequest request, String version) {
+    Preconditions.checkArgument(version.indexOf('"') < 0, "version must not contain quotes");
+    Preconditions.checkArgument(version.indexOf(ENCODING_SEPARATOR) < 0,
+        "version must not contain %s", ENCODING_SEPARATOR);
+    String entityTag = '"' + version + '"';
+    request.setAttribute(Attribute.ENTITY_TAG, entityTag);
+    return entityTag;
+  }
+
+  /**
+   * Returns the entity tag set by the API method, or null.
+   */
+  @Nullable
+  static String getVersionTag(HttpServletRequest request) {
+    return (String) request.getAttribute(Attribute.ENTITY_TAG);
+  }
+
+  /**
+   * Returns whether the cached response of a GET or HEAD request is current.
+   */
+  static boolean isNotModified(HttpServletRequest request, String entityTag) {
+    return isSafe(request) && matches(request.getHeader(Headers.IF_NONE_MATCH), entityTag, true);
+  }
+
+  /**
+   * Returns the entity tag of a body hash.
+   */
+  static String fromHash(long hash) {
+    char[] chars = new char[18];
+    chars[0] = '"';
+    for (int i = 16; i > 0; i--) {
+      chars[i] = Character.forDigit((int) (hash & 0xf), 16);
+      hash >>>= 4;
+    }
+    chars[17] = '"';
+    return new String(chars);
+  }
+
+  /**
+   * Returns the entity tag of a compressed body.
+   */
+  static String withEncoding(String entityTag, ResponseCompression.Encoding encoding) {
+    return entityTag.substring(0, entityTag.length() - 1) + ENCODING_SEPARATOR
+        + encoding.getHeaderValue() + '"';
+  }
+
+  /**
+   * Returns whether an entity tag matches one of the tags in a conditional header. Weak tags only
+   * match with the weak comparison of {@code If-None-Match}.
+   *
+   * @param header a list of entity tags, or {@code *}
+   * @param entityTag the current entity tag, or null if the resource does not exist
+   */
+  static boolean matches(@Nullable String header, @Nullable String entityTag, boolean weak) {
+    if (header == null || entityTag == null) {
+      return false;
+    }
+    int tagEnd = opaqueEnd(entityTag, 1, entityTag.length() - 1);
+    int position = 0;
+    int length = header.length();
+    while (position < length) {
+      char c = header.charAt(position);
+      if (c == ' ' || c == ',' || c == '\t') {
+        position++;
+      } else if (c == '*') {
+        return true;
+      } else {
+        boolean weakTag = header.startsWith("W/", position);
+        if (weakTag) {
+          position += 2;
+        }
+        if (position >= length || header.charAt(position) != '"') {
+          // Malformed; nothing after this can be parsed reliably.
+          return false;
+        }
+        int start = position + 1;
+        int end = header.indexOf('"', start);
+        if (end < 0) {
+          return false;
+        }
+        if (weak || !weakTag) {
+          int opaqueEnd = opaqueEnd(header, start, end);
+          if (opaqueEnd - start == tagEnd - 1
+              && header.regionMatches(start, entityTag, 1, tagEnd - 1)) {
+            return true;
+          }
+        }
+        position = end + 1;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the end of an opaque tag, without a content coding suffix.
+   */
+  private static int opaqueEnd(String value, int start, int end) {
+    if (value.regionMatches(end - GZIP_SUFFIX.length(), GZIP_SUFFIX, 0, GZIP_SUFFIX.length())
+        && end - GZIP_SUFFIX.length() >= start) {
+      return end - GZIP_SUFFIX.length();
+    }
+    if (value.regionMatches(end - DEFLATE_SUFFIX.length(), DEFLATE_SUFFIX, 0,
+        DEFLATE_SUFFIX.length()) && end - DEFLATE_SUFFIX.length() >= start) {
+      return end - DEFLATE_SUFFIX.length();
+    }
+    return end;
+  }
+
+  /**
+   * Returns whether the request is a GET or HEAD request, as dispatched. The HTTP method of the
+   * API method is used when known, and otherwise the method override header, like the servlet.
+   */
+  private static boolean isSafe(HttpServletRequest request) {
+    ApiMethodConfig methodConfig =
+        (ApiMethodConfig) request.getAttribute(Attribute.API_METHOD_CONFIG);
+    String method;
+    if (methodConfig != null) {
+      method = methodConfig.getHttpMethod();
+    } else {
+      String methodOverride = request.getHeader(Headers.METHOD_OVERRIDE);
+      method = methodOverride != null ? methodOverride.toUpperCase() : request.getMethod();
+    }
+    return "GET".equals(method) || "HEAD".equals(method);
+  }
+}
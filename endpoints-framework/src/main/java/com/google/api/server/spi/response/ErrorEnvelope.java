@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Encodes JSON-REST error envelopes straight to a {@link JsonGenerator}, without building a tree:
+ *
+ * <pre>
+ * {"error": {"errors": [{"domain": ..., "reason": ..., "message": ..., extra fields}],
+ *   "code": ..., "message": ...}}
+ * </pre>
+ */
+final class ErrorEnvelope {
+  private static final SerializableString ERROR = new SerializedString("error");
+  private static final SerializableString ERRORS = new SerializedString("errors");
+  private static final SerializableString DOMAIN = new SerializedString("domain");
+  private static final SerializableString REASON = new SerializedString("reason");
+  private static final SerializableString MESSAGE = new SerializedString("message");
+  private static final SerializableString CODE = new SerializedString("code");
+
+  private ErrorEnvelope() {}
+
+  /**
+   * Encodes an error envelope as UTF-8.
+   *
+   * @param writer the writer used for pretty printing and extra field values, which are written
+   *     by its mapper
+   */
+  static byte[] encode(ObjectWriter writer, int code, String reason, String domain,
+      String message, Map<String, Object> extraFields) throws IOException {
+    ByteArrayBuilder bytes = new ByteArrayBuilder();
+    try (JsonGenerator generator = writer.createGenerator(bytes)) {
+      write(generator, code, reason, domain, message, extraFields);
+    }
+    return bytes.toByteArray();
+  }
+
+  static void write(JsonGenerator generator, int code, String reason, String domain,
+      String message, Map<String, Object> extraFields) throws IOException {
+    generator.writeStartObject();
+    generator.writeFieldName(ERROR);
+    generator.writeStartObject();
+    generator.writeFieldName(ERRORS);
+    generator.writeStartArray();
+    generator.writeStartObject();
+    generator.writeFieldName(DOMAIN);
+    generator.writeString(domain);
+    generator.writeFieldName(REASON);
+    generator.writeString(reason);
+    generator.writeFieldName(MESSAGE);
+    generator.writeString(message);
+    for (Map.Entry<String, Object> extraField : extraFields.entrySet()) {
+      generator.writeFieldName(extraField.getKey());
+      generator.writeObject(extraField.getValue());
+    }
+    generator.writeEndObject();
+    generator.writeEndArray();
+    generator.writeFieldName(CODE);
+    generator.writeNumber(code);
+    generator.writeFieldName(MESSAGE);
+    generator.writeString(message);
+    generator.writeEndObject();
+    generator.writeEndObject();
+  }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.api.server.spi.ObjectMapperUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.std.MapSerializer;
+import com.fasterxml.jackson.databind.type.MapType;
+import com.fasterxml.jackson.databind.util.NameTransformer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A compiled {@code fields} selector for partial responses, such as
+ * {@code items(id,name),nextPageToken}. Selections apply to the properties of objects, and to the
+ * elements of arrays as a whole. {@code a/b} is short for {@code a(b)}, and {@code *} selects all
+ * properties of an object.
+ *
+ * <p>Masks are applied while serializing, by property writers which skip unselected properties
+ * before their getters are invoked. Compiled masks are immutable and cached per selector.
+ */
+public final class FieldMask {
+  /**
+   * Selects all properties, recursively.
+   */
+  static final FieldMask ALL = new FieldMask(ImmutableMap.<String, FieldMask>of());
+
+  private static final String WILDCARD = "*";
+  private static final int CACHE_SIZE = 1000;
+  private static final Cache<String, FieldMask> CACHE =
+      CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+  private final ImmutableMap<String, FieldMask> children;
+  @Nullable private final FieldMask wildcard;
+
+  private FieldMask(ImmutableMap<String, FieldMask> children) {
+    this.children = children;
+    this.wildcard = children.get(WILDCARD);
+  }
+
+  /**
+   * Returns the compiled mask for a {@code fields} parameter.
+   *
+   * @throws BadRequestException if the selector is malformed
+   */
+  public static FieldMask compile(String fields) throws BadRequestException {
+    FieldMask mask = CACHE.getIfPresent(fields);
+    if (mask == null) {
+      mask = new Parser(fields).parse();
+      CACHE.put(fields, mask);
+    }
+    return mask;
+  }
+
+  /**
+   * Returns the mask of a selected property, or null if it is not selected.
+   */
+  @Nullable
+  FieldMask getChild(String name) {
+    if (this == ALL) {
+      return ALL;
+    }
+    FieldMask child = children.get(name);
+    return child != null ? child : wildcard;
+  }
+
+  /**
+   * Returns a writer which applies this mask. The writer keeps the serialization state, so it
+   * must only be used for one value at a time.
+   */
+  public ObjectWriter apply(ObjectWriter objectWriter) {
+    return objectWriter.withAttribute(Cursor.class, new Cursor(this));
+  }
+
+  /**
+   * Returns the module which enables {@link #apply} on a mapper.
+   */
+  static SimpleModule createModule() {
+    SimpleModule module = new SimpleModule("fieldMaskModule",
+        new Version(1, 0, 0, null, null, null));
+    module.setSerializerModifier(new Modifier());
+    return module;
+  }
+
+  @Override
+  public String toString() {
+    if (this == ALL) {
+      return WILDCARD;
+    }
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, FieldMask> entry : children.entrySet()) {
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+      builder.append(entry.getKey());
+      if (entry.getValue() != ALL) {
+        builder.append('(').append(entry.getValue()).append(')');
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * A regex-free recursive descent parser for selectors.
+   */
+  private static final class Parser {
+    private final String fields;
+    private int position;
+
+    Parser(String fields) {
+      this.fields = fields;
+    }
+
+    FieldMask parse() throws BadRequestException {
+      Node root = new Node();
+      parseList(root);
+      if (position < fields.length()) {
+        throw invalid();
+      }
+      return root.build();
+    }
+
+    private void parseList(Node parent) throws BadRequestException {
+      while (true) {
+        parseSelection(parent);
+        if (position < fields.length() && fields.charAt(position) == ',') {
+          position++;
+        } else {
+          return;
+        }
+      }
+    }
+
+    private void parseSelection(Node parent) throws BadRequestException {
+      Node node = parent.child(parseName());
+      while (position < fields.length() && fields.charAt(position) == '/') {
+        position++;
+        node = node.child(parseName());
+      }
+      if (position < fields.length() && fields.charAt(position) == '(') {
+        position++;
+        Node selection = new Node();
+        parseList(selection);
+        if (position >= fields.length() || fields.charAt(position) != ')') {
+          throw invalid();
+        }
+        position++;
+        skipSpaces();
+        node.merge(selection);
+      } else {
+        node.all = true;
+      }
+    }
+
+    private String parseName() throws BadRequestException {
+      int start = position;
+      while (position < fields.length() && !isDelimiter(fields.charAt(position))) {
+        position++;
+      }
+      String name = fields.substring(start, position).trim();
+      skipSpaces();
+      if (name.isEmpty()) {
+        throw invalid();
+      }
+      return name;
+    }
+
+    private void skipSpaces() {
+      while (position < fields.length() && fields.charAt(position) == ' ') {
+        position++;
+      }
+    }
+
+    private static boolean isDelimiter(char c) {
+      return c == ',' || c == '/' || c == '(' || c == ')';
+    }
+
+    private BadRequestException invalid() {
+      return new BadRequestException("Invalid field selection " + fields);
+    }
+  }
+
+  /**
+   * A mutable selection, while parsing.
+   */
+  private static final class Node {
+    private final Map<String, Node> children = new LinkedHashMap<>();
+    private boolean all;
+
+    Node child(String name) {
+      return children.computeIfAbsent(name, key -> new Node());
+    }
+
+    void merge(Node other) {
+      all |= other.all;
+      for (Map.Entry<String, Node> entry : other.children.entrySet()) {
+        child(entry.getKey()).merge(entry.getValue());
+      }
+    }
+
+    FieldMask build() {
+      if (all) {
+        return ALL;
+      }
+      ImmutableMap.Builder<String, FieldMask> builder = ImmutableMap.builder();
+      for (Map.Entry<String, Node> entry : children.entrySet()) {
+        builder.put(entry.getKey(), entry.getValue().build());
+      }
+      return new FieldMask(builder.build());
+    }
+  }
+
+  /**
+   * The masks of the objects being serialized, from the root to the current one.
+   */
+  @VisibleForTesting
+  static final class Cursor {
+    private FieldMask[] stack = new FieldMask[8];
+    private int depth;
+
+    Cursor(FieldMask root) {
+      stack[0] = root;
+    }
+
+    @Nullable
+    static Cursor get(SerializerProvider provider) {
+      return (Cursor) provider.getAttribute(Cursor.class);
+    }
+
+    FieldMask current() {
+      return stack[depth];
+    }
+
+    void push(FieldMask mask) {
+      if (++depth == stack.length) {
+        stack = Arrays.copyOf(stack, depth * 2);
+      }
+      stack[depth] = mask;
+    }
+
+    void pop() {
+      stack[depth--] = null;
+    }
+  }
+
+  private static final class Modifier extends BeanSerializerModifier {
+    @Override
+    public List<BeanPropertyWriter> changeProperties(SerializationConfig config,
+        BeanDescription beanDesc, List<BeanPropertyWriter> beanProperties) {
+      for (int i = 0; i < beanProperties.size(); i++) {
+        beanProperties.set(i, new MaskedPropertyWriter(beanProperties.get(i)));
+      }
+      return beanProperties;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public JsonSerializer<?> modifyMapSerializer(SerializationConfig config, MapType valueType,
+        BeanDescription beanDesc, JsonSerializer<?> serializer) {
+      return new MaskedMapSerializer((JsonSerializer<Map<?, ?>>) serializer);
+    }
+  }
+
+  /**
+   * Writes a bean property only if it is selected, with its own mask for nested objects.
+   */
+  private static final class MaskedPropertyWriter extends BeanPropertyWriter {
+    private final BeanPropertyWriter delegate;
+
+    MaskedPropertyWriter(BeanPropertyWriter delegate) {
+      super(delegate);
+      this.delegate = delegate;
+    }
+
+    @Override
+    public BeanPropertyWriter rename(NameTransformer transformer) {
+      return new MaskedPropertyWriter(delegate.rename(transformer));
+    }
+
+    @Override
+    public void assignSerializer(JsonSerializer<Object> serializer) {
+      delegate.assignSerializer(serializer);
+    }
+
+    @Override
+    public void assignNullSerializer(JsonSerializer<Object> nullSerializer) {
+      delegate.assignNullSerializer(nullSerializer);
+    }
+
+    @Override
+    public void assignTypeSerializer(TypeSerializer typeSerializer) {
+      delegate.assignTypeSerializer(typeSerializer);
+    }
+
+    @Override
+    public void setNonTrivialBaseType(JavaType type) {
+      delegate.setNonTrivialBaseType(type);
+    }
+
+    @Override
+    public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider provider)
+        throws Exception {
+      Cursor cursor = Cursor.get(provider);
+      if (cursor == null || cursor.current() == ALL) {
+        delegate.serializeAsField(bean, gen, provider);
+        return;
+      }
+      FieldMask child = cursor.current().getChild(getName());
+      if (child == null) {
+        return;
+      }
+      cursor.push(child);
+      try {
+        delegate.serializeAsField(bean, gen, provider);
+      } finally {
+        cursor.pop();
+      }
+    }
+
+    @Override
+    public void serializeAsElement(Object bean, JsonGenerator gen, SerializerProvider provider)
+        throws Exception {
+      delegate.serializeAsElement(bean, gen, provider);
+    }
+  }
+
+  /**
+   * Writes the selected entries of a map, whose keys are treated like property names.
+   */
+  private static final class MaskedMapSerializer extends JsonSerializer<Map<?, ?>>
+      implements ContextualSerializer {
+    private final JsonSerializer<Map<?, ?>> delegate;
+    // The deep empty check of the standard mapper only wraps plain map serializers, and is
+    // applied after this one, so it is done here instead.
+    private final boolean deepEmptyCheck;
+
+    MaskedMapSerializer(JsonSerializer<Map<?, ?>> delegate) {
+      this.delegate = delegate;
+      this.deepEmptyCheck = delegate instanceof MapSerializer;
+    }
+
+    @Override
+    public void serialize(Map<?, ?> value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      Cursor cursor = Cursor.get(provider);
+      if (cursor == null || cursor.current() == ALL) {
+        delegate.serialize(value, gen, provider);
+        return;
+      }
+      gen.writeStartObject(value);
+      if (delegate instanceof MapSerializer) {
+        // The standard serializer writes the keys and values, and skips null values as
+        // configured, while the filter skips unselected entries.
+        ((MapSerializer) delegate).serializeFilteredFields(
+            orderEntries(value, provider), gen, provider, MaskedEntryFilter.INSTANCE, null);
+      } else {
+        serializeEntries(value, gen, provider, cursor);
+      }
+      gen.writeEndObject();
+    }
+
+    private static void serializeEntries(Map<?, ?> value, JsonGenerator gen,
+        SerializerProvider provider, Cursor cursor) throws IOException {
+      FieldMask mask = cursor.current();
+      for (Map.Entry<?, ?> entry : orderEntries(value, provider).entrySet()) {
+        String name = String.valueOf(entry.getKey());
+        FieldMask child = mask.getChild(name);
+        if (child == null || entry.getValue() == null) {
+          continue;
+        }
+        gen.writeFieldName(name);
+        cursor.push(child);
+        try {
+          provider.defaultSerializeValue(entry.getValue(), gen);
+        } finally {
+          cursor.pop();
+        }
+      }
+    }
+
+    private static Map<?, ?> orderEntries(Map<?, ?> value, SerializerProvider provider) {
+      if (!provider.isEnabled(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+          || value instanceof SortedMap || value.containsKey(null)) {
+        return value;
+      }
+      return new TreeMap<>(value);
+    }
+
+    @Override
+    public boolean isEmpty(SerializerProvider provider, Map<?, ?> value) {
+      return deepEmptyCheck
+          ? ObjectMapperUtil.isDeeplyEmpty(value) : delegate.isEmpty(provider, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property)
+        throws JsonMappingException {
+      if (delegate instanceof ContextualSerializer) {
+        return new MaskedMapSerializer((JsonSerializer<Map<?, ?>>)
+            ((ContextualSerializer) delegate).createContextual(provider, property));
+      }
+      return this;
+    }
+  }
+
+  /**
+   * Writes a map entry only if its key is selected, with its own mask for nested objects.
+   */
+  private static final class MaskedEntryFilter extends SimpleBeanPropertyFilter {
+    static final MaskedEntryFilter INSTANCE = new MaskedEntryFilter();
+
+    @Override
+    public void serializeAsField(Object pojo, JsonGenerator gen, SerializerProvider provider,
+        PropertyWriter writer) throws Exception {
+      Cursor cursor = Cursor.get(provider);
+      FieldMask child = cursor.current().getChild(writer.getName());
+      if (child == null) {
+        return;
+      }
+      cursor.push(child);
+      try {
+        writer.serializeAsField(pojo, gen, provider);
+      } finally {
+        cursor.pop();
+      }
+    }
+  }
+}
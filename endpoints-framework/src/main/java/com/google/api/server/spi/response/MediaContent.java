@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.annotation.Nullable;
+
+/**
+ * Media which an API method returns to send raw bytes instead of JSON, for {@code alt=media}
+ * downloads. The source is written directly to the response, and is closed afterwards. Without
+ * {@code alt=media}, the response is the JSON metadata of the media, of type {@code T}, or empty
+ * if there is none:
+ * <p>
+ * <code>
+ * public MediaContent&lt;Image&gt; get(@Named("name") String name) throws IOException {
+ *   return MediaContent.&lt;Image&gt;of(FileChannel.open(pathOf(name)), "image/png")
+ *       .withMetadata(images.get(name));
+ * }
+ * </code>
+ *
+ * <p>Media with a known length supports single byte range requests, which are answered with 206
+ * Partial Content. An entity tag set through {@link EntityTags} is sent, and is compared with the
+ * {@code If-None-Match} and {@code If-Range} headers.
+ */
+public final class MediaContent<T> implements Closeable {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final String contentType;
+  private final long length;
+  private final InputStream stream;
+  private final ByteBuffer buffer;
+  private final FileChannel channel;
+  private final T metadata;
+
+  private MediaContent(String contentType, long length, InputStream stream, ByteBuffer buffer,
+      FileChannel channel, T metadata) {
+    this.contentType = Preconditions.checkNotNull(contentType, "contentType");
+    this.length = length;
+    this.stream = stream;
+    this.buffer = buffer;
+    this.channel = channel;
+    this.metadata = metadata;
+  }
+
+  /**
+   * Returns media read from a stream.
+   *
+   * @param length the number of bytes in the stream, or -1 if it is unknown, in which case range
+   *     requests are not supported
+   */
+  public static <T> MediaContent<T> of(InputStream stream, String contentType, long length) {
+    Preconditions.checkArgument(length >= -1, "invalid length: %s", length);
+    return new MediaContent<>(
+        contentType, length, Preconditions.checkNotNull(stream, "stream"), null, null, null);
+  }
+
+  /**
+   * Returns media of unknown length read from a stream.
+   */
+  public static <T> MediaContent<T> of(InputStream stream, String contentType) {
+    return of(stream, contentType, -1);
+  }
+
+  /**
+   * Returns media with the remaining bytes of a buffer, which is not modified.
+   */
+  public static <T> MediaContent<T> of(ByteBuffer buffer, String contentType) {
+    return new MediaContent<>(contentType, buffer.remaining(), null, buffer.slice(), null, null);
+  }
+
+  /**
+   * Returns media with the bytes of a file from its current position, which are transferred to
+   * the response by the channel.
+   */
+  public static <T> MediaContent<T> of(FileChannel channel, String contentType)
+      throws IOException {
+    return new MediaContent<>(
+        contentType, channel.size() - channel.position(), null, null, channel, null);
+  }
+
+  /**
+   * Returns the same media with metadata, which is the response of requests without
+   * {@code alt=media}.
+   */
+  public MediaContent<T> withMetadata(@Nullable T metadata) {
+    return new MediaContent<>(contentType, length, stream, buffer, channel, metadata);
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Returns the length of the media in bytes, or -1 if it is unknown.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  @Nullable
+  public T getMetadata() {
+    return metadata;
+  }
+
+  /**
+   * Writes a range of the media.
+   *
+   * @param offset the first byte to write, which must be 0 if the length is unknown
+   * @param count the number of bytes to write, or -1 to write all of them
+   */
+  void writeTo(OutputStream out, long offset, long count) throws IOException {
+    if (count == -1) {
+      count = length == -1 ? Long.MAX_VALUE : length - offset;
+    }
+    if (channel != null) {
+      long position = channel.position() + offset;
+      WritableByteChannel target = Channels.newChannel(out);
+      while (count > 0) {
+        long transferred = channel.transferTo(position, count, target);
+        if (transferred <= 0) {
+          break;
+        }
+        position += transferred;
+        count -= transferred;
+      }
+    } else if (buffer != null) {
+      ByteBuffer range = buffer.duplicate();
+      range.position((int) offset);
+      range.limit((int) (offset + count));
+      if (range.hasArray()) {
+        out.write(range.array(), range.arrayOffset() + range.position(), range.remaining());
+      } else {
+        byte[] chunk = new byte[Math.min(BUFFER_SIZE, range.remaining())];
+        while (range.hasRemaining()) {
+          int size = Math.min(chunk.length, range.remaining());
+          range.get(chunk, 0, size);
+          out.write(chunk, 0, size);
+        }
+      }
+    } else {
+      ByteStreams.skipFully(stream, offset);
+      ByteStreams.copy(ByteStreams.limit(stream, count), out);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    } else if (stream != null) {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.api.server.spi.Headers;
+import com.google.api.server.spi.ServiceException;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Not modified exception that is mapped to a 304 response without a body, when the cached
+ * response of a client is still current. See {@link EntityTags#checkVersion}.
+ */
+public class NotModifiedException extends ServiceException {
+
+  public static final int CODE = 304;
+
+  private final String entityTag;
+
+  /**
+   * @param entityTag the current entity tag, including quotes
+   */
+  public NotModifiedException(String entityTag) {
+    super(CODE, "Not Modified");
+    this.entityTag = entityTag;
+    withLogLevel(this, Level.FINE);
+  }
+
+  public String getEntityTag() {
+    return entityTag;
+  }
+
+  @Override
+  public Map<String, String> getHeaders() {
+    return ImmutableMap.of(Headers.ETAG, entityTag);
+  }
+
+  /**
+   * Skips the stack trace, since this is an expected outcome of a cheap version check.
+   */
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.api.server.spi.ServiceException;
+
+/**
+ * Precondition failed exception that is mapped to a 412 response, for example if the entity tag
+ * of an {@code If-Match} header is no longer current.
+ */
+public class PreconditionFailedException extends ServiceException {
+
+  public static final int CODE = 412;
+
+  public PreconditionFailedException(String message) {
+    super(CODE, message);
+  }
+
+  public PreconditionFailedException(Throwable cause) {
+    super(CODE, cause);
+  }
+
+  public PreconditionFailedException(String message, Throwable cause) {
+    super(CODE, message, cause);
+  }
+
+  public PreconditionFailedException(String statusMessage, String reason) {
+    super(CODE, statusMessage, reason);
+  }
+
+  public PreconditionFailedException(String statusMessage, String reason, Throwable cause) {
+    super(CODE, statusMessage, reason, cause);
+  }
+
+  public PreconditionFailedException(String statusMessage, String reason, String domain) {
+    super(CODE, statusMessage, reason, domain);
+  }
+
+  public PreconditionFailedException(String statusMessage, String reason, String domain,
+      Throwable cause) {
+    super(CODE, statusMessage, reason, domain, cause);
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * A growable in-memory output stream for response bodies, backed by arrays borrowed from a shared
+ * pool, so that the length of a body is known before it is sent without serializing it twice.
+ *
+ * <p>Pooled arrays come in power of two size classes from {@value #MIN_SIZE} bytes to
+ * {@value #MAX_POOLED_SIZE} bytes. Each class keeps fewer arrays the larger they are, which bounds
+ * the memory held by the pool to a few megabytes; larger bodies use arrays which are not pooled.
+ * Buffers are not thread-safe and must be {@link #release() released} after use.
+ */
+final class ResponseBuffer extends OutputStream {
+  static final int MIN_SIZE = 1 << 10;
+  static final int MAX_POOLED_SIZE = 1 << 20;
+  private static final int MIN_SHIFT = 10;
+  private static final int PROBES = 4;
+
+  @VisibleForTesting
+  static final Pool POOL = new Pool();
+
+  private byte[] bytes;
+  private int count;
+
+  /**
+   * @param initialSize the expected size of the body, which is rounded up to a size class
+   */
+  ResponseBuffer(int initialSize) {
+    this.bytes = POOL.acquire(initialSize);
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(count + 1);
+    bytes[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureCapacity(count + len);
+    System.arraycopy(b, off, bytes, count, len);
+    count += len;
+  }
+
+  int size() {
+    return count;
+  }
+
+  /**
+   * Copies the body to an output stream, in a single write.
+   */
+  void writeTo(OutputStream out) throws IOException {
+    out.write(bytes, 0, count);
+  }
+
+  /**
+   * Compresses the body into another buffer, with a deflater which was just created or reset.
+   */
+  void deflateTo(Deflater deflater, ResponseBuffer out) {
+    deflater.setInput(bytes, 0, count);
+    deflater.finish();
+    while (!deflater.finished()) {
+      if (out.count == out.bytes.length) {
+        out.ensureCapacity(out.count + 1);
+      }
+      out.count += deflater.deflate(out.bytes, out.count, out.bytes.length - out.count);
+    }
+  }
+
+  void updateChecksum(Checksum checksum) {
+    checksum.update(bytes, 0, count);
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, count);
+  }
+
+  /**
+   * Returns the backing array to the pool. The buffer must not be used afterwards.
+   */
+  void release() {
+    if (bytes != null) {
+      POOL.release(bytes);
+      bytes = null;
+    }
+  }
+
+  private void ensureCapacity(int minCapacity) {
+    if (minCapacity > bytes.length) {
+      if (minCapacity < 0) {
+        throw new OutOfMemoryError("Response body too large");
+      }
+      byte[] grown = POOL.acquire(Math.max(minCapacity, bytes.length << 1));
+      System.arraycopy(bytes, 0, grown, 0, count);
+      POOL.release(bytes);
+      bytes = grown;
+    }
+  }
+
+  /**
+   * Returns the size class of an array of at least {@code size} bytes, rounded up to a power of
+   * two.
+   */
+  static int sizeClass(int size) {
+    return size <= MIN_SIZE ? MIN_SIZE : Integer.highestOneBit(size - 1) << 1;
+  }
+
+  /**
+   * The shared, lock-free pool of arrays. Threads probe a few slots of a size class, starting at
+   * a slot derived from their id, and allocate a new array if none is available.
+   */
+  @VisibleForTesting
+  static final class Pool {
+    private final AtomicReferenceArray<byte[]>[] classes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Pool() {
+      int count = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+      classes = new AtomicReferenceArray[count];
+      for (int i = 0; i < count; i++) {
+        // 256 arrays of 1 KB down to 2 arrays of 128 KB and more.
+        classes[i] = new AtomicReferenceArray<>(Math.max(2, 256 >> i));
+      }
+    }
+
+    byte[] acquire(int size) {
+      int sizeClass = sizeClass(size);
+      AtomicReferenceArray<byte[]> slots = slotsFor(sizeClass);
+      if (slots != null) {
+        int start = probeStart(slots);
+        for (int i = 0; i < PROBES; i++) {
+          byte[] bytes = slots.getAndSet((start + i) & (slots.length() - 1), null);
+          if (bytes != null) {
+            return bytes;
+          }
+        }
+        return new byte[sizeClass];
+      }
+      return new byte[size];
+    }
+
+    void release(byte[] bytes) {
+      if (Integer.bitCount(bytes.length) != 1) {
+        return;
+      }
+      AtomicReferenceArray<byte[]> slots = slotsFor(bytes.length);
+      if (slots != null) {
+        int start = probeStart(slots);
+        for (int i = 0; i < PROBES; i++) {
+          if (slots.compareAndSet((start + i) & (slots.length() - 1), null, bytes)) {
+            return;
+          }
+        }
+      }
+    }
+
+    @VisibleForTesting
+    int pooledCount(int sizeClass) {
+      AtomicReferenceArray<byte[]> slots = slotsFor(sizeClass);
+      int count = 0;
+      for (int i = 0; slots != null && i < slots.length(); i++) {
+        if (slots.get(i) != null) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    private AtomicReferenceArray<byte[]> slotsFor(int sizeClass) {
+      if (sizeClass < MIN_SIZE || sizeClass > MAX_POOLED_SIZE) {
+        return null;
+      }
+      return classes[Integer.numberOfTrailingZeros(sizeClass) - MIN_SHIFT];
+    }
+
+    private static int probeStart(AtomicReferenceArray<byte[]> slots) {
+      long id = Thread.currentThread().getId();
+      return (int) (id * 0x9E3779B9L >>> 16) & (slots.length() - 1);
+    }
+  }
+}
@@ -0,0 +1,572 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletContext;
+
+/**
+ * An in-memory cache of serialized GET responses, bounded by the total size of the cached bodies.
+ * Responses are only cached for methods whose
+ * {@link com.google.api.server.spi.config.ApiCacheControl} or
+ * {@link com.google.api.server.spi.config.ApiMethodCacheControl} is public or private, with a
+ * positive max age, which is also how long they are kept. Responses of private methods, and of
+ * public methods which take the user or the request, or have authentication configured, are
+ * cached per authenticated user, and their requests are authenticated before each lookup. Other
+ * public responses are served to any caller, as a shared HTTP cache would.
+ *
+ * <p>Lookups are lock-free. Insertions follow W-TinyLFU: new responses go to a small window
+ * segment, and when they leave it, they are only admitted in the main segment if they were
+ * requested more often than the entry which would be evicted for them, as estimated by a
+ * periodically halved count-min sketch. The main segment evicts with second chance (clock), so
+ * recently read entries are kept.
+ *
+ * <p>API methods which change data should invalidate the affected responses, through the cache
+ * of the servlet context: {@code ResponseCache.from(servletContext)}, where the context is
+ * injected as a method parameter.
+ */
+public final class ResponseCache {
+  /**
+   * The servlet context attribute with the response cache of the servlets of the context.
+   */
+  public static final String SERVLET_CONTEXT_ATTRIBUTE = ResponseCache.class.getName();
+
+  // Rough size of an entry, its key and map node, besides the strings and the body.
+  private static final int ENTRY_OVERHEAD = 160;
+  private static final int WINDOW_PERCENT = 1;
+
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final FrequencySketch sketch;
+  private final Ticker ticker;
+  private final long maximumWeight;
+  private final long windowMaximumWeight;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+  // Written while holding the cache.
+  private volatile long generation;
+
+  // Guarded by the segments.
+  private final Segment window = new Segment();
+  private final Segment main = new Segment();
+
+  /**
+   * @param maximumWeight the maximum total size of the cached responses, in bytes
+   */
+  public ResponseCache(long maximumWeight) {
+    this(maximumWeight, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  ResponseCache(long maximumWeight, Ticker ticker) {
+    Preconditions.checkArgument(maximumWeight > 0, "maximumWeight must be positive");
+    this.maximumWeight = maximumWeight;
+    this.windowMaximumWeight = Math.max(1, maximumWeight * WINDOW_PERCENT / 100);
+    this.ticker = ticker;
+    // Sized for entries of about 1 KB.
+    this.sketch = new FrequencySketch(
+        (int) Math.min(1 << 20, Math.max(64, maximumWeight >>> 10)));
+  }
+
+  /**
+   * Returns the maximum total size of the cached responses, in bytes.
+   */
+  public long maximumWeight() {
+    return maximumWeight;
+  }
+
+  /**
+   * Returns the response cache of a servlet context, or null if the response cache is disabled.
+   */
+  @Nullable
+  public static ResponseCache from(ServletContext servletContext) {
+    return (ResponseCache) servletContext.getAttribute(SERVLET_CONTEXT_ATTRIBUTE);
+  }
+
+  /**
+   * Returns the identity of an API method in response keys, which is computed once per method.
+   * Overloads of a Java method have distinct identities.
+   *
+   * @param serviceClass the API class
+   * @param method the Java method
+   */
+  public static MethodId methodId(Class<?> serviceClass, Method method) {
+    StringBuilder signature = new StringBuilder(methodName(serviceClass, method.getName()));
+    signature.append('(');
+    for (Class<?> parameterType : method.getParameterTypes()) {
+      signature.append(parameterType.getName()).append(',');
+    }
+    signature.append(')');
+    return new MethodId(methodName(serviceClass, method.getName()), signature.toString());
+  }
+
+  /**
+   * Creates the key of a response.
+   *
+   * @param method the identity of the API method, from {@link #methodId}
+   * @param pathParameters the raw path parameters
+   * @param queryParameters the query parameters, including standard parameters like
+   *     {@code fields}, which change the body
+   * @param user a key of the authenticated user for private responses, or null
+   */
+  public static Key key(MethodId method, Map<String, String> pathParameters, Map<String, String[]> queryParameters,
+      @Nullable String user) {
+    StringBuilder variant = new StringBuilder();
+    for (Map.Entry<String, String[]> parameter
+        : ImmutableSortedMap.copyOf(queryParameters).entrySet()) {
+      append(variant, parameter.getKey());
+      variant.append(parameter.getValue().length).append('=');
+      for (String value : parameter.getValue()) {
+        append(variant, value);
+      }
+    }
+    if (user != null) {
+      variant.append('@');
+      append(variant, user);
+    }
+    return new Key(method, encodePath(pathParameters), variant.toString());
+  }
+
+  /**
+   * Returns the cached response for a key, or null if there is none or it expired.
+   */
+  @Nullable
+  public Entry get(Key key) {
+    sketch.increment(key.hash);
+    Entry entry = entries.get(key);
+    if (entry != null && entry.expiresAt - ticker.read() <= 0) {
+      remove(entry);
+      entry = null;
+    }
+    if (entry == null) {
+      missCount.increment();
+      return null;
+    }
+    entry.referenced = true;
+    hitCount.increment();
+    return entry;
+  }
+
+  /**
+   * Returns the current generation of the cache, which changes whenever responses are
+   * invalidated. Take it before computing a response, and pass it to {@link #put}.
+   */
+  public long generation() {
+    return generation;
+  }
+
+  /**
+   * Caches a response, which may be evicted right away if it is larger than the cache or is
+   * requested less often than the cached responses. The response is dropped if responses were
+   * invalidated since it started to be computed, since it may be stale.
+   *
+   * @param body the serialized, uncompressed body
+   * @param entityTag the entity tag of the body, or null
+   * @param maxAge how long the response may be cached, in seconds
+   * @param generation the {@link #generation()} of the cache before the response was computed
+   */
+  public void put(Key key, byte[] body, @Nullable String entityTag, int maxAge,
+      long generation) {
+    put(key, body, Collections.<ResponseCompression.Encoding, byte[]>emptyMap(), entityTag,
+        maxAge, generation);
+  }
+
+  /**
+   * Caches a response with its compressed bodies, so that hits are served without compressing
+   * them again. Clients accepting an encoding which is missing get the uncompressed body.
+   *
+   * @param compressedBodies the body compressed with each encoding, which count towards its size
+   * @see #put(Key, byte[], String, int, long)
+   */
+  public void put(Key key, byte[] body,
+      Map<ResponseCompression.Encoding, byte[]> compressedBodies, @Nullable String entityTag,
+      int maxAge, long generation) {
+    if (maxAge <= 0 || generation != this.generation) {
+      return;
+    }
+    long expiresAt = ticker.read() + TimeUnit.SECONDS.toNanos(maxAge);
+    Entry entry = new Entry(key, body, compressedBodies, entityTag, expiresAt);
+    if (entry.weight > maximumWeight - windowMaximumWeight) {
+      return;
+    }
+    synchronized (this) {
+      if (generation != this.generation) {
+        return;
+      }
+      Entry existing = entries.put(key, entry);
+      if (existing != null) {
+        unlink(existing);
+      }
+      window.append(entry);
+      while (window.weight > windowMaximumWeight) {
+        Entry candidate = window.head();
+        window.unlink(candidate);
+        admit(candidate);
+      }
+    }
+  }
+
+  /**
+   * Removes all cached responses.
+   */
+  public synchronized void invalidateAll() {
+    generation++;
+    for (Entry entry : entries.values()) {
+      remove(entry);
+    }
+  }
+
+  /**
+   * Removes the cached responses of an API method, including all its overloads.
+   *
+   * @param serviceClass the API class
+   * @param methodName the name of the Java method
+   */
+  public synchronized void invalidate(Class<?> serviceClass, String methodName) {
+    generation++;
+    String name = methodName(serviceClass, methodName);
+    for (Entry entry : entries.values()) {
+      if (entry.key.method.name.equals(name)) {
+        remove(entry);
+      }
+    }
+  }
+
+  /**
+   * Removes the cached responses of an API method for a resource, with any query parameters,
+   * including those of all overloads of the method.
+   *
+   * @param serviceClass the API class
+   * @param methodName the name of the Java method
+   * @param pathParameters the raw path parameters which identify the resource
+   */
+  public synchronized void invalidate(Class<?> serviceClass, String methodName,
+      Map<String, String> pathParameters) {
+    generation++;
+    String name = methodName(serviceClass, methodName);
+    String path = encodePath(pathParameters);
+    for (Entry entry : entries.values()) {
+      if (entry.key.method.name.equals(name) && entry.key.path.equals(path)) {
+        remove(entry);
+      }
+    }
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts. Expired and invalidated responses are not counted
+   * as evictions.
+   */
+  public CacheStats stats() {
+    return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0, evictionCount.sum());
+  }
+
+  /**
+   * Returns the estimated total size of the cached responses, in bytes.
+   */
+  public synchronized long weight() {
+    return window.weight + main.weight;
+  }
+
+  @VisibleForTesting
+  long size() {
+    return entries.size();
+  }
+
+  /**
+   * Moves an entry which left the window to the main segment, if it is requested more often than
+   * the entries it would evict.
+   */
+  private void admit(Entry candidate) {
+    long maximumMainWeight = maximumWeight - windowMaximumWeight;
+    while (main.weight + candidate.weight > maximumMainWeight) {
+      Entry victim = selectVictim();
+      if (victim.expiresAt - ticker.read() > 0
+          && sketch.frequency(candidate.key.hash) <= sketch.frequency(victim.key.hash)) {
+        entries.remove(candidate.key, candidate);
+        candidate.removed = true;
+        evictionCount.increment();
+        return;
+      }
+      main.unlink(victim);
+      victim.removed = true;
+      entries.remove(victim.key, victim);
+      evictionCount.increment();
+    }
+    candidate.inMain = true;
+    main.append(candidate);
+  }
+
+  /**
+   * Returns the first entry of the main segment which was not read since it was last considered,
+   * or one which expired.
+   */
+  private Entry selectVictim() {
+    while (true) {
+      Entry entry = main.head();
+      if (!entry.referenced || entry.expiresAt - ticker.read() <= 0) {
+        return entry;
+      }
+      entry.referenced = false;
+      main.unlink(entry);
+      main.append(entry);
+    }
+  }
+
+  private synchronized void remove(Entry entry) {
+    if (!entry.removed) {
+      entries.remove(entry.key, entry);
+      unlink(entry);
+    }
+  }
+
+  private void unlink(Entry entry) {
+    entry.removed = true;
+    (entry.inMain ? main : window).unlink(entry);
+  }
+
+  private static String methodName(Class<?> serviceClass, String methodName) {
+    return serviceClass.getName() + '.' + methodName;
+  }
+
+  private static String encodePath(Map<String, String> pathParameters) {
+    StringBuilder path = new StringBuilder();
+    for (Map.Entry<String, String> parameter
+        : ImmutableSortedMap.copyOf(pathParameters).entrySet()) {
+      append(path, parameter.getKey());
+      append(path, parameter.getValue());
+    }
+    return path.toString();
+  }
+
+  private static void append(StringBuilder builder, String value) {
+    // Length prefixed, so that no value can be mistaken for a separator.
+    builder.append(value.length()).append(':').append(value);
+  }
+
+  /**
+   * The identity of an API method in response keys, from {@link #methodId}.
+   */
+  public static final class MethodId {
+    // The API class and Java method name, which invalidation matches.
+    private final String name;
+    // The name and parameter types, which keys match.
+    private final String signature;
+
+    private MethodId(String name, String signature) {
+      this.name = name;
+      this.signature = signature;
+    }
+  }
+
+  /**
+   * The key of a cached response, from {@link #key}.
+   */
+  public static final class Key {
+    private final MethodId method;
+    private final String path;
+    private final String variant;
+    private final int hash;
+
+    private Key(MethodId method, String path, String variant) {
+      this.method = method;
+      this.path = path;
+      this.variant = variant;
+      this.hash =
+          31 * (31 * method.signature.hashCode() + path.hashCode()) + variant.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if (o instanceof Key) {
+        Key key = (Key) o;
+        return hash == key.hash && method.signature.equals(key.method.signature)
+            && path.equals(key.path) && variant.equals(key.variant);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    private int weight() {
+      return 2 * (method.signature.length() + path.length() + variant.length());
+    }
+  }
+
+  /**
+   * A cached response.
+   */
+  public static final class Entry {
+    private final Key key;
+    private final byte[] body;
+    private final EnumMap<ResponseCompression.Encoding, byte[]> compressedBodies;
+    private final String entityTag;
+    private final long expiresAt;
+    private final int weight;
+    // Second chance bit. Races on it only affect which entry is evicted next.
+    private boolean referenced;
+    // Guarded by the cache.
+    private boolean inMain;
+    private boolean removed;
+    private Entry previous;
+    private Entry next;
+
+    private Entry(Key key, byte[] body,
+        Map<ResponseCompression.Encoding, byte[]> compressedBodies, @Nullable String entityTag,
+        long expiresAt) {
+      this.key = key;
+      this.body = body;
+      this.compressedBodies = new EnumMap<>(ResponseCompression.Encoding.class);
+      this.compressedBodies.putAll(compressedBodies);
+      this.entityTag = entityTag;
+      this.expiresAt = expiresAt;
+      int weight = ENTRY_OVERHEAD + key.weight() + body.length;
+      for (byte[] compressedBody : compressedBodies.values()) {
+        weight += compressedBody.length;
+      }
+      this.weight = weight;
+    }
+
+    /**
+     * Returns the serialized, uncompressed body, which must not be modified.
+     */
+    byte[] getBody() {
+      return body;
+    }
+
+    /**
+     * Returns the body compressed with an encoding, which must not be modified, or null if it was
+     * not cached compressed.
+     */
+    @Nullable
+    byte[] getCompressedBody(ResponseCompression.Encoding encoding) {
+      return compressedBodies.get(encoding);
+    }
+
+    /**
+     * Returns the entity tag of the body, or null.
+     */
+    @Nullable
+    public String getEntityTag() {
+      return entityTag;
+    }
+  }
+
+  /**
+   * A doubly linked list of entries, in insertion order, with their total weight.
+   */
+  private static final class Segment {
+    private final Entry sentinel = new Entry(new Key(new MethodId("", ""), "", ""), new byte[0],
+        Collections.<ResponseCompression.Encoding, byte[]>emptyMap(), null, 0);
+    private long weight;
+
+    Segment() {
+      sentinel.previous = sentinel;
+      sentinel.next = sentinel;
+    }
+
+    Entry head() {
+      return sentinel.next;
+    }
+
+    void append(Entry entry) {
+      entry.previous = sentinel.previous;
+      entry.next = sentinel;
+      sentinel.previous.next = entry;
+      sentinel.previous = entry;
+      weight += entry.weight;
+    }
+
+    void unlink(Entry entry) {
+      if (entry.previous != null) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        entry.previous = null;
+        entry.next = null;
+        weight -= entry.weight;
+      }
+    }
+  }
+
+  /**
+   * A count-min sketch of 4-bit counters, which estimates how often keys were requested. All
+   * counters are halved after a number of increments proportional to the width, so that the
+   * estimates favor recent requests.
+   */
+  private static final class FrequencySketch {
+    private static final int[] SEEDS = {0x97CB3127, 0xB9F68D0B, 0x4F8A2C65, 0xD24E5A93};
+    private static final int MAXIMUM_COUNT = 15;
+
+    private final AtomicIntegerArray counters;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger samples = new AtomicInteger();
+
+    FrequencySketch(int width) {
+      int size = Integer.highestOneBit(width - 1) << 1;
+      this.counters = new AtomicIntegerArray(size * SEEDS.length);
+      this.mask = size - 1;
+      this.sampleSize = size * 10;
+    }
+
+    void increment(int hash) {
+      for (int i = 0; i < SEEDS.length; i++) {
+        counters.getAndUpdate(indexOf(hash, i),
+            count -> count < MAXIMUM_COUNT ? count + 1 : count);
+      }
+      int sample = samples.incrementAndGet();
+      if (sample >= sampleSize && samples.compareAndSet(sample, 0)) {
+        for (int i = 0; i < counters.length(); i++) {
+          counters.getAndUpdate(i, count -> count >>> 1);
+        }
+      }
+    }
+
+    int frequency(int hash) {
+      int frequency = MAXIMUM_COUNT;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = Math.min(frequency, counters.get(indexOf(hash, i)));
+      }
+      return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+      int h = (hash + SEEDS[row]) * SEEDS[row];
+      h ^= h >>> 16;
+      return row * (mask + 1) + (h & mask);
+    }
+  }
+}
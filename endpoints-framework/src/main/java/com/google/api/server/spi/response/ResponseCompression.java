@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compresses response bodies with the content coding negotiated from the {@code Accept-Encoding}
+ * request header. Bodies smaller than a threshold are sent as is, since compressing them saves
+ * little and costs CPU time.
+ *
+ * <p>Deflaters hold native memory and are costly to create, so they are reset and reused from a
+ * small shared pool.
+ */
+public final class ResponseCompression {
+  /**
+   * A supported content coding.
+   */
+  public enum Encoding {
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String headerValue;
+
+    Encoding(String headerValue) {
+      this.headerValue = headerValue;
+    }
+
+    public String getHeaderValue() {
+      return headerValue;
+    }
+  }
+
+  private static final int POOL_SIZE = 16;
+  private static final int PROBES = 4;
+  private static final byte[] GZIP_HEADER = {
+      0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+  // Raw deflate data for gzip, and zlib wrapped data for deflate.
+  private static final DeflaterPool RAW_DEFLATERS = new DeflaterPool(true);
+  private static final DeflaterPool ZLIB_DEFLATERS = new DeflaterPool(false);
+
+  private final int minSize;
+
+  /**
+   * @param minSize the minimum size of the bodies to compress, in bytes
+   */
+  public ResponseCompression(int minSize) {
+    this.minSize = minSize;
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  /**
+   * Returns the preferred encoding accepted by a client, or null if the body should not be
+   * compressed. Gzip is preferred over deflate at equal quality values.
+   *
+   * @param acceptEncoding the value of the {@code Accept-Encoding} header, or null
+   */
+  @Nullable
+  public static Encoding negotiate(@Nullable String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    float gzip = -1;
+    float deflate = -1;
+    float any = -1;
+    int start = 0;
+    int length = acceptEncoding.length();
+    while (start < length) {
+      int end = acceptEncoding.indexOf(',', start);
+      if (end < 0) {
+        end = length;
+      }
+      int parameters = acceptEncoding.indexOf(';', start);
+      int codingEnd = parameters >= 0 && parameters < end ? parameters : end;
+      float quality = parameters >= 0 && parameters < end
+          ? parseQuality(acceptEncoding, parameters + 1, end) : 1;
+      if (matches(acceptEncoding, start, codingEnd, "gzip")
+          || matches(acceptEncoding, start, codingEnd, "x-gzip")) {
+        gzip = Math.max(gzip, quality);
+      } else if (matches(acceptEncoding, start, codingEnd, "deflate")) {
+        deflate = Math.max(deflate, quality);
+      } else if (matches(acceptEncoding, start, codingEnd, "*")) {
+        any = quality;
+      }
+      start = end + 1;
+    }
+    if (gzip < 0) {
+      gzip = any;
+    }
+    if (deflate < 0) {
+      deflate = any;
+    }
+    if (gzip > 0 && gzip >= deflate) {
+      return Encoding.GZIP;
+    } else if (deflate > 0) {
+      return Encoding.DEFLATE;
+    }
+    return null;
+  }
+
+  /**
+   * Compresses a body into an output buffer.
+   */
+  static void compress(ResponseBuffer body, Encoding encoding, ResponseBuffer out) {
+    DeflaterPool pool = encoding == Encoding.GZIP ? RAW_DEFLATERS : ZLIB_DEFLATERS;
+    Deflater deflater = pool.acquire();
+    try {
+      if (encoding == Encoding.GZIP) {
+        out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+      }
+      body.deflateTo(deflater, out);
+      if (encoding == Encoding.GZIP) {
+        CRC32 crc = new CRC32();
+        body.updateChecksum(crc);
+        writeIntLittleEndian(out, (int) crc.getValue());
+        writeIntLittleEndian(out, body.size());
+      }
+    } finally {
+      pool.release(deflater);
+    }
+  }
+
+  /**
+   * Returns a stream which compresses a body of unknown size as it is written. Flushing the stream
+   * sends all data written so far, so that clients can decode it right away.
+   */
+  static CompressingOutputStream compressing(OutputStream out, Encoding encoding)
+      throws IOException {
+    return new CompressingOutputStream(out, encoding);
+  }
+
+  private static void writeIntLittleEndian(ResponseBuffer out, int value) {
+    out.write(value);
+    out.write(value >> 8);
+    out.write(value >> 16);
+    out.write(value >> 24);
+  }
+
+  private static boolean matches(String header, int start, int end, String coding) {
+    while (start < end && header.charAt(start) == ' ') {
+      start++;
+    }
+    while (end > start && header.charAt(end - 1) == ' ') {
+      end--;
+    }
+    return end - start == coding.length()
+        && header.regionMatches(true, start, coding, 0, coding.length());
+  }
+
+  /**
+   * Parses the {@code q} parameter of a coding, or returns 1 if it is missing. Malformed values
+   * are treated as 0, so that the coding is not used.
+   */
+  private static float parseQuality(String header, int start, int end) {
+    int q = header.indexOf("q=", start);
+    if (q < 0 || q >= end) {
+      return 1;
+    }
+    try {
+      return Float.parseFloat(header.substring(q + 2, end).trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * A deflating stream with a pooled deflater, which writes the gzip header and trailer itself.
+   * Either {@link #finish()} or {@link #abandon()} must be called to return the deflater.
+   */
+  static final class CompressingOutputStream extends DeflaterOutputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final DeflaterPool pool;
+    private final CRC32 crc;
+    private int size;
+    private boolean released;
+
+    private CompressingOutputStream(OutputStream out, Encoding encoding) throws IOException {
+      this(out, encoding == Encoding.GZIP ? RAW_DEFLATERS : ZLIB_DEFLATERS, encoding);
+    }
+
+    private CompressingOutputStream(OutputStream out, DeflaterPool pool, Encoding encoding)
+        throws IOException {
+      super(out, pool.acquire(), BUFFER_SIZE, true /* syncFlush */);
+      this.pool = pool;
+      this.crc = encoding == Encoding.GZIP ? new CRC32() : null;
+      if (crc != null) {
+        out.write(GZIP_HEADER);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      super.write(b, off, len);
+      if (crc != null) {
+        crc.update(b, off, len);
+      }
+      size += len;
+    }
+
+    @Override
+    public void finish() throws IOException {
+      if (released) {
+        return;
+      }
+      super.finish();
+      if (crc != null) {
+        writeIntLittleEndian((int) crc.getValue());
+        writeIntLittleEndian(size);
+      }
+      abandon();
+    }
+
+    /**
+     * Returns the deflater without completing the body, for example if producing it failed.
+     */
+    void abandon() {
+      if (!released) {
+        released = true;
+        pool.release(def);
+      }
+    }
+
+    private void writeIntLittleEndian(int value) throws IOException {
+      out.write(value);
+      out.write(value >> 8);
+      out.write(value >> 16);
+      out.write(value >> 24);
+    }
+  }
+
+  /**
+   * A bounded, lock-free pool of deflaters with the same format. Deflaters which do not fit are
+   * ended, to free their native memory right away.
+   */
+  @VisibleForTesting
+  static final class DeflaterPool {
+    private final boolean nowrap;
+    private final AtomicReferenceArray<Deflater> slots = new AtomicReferenceArray<>(POOL_SIZE);
+
+    DeflaterPool(boolean nowrap) {
+      this.nowrap = nowrap;
+    }
+
+    Deflater acquire() {
+      int start = probeStart();
+      for (int i = 0; i < PROBES; i++) {
+        Deflater deflater = slots.getAndSet((start + i) & (POOL_SIZE - 1), null);
+        if (deflater != null) {
+          return deflater;
+        }
+      }
+      return new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+    }
+
+    void release(Deflater deflater) {
+      deflater.reset();
+      int start = probeStart();
+      for (int i = 0; i < PROBES; i++) {
+        if (slots.compareAndSet((start + i) & (POOL_SIZE - 1), null, deflater)) {
+          return;
+        }
+      }
+      deflater.end();
+    }
+
+    private static int probeStart() {
+      long id = Thread.currentThread().getId();
+      return (int) (id * 0x9E3779B9L >>> 16) & (POOL_SIZE - 1);
+    }
+  }
+}
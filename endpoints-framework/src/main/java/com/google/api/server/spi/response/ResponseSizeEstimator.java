@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+/**
+ * Estimates the size of the responses of a method from the sizes seen recently, so that response
+ * buffers rarely need to grow. The estimate is a moving average, weighting the latest size by
+ * 1/8, with some headroom.
+ *
+ * <p>Updates from concurrent responses may be lost, which only makes the estimate less accurate.
+ */
+public final class ResponseSizeEstimator {
+  private volatile int average;
+
+  /**
+   * Returns the initial buffer size for the next response.
+   */
+  public int getInitialSize() {
+    int estimate = average;
+    return Math.min(ResponseBuffer.MAX_POOLED_SIZE, estimate + (estimate >> 2));
+  }
+
+  /**
+   * Records the size of a response.
+   */
+  public void record(int size) {
+    // Larger responses do not use pooled buffers anyway.
+    size = Math.min(size, ResponseBuffer.MAX_POOLED_SIZE);
+    int current = average;
+    average = current == 0 ? size : current + (size - current) / 8;
+  }
+}
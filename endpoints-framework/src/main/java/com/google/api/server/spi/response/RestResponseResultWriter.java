@@ -15,16 +15,16 @@
  */
 package com.google.api.server.spi.response;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.api.server.spi.ObjectMapperUtil;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.config.model.ApiSerializationConfig;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 
 import java.io.IOException;
 import java.util.Map;
 
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -33,14 +33,38 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class RestResponseResultWriter extends ServletResponseResultWriter {
   private final boolean enableExceptionCompatibility;
-  private final ObjectMapper objectMapper;
 
   public RestResponseResultWriter(
       HttpServletResponse servletResponse, ApiSerializationConfig serializationConfig,
       boolean prettyPrint, boolean addContentLength, boolean enableExceptionCompatibility) {
     super(servletResponse, serializationConfig, prettyPrint, addContentLength);
     this.enableExceptionCompatibility = enableExceptionCompatibility;
-    this.objectMapper = ObjectMapperUtil.createStandardObjectMapper(serializationConfig);
+  }
+
+  /**
+   * Creates a result writer with writers resolved ahead of time, see
+   * {@link ServletResponseResultWriter#ServletResponseResultWriter(HttpServletResponse,
+   * ObjectWriter, ObjectWriter, boolean)}.
+   */
+  public RestResponseResultWriter(
+      HttpServletResponse servletResponse, ObjectWriter objectWriter,
+      ObjectWriter errorObjectWriter, boolean addContentLength,
+      boolean enableExceptionCompatibility) {
+    this(servletResponse, objectWriter, errorObjectWriter, addContentLength, null,
+        enableExceptionCompatibility);
+  }
+
+  /**
+   * Creates a result writer with writers resolved ahead of time, see
+   * {@link ServletResponseResultWriter#ServletResponseResultWriter(HttpServletResponse,
+   * ObjectWriter, ObjectWriter, boolean, ResponseSizeEstimator)}.
+   */
+  public RestResponseResultWriter(
+      HttpServletResponse servletResponse, ObjectWriter objectWriter,
+      ObjectWriter errorObjectWriter, boolean addContentLength,
+      @Nullable ResponseSizeEstimator sizeEstimator, boolean enableExceptionCompatibility) {
+    super(servletResponse, objectWriter, errorObjectWriter, addContentLength, sizeEstimator);
+    this.enableExceptionCompatibility = enableExceptionCompatibility;
   }
 
   /**
@@ -62,29 +86,58 @@ public class RestResponseResultWriter extends ServletResponseResultWriter {
    */
   @Override
   public void writeError(ServiceException e) throws IOException {
+    if (e instanceof NotModifiedException) {
+      writeNotModified(((NotModifiedException) e).getEntityTag());
+      return;
+    }
+    ErrorMap errorMap = new ErrorMap(enableExceptionCompatibility);
+    int code = errorMap.getHttpStatus(e.getStatusCode());
+    writeEncoded(code, e.getHeaders(), encodeError(getErrorObjectWriter(), e, errorMap));
+  }
+
+  /**
+   * Writes an error which was encoded ahead of time by {@link #preEncodeError}.
+   */
+  public void writeError(PreEncodedError error) throws IOException {
+    writeEncoded(error.status, error.headers, error.content);
+  }
+
+  /**
+   * Encodes an error which does not depend on the request, such as the generic backend error, so
+   * that it can be written repeatedly without serializing it again.
+   *
+   * @param errorObjectWriter the writer for errors, which must pretty print if responses do
+   */
+  public static PreEncodedError preEncodeError(ServiceException e,
+      ObjectWriter errorObjectWriter, boolean enableExceptionCompatibility) throws IOException {
     ErrorMap errorMap = new ErrorMap(enableExceptionCompatibility);
+    return new PreEncodedError(errorMap.getHttpStatus(e.getStatusCode()), e.getHeaders(),
+        encodeError(errorObjectWriter, e, errorMap));
+  }
+
+  private static byte[] encodeError(ObjectWriter writer, ServiceException e, ErrorMap errorMap)
+      throws IOException {
     int code = errorMap.getHttpStatus(e.getStatusCode());
     String reason = !Strings.isNullOrEmpty(e.getReason()) ?
         e.getReason() : errorMap.getReason(e.getStatusCode());
     String domain = !Strings.isNullOrEmpty(e.getDomain()) ?
         e.getDomain() : errorMap.getDomain(e.getStatusCode());
-    write(code, e.getHeaders(), createError(code, reason, domain, e.getMessage(), e.getExtraFields()), true);
+    return ErrorEnvelope.encode(
+        writer, code, reason, domain, e.getMessage(), e.getExtraFields());
   }
 
-  private Object createError(int code, String reason, String domain, String message, Map<String, Object> extraFields) {
-    ObjectNode topLevel = objectMapper.createObjectNode();
-    ObjectNode topError = objectMapper.createObjectNode();
-    ObjectNode error = objectMapper.createObjectNode();
-    error.put("domain", domain);
-    error.put("reason", reason);
-    error.put("message", message);
-    for (Map.Entry<String, Object> extraField : extraFields.entrySet()) {
-      error.putPOJO(extraField.getKey(), extraField.getValue());
+  /**
+   * An error response encoded ahead of time.
+   */
+  public static final class PreEncodedError {
+    private final int status;
+    private final Map<String, String> headers;
+    private final byte[] content;
+
+    private PreEncodedError(int status, Map<String, String> headers, byte[] content) {
+      this.status = status;
+      this.headers = headers == null ? null : ImmutableMap.copyOf(headers);
+      this.content = content;
     }
-    topError.set("errors", objectMapper.createArrayNode().add(error));
-    topError.put("code", code);
-    topError.put("message", message);
-    topLevel.set("error", topError);
-    return topLevel;
   }
 }
@@ -15,10 +15,15 @@
  */
 package com.google.api.server.spi.response;
 
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static javax.servlet.http.HttpServletResponse.SC_NO_CONTENT;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_PARTIAL_CONTENT;
+import static javax.servlet.http.HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
 
 import com.google.api.server.spi.ConfiguredObjectMapper;
 import com.google.api.server.spi.Constant;
+import com.google.api.server.spi.Headers;
 import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.SystemService;
 import com.google.api.server.spi.config.model.ApiSerializationConfig;
@@ -26,31 +31,39 @@ import com.google.api.server.spi.types.DateAndTime;
 import com.google.api.server.spi.types.SimpleDate;
 import com.google.appengine.api.datastore.Blob;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.io.ByteStreams;
-import com.google.common.io.CountingOutputStream;
+import com.google.common.hash.HashingOutputStream;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.OptionalLong;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
  * Writes a result to a servlet response.
  */
 public class ServletResponseResultWriter implements ResultWriter {
+  /**
+   * The default number of bytes after which a streamed result is sent.
+   */
+  public static final int DEFAULT_STREAMING_FLUSH_THRESHOLD = 32 * 1024;
 
   @VisibleForTesting
   protected static final Set<SimpleModule> WRITER_MODULES;
@@ -61,6 +74,8 @@ public class ServletResponseResultWriter implements ResultWriter {
     modules.add(getWriteDateAsStringModule());
     modules.add(getWriteDateAndTimeAsStringModule());
     modules.add(getWriteSimpleDateAsStringModule());
+    modules.add(FieldMask.createModule());
+    modules.add(StreamedCollection.createModule());
     try {
       // Attempt to load the Blob class, which may not exist outside of App Engine Standard.
       ServletResponseResultWriter.class.getClassLoader()
@@ -76,26 +91,82 @@ public class ServletResponseResultWriter implements ResultWriter {
   private final ObjectWriter objectWriter;
   private final ObjectWriter errorObjectWriter;
   private final boolean addContentLength;
+  private final ResponseSizeEstimator sizeEstimator;
+  private ResponseCompression compression;
+  private ResponseCompression.Encoding encoding;
+  private FieldMask fieldMask;
+  private HttpServletRequest entityTagRequest;
+  private boolean hashEntityTags;
+  private String cacheControl;
+  private ResponseCache responseCache;
+  private ResponseCache.Key cacheKey;
+  private int cacheMaxAge;
+  private long cacheGeneration;
+  private int streamingFlushThreshold = DEFAULT_STREAMING_FLUSH_THRESHOLD;
+  private HttpServletRequest mediaRequest;
 
   public ServletResponseResultWriter(
       HttpServletResponse servletResponse, ApiSerializationConfig serializationConfig,
       boolean prettyPrint, boolean addContentLength) {
-    this(servletResponse,  ConfiguredObjectMapper.builder()
-            .apiSerializationConfig(serializationConfig)
-            .addRegisteredModules(WRITER_MODULES)
-            .build().writer(), prettyPrint, addContentLength);
+    this(servletResponse, createObjectWriter(serializationConfig), prettyPrint, addContentLength);
   }
 
   public ServletResponseResultWriter(
       HttpServletResponse servletResponse, ObjectWriter objectWriter,
       boolean prettyPrint, boolean addContentLength) {
+    this(servletResponse, prettyPrint ? prettyPrinting(objectWriter) : objectWriter,
+        addContentLength);
+  }
+
+  private ServletResponseResultWriter(
+      HttpServletResponse servletResponse, ObjectWriter objectWriter, boolean addContentLength) {
+    this(servletResponse, objectWriter, objectWriter, addContentLength);
+  }
+
+  /**
+   * Creates a result writer with writers resolved ahead of time, for example once per method
+   * rather than per request. Pretty printing must already be configured on both writers.
+   *
+   * @param objectWriter the writer for results, before {@link #configureWriter}
+   * @param errorObjectWriter the writer for errors
+   */
+  public ServletResponseResultWriter(
+      HttpServletResponse servletResponse, ObjectWriter objectWriter,
+      ObjectWriter errorObjectWriter, boolean addContentLength) {
+    this(servletResponse, objectWriter, errorObjectWriter, addContentLength, null);
+  }
+
+  /**
+   * Creates a result writer with writers resolved ahead of time, which sizes the buffers for
+   * {@code addContentLength} with an estimator shared by the responses of a method.
+   */
+  public ServletResponseResultWriter(
+      HttpServletResponse servletResponse, ObjectWriter objectWriter,
+      ObjectWriter errorObjectWriter, boolean addContentLength,
+      @Nullable ResponseSizeEstimator sizeEstimator) {
     this.servletResponse = servletResponse;
-    if (prettyPrint) {
-      objectWriter = objectWriter.with(new EndpointsPrettyPrinter());
-    }
     this.objectWriter = configureWriter(objectWriter);
-    this.errorObjectWriter = objectWriter;
+    this.errorObjectWriter = errorObjectWriter;
     this.addContentLength = addContentLength;
+    this.sizeEstimator = sizeEstimator;
+  }
+
+  /**
+   * Returns the standard writer for an API serialization configuration, which is cached.
+   */
+  public static ObjectWriter createObjectWriter(
+      @Nullable ApiSerializationConfig serializationConfig) {
+    return ConfiguredObjectMapper.builder()
+        .apiSerializationConfig(serializationConfig)
+        .addRegisteredModules(WRITER_MODULES)
+        .build().writer();
+  }
+
+  /**
+   * Returns a writer which pretty prints with the legacy formatting.
+   */
+  public static ObjectWriter prettyPrinting(ObjectWriter objectWriter) {
+    return objectWriter.with(new EndpointsPrettyPrinter());
   }
 
   /**
@@ -110,39 +181,575 @@ public class ServletResponseResultWriter implements ResultWriter {
 
   @Override
   public void write(Object response, int status) throws IOException {
+    if (response instanceof MediaContent) {
+      MediaContent<?> media = (MediaContent<?>) response;
+      if (mediaRequest != null) {
+        writeMedia(media, status);
+        return;
+      }
+      // Without alt=media, the metadata of the media is the result.
+      media.close();
+      response = media.getMetadata();
+    }
+    if (StreamedCollection.isStreamed(response)) {
+      writeStreaming(StreamedCollection.of(response), status);
+      return;
+    }
     int finalStatus = response == null ? SC_NO_CONTENT : status;
     write(finalStatus, null, ResponseUtil.wrapCollection(response), false);
   }
 
   @Override
   public void writeError(ServiceException e) throws IOException {
+    if (e instanceof NotModifiedException) {
+      writeNotModified(((NotModifiedException) e).getEntityTag());
+      return;
+    }
     Map<String, String> errors = new HashMap<>();
     errors.put(Constant.ERROR_MESSAGE, e.getMessage());
     write(e.getStatusCode(), e.getHeaders(), errors, true);
   }
 
   protected void write(int status, Map<String, String> headers, Object content, boolean isError) throws IOException {
-    
-    // write response status code
-    servletResponse.setStatus(status);
-
-    // write response headers
-    if (headers != null) {
-      for (Map.Entry<String, String> entry : headers.entrySet()) {
-        servletResponse.addHeader(entry.getKey(), entry.getValue());
+    String entityTag = null;
+    if (entityTagRequest != null && !isError) {
+      entityTag = EntityTags.getVersionTag(entityTagRequest);
+      if (entityTag != null && status == SC_OK
+          && EntityTags.isNotModified(entityTagRequest, entityTag)) {
+        writeNotModified(entityTag);
+        return;
       }
     }
+    writeStatusAndHeaders(status, headers);
+    if (cacheControl != null && !isError && status == SC_OK) {
+      servletResponse.setHeader(Headers.CACHE_CONTROL, cacheControl);
+    }
 
     // write response body
     ObjectWriter writer = isError ? errorObjectWriter: objectWriter;
+    if (fieldMask != null && !isError) {
+      writer = fieldMask.apply(writer);
+    }
     if (content != null) {
+      boolean compressible = compression != null && !isError;
+      if (compressible) {
+        servletResponse.addHeader(Headers.VARY, Headers.ACCEPT_ENCODING);
+      }
+      boolean hashed = hashEntityTags && entityTag == null && !isError && status == SC_OK;
+      boolean cached = cacheKey != null && !isError && status == SC_OK;
+      if (addContentLength || hashed || cached || (compressible && encoding != null)) {
+        // Serializes once into a pooled buffer, to know the length before sending the body.
+        ResponseBuffer buffer = new ResponseBuffer(
+            sizeEstimator != null && !isError ? sizeEstimator.getInitialSize() : 0);
+        try {
+          if (hashed) {
+            // Hashes the body in the same pass that writes it.
+            HashingOutputStream out = new HashingOutputStream(EntityTags.BODY_HASH, buffer);
+            writer.writeValue(out, content);
+            entityTag = EntityTags.fromHash(out.hash().asLong());
+          } else {
+            writer.writeValue(buffer, content);
+          }
+          writeSerialized(buffer, entityTag, hashed, cached, isError, compressible);
+        } finally {
+          buffer.release();
+        }
+      } else {
+        servletResponse.setContentType(SystemService.MIME_JSON);
+        setEntityTag(entityTag);
+        writer.writeValue(servletResponse.getOutputStream(), content);
+      }
+    } else {
+      setEntityTag(entityTag);
+    }
+  }
+
+  /**
+   * Writes a serialized body, after caching it and checking its hashed entity tag.
+   */
+  private void writeSerialized(ResponseBuffer buffer, @Nullable String entityTag, boolean hashed,
+      boolean cached, boolean isError, boolean compressible) throws IOException {
+    Map<ResponseCompression.Encoding, byte[]> compressedBodies = null;
+    if (cached) {
+      // Compressed once for all encodings, so that cache hits are only copied to the response.
+      compressedBodies = compressible && buffer.size() >= compression.getMinSize()
+          ? compressAll(buffer) : Collections.<ResponseCompression.Encoding, byte[]>emptyMap();
+      responseCache.put(cacheKey, buffer.toByteArray(), compressedBodies, entityTag, cacheMaxAge,
+          cacheGeneration);
+    }
+    if (hashed && EntityTags.isNotModified(entityTagRequest, entityTag)) {
+      writeNotModified(entityTag);
+      return;
+    }
+    if (sizeEstimator != null && !isError) {
+      sizeEstimator.record(buffer.size());
+    }
+    byte[] compressedBody =
+        compressedBodies != null && encoding != null ? compressedBodies.get(encoding) : null;
+    if (compressedBody != null) {
+      servletResponse.setContentType(SystemService.MIME_JSON);
+      writeCompressed(compressedBody, entityTag);
+    } else {
+      writeBody(buffer, entityTag, compressible);
+    }
+  }
+
+  private static Map<ResponseCompression.Encoding, byte[]> compressAll(ResponseBuffer body) {
+    Map<ResponseCompression.Encoding, byte[]> compressedBodies =
+        new EnumMap<>(ResponseCompression.Encoding.class);
+    for (ResponseCompression.Encoding encoding : ResponseCompression.Encoding.values()) {
+      ResponseBuffer compressed = new ResponseBuffer(body.size() / 4);
+      try {
+        ResponseCompression.compress(body, encoding, compressed);
+        compressedBodies.put(encoding, compressed.toByteArray());
+      } finally {
+        compressed.release();
+      }
+    }
+    return compressedBodies;
+  }
+
+  /**
+   * Writes a collection while it is iterated. Results which fit in the flush threshold are
+   * written like any other result. Larger ones are sent in parts, with chunked transfer encoding
+   * and without a hashed entity tag, and are not cached.
+   *
+   * <p>Errors before the first part is sent are thrown as a {@link StreamedResultException}, for
+   * the caller to report them like exceptions of the API method. Later ones can no longer change
+   * the status, so the body is left incomplete and an {@link IOException} is thrown, which should
+   * abort the connection for the client to notice the truncation.
+   */
+  private void writeStreaming(StreamedCollection collection, int status) throws IOException {
+    String entityTag = null;
+    if (entityTagRequest != null) {
+      entityTag = EntityTags.getVersionTag(entityTagRequest);
+      if (entityTag != null && status == SC_OK
+          && EntityTags.isNotModified(entityTagRequest, entityTag)) {
+        collection.close();
+        writeNotModified(entityTag);
+        return;
+      }
+    }
+    boolean hashed = hashEntityTags && entityTag == null && status == SC_OK;
+    boolean cached = cacheKey != null && status == SC_OK;
+    StreamingOutput out = new StreamingOutput(status, entityTag, hashed);
+    ObjectWriter writer = objectWriter;
+    if (fieldMask != null) {
+      writer = fieldMask.apply(writer);
+    }
+    try {
+      try {
+        writer.withAttribute(StreamedCollection.Listener.class, out).writeValue(out, collection);
+      } finally {
+        collection.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      if (out.committed == null) {
+        out.buffer.release();
+        throw new StreamedResultException(unwrapSerializationException(e));
+      }
+      out.abandon();
+      throw new IOException("Streamed response failed after it was committed", e);
+    }
+    if (out.committed != null) {
+      out.finish();
+      return;
+    }
+    try {
+      if (hashed) {
+        entityTag = EntityTags.fromHash(out.hashing.hash().asLong());
+      }
+      writeStatusAndHeaders(status, null);
+      if (cacheControl != null && status == SC_OK) {
+        servletResponse.setHeader(Headers.CACHE_CONTROL, cacheControl);
+      }
+      if (compression != null) {
+        servletResponse.addHeader(Headers.VARY, Headers.ACCEPT_ENCODING);
+      }
+      writeSerialized(out.buffer, entityTag, hashed, cached, false, compression != null);
+    } finally {
+      out.buffer.release();
+    }
+  }
+
+  private static Throwable unwrapSerializationException(Exception e) {
+    // Serialization wraps the exceptions of iterators.
+    Throwable cause = e;
+    while (cause instanceof JsonMappingException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause;
+  }
+
+  /**
+   * Buffers a streamed result until the flush threshold, and then sends it in parts.
+   */
+  private final class StreamingOutput extends OutputStream
+      implements StreamedCollection.Listener {
+    private final int status;
+    private final String entityTag;
+    private final ResponseBuffer buffer = new ResponseBuffer(0);
+    private final HashingOutputStream hashing;
+    private OutputStream uncommitted;
+    private OutputStream committed;
+    private ResponseCompression.CompressingOutputStream compressor;
+    private int unflushed;
+
+    StreamingOutput(int status, @Nullable String entityTag, boolean hashed) {
+      this.status = status;
+      this.entityTag = entityTag;
+      this.hashing = hashed ? new HashingOutputStream(EntityTags.BODY_HASH, buffer) : null;
+      this.uncommitted = hashed ? hashing : buffer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (committed == null) {
+        uncommitted.write(b);
+      } else {
+        committed.write(b);
+        unflushed++;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (committed == null) {
+        uncommitted.write(b, off, len);
+      } else {
+        committed.write(b, off, len);
+        unflushed += len;
+      }
+    }
+
+    @Override
+    public void itemWritten(JsonGenerator gen) throws IOException {
+      int pending = (committed == null ? buffer.size() : unflushed) + gen.getOutputBuffered();
+      if (pending >= streamingFlushThreshold) {
+        gen.flush();
+        if (committed == null) {
+          commit();
+        } else {
+          committed.flush();
+        }
+        unflushed = 0;
+      }
+    }
+
+    private void commit() throws IOException {
+      writeStatusAndHeaders(status, null);
+      if (cacheControl != null && status == SC_OK) {
+        servletResponse.setHeader(Headers.CACHE_CONTROL, cacheControl);
+      }
       servletResponse.setContentType(SystemService.MIME_JSON);
-      if (addContentLength) {
-        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
-        writer.writeValue(counter, content);
-        servletResponse.setContentLength((int) counter.getCount());
+      OutputStream out = servletResponse.getOutputStream();
+      if (compression != null) {
+        servletResponse.addHeader(Headers.VARY, Headers.ACCEPT_ENCODING);
+        if (encoding != null) {
+          servletResponse.setHeader(Headers.CONTENT_ENCODING, encoding.getHeaderValue());
+          compressor = ResponseCompression.compressing(out, encoding);
+          out = compressor;
+        }
+      }
+      if (entityTag != null) {
+        setEntityTag(
+            compressor != null ? EntityTags.withEncoding(entityTag, encoding) : entityTag);
+      }
+      buffer.writeTo(out);
+      buffer.release();
+      committed = out;
+      committed.flush();
+    }
+
+    /**
+     * Sends the rest of a committed result.
+     */
+    void finish() throws IOException {
+      if (compressor != null) {
+        compressor.finish();
+      }
+      servletResponse.getOutputStream().flush();
+    }
+
+    /**
+     * Gives up on a committed result, without completing the compressed stream.
+     */
+    void abandon() {
+      if (compressor != null) {
+        compressor.abandon();
+      }
+    }
+
+    @Override
+    public void flush() {
+      // Parts are only sent at item boundaries, by itemWritten.
+    }
+
+    @Override
+    public void close() {
+      // The result is completed by writeStreaming.
+    }
+  }
+
+  /**
+   * Writes the raw bytes of media, or the requested byte range of it. Media is neither compressed
+   * nor cached.
+   */
+  private void writeMedia(MediaContent<?> media, int status) throws IOException {
+    try {
+      String entityTag = null;
+      if (entityTagRequest != null) {
+        entityTag = EntityTags.getVersionTag(entityTagRequest);
+        if (entityTag != null && status == SC_OK
+            && EntityTags.isNotModified(entityTagRequest, entityTag)) {
+          writeNotModified(entityTag);
+          return;
+        }
+      }
+      long length = media.getLength();
+      ByteRange range = null;
+      if (length >= 0 && status == SC_OK) {
+        servletResponse.setHeader(Headers.ACCEPT_RANGES, "bytes");
+        String rangeHeader = mediaRequest.getHeader(Headers.RANGE);
+        String ifRange = mediaRequest.getHeader(Headers.IF_RANGE);
+        // A range of an older version of the media is useless, so the current one is sent.
+        if (rangeHeader != null && (ifRange == null || ifRange.equals(entityTag))) {
+          range = ByteRange.parse(rangeHeader, length);
+        }
+      }
+      if (range == ByteRange.UNSATISFIABLE) {
+        servletResponse.setStatus(SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        servletResponse.setHeader(Headers.CONTENT_RANGE, range.toContentRange(length));
+        return;
+      }
+      servletResponse.setStatus(range != null ? SC_PARTIAL_CONTENT : status);
+      servletResponse.setContentType(media.getContentType());
+      setEntityTag(entityTag);
+      if (cacheControl != null && status == SC_OK) {
+        servletResponse.setHeader(Headers.CACHE_CONTROL, cacheControl);
+      }
+      long offset = 0;
+      long count = length;
+      if (range != null) {
+        servletResponse.setHeader(Headers.CONTENT_RANGE, range.toContentRange(length));
+        offset = range.getFirst();
+        count = range.getLength();
+      }
+      if (count >= 0) {
+        // setContentLength is limited to 2 GiB.
+        servletResponse.setHeader(Headers.CONTENT_LENGTH, Long.toString(count));
+      }
+      media.writeTo(servletResponse.getOutputStream(), offset, count);
+    } finally {
+      media.close();
+    }
+  }
+
+  /**
+   * Sets the {@code alt=media} request of a media download, for which {@link MediaContent}
+   * results are written as raw bytes, with support for single {@code Range} requests. Otherwise
+   * their metadata is written as JSON.
+   */
+  public void setMediaRequest(HttpServletRequest request) {
+    this.mediaRequest = request;
+  }
+
+  /**
+   * Sets after how many bytes a streamed result, such as an {@link java.util.Iterator} or a
+   * {@link StreamingCollectionResponse}, is sent in parts. Smaller results are written with a
+   * content length, entity tag and compression like other results.
+   */
+  public void setStreamingFlushThreshold(int streamingFlushThreshold) {
+    this.streamingFlushThreshold = streamingFlushThreshold;
+  }
+
+  /**
+   * Enables compression of results (but not errors) for this response. Must be called before
+   * writing.
+   *
+   * @param compression the compression settings of the method
+   * @param encoding the encoding negotiated with the client, or null if the client does not
+   *     accept compressed responses
+   */
+  public void setCompression(ResponseCompression compression,
+      @Nullable ResponseCompression.Encoding encoding) {
+    this.compression = compression;
+    this.encoding = encoding;
+  }
+
+  /**
+   * Sets the {@code fields} selection of the result. Errors are always written in full.
+   */
+  public void setFieldMask(@Nullable FieldMask fieldMask) {
+    this.fieldMask = fieldMask;
+  }
+
+  /**
+   * Enables entity tags for results. The tag which the API method set through
+   * {@link EntityTags} is sent, or else, if {@code hashBody} is set, a tag from a hash of the
+   * body. GET requests whose {@code If-None-Match} header matches are answered with 304 Not
+   * Modified, without a body.
+   *
+   * @param request the current request
+   * @param hashBody whether to compute tags for results without one
+   */
+  public void setEntityTags(HttpServletRequest request, boolean hashBody) {
+    this.entityTagRequest = request;
+    this.hashEntityTags = hashBody;
+  }
+
+  /**
+   * Sets the {@code Cache-Control} header of successful results. Errors are not cacheable.
+   */
+  public void setCacheControl(@Nullable String cacheControl) {
+    this.cacheControl = cacheControl;
+  }
+
+  /**
+   * Stores the serialized body of a successful result in a response cache. Must be called before
+   * the result is computed, so that it is not stored if responses are invalidated meanwhile.
+   *
+   * @param maxAge how long the response may be cached, in seconds
+   */
+  public void setResponseCache(ResponseCache responseCache, ResponseCache.Key key, int maxAge) {
+    this.responseCache = responseCache;
+    this.cacheKey = key;
+    this.cacheMaxAge = maxAge;
+    this.cacheGeneration = responseCache.generation();
+  }
+
+  /**
+   * Writes a response from the response cache, or 304 Not Modified if its entity tag matches the
+   * {@code If-None-Match} header of a request set through {@link #setEntityTags}.
+   */
+  public void writeCached(ResponseCache.Entry entry) throws IOException {
+    String entityTag = entry.getEntityTag();
+    if (entityTag != null && entityTagRequest != null
+        && EntityTags.isNotModified(entityTagRequest, entityTag)) {
+      writeNotModified(entityTag);
+      return;
+    }
+    writeStatusAndHeaders(SC_OK, null);
+    if (cacheControl != null) {
+      servletResponse.setHeader(Headers.CACHE_CONTROL, cacheControl);
+    }
+    byte[] compressedBody = null;
+    if (compression != null) {
+      servletResponse.addHeader(Headers.VARY, Headers.ACCEPT_ENCODING);
+      if (encoding != null) {
+        compressedBody = entry.getCompressedBody(encoding);
+      }
+    }
+    servletResponse.setContentType(SystemService.MIME_JSON);
+    if (compressedBody != null) {
+      writeCompressed(compressedBody, entityTag);
+    } else {
+      setEntityTag(entityTag);
+      writeBytes(entry.getBody());
+    }
+  }
+
+  /**
+   * Writes a 304 Not Modified response, without a body.
+   *
+   * @param entityTag the current entity tag, including quotes
+   */
+  public void writeNotModified(String entityTag) {
+    servletResponse.setStatus(SC_NOT_MODIFIED);
+    servletResponse.setHeader(Headers.ETAG, entityTag);
+    if (cacheControl != null) {
+      servletResponse.setHeader(Headers.CACHE_CONTROL, cacheControl);
+    }
+    if (compression != null) {
+      servletResponse.addHeader(Headers.VARY, Headers.ACCEPT_ENCODING);
+    }
+  }
+
+  private void setEntityTag(@Nullable String entityTag) {
+    if (entityTag != null) {
+      servletResponse.setHeader(Headers.ETAG, entityTag);
+    }
+  }
+
+  private void writeBody(ResponseBuffer buffer, @Nullable String entityTag, boolean compressible)
+      throws IOException {
+    servletResponse.setContentType(SystemService.MIME_JSON);
+    if (compressible && encoding != null && buffer.size() >= compression.getMinSize()) {
+      writeCompressed(buffer, entityTag);
+    } else {
+      setEntityTag(entityTag);
+      writeBuffer(buffer);
+    }
+  }
+
+  private void writeCompressed(ResponseBuffer buffer, @Nullable String entityTag)
+      throws IOException {
+    // JSON usually compresses to a fraction of its size.
+    ResponseBuffer compressed = new ResponseBuffer(buffer.size() / 4);
+    try {
+      ResponseCompression.compress(buffer, encoding, compressed);
+      servletResponse.setHeader(Headers.CONTENT_ENCODING, encoding.getHeaderValue());
+      if (entityTag != null) {
+        setEntityTag(EntityTags.withEncoding(entityTag, encoding));
+      }
+      writeBuffer(compressed);
+    } finally {
+      compressed.release();
+    }
+  }
+
+  private void writeCompressed(byte[] compressed, @Nullable String entityTag) throws IOException {
+    servletResponse.setHeader(Headers.CONTENT_ENCODING, encoding.getHeaderValue());
+    if (entityTag != null) {
+      setEntityTag(EntityTags.withEncoding(entityTag, encoding));
+    }
+    writeBytes(compressed);
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    if (addContentLength) {
+      servletResponse.setContentLength(bytes.length);
+    }
+    servletResponse.getOutputStream().write(bytes);
+  }
+
+  private void writeBuffer(ResponseBuffer buffer) throws IOException {
+    if (addContentLength) {
+      servletResponse.setContentLength(buffer.size());
+    }
+    buffer.writeTo(servletResponse.getOutputStream());
+  }
+
+  /**
+   * Writes a JSON body which was already encoded, for example by {@link #getErrorObjectWriter()}.
+   */
+  protected void writeEncoded(int status, Map<String, String> headers, byte[] content)
+      throws IOException {
+    writeStatusAndHeaders(status, headers);
+    servletResponse.setContentType(SystemService.MIME_JSON);
+    if (addContentLength) {
+      servletResponse.setContentLength(content.length);
+    }
+    servletResponse.getOutputStream().write(content);
+  }
+
+  /**
+   * Returns the writer for errors, which is pretty printing if results are, but not configured by
+   * {@link #configureWriter}.
+   */
+  protected ObjectWriter getErrorObjectWriter() {
+    return errorObjectWriter;
+  }
+
+  private void writeStatusAndHeaders(int status, Map<String, String> headers) {
+    // write response status code
+    servletResponse.setStatus(status);
+
+    // write response headers
+    if (headers != null) {
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        servletResponse.addHeader(entry.getKey(), entry.getValue());
       }
-      writer.writeValue(servletResponse.getOutputStream(), content);
     }
   }
 
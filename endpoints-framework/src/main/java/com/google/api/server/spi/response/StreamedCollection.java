@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.api.server.spi.Constant;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+/**
+ * A collection result which is serialized while it is iterated, as {@code items} and
+ * {@code nextPageToken}, like a {@link CollectionResponse}. A {@link Listener} in the writer
+ * attributes is told about every written item, so that it can flush the output.
+ */
+final class StreamedCollection {
+  private static final String NEXT_PAGE_TOKEN = "nextPageToken";
+
+  private final PeekingIterator<?> items;
+  private final Supplier<String> nextPageToken;
+  private final AutoCloseable resource;
+
+  private StreamedCollection(Iterator<?> items, Supplier<String> nextPageToken,
+      @Nullable AutoCloseable resource) {
+    this.items = Iterators.peekingIterator(items);
+    this.nextPageToken = nextPageToken;
+    this.resource = resource;
+  }
+
+  /**
+   * Returns whether a result is streamed: iterators, streams and
+   * {@link StreamingCollectionResponse}. Other iterables are serialized like before, since they
+   * may be beans with properties of their own.
+   */
+  static boolean isStreamed(@Nullable Object value) {
+    return value instanceof Iterator || value instanceof Stream
+        || value instanceof StreamingCollectionResponse;
+  }
+
+  /**
+   * Wraps a result for which {@link #isStreamed} is true.
+   */
+  static StreamedCollection of(Object value) {
+    if (value instanceof StreamingCollectionResponse) {
+      StreamingCollectionResponse<?> response = (StreamingCollectionResponse<?>) value;
+      return new StreamedCollection(
+          response.getItems(), response::getNextPageToken, response.getResource());
+    } else if (value instanceof Stream) {
+      Stream<?> stream = (Stream<?>) value;
+      return new StreamedCollection(stream.iterator(), () -> null, stream);
+    }
+    Iterator<?> iterator = (Iterator<?>) value;
+    return new StreamedCollection(iterator, () -> null,
+        iterator instanceof AutoCloseable ? (AutoCloseable) iterator : null);
+  }
+
+  /**
+   * Closes the underlying stream or iterator, if it holds resources.
+   */
+  void close() throws IOException {
+    if (resource != null) {
+      try {
+        resource.close();
+      } catch (IOException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  static SimpleModule createModule() {
+    SimpleModule module = new SimpleModule("streamedCollectionModule",
+        new Version(1, 0, 0, null, null, null));
+    module.addSerializer(StreamedCollection.class, new Serializer());
+    return module;
+  }
+
+  /**
+   * Notified after each item is serialized.
+   */
+  interface Listener {
+    void itemWritten(JsonGenerator gen) throws IOException;
+  }
+
+  private static final class Serializer extends StdSerializer<StreamedCollection> {
+    Serializer() {
+      super(StreamedCollection.class);
+    }
+
+    @Override
+    public void serialize(StreamedCollection value, JsonGenerator gen,
+        SerializerProvider provider) throws IOException {
+      Listener listener = (Listener) provider.getAttribute(Listener.class);
+      gen.writeStartObject();
+      // Empty collections are omitted, as for lists.
+      if (value.items.hasNext()) {
+        FieldMask.Cursor cursor = FieldMask.Cursor.get(provider);
+        FieldMask mask = cursor != null ? cursor.current().getChild(Constant.ITEMS) : FieldMask.ALL;
+        if (mask != null) {
+          gen.writeFieldName(Constant.ITEMS);
+          if (cursor != null) {
+            cursor.push(mask);
+          }
+          try {
+            writeItems(value.items, gen, provider, listener);
+          } finally {
+            if (cursor != null) {
+              cursor.pop();
+            }
+          }
+        }
+      }
+      FieldMask.Cursor cursor = FieldMask.Cursor.get(provider);
+      if (cursor == null || cursor.current().getChild(NEXT_PAGE_TOKEN) != null) {
+        String nextPageToken = value.nextPageToken.get();
+        if (nextPageToken != null) {
+          gen.writeStringField(NEXT_PAGE_TOKEN, nextPageToken);
+        }
+      }
+      gen.writeEndObject();
+    }
+
+    private static void writeItems(Iterator<?> items, JsonGenerator gen,
+        SerializerProvider provider, @Nullable Listener listener) throws IOException {
+      gen.writeStartArray();
+      while (items.hasNext()) {
+        Object item = items.next();
+        if (item == null) {
+          gen.writeNull();
+        } else {
+          provider.defaultSerializeValue(item, gen);
+        }
+        if (listener != null) {
+          listener.itemWritten(gen);
+        }
+      }
+      gen.writeEndArray();
+    }
+  }
+}
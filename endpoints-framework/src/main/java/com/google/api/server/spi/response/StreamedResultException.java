@@ -0,0 +1,27 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+/**
+ * Thrown by {@link ResultWriter#write} if a streamed result fails before any of it was sent. The
+ * cause is the exception of the iterator or stream, unwrapped from serialization, and is
+ * reported like an exception of the API method.
+ */
+public final class StreamedResultException extends RuntimeException {
+  StreamedResultException(Throwable cause) {
+    super(cause.getMessage(), cause);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Collection response whose items are written as they are produced, instead of being collected
+ * in memory first. Its JSON form and API schema are the same as for {@link CollectionResponse}.
+ * The next page token may be supplied lazily, after the last item was produced, for example from
+ * the cursor of a query:
+ * <p>
+ * <code>
+ * public StreamingCollectionResponse&lt;Greeting&gt; list(@Named("pageToken") String pageToken) {
+ *   QueryResultIterator&lt;Greeting&gt; greetings = query(pageToken);
+ *   return StreamingCollectionResponse.&lt;Greeting&gt;builder()
+ *       .setItems(greetings)
+ *       .setNextPageTokenSupplier(() -&gt; greetings.getCursor().toWebSafeString())
+ *       .build();
+ * }
+ * </code>
+ *
+ * <p>The items can only be iterated once. Streams, and iterators which are
+ * {@link AutoCloseable}, are closed once the response is written.
+ */
+public class StreamingCollectionResponse<T> {
+
+  /**
+   * Builder for {@link StreamingCollectionResponse}.
+   */
+  public static class Builder<T> {
+
+    private Iterator<T> items;
+    private AutoCloseable resource;
+    private Supplier<String> nextPageToken = () -> null;
+
+    public Builder<T> setItems(Iterator<T> items) {
+      this.items = items;
+      this.resource = items instanceof AutoCloseable ? (AutoCloseable) items : null;
+      return this;
+    }
+
+    public Builder<T> setItems(Iterable<T> items) {
+      return setItems(items.iterator());
+    }
+
+    public Builder<T> setItems(Stream<T> items) {
+      this.items = items.iterator();
+      this.resource = items;
+      return this;
+    }
+
+    public Builder<T> setNextPageToken(@Nullable String nextPageToken) {
+      this.nextPageToken = () -> nextPageToken;
+      return this;
+    }
+
+    /**
+     * Sets a supplier of the next page token, which is called once all items were written.
+     */
+    public Builder<T> setNextPageTokenSupplier(Supplier<String> nextPageToken) {
+      this.nextPageToken = Preconditions.checkNotNull(nextPageToken, "nextPageToken");
+      return this;
+    }
+
+    public StreamingCollectionResponse<T> build() {
+      return new StreamingCollectionResponse<T>(
+          Preconditions.checkNotNull(items, "items"), resource, nextPageToken);
+    }
+  }
+
+  public static <T> Builder<T> builder() {
+    return new Builder<T>();
+  }
+
+  private final Iterator<T> items;
+  private final AutoCloseable resource;
+  private final Supplier<String> nextPageToken;
+
+  protected StreamingCollectionResponse(Iterator<T> items, @Nullable AutoCloseable resource,
+      Supplier<String> nextPageToken) {
+    this.items = items;
+    this.resource = resource;
+    this.nextPageToken = nextPageToken;
+  }
+
+  /**
+   * Returns the next page token. If it is supplied lazily, the items must be consumed first.
+   */
+  public String getNextPageToken() {
+    return nextPageToken.get();
+  }
+
+  public Iterator<T> getItems() {
+    return items;
+  }
+
+  /**
+   * Returns the resource to close once the items are consumed, or null.
+   */
+  @Nullable
+  AutoCloseable getResource() {
+    return resource;
+  }
+}
@@ -561,9 +561,13 @@ public class SwaggerGenerator {
     }
     Response response = new Response().description("A successful response");
     int responseCode = methodConfig.getEffectiveResponseStatus();
-    if (methodConfig.hasResourceInResponse()) {
-      TypeToken<?> returnType =
-          ApiAnnotationIntrospector.getSchemaType(methodConfig.getReturnType(), apiConfig);
+    TypeToken<?> responseType = methodConfig.getJsonResponseType();
+    if (methodConfig.isMediaDownload() && responseType == null) {
+      operation.produces("*/*");
+      response.responseSchema(new ModelImpl().type("file")).description("A media response");
+    } else if (responseType != null) {
+      // The JSON metadata of media downloads, which is sent without alt=media.
+      TypeToken<?> returnType = ApiAnnotationIntrospector.getSchemaType(responseType, apiConfig);
       Schema schema = genCtx.schemata.getOrAdd(returnType, apiConfig);
       response.responseSchema(getSchema(schema))
         .description("A " + schema.name() + " response");
@@ -25,6 +25,8 @@ import static org.mockito.Mockito.when;
 
 import com.google.api.server.spi.config.Transformer;
 import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
@@ -208,6 +210,21 @@ public class ConfiguredObjectMapperTest {
     Mockito.reset();
   }
 
+  @Test
+  public void testStats() {
+    Cache<ConfiguredObjectMapper.CacheKey, ConfiguredObjectMapper> boundedCache =
+        ConfiguredObjectMapper.Builder.newCache(2);
+    new ConfiguredObjectMapper.Builder(boundedCache).build();
+    new ConfiguredObjectMapper.Builder(boundedCache).build();
+    new ConfiguredObjectMapper.Builder(boundedCache).apiSerializationConfig(fooConfig).build();
+    new ConfiguredObjectMapper.Builder(boundedCache).apiSerializationConfig(barConfig).build();
+    CacheStats stats = boundedCache.stats();
+    assertEquals(1, stats.hitCount());
+    assertEquals(3, stats.missCount());
+    assertEquals(1, stats.evictionCount());
+    assertEquals(2, boundedCache.size());
+  }
+
   @Test
   public void testBuildComplex() {
     // Cache miss
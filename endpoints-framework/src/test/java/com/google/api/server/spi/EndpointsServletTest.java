@@ -16,6 +16,7 @@
 package com.google.api.server.spi;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
@@ -28,6 +29,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.nio.charset.StandardCharsets;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -35,6 +37,7 @@ import org.junit.runners.JUnit4;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
 
 import java.io.IOException;
 
@@ -69,6 +72,11 @@ public class EndpointsServletTest {
     servlet.init(config);
   }
 
+  @After
+  public void tearDown() {
+    servlet.destroy();
+  }
+
   @Test
   public void explorer() throws IOException {
     req.setRequestURI("/_ah/api/explorer/");
@@ -85,6 +93,7 @@ public class EndpointsServletTest {
   public void customExplorer() throws IOException, ServletException {
     MockServletConfig config = new MockServletConfig();
     config.addInitParameter("apiExplorerUrlTemplate", "http://mycustomapiexplorer.com/#${apiBase}");
+    servlet.destroy();
     servlet.init(config);
     
     req.setRequestURI("/_ah/api/explorer/");
@@ -158,6 +167,7 @@ public class EndpointsServletTest {
     MockServletConfig config = new MockServletConfig();
     config.addInitParameter("services", TestApi.class.getName());
     config.addInitParameter("addContentLength", "true");
+    servlet.destroy();
     servlet.init(config);
 
     req.setRequestURI("/_ah/api/test/v2/echo");
@@ -169,6 +179,21 @@ public class EndpointsServletTest {
     assertThat(resp.getHeader("Content-Length")).isNotNull();
   }
 
+  @Test
+  public void methodOverride_caseInsensitive() throws IOException {
+    req.setRequestURI("/_ah/api/test/v2/increment/");
+    req.setMethod("POST");
+    req.addHeader("x-http-method-override", "patch");
+    req.setContent("{\"x\":1}".getBytes(StandardCharsets.UTF_8));
+
+    servlet.service(req, resp);
+
+    assertThat(resp.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    ObjectMapper mapper = ObjectMapperUtil.createStandardObjectMapper();
+    ObjectNode actual = mapper.readValue(resp.getContentAsString(), ObjectNode.class);
+    assertThat(actual.get("x").asInt()).isEqualTo(2);
+  }
+
   @Test
   public void methodOverride() throws IOException {
     req.setRequestURI("/_ah/api/test/v2/increment");
@@ -237,6 +262,32 @@ public class EndpointsServletTest {
     assertThat(resp.getHeader("Location")).isEqualTo("https://example.com/other/resource");
   }
 
+  @Test
+  public void responseCache_sharedByServlets() throws ServletException {
+    MockServletContext servletContext = new MockServletContext();
+    EndpointsServlet first = initCachingServlet(servletContext, "1000");
+    EndpointsServlet second = initCachingServlet(servletContext, "1000");
+    assertThat(second.getResponseCache()).isSameInstanceAs(first.getResponseCache());
+    try {
+      initCachingServlet(servletContext, "2000");
+      fail("expected ServletException");
+    } catch (ServletException expected) {
+      assertThat(expected).hasMessageThat().contains("2000");
+    }
+    first.destroy();
+    second.destroy();
+  }
+
+  private static EndpointsServlet initCachingServlet(MockServletContext servletContext,
+      String responseCacheSize) throws ServletException {
+    EndpointsServlet servlet = new EndpointsServlet();
+    MockServletConfig config = new MockServletConfig(servletContext);
+    config.addInitParameter("services", TestApi.class.getName());
+    config.addInitParameter("responseCacheSize", responseCacheSize);
+    servlet.init(config);
+    return servlet;
+  }
+
   public static class TestResource {
     public int x;
   }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for {@link MethodInvoker}.
+ */
+@RunWith(JUnit4.class)
+public class MethodInvokerTest {
+  @Test
+  public void testInvoke() throws Throwable {
+    MethodInvoker invoker = MethodInvoker.create(
+        Service.class.getMethod("concat", String.class, int.class, Long.class));
+
+    assertThat(invoker.invoke(new Service(), new Object[] {"a", 1, 2L})).isEqualTo("a12");
+    assertThat(invoker.invoke(new Service(), new Object[] {null, 1, null}))
+        .isEqualTo("null1null");
+  }
+
+  @Test
+  public void testInvoke_voidAndStatic() throws Throwable {
+    assertThat(MethodInvoker.create(Service.class.getMethod("nothing"))
+        .invoke(new Service(), new Object[0])).isNull();
+    assertThat(MethodInvoker.create(Service.class.getMethod("twice", int.class))
+        .invoke(null, new Object[] {2})).isEqualTo(4);
+  }
+
+  @Test
+  public void testInvoke_wideningConversion() throws Throwable {
+    MethodInvoker invoker = MethodInvoker.create(Service.class.getMethod("half", double.class));
+
+    assertThat(invoker.invoke(new Service(), new Object[] {3})).isEqualTo(1.5);
+    assertThat(invoker.invoke(new Service(), new Object[] {'a'})).isEqualTo(48.5);
+  }
+
+  @Test
+  public void testInvoke_argumentMismatch() throws Exception {
+    MethodInvoker invoker = MethodInvoker.create(
+        Service.class.getMethod("concat", String.class, int.class, Long.class));
+
+    Assert.assertThrows(MethodInvoker.ArgumentException.class,
+        () -> invoker.invoke(new Service(), new Object[] {"a", 1}));
+    Assert.assertThrows(MethodInvoker.ArgumentException.class,
+        () -> invoker.invoke(new Service(), new Object[] {"a", null, 2L}));
+    Assert.assertThrows(MethodInvoker.ArgumentException.class,
+        () -> invoker.invoke(new Service(), new Object[] {"a", 1L, 2L}));
+    Assert.assertThrows(MethodInvoker.ArgumentException.class,
+        () -> invoker.invoke(new Service(), new Object[] {1, 1, 2L}));
+  }
+
+  @Test
+  public void testInvoke_exceptionNotWrapped() throws Exception {
+    MethodInvoker invoker = MethodInvoker.create(Service.class.getMethod("fail"));
+
+    Assert.assertThrows(IOException.class, () -> invoker.invoke(new Service(), new Object[0]));
+  }
+
+  @Test
+  public void testInvoke_castExceptionOfMethod() throws Exception {
+    MethodInvoker invoker =
+        MethodInvoker.create(Service.class.getMethod("cast", Object.class));
+
+    // Thrown by the method, not caused by a parameter of the wrong type.
+    Assert.assertThrows(ClassCastException.class,
+        () -> invoker.invoke(new Service(), new Object[] {1}));
+  }
+
+  @Test
+  public void testInvoke_manyParameters() throws Throwable {
+    Class<?>[] types = new Class<?>[12];
+    Arrays.fill(types, int.class);
+    MethodInvoker invoker = MethodInvoker.create(Service.class.getMethod("sum", types));
+
+    assertThat(invoker.invoke(new Service(), new Object[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1}))
+        .isEqualTo(12);
+  }
+
+  @Test
+  public void testInvoke_inaccessibleClass() throws Exception {
+    Class<?> hiddenClass = Collections.unmodifiableList(new ArrayList<>()).getClass();
+    MethodInvoker invoker = MethodInvoker.create(hiddenClass.getMethod("size"));
+
+    // Inaccessible methods are invoked by reflection, and fail like invalid parameters.
+    MethodInvoker.ArgumentException e = Assert.assertThrows(MethodInvoker.ArgumentException.class,
+        () -> invoker.invoke(Collections.emptyList(), new Object[0]));
+    assertThat(e).hasCauseThat().isInstanceOf(IllegalAccessException.class);
+  }
+
+  public static class Service {
+    public String concat(String a, int b, Long c) {
+      return a + b + c;
+    }
+
+    public void nothing() {
+    }
+
+    public static int twice(int value) {
+      return value * 2;
+    }
+
+    public double half(double value) {
+      return value / 2;
+    }
+
+    public void fail() throws IOException {
+      throw new IOException();
+    }
+
+    public String cast(Object value) {
+      return (String) value;
+    }
+
+    public int sum(int a, int b, int c, int d, int e, int f, int g, int h, int i, int j, int k,
+        int l) {
+      return a + b + c + d + e + f + g + h + i + j + k + l;
+    }
+  }
+}
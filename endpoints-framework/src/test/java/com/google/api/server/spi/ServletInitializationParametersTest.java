@@ -51,9 +51,39 @@ public class ServletInitializationParametersTest {
     assertThat(initParameters.getApiExplorerUrlTemplate()).isNull();
     assertThat(initParameters.isParameterValidationEnabled()).isTrue();
     assertThat(initParameters.isContentTypeValidationEnabled()).isFalse();
+    assertThat(initParameters.getRouteCacheSize()).isEqualTo(0);
+    assertThat(initParameters.getRouteCacheAdmissionThreshold()).isEqualTo(2);
+    assertThat(initParameters.isRouteCacheStatsEnabled()).isFalse();
     verifyAsMap(initParameters, "", "true", "false", "true", "true", "false", null, "true", "false");
   }
 
+  @Test
+  public void testBuilder_routeCache() {
+    ServletInitializationParameters initParameters = ServletInitializationParameters.builder()
+        .setRouteCacheSize(256)
+        .setRouteCacheAdmissionThreshold(1)
+        .setRouteCacheStatsEnabled(true)
+        .build();
+    Map<String, String> map = initParameters.asMap();
+    assertThat(map.get("routeCacheSize")).isEqualTo("256");
+    assertThat(map.get("routeCacheAdmissionThreshold")).isEqualTo("1");
+    assertThat(map.get("enableRouteCacheStats")).isEqualTo("true");
+  }
+
+  @Test
+  public void testBuilder_responseCompression() {
+    ServletInitializationParameters defaults = ServletInitializationParameters.builder().build();
+    assertThat(defaults.isResponseCompressionEnabled()).isFalse();
+    assertThat(defaults.getResponseCompressionThreshold()).isEqualTo(1024);
+    ServletInitializationParameters initParameters = ServletInitializationParameters.builder()
+        .setResponseCompressionEnabled(true)
+        .setResponseCompressionThreshold(0)
+        .build();
+    Map<String, String> map = initParameters.asMap();
+    assertThat(map.get("enableResponseCompression")).isEqualTo("true");
+    assertThat(map.get("responseCompressionThreshold")).isEqualTo("0");
+  }
+
   @Test
   public void testBuilder_emptySetsAndTrue() {
     ServletInitializationParameters initParameters = ServletInitializationParameters.builder()
@@ -169,6 +199,108 @@ public class ServletInitializationParametersTest {
     assertThat(initParameters.getServiceClasses()).containsExactly(String.class, Integer.class);
   }
 
+  @Test
+  public void testFromServletConfig_routeCache() throws ServletException {
+    StubServletConfig servletConfig =
+        new StubServletConfig(null, null, null, null, null, null, null, null, null);
+    servletConfig.initParameters.put("routeCacheSize", "512");
+    servletConfig.initParameters.put("routeCacheAdmissionThreshold", "3");
+    servletConfig.initParameters.put("enableRouteCacheStats", "true");
+    ServletInitializationParameters initParameters =
+        ServletInitializationParameters.fromServletConfig(
+            servletConfig, getClass().getClassLoader());
+    assertThat(initParameters.getRouteCacheSize()).isEqualTo(512);
+    assertThat(initParameters.getRouteCacheAdmissionThreshold()).isEqualTo(3);
+    assertThat(initParameters.isRouteCacheStatsEnabled()).isTrue();
+  }
+
+  @Test
+  public void testFromServletConfig_responseCompression() throws ServletException {
+    StubServletConfig servletConfig =
+        new StubServletConfig(null, null, null, null, null, null, null, null, null);
+    servletConfig.initParameters.put("enableResponseCompression", "true");
+    servletConfig.initParameters.put("responseCompressionThreshold", "2048");
+    ServletInitializationParameters initParameters =
+        ServletInitializationParameters.fromServletConfig(
+            servletConfig, getClass().getClassLoader());
+    assertThat(initParameters.isResponseCompressionEnabled()).isTrue();
+    assertThat(initParameters.getResponseCompressionThreshold()).isEqualTo(2048);
+  }
+
+  @Test
+  public void testFromServletConfig_eTags() throws ServletException {
+    StubServletConfig servletConfig =
+        new StubServletConfig(null, null, null, null, null, null, null, null, null);
+    assertThat(ServletInitializationParameters.fromServletConfig(
+        servletConfig, getClass().getClassLoader()).isETagsEnabled()).isFalse();
+    servletConfig.initParameters.put("enableETags", "true");
+    ServletInitializationParameters initParameters =
+        ServletInitializationParameters.fromServletConfig(
+            servletConfig, getClass().getClassLoader());
+    assertThat(initParameters.isETagsEnabled()).isTrue();
+    assertThat(initParameters.asMap().get("enableETags")).isEqualTo("true");
+  }
+
+  @Test
+  public void testFromServletConfig_responseCache() throws ServletException {
+    StubServletConfig servletConfig =
+        new StubServletConfig(null, null, null, null, null, null, null, null, null);
+    assertThat(ServletInitializationParameters.fromServletConfig(
+        servletConfig, getClass().getClassLoader()).getResponseCacheSize()).isEqualTo(0);
+    servletConfig.initParameters.put("responseCacheSize", "1048576");
+    ServletInitializationParameters initParameters =
+        ServletInitializationParameters.fromServletConfig(
+            servletConfig, getClass().getClassLoader());
+    assertThat(initParameters.getResponseCacheSize()).isEqualTo(1048576);
+    assertThat(initParameters.asMap().get("responseCacheSize")).isEqualTo("1048576");
+  }
+
+  @Test
+  public void testFromServletConfig_streamingFlushThreshold() throws ServletException {
+    StubServletConfig servletConfig =
+        new StubServletConfig(null, null, null, null, null, null, null, null, null);
+    assertThat(ServletInitializationParameters.fromServletConfig(
+        servletConfig, getClass().getClassLoader()).getStreamingFlushThreshold())
+        .isEqualTo(32768);
+    servletConfig.initParameters.put("streamingFlushThreshold", "4096");
+    ServletInitializationParameters initParameters =
+        ServletInitializationParameters.fromServletConfig(
+            servletConfig, getClass().getClassLoader());
+    assertThat(initParameters.getStreamingFlushThreshold()).isEqualTo(4096);
+    assertThat(initParameters.asMap().get("streamingFlushThreshold")).isEqualTo("4096");
+  }
+
+  @Test
+  public void testFromServletConfig_mediaUploadSpillThreshold() throws ServletException {
+    StubServletConfig servletConfig =
+        new StubServletConfig(null, null, null, null, null, null, null, null, null);
+    assertThat(ServletInitializationParameters.fromServletConfig(
+        servletConfig, getClass().getClassLoader()).getMediaUploadSpillThreshold())
+        .isEqualTo(1048576);
+    servletConfig.initParameters.put("mediaUploadSpillThreshold", "0");
+    ServletInitializationParameters initParameters =
+        ServletInitializationParameters.fromServletConfig(
+            servletConfig, getClass().getClassLoader());
+    assertThat(initParameters.getMediaUploadSpillThreshold()).isEqualTo(0);
+    assertThat(initParameters.asMap().get("mediaUploadSpillThreshold")).isEqualTo("0");
+  }
+
+  @Test
+  public void testFromServletConfig_invalidIntThrows() throws ServletException {
+    for (String invalid : new String[] {"-1", "many"}) {
+      StubServletConfig servletConfig =
+          new StubServletConfig(null, null, null, null, null, null, null, null, null);
+      servletConfig.initParameters.put("routeCacheSize", invalid);
+      try {
+        ServletInitializationParameters.fromServletConfig(
+            servletConfig, getClass().getClassLoader());
+        fail("Expected IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+        // expected
+      }
+    }
+  }
+
   @Test
   public void testFromServletConfig_invalidBooleanThrows() throws ServletException {
     try {
@@ -186,7 +318,7 @@ public class ServletInitializationParametersTest {
       String isPrettyPrintEnabled, String isAddContentLength, String apiExplorerUrlTemplate,
       String isParameterValidationEnabled, String isContentTypeValidationEnabled) {
     Map<String, String> map = initParameters.asMap();
-    assertThat(map).hasSize(9);
+    assertThat(map).hasSize(18);
     assertThat(map.get("services")).isEqualTo(serviceClasses);
     assertThat(map.get("clientIdWhitelistEnabled")).isEqualTo(isClientIdWhitelistEnabled);
     assertThat(map.get("illegalArgumentIsBackendError")).isEqualTo(isIllegalArgumentBackendError);
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.auth;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.google.api.server.spi.Constant;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.config.scope.AuthScopeExpressions;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Test for CompiledAuthConfig.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CompiledAuthConfigTest {
+  @Mock protected ApiMethodConfig config;
+  @Mock protected ApiMethodConfig otherConfig;
+
+  @Test
+  public void testIsAuthorized() {
+    when(config.getScopeExpression()).thenReturn(AuthScopeExpressions.interpret("scope1"));
+    CompiledAuthConfig authConfig = CompiledAuthConfig.compile(config);
+    assertTrue(authConfig.isAuthorized("scope2 scope1"));
+    assertFalse(authConfig.isAuthorized("scope2"));
+    assertTrue(authConfig.isAuthorized(new String[] {"scope1"}));
+  }
+
+  @Test
+  public void testCheckClientId() {
+    when(config.getClientIds()).thenReturn(ImmutableList.of("clientId1", "clientId2"));
+    CompiledAuthConfig authConfig = CompiledAuthConfig.compile(config);
+    assertTrue(authConfig.checkClientId("clientId2", false));
+    assertFalse(authConfig.checkClientId("clientId3", true));
+    assertFalse(authConfig.checkClientId("", true));
+    assertFalse(authConfig.checkClientId(null, true));
+  }
+
+  @Test
+  public void testCheckClientId_skipClientIdCheck() {
+    when(config.getClientIds()).thenReturn(ImmutableList.of(Constant.SKIP_CLIENT_ID_CHECK));
+    CompiledAuthConfig authConfig = CompiledAuthConfig.compile(config);
+    assertTrue(authConfig.checkClientId("clientId1", true));
+    assertFalse(authConfig.checkClientId("clientId1", false));
+  }
+
+  @Test
+  public void testCheckAudience() {
+    when(config.getAudiences()).thenReturn(ImmutableList.of("audience1"));
+    CompiledAuthConfig authConfig = CompiledAuthConfig.compile(config);
+    assertTrue(authConfig.checkAudience("audience1", "clientId1"));
+    assertTrue(authConfig.checkAudience("clientId1", "clientId1"));
+    assertFalse(authConfig.checkAudience("audience2", "clientId1"));
+    assertFalse(authConfig.checkAudience(null, null));
+  }
+
+  @Test
+  public void testCheck_nullLists() {
+    CompiledAuthConfig authConfig = CompiledAuthConfig.compile(config);
+    assertFalse(authConfig.checkClientId("clientId1", true));
+    assertFalse(authConfig.checkAudience("audience1", "clientId1"));
+  }
+
+  @Test
+  public void testOf() {
+    CompiledAuthConfig compiled = CompiledAuthConfig.of(config);
+    assertSame(compiled, CompiledAuthConfig.of(config));
+    assertNotSame(compiled, CompiledAuthConfig.of(otherConfig));
+  }
+}
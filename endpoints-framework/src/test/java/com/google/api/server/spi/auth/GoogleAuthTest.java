@@ -77,7 +77,12 @@ public class GoogleAuthTest {
     assertFalse(GoogleAuth.isJwt("abcdef.abcdef.abc"));
     assertFalse(GoogleAuth.isJwt("abcdef.abcdef.abcdef.abcdef"));
     assertFalse(GoogleAuth.isJwt("abcdef.abcd*ef.abcdef"));
+    assertFalse(GoogleAuth.isJwt("abcdef.abcdef.abcdef."));
+    assertFalse(GoogleAuth.isJwt(".abcdef.abcdef.abcdef"));
+    assertFalse(GoogleAuth.isJwt("abcdef.abcdef.abcdéf"));
+    assertFalse(GoogleAuth.isJwt(""));
     assertTrue(GoogleAuth.isJwt("abcdef.abcdef.abcdef"));
+    assertTrue(GoogleAuth.isJwt("eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxMjMifQ.c2ln-_+/=="));
   }
 
   @Test
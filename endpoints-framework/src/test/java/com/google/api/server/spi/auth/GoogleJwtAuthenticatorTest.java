@@ -18,11 +18,17 @@ package com.google.api.server.spi.auth;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken.Payload;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.api.server.spi.request.Attribute;
@@ -37,6 +43,7 @@ import org.springframework.mock.web.MockHttpServletRequest;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Tests for GoogleJwtAuthenticator.
@@ -87,6 +94,50 @@ public class GoogleJwtAuthenticatorTest {
     }
   }
 
+  @Test
+  public void testVerifyToken_cached() throws Exception {
+    AtomicLong now = new AtomicLong(1000000);
+    verifier = createVerifier(now);
+    authenticator = new GoogleJwtAuthenticator(verifier);
+    doReturn(token).when(verifier).verify(TOKEN);
+    payload.setExpirationTimeSeconds(2000L);
+    assertEquals(token, authenticator.verifyToken(TOKEN));
+    now.set(1699999);
+    assertEquals(token, authenticator.verifyToken(TOKEN));
+    verify(verifier, times(1)).verify(TOKEN);
+    // Expires at the expiration time minus the clock skew.
+    now.set(1700000);
+    assertEquals(token, authenticator.verifyToken(TOKEN));
+    verify(verifier, times(2)).verify(TOKEN);
+    assertEquals(1, authenticator.getIdTokenCacheStats().hitCount());
+    assertEquals(2, authenticator.getIdTokenCacheStats().missCount());
+    assertEquals(2, authenticator.getIdTokenCacheStats().loadSuccessCount());
+  }
+
+  @Test
+  public void testVerifyToken_invalidTokenNotCached() throws Exception {
+    when(verifier.verify(TOKEN)).thenReturn(null);
+    assertNull(authenticator.verifyToken(TOKEN));
+    assertNull(authenticator.verifyToken(TOKEN));
+    verify(verifier, times(2)).verify(TOKEN);
+    assertEquals(2, authenticator.getIdTokenCacheStats().loadExceptionCount());
+  }
+
+  @Test
+  public void testAuthenticate_cachedTokenChecksClientId() throws Exception {
+    verifier = createVerifier(new AtomicLong(1000000));
+    authenticator = new GoogleJwtAuthenticator(verifier);
+    doReturn(token).when(verifier).verify(TOKEN);
+    payload.setExpirationTimeSeconds(2000L);
+    when(config.getClientIds())
+        .thenReturn(ImmutableList.of(CLIENT_ID))
+        .thenReturn(ImmutableList.of("clientId2"));
+    when(config.getAudiences()).thenReturn(ImmutableList.of(AUDIENCE));
+    assertNotNull(authenticator.authenticate(request));
+    assertNull(authenticator.authenticate(request));
+    verify(verifier, times(1)).verify(TOKEN);
+  }
+
   @Test
   public void testAuthenticate_skipTokenAuth() {
     attr.set(Attribute.SKIP_TOKEN_AUTH, true);
@@ -164,4 +215,11 @@ public class GoogleJwtAuthenticatorTest {
     assertEquals(EMAIL, appEngineuser.getEmail());
     assertNull(appEngineuser.getUserId());
   }
+
+  private static GoogleIdTokenVerifier createVerifier(AtomicLong now) {
+    return spy(new GoogleIdTokenVerifier.Builder(new MockHttpTransport(), new JacksonFactory())
+        .setClock(now::get)
+        .setAcceptableTimeSkewSeconds(300)
+        .build());
+  }
 }
@@ -143,7 +143,7 @@ public class GoogleOAuth2AuthenticatorTest {
       final String scopes, final String userId) {
     return new GoogleOAuth2Authenticator() {
       @Override
-      TokenInfo getTokenInfoRemote(String token) {
+      TokenInfo getTokenInfo(String token) {
         if (email == null) {
           return null;
         }
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.json.webtoken.JsonWebToken;
+import com.google.api.server.spi.EndpointMethod;
+import com.google.api.server.spi.ServiceContext;
+import com.google.api.server.spi.TypeLoader;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.model.ApiConfig;
+import com.google.api.server.spi.config.model.ApiIssuerAudienceConfig;
+import com.google.api.server.spi.config.model.ApiIssuerConfigs;
+import com.google.api.server.spi.config.model.ApiIssuerConfigs.IssuerConfig;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.request.Attribute;
+import com.google.common.io.BaseEncoding;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for {@link JwksAuthenticator}, with a local server standing in for the issuer's JWKS
+ * endpoint.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JwksAuthenticatorTest {
+  private static final String ISSUER = "https://issuer.example.com";
+  private static final String AUDIENCE = "audience1";
+  private static final JsonFactory JSON_FACTORY = new JacksonFactory();
+  private static final KeyPair RSA_KEY_PAIR = generateKeyPair("RSA");
+  private static final KeyPair EC_KEY_PAIR = generateKeyPair("EC");
+
+  @Mock private ScheduledExecutorService scheduler;
+
+  private HttpServer server;
+  private AtomicInteger fetches;
+  private volatile String jwks;
+  private AtomicLong now;
+  private JwksAuthenticator authenticator;
+  private ApiMethodConfig config;
+
+  @Before
+  public void setUp() throws Exception {
+    fetches = new AtomicInteger();
+    jwks = jwks("rsa", "ec");
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/jwks", exchange -> {
+      fetches.incrementAndGet();
+      byte[] bytes = jwks.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Cache-Control", "max-age=3600");
+      exchange.sendResponseHeaders(200, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    });
+    server.start();
+    now = new AtomicLong(System.currentTimeMillis() / 1000 * 1000);
+    authenticator = new JwksAuthenticator(JSON_FACTORY, now::get,
+        jwksUri -> new PublicKeySource(new NetHttpTransport(), JSON_FACTORY, jwksUri, now::get,
+            scheduler, TimeUnit.HOURS.toMillis(1)));
+
+    ApiConfig apiConfig =
+        new ApiConfig.Factory().create(ServiceContext.create(), new TypeLoader(), TestApi.class);
+    apiConfig.setIssuers(ApiIssuerConfigs.builder()
+        .addIssuer(new IssuerConfig("custom", ISSUER,
+            "http://localhost:" + server.getAddress().getPort() + "/jwks", "", false))
+        .addIssuer(new IssuerConfig("other", "https://other.example.com",
+            "http://localhost:" + server.getAddress().getPort() + "/jwks", "", false))
+        .build());
+    config = apiConfig.getApiClassConfig().getMethods().getOrCreate(
+        EndpointMethod.create(TestApi.class, TestApi.class.getMethod("get")));
+    config.setIssuerAudiences(ApiIssuerAudienceConfig.builder()
+        .addIssuerAudiences("custom", AUDIENCE)
+        .build());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void authenticate_rs256() throws Exception {
+    User user = authenticate(sign("RS256", "rsa", payload()));
+    assertThat(user.getId()).isEqualTo("1234567");
+    assertThat(user.getEmail()).isEqualTo("dummy@example.com");
+    // Verified locally once the keys are fetched.
+    assertThat(authenticate(sign("RS256", "rsa", payload()))).isNotNull();
+    assertThat(fetches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void authenticate_es256() throws Exception {
+    assertThat(authenticate(sign("ES256", "ec", payload()))).isNotNull();
+  }
+
+  @Test
+  public void authenticate_noKeyId() throws Exception {
+    assertThat(authenticate(sign("ES256", null, payload()))).isNotNull();
+  }
+
+  @Test
+  public void authenticate_audienceList() throws Exception {
+    assertThat(authenticate(sign("RS256", "rsa",
+        payload().setAudience(Arrays.asList("audience0", AUDIENCE))))).isNotNull();
+  }
+
+  @Test
+  public void authenticate_audienceNotAllowed() throws Exception {
+    assertThat(authenticate(sign("RS256", "rsa", payload().setAudience("audience2")))).isNull();
+  }
+
+  @Test
+  public void authenticate_issuerWithoutAudiences() throws Exception {
+    assertThat(authenticate(sign("RS256", "rsa",
+        payload().setIssuer("https://other.example.com")))).isNull();
+  }
+
+  @Test
+  public void authenticate_unknownIssuer() throws Exception {
+    assertThat(authenticate(sign("RS256", "rsa",
+        payload().setIssuer("https://unknown.example.com")))).isNull();
+    assertThat(fetches.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void authenticate_expired() throws Exception {
+    JsonWebToken.Payload payload = payload();
+    now.addAndGet(TimeUnit.SECONDS.toMillis(3600 + 300));
+    assertThat(authenticate(sign("RS256", "rsa", payload))).isNotNull();
+    now.incrementAndGet();
+    assertThat(authenticate(sign("RS256", "rsa", payload))).isNull();
+  }
+
+  @Test
+  public void authenticate_noExpirationTime() throws Exception {
+    assertThat(authenticate(sign("RS256", "rsa", payload().setExpirationTimeSeconds(null))))
+        .isNull();
+  }
+
+  @Test
+  public void authenticate_invalidSignature() throws Exception {
+    String token = sign("RS256", "rsa", payload());
+    assertThat(authenticate(token.substring(0, token.lastIndexOf('.') + 1) + "AAAAAAAA"))
+        .isNull();
+  }
+
+  @Test
+  public void authenticate_wrongKeyType() throws Exception {
+    // Signed with the RSA key, but claims the key id of the EC key.
+    assertThat(authenticate(sign("RS256", "ec", payload()))).isNull();
+  }
+
+  @Test
+  public void authenticate_unsupportedAlgorithm() throws Exception {
+    assertThat(authenticate(sign("HS256", "rsa", payload()))).isNull();
+    assertThat(fetches.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void authenticate_rotatedKey() throws Exception {
+    jwks = jwks("rsa");
+    assertThat(authenticate(sign("ES256", "ec", payload()))).isNull();
+    jwks = jwks("rsa", "ec");
+    // Unknown key ids are fetched again, at most every 30 seconds.
+    assertThat(authenticate(sign("ES256", "ec", payload()))).isNull();
+    assertThat(fetches.get()).isEqualTo(1);
+    now.addAndGet(30000);
+    assertThat(authenticate(sign("ES256", "ec", payload()))).isNotNull();
+    assertThat(fetches.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void authenticate_skipTokenAuth() throws Exception {
+    MockHttpServletRequest request = request(sign("RS256", "rsa", payload()));
+    Attribute.from(request).set(Attribute.SKIP_TOKEN_AUTH, true);
+    assertThat(authenticator.authenticate(request)).isNull();
+  }
+
+  @Test
+  public void authenticate_notJwt() {
+    assertThat(authenticate("ya29.abcdefg")).isNull();
+  }
+
+  private User authenticate(String token) {
+    return authenticator.authenticate(request(token));
+  }
+
+  private MockHttpServletRequest request(String token) {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    Attribute.from(request).set(Attribute.API_METHOD_CONFIG, config);
+    request.addHeader(GoogleAuth.AUTHORIZATION_HEADER, "Bearer " + token);
+    return request;
+  }
+
+  private JsonWebToken.Payload payload() {
+    JsonWebToken.Payload payload = new JsonWebToken.Payload()
+        .setIssuer(ISSUER)
+        .setAudience(AUDIENCE)
+        .setSubject("1234567")
+        .setIssuedAtTimeSeconds(now.get() / 1000)
+        .setExpirationTimeSeconds(now.get() / 1000 + 3600);
+    payload.set("email", "dummy@example.com");
+    return payload;
+  }
+
+  /**
+   * Signs a token with the RSA key for RS256, or else with the EC key.
+   */
+  private static String sign(String algorithm, String keyId, JsonWebToken.Payload payload)
+      throws Exception {
+    JsonWebSignature.Header header =
+        new JsonWebSignature.Header().setAlgorithm(algorithm).setKeyId(keyId);
+    BaseEncoding base64Url = BaseEncoding.base64Url().omitPadding();
+    String content = base64Url.encode(JSON_FACTORY.toByteArray(header)) + "."
+        + base64Url.encode(JSON_FACTORY.toByteArray(payload));
+    Signature signature;
+    if (algorithm.equals("ES256")) {
+      signature = Signature.getInstance("SHA256withECDSA");
+      signature.initSign(EC_KEY_PAIR.getPrivate());
+    } else {
+      signature = Signature.getInstance("SHA256withRSA");
+      signature.initSign(RSA_KEY_PAIR.getPrivate());
+    }
+    signature.update(content.getBytes(StandardCharsets.US_ASCII));
+    byte[] signatureBytes = signature.sign();
+    if (algorithm.equals("ES256")) {
+      signatureBytes = toConcatenated(signatureBytes);
+    }
+    return content + "." + base64Url.encode(signatureBytes);
+  }
+
+  /**
+   * Converts a DER encoded ECDSA signature to the concatenated R and S values used by JWS.
+   */
+  private static byte[] toConcatenated(byte[] der) {
+    int offset = der[1] < 0 ? 3 : 2;
+    int rLength = der[offset + 1];
+    BigInteger r = new BigInteger(1, Arrays.copyOfRange(der, offset + 2, offset + 2 + rLength));
+    offset += 2 + rLength;
+    int sLength = der[offset + 1];
+    BigInteger s = new BigInteger(1, Arrays.copyOfRange(der, offset + 2, offset + 2 + sLength));
+    byte[] concatenated = new byte[64];
+    copyUnsigned(r, concatenated, 0);
+    copyUnsigned(s, concatenated, 32);
+    return concatenated;
+  }
+
+  private static void copyUnsigned(BigInteger value, byte[] target, int offset) {
+    byte[] bytes = value.toByteArray();
+    int length = Math.min(bytes.length, 32);
+    System.arraycopy(bytes, bytes.length - length, target, offset + 32 - length, length);
+  }
+
+  private static String jwks(String... keyIds) {
+    StringBuilder json = new StringBuilder("{\"keys\": [");
+    for (String keyId : keyIds) {
+      if (json.charAt(json.length() - 1) == '}') {
+        json.append(',');
+      }
+      if (keyId.equals("rsa")) {
+        RSAPublicKey key = (RSAPublicKey) RSA_KEY_PAIR.getPublic();
+        json.append("{\"kty\": \"RSA\", \"kid\": \"rsa\", \"alg\": \"RS256\", \"n\": \"")
+            .append(base64Url(key.getModulus())).append("\", \"e\": \"")
+            .append(base64Url(key.getPublicExponent())).append("\"}");
+      } else {
+        ECPublicKey key = (ECPublicKey) EC_KEY_PAIR.getPublic();
+        json.append("{\"kty\": \"EC\", \"kid\": \"ec\", \"crv\": \"P-256\", \"x\": \"")
+            .append(base64Url(key.getW().getAffineX())).append("\", \"y\": \"")
+            .append(base64Url(key.getW().getAffineY())).append("\"}");
+      }
+    }
+    return json.append("]}").toString();
+  }
+
+  private static String base64Url(BigInteger value) {
+    return BaseEncoding.base64Url().omitPadding().encode(value.toByteArray());
+  }
+
+  private static KeyPair generateKeyPair(String algorithm) {
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+      if (algorithm.equals("EC")) {
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+      } else {
+        generator.initialize(2048);
+      }
+      return generator.generateKeyPair();
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * An API with a method to authenticate requests for.
+   */
+  public static class TestApi {
+    public void get() {}
+  }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.util.Clock;
+import com.google.common.io.BaseEncoding;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for {@link PublicKeySource}, with a local server standing in for a key endpoint.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PublicKeySourceTest {
+  // A self-signed test certificate and its private key.
+  private static final String CERTIFICATE = "-----BEGIN CERTIFICATE-----\n"
+      + "MIIBvzCCASigAwIBAgIJAOzhqPryv/J9MA0GCSqGSIb3DQEBCwUAMA8xDTALBgNV\n"
+      + "BAMTBHRlc3QwIBcNMjYxMDE2MjAzOTA2WhgPMjEyNjA5MjIyMDM5MDZaMA8xDTAL\n"
+      + "BgNVBAMTBHRlc3QwgZ8wDQYJKoZIhvcNAQEBBQADgY0AMIGJAoGBAKARbbx8ibZH\n"
+      + "+ZRazWFhfD1rMVVXy9+/0js2XYftD0rZPO6/JYHXlFIynXjLK+Oekp1QUMBMs2MM\n"
+      + "t3/eCPKcfMnq2qeJJO++Xo/6QAsqZ/6z9HuYesNIjLhiCksxBLmoRcvyM+JIWBu0\n"
+      + "c9rbrytMt/ZqfOjJz6p/GaI0DGsRIoZRAgMBAAGjITAfMB0GA1UdDgQWBBTG8TLu\n"
+      + "2ywQxu5F8jufkXYfL/8XyTANBgkqhkiG9w0BAQsFAAOBgQAIPGK1bkYwyXkp+qPN\n"
+      + "aexf1Gg6WYt2g9LXBzX2ubLHMZz+6mYp7r9KfIsBwUqkPzokRe8+x6r+ym2VR3tH\n"
+      + "gYWm7usnUVT8CraXuv2nGE880pWc/uvT+mjieoiL94yWxoW3VTgY3QgcJpaA26ch\n"
+      + "PjGQWS61IuozUavQQNb84hgAKQ==\n"
+      + "-----END CERTIFICATE-----\n";
+  private static final String PRIVATE_KEY =
+      "MIICdwIBADANBgkqhkiG9w0BAQEFAASCAmEwggJdAgEAAoGBAKARbbx8ibZH+ZRa"
+      + "zWFhfD1rMVVXy9+/0js2XYftD0rZPO6/JYHXlFIynXjLK+Oekp1QUMBMs2MMt3/e"
+      + "CPKcfMnq2qeJJO++Xo/6QAsqZ/6z9HuYesNIjLhiCksxBLmoRcvyM+JIWBu0c9rb"
+      + "rytMt/ZqfOjJz6p/GaI0DGsRIoZRAgMBAAECgYABjGmdWy8R3lxhvQcjnAfRqEnP"
+      + "44uLXJWyEPKSsA5n0PYv8RVxzh4XNXokgwKnrw8ICpDda2CI4sSbrhA0GKN0ZLAj"
+      + "v4Hs8cGjmE7PJzeoC1A+hZqQZ+Mm+iOpMrN/PnofpPQJR1ujeuE6ECQ3OSSAbBzJ"
+      + "BogyyhYLPIKqfr+tYQJBANCIv2hwtYD7EZhu0VKPtsD0tKk4YQ/SZIx//ft2jNzY"
+      + "YNunC+0TAjKjAtVodpGPLEk4oL9WtBiAh69GTFLT/n0CQQDEgJHcMTfyDIm1pDg3"
+      + "nm8g6goGPYjNf9VU4Pqw1UNqxjO9CerKWCSakKo/gEzQRGw0KSwNNWaJy3JR77Uw"
+      + "GstlAkAEU9IlCLG7i3pB/4q4e+L+/hUBrfnVqjgL8lwC6+Lgcl0QMdc9hDd3dYqJ"
+      + "gzFys9XnbxVm4xW5rHEkYgETdvLBAkEAnFVdtj1CMURgWy7nuvhFmX4Zs5VJPZUy"
+      + "eHD1gbJqDIzbpM47CfjORlpJ2HOOqTOGkokfDvMpPP+rWBzJnhfzMQJBAIbNbEcI"
+      + "SVXPZKW0hQ6xRN/vrpWGseq8JS65yrGelVTrhUhW6AeYTqv6rV9lOpsy2loT00Tu"
+      + "7+XDABFF1VYmLeg=";
+  private static final long MAX_STALENESS = TimeUnit.MINUTES.toMillis(10);
+
+  @Mock private ScheduledExecutorService scheduler;
+
+  private HttpServer server;
+  private AtomicInteger fetches;
+  private volatile int status;
+  private volatile String body;
+  private AtomicLong now;
+  private PublicKeySource keySource;
+
+  @Before
+  public void setUp() throws Exception {
+    fetches = new AtomicInteger();
+    status = 200;
+    body = certificates("kid1");
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/certs", exchange -> {
+      fetches.incrementAndGet();
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Cache-Control", "public, max-age=1000");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    });
+    server.start();
+    now = new AtomicLong(1000000);
+    Clock clock = now::get;
+    keySource = new PublicKeySource(new NetHttpTransport(), new JacksonFactory(),
+        "http://localhost:" + server.getAddress().getPort() + "/certs", clock, scheduler,
+        MAX_STALENESS);
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void getPublicKeys() throws Exception {
+    assertThat(keySource.getPublicKeys()).containsExactly(certificateKey());
+    assertThat(keySource.getPublicKeys()).hasSize(1);
+    assertThat(fetches.get()).isEqualTo(1);
+    // Refreshed in the background after three quarters of the max age.
+    verify(scheduler).schedule(any(Runnable.class), eq(750000L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void refresh() throws Exception {
+    keySource.getPublicKeys();
+    body = certificates("kid1", "kid2");
+    runScheduledRefresh(1);
+    assertThat(fetches.get()).isEqualTo(2);
+    assertThat(keySource.getPublicKeys()).hasSize(2);
+    assertThat(fetches.get()).isEqualTo(2);
+    verify(scheduler, times(2))
+        .schedule(any(Runnable.class), eq(750000L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void refresh_failureKeepsKeys() throws Exception {
+    keySource.getPublicKeys();
+    status = 500;
+    runScheduledRefresh(1);
+    // Retried with backoff.
+    verify(scheduler).schedule(any(Runnable.class), eq(1000L), eq(TimeUnit.MILLISECONDS));
+    runScheduledRefresh(2);
+    verify(scheduler).schedule(any(Runnable.class), eq(2000L), eq(TimeUnit.MILLISECONDS));
+    // Expired keys are used up to the maximum staleness, without blocking requests.
+    now.addAndGet(1000000 + MAX_STALENESS);
+    assertThat(keySource.getPublicKeys()).hasSize(1);
+    assertThat(fetches.get()).isEqualTo(3);
+    now.incrementAndGet();
+    try {
+      keySource.getPublicKeys();
+      fail("expected IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+    assertThat(fetches.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void getPublicKey() throws Exception {
+    assertThat(keySource.getPublicKey("kid1")).isEqualTo(certificateKey());
+    assertThat(fetches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void getPublicKey_unknownKeyId() throws Exception {
+    assertThat(keySource.getPublicKey("kid2")).isNull();
+    assertThat(fetches.get()).isEqualTo(1);
+    // Unknown key ids are fetched again, at most every 30 seconds.
+    body = certificates("kid1", "kid2");
+    now.addAndGet(30000);
+    assertThat(keySource.getPublicKey("kid2")).isEqualTo(certificateKey());
+    assertThat(keySource.getPublicKey("kid3")).isNull();
+    assertThat(fetches.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void close() throws Exception {
+    ScheduledFuture<?> task = Mockito.mock(ScheduledFuture.class);
+    Mockito.<ScheduledFuture<?>>when(
+        scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenReturn(task);
+    keySource.getPublicKeys();
+    keySource.close();
+    verify(task).cancel(false);
+    // A refresh which already started is not rescheduled.
+    runScheduledRefresh(1);
+    assertThat(fetches.get()).isEqualTo(1);
+    // Stale keys are still fetched by requests.
+    now.addAndGet(1000001 + MAX_STALENESS);
+    assertThat(keySource.getPublicKeys()).hasSize(1);
+    assertThat(fetches.get()).isEqualTo(2);
+    verify(scheduler, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void releaseShared() throws Exception {
+    PublicKeySource.retainShared();
+    PublicKeySource.retainShared();
+    PublicKeySource sharedSource = new PublicKeySource(new NetHttpTransport(),
+        new JacksonFactory(), "http://localhost:" + server.getAddress().getPort() + "/certs",
+        now::get, null, MAX_STALENESS);
+    sharedSource.getPublicKeys();
+    // Other owners still use the scheduler.
+    PublicKeySource.releaseShared();
+    assertThat(sharedSource.isClosed()).isFalse();
+    PublicKeySource.releaseShared();
+    assertThat(sharedSource.isClosed()).isTrue();
+    // Closed sources still serve their keys.
+    assertThat(sharedSource.getPublicKeys()).hasSize(1);
+    assertThat(fetches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void releaseShared_noOwners() {
+    try {
+      PublicKeySource.releaseShared();
+      fail("expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void getPublicKey_jwks() throws Exception {
+    RSAPublicKey rsaKey = (RSAPublicKey) certificateKey();
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    ECPublicKey ecKey = (ECPublicKey) generator.generateKeyPair().getPublic();
+    String rsaParameters = "\"n\": \"" + base64Url(rsaKey.getModulus())
+        + "\", \"e\": \"" + base64Url(rsaKey.getPublicExponent()) + "\"";
+    body = "{\"keys\": ["
+        + "{\"kty\": \"RSA\", \"kid\": \"rsa\", " + rsaParameters + "},"
+        + "{\"kty\": \"EC\", \"crv\": \"P-256\", \"kid\": \"ec\", "
+        + "\"x\": \"" + base64Url(ecKey.getW().getAffineX()) + "\", "
+        + "\"y\": \"" + base64Url(ecKey.getW().getAffineY()) + "\"},"
+        + "{\"kty\": \"RSA\", \"kid\": \"encryption\", \"use\": \"enc\", "
+        + rsaParameters + "},"
+        + "{\"kty\": \"oct\", \"kid\": \"secret\", \"k\": \"c2VjcmV0\"}]}";
+    assertThat(keySource.getPublicKey("rsa")).isEqualTo(rsaKey);
+    assertThat(keySource.getPublicKey("ec")).isEqualTo(ecKey);
+    assertThat(keySource.getPublicKeys()).hasSize(2);
+  }
+
+  @Test
+  public void getPublicKeys_stale() throws Exception {
+    keySource.getPublicKeys();
+    now.addAndGet(1000001 + MAX_STALENESS);
+    keySource.getPublicKeys();
+    assertThat(fetches.get()).isEqualTo(2);
+    // The background refresh was already scheduled.
+    verify(scheduler, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void getPublicKeys_initialFetchFails() throws Exception {
+    status = 500;
+    try {
+      keySource.getPublicKeys();
+      fail("expected IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+    verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void verifyIdToken() throws Exception {
+    GoogleJwtAuthenticator authenticator =
+        new GoogleJwtAuthenticator(new GoogleJwtAuthenticator.KeySourceVerifier(keySource));
+    String token = signIdToken("kid1");
+    assertThat(authenticator.verifyToken(token)).isNotNull();
+    assertThat(authenticator.verifyToken(token.substring(0, token.length() - 4) + "AAAA"))
+        .isNull();
+  }
+
+  @Test
+  public void verifyIdToken_unknownKeyId() throws Exception {
+    GoogleJwtAuthenticator authenticator =
+        new GoogleJwtAuthenticator(new GoogleJwtAuthenticator.KeySourceVerifier(keySource));
+    // Signed with the key of kid1, but the key is only looked up by the token's key id.
+    assertThat(authenticator.verifyToken(signIdToken("kid2"))).isNull();
+  }
+
+  @Test
+  public void verifyIdToken_noKeyId() throws Exception {
+    body = certificates("kid1", "kid2");
+    GoogleJwtAuthenticator authenticator =
+        new GoogleJwtAuthenticator(new GoogleJwtAuthenticator.KeySourceVerifier(keySource));
+    // Tokens without a key id are checked against every key.
+    assertThat(authenticator.verifyToken(signIdToken(null))).isNotNull();
+  }
+
+  @Test
+  public void getMaxAge() {
+    assertThat(PublicKeySource.getMaxAge(new HttpHeaders())).isEqualTo(0);
+    assertThat(PublicKeySource.getMaxAge(
+        new HttpHeaders().setCacheControl("public, max-age=22870, must-revalidate")))
+        .isEqualTo(22870);
+    assertThat(PublicKeySource.getMaxAge(
+        new HttpHeaders().setCacheControl("max-age = 100").setAge(30L)))
+        .isEqualTo(70);
+    assertThat(PublicKeySource.getMaxAge(
+        new HttpHeaders().setCacheControl("max-age=x"))).isEqualTo(0);
+  }
+
+  private static String signIdToken(String keyId) throws Exception {
+    JsonWebSignature.Header header =
+        new JsonWebSignature.Header().setAlgorithm("RS256").setKeyId(keyId);
+    GoogleIdToken.Payload payload = new GoogleIdToken.Payload()
+        .setIssuer("accounts.google.com")
+        .setAudience("audience1")
+        .setIssuedAtTimeSeconds(System.currentTimeMillis() / 1000)
+        .setExpirationTimeSeconds(System.currentTimeMillis() / 1000 + 3600);
+    return JsonWebSignature.signUsingRsaSha256(
+        privateKey(), new JacksonFactory(), header, payload);
+  }
+
+  private void runScheduledRefresh(int count) {
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler, times(count)).schedule(task.capture(), anyLong(), any(TimeUnit.class));
+    task.getValue().run();
+  }
+
+  private static String certificates(String... keyIds) {
+    StringBuilder json = new StringBuilder("{");
+    for (String keyId : keyIds) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append('"').append(keyId).append("\": \"")
+          .append(CERTIFICATE.replace("\n", "\\n")).append('"');
+    }
+    return json.append('}').toString();
+  }
+
+  private static String base64Url(BigInteger value) {
+    return BaseEncoding.base64Url().omitPadding().encode(value.toByteArray());
+  }
+
+  private static PublicKey certificateKey() throws Exception {
+    return CertificateFactory.getInstance("X.509")
+        .generateCertificate(
+            new ByteArrayInputStream(CERTIFICATE.getBytes(StandardCharsets.UTF_8)))
+        .getPublicKey();
+  }
+
+  private static PrivateKey privateKey() throws Exception {
+    return KeyFactory.getInstance("RSA").generatePrivate(
+        new PKCS8EncodedKeySpec(BaseEncoding.base64().decode(PRIVATE_KEY)));
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.api.server.spi.auth.GoogleAuth.TokenInfo;
+import com.google.api.server.spi.response.ServiceUnavailableException;
+import com.google.common.testing.FakeTicker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link TokenInfoCache}.
+ */
+@RunWith(JUnit4.class)
+public class TokenInfoCacheTest {
+  private static final String TOKEN = "ya29.abcdefg";
+
+  private FakeTicker ticker;
+  private TokenInfoCache cache;
+  private AtomicInteger loads;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+    cache = new TokenInfoCache(100, 300, 10, TimeUnit.SECONDS, ticker);
+    loads = new AtomicInteger();
+  }
+
+  @Test
+  public void get() throws Exception {
+    TokenInfo first = cache.get(TOKEN, token -> tokenInfo(3600));
+    ticker.advance(60, TimeUnit.SECONDS);
+    TokenInfo second = cache.get(TOKEN, token -> tokenInfo(3600));
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(second.email).isEqualTo("dummy@gmail.com");
+    assertThat(second.scopes).isEqualTo("scope1 scope2");
+    assertThat(second.expiresIn).isEqualTo(3540);
+    // Callers may change the token info without affecting the cache.
+    assertThat(second).isNotSameInstanceAs(first);
+    assertThat(cache.stats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void get_differentTokens() throws Exception {
+    cache.get(TOKEN, token -> tokenInfo(3600));
+    cache.get("ya29.other", token -> tokenInfo(3600));
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void get_expiresWithToken() throws Exception {
+    cache.get(TOKEN, token -> tokenInfo(30));
+    ticker.advance(29, TimeUnit.SECONDS);
+    cache.get(TOKEN, token -> tokenInfo(30));
+    assertThat(loads.get()).isEqualTo(1);
+    ticker.advance(1, TimeUnit.SECONDS);
+    cache.get(TOKEN, token -> tokenInfo(30));
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void get_maxTtl() throws Exception {
+    cache.get(TOKEN, token -> tokenInfo(3600));
+    ticker.advance(300, TimeUnit.SECONDS);
+    TokenInfo tokenInfo = cache.get(TOKEN, token -> tokenInfo(3300));
+    assertThat(loads.get()).isEqualTo(2);
+    assertThat(tokenInfo.expiresIn).isEqualTo(3300);
+  }
+
+  @Test
+  public void get_invalidToken() throws Exception {
+    assertThat(cache.get(TOKEN, this::invalid)).isNull();
+    ticker.advance(9, TimeUnit.SECONDS);
+    assertThat(cache.get(TOKEN, this::invalid)).isNull();
+    assertThat(loads.get()).isEqualTo(1);
+    ticker.advance(1, TimeUnit.SECONDS);
+    assertThat(cache.get(TOKEN, token -> tokenInfo(3600))).isNotNull();
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void get_noTtlLoadsOnce() throws Exception {
+    cache = new TokenInfoCache(100, 300, 0, TimeUnit.SECONDS, ticker);
+    assertThat(cache.get(TOKEN, this::invalid)).isNull();
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(cache.get(TOKEN, token -> tokenInfo(0)).expiresIn).isEqualTo(0);
+    assertThat(loads.get()).isEqualTo(2);
+    assertThat(cache.get(TOKEN, token -> tokenInfo(0))).isNotNull();
+    assertThat(loads.get()).isEqualTo(3);
+    assertThat(cache.stats().loadCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void get_failureNotCached() throws Exception {
+    try {
+      cache.get(TOKEN, token -> {
+        loads.incrementAndGet();
+        throw new ServiceUnavailableException("unavailable");
+      });
+      fail("expected ServiceUnavailableException");
+    } catch (ServiceUnavailableException expected) {
+      // expected
+    }
+    assertThat(cache.get(TOKEN, token -> tokenInfo(3600))).isNotNull();
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void get_concurrentMissesLoadOnce() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    TokenInfoCache.Loader loader = token -> {
+      loading.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      return tokenInfo(3600);
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<TokenInfo> first = executor.submit(() -> cache.get(TOKEN, loader));
+      loading.await();
+      Future<?>[] others = new Future<?>[3];
+      for (int i = 0; i < others.length; i++) {
+        others[i] = executor.submit(() -> cache.get(TOKEN, loader));
+      }
+      release.countDown();
+      assertThat(first.get().email).isEqualTo("dummy@gmail.com");
+      for (Future<?> other : others) {
+        assertThat(other.get()).isNotNull();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  private TokenInfo tokenInfo(int expiresIn) {
+    loads.incrementAndGet();
+    TokenInfo info = new TokenInfo();
+    info.email = "dummy@gmail.com";
+    info.scopes = "scope1 scope2";
+    info.expiresIn = expiresIn;
+    return info;
+  }
+
+  private TokenInfo invalid(String token) {
+    loads.incrementAndGet();
+    return null;
+  }
+}
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -29,6 +30,7 @@ import com.google.api.server.spi.TypeLoader;
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiCacheControl;
+import com.google.api.server.spi.config.ApiMethodCacheControl;
 import com.google.api.server.spi.config.ApiClass;
 import com.google.api.server.spi.config.ApiConfigException;
 import com.google.api.server.spi.config.ApiFrontendLimitRule;
@@ -414,6 +416,38 @@ public class ApiConfigAnnotationReaderTest {
     assertEquals("description", method3.getDescription());
   }
 
+  @Test
+  public void testMethodCacheControl() throws Exception {
+    @Api(cacheControl = @ApiCacheControl(type = ApiCacheControl.Type.PUBLIC, maxAge = 60))
+    final class MethodCacheControlEndpoint {
+      public void noAnnotation() {}
+      @ApiMethodCacheControl(maxAge = 5)
+      public void maxAgeOnly() {}
+      @ApiMethodCacheControl(type = ApiCacheControl.Type.PRIVATE, maxAge = 10)
+      public void privateCache() {}
+    }
+    ApiConfig config = createConfig(MethodCacheControlEndpoint.class);
+    annotationReader.loadEndpointClass(serviceContext, MethodCacheControlEndpoint.class, config);
+    annotationReader.loadEndpointMethods(serviceContext, MethodCacheControlEndpoint.class,
+        config.getApiClassConfig().getMethods());
+
+    ApiCacheControlConfig method1 =
+        config.getApiClassConfig().getMethods().get(methodToEndpointMethod(
+            MethodCacheControlEndpoint.class.getMethod("noAnnotation"))).getCacheControlConfig();
+    assertSame(config.getCacheControlConfig(), method1);
+    ApiCacheControlConfig method2 =
+        config.getApiClassConfig().getMethods().get(methodToEndpointMethod(
+            MethodCacheControlEndpoint.class.getMethod("maxAgeOnly"))).getCacheControlConfig();
+    assertEquals(ApiCacheControl.Type.PUBLIC, method2.getType());
+    assertEquals(5, method2.getMaxAge());
+    ApiCacheControlConfig method3 =
+        config.getApiClassConfig().getMethods().get(methodToEndpointMethod(
+            MethodCacheControlEndpoint.class.getMethod("privateCache"))).getCacheControlConfig();
+    assertEquals(ApiCacheControl.Type.PRIVATE, method3.getType());
+    assertEquals(10, method3.getMaxAge());
+    assertEquals(60, config.getCacheControlConfig().getMaxAge());
+  }
+
   @Test
   public void testWildcardParameterTypes() throws Exception {
     @Api
@@ -34,6 +34,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -126,6 +127,14 @@ public class ApiMethodConfigTest {
     assertEquals(204, methodConfig.getEffectiveResponseStatus());
   }
 
+  @Test
+  public void testStreamedReturnType_describedAsList() throws Exception {
+    TypeToken iteratorReturnType = new TypeToken<Iterator<String>>() {};
+    Mockito.when(method.getReturnType()).thenReturn(iteratorReturnType);
+    methodConfig = new ApiMethodConfig(method, new TypeLoader(), apiClassConfig);
+    assertThat(methodConfig.getReturnType()).isEqualTo(new TypeToken<List<String>>() {});
+  }
+
   @Test
   public void addInjectedParameter_notInPath() {
     methodConfig.addParameter("alt", null, false, null, TypeToken.of(String.class), null);
@@ -20,7 +20,9 @@ import static org.junit.Assert.fail;
 
 import com.google.api.server.spi.ServiceContext;
 import com.google.api.server.spi.TypeLoader;
+import com.google.api.server.spi.request.StreamingBody;
 import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.StreamingCollectionResponse;
 import com.google.api.server.spi.testing.FloatToStringSerializer;
 import com.google.api.server.spi.testing.IntegerToStringSerializer;
 import com.google.api.server.spi.testing.LongToStringSerializer;
@@ -34,7 +36,10 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Tests for {@link Types}.
@@ -120,6 +125,30 @@ public class TypesTest {
     assertThat(Types.isCollectionResponseType(TypeToken.of(Collection.class))).isFalse();
   }
 
+  @Test
+  public void getResponseType() {
+    TypeToken<?> stringList = new TypeToken<List<String>>() {};
+    assertThat(Types.getResponseType(new TypeToken<Iterator<String>>() {}))
+        .isEqualTo(stringList);
+    assertThat(Types.getResponseType(new TypeToken<Stream<String>>() {}))
+        .isEqualTo(stringList);
+    TypeToken<?> stringIterable = new TypeToken<Iterable<String>>() {};
+    assertThat(Types.getResponseType(stringIterable)).isEqualTo(stringIterable);
+    assertThat(Types.getResponseType(new TypeToken<StreamingCollectionResponse<String>>() {}))
+        .isEqualTo(new TypeToken<CollectionResponse<String>>() {});
+    assertThat(Types.getResponseType(STRING_COLLECTION)).isEqualTo(STRING_COLLECTION);
+    assertThat(Types.getResponseType(STRING)).isEqualTo(STRING);
+  }
+
+  @Test
+  public void getRequestType() {
+    assertThat(Types.getRequestType(new TypeToken<Iterator<String>>() {}))
+        .isEqualTo(new TypeToken<List<String>>() {});
+    assertThat(Types.getRequestType(new TypeToken<StreamingBody<String>>() {}))
+        .isEqualTo(new TypeToken<List<String>>() {});
+    assertThat(Types.getRequestType(STRING_COLLECTION)).isEqualTo(STRING_COLLECTION);
+  }
+
   @Test
   public void isWildcardType() {
     assertThat(Types.isWildcardType(STRING)).isFalse();
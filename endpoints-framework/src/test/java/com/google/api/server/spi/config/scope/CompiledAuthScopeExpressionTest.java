@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.config.scope;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the {@link CompiledAuthScopeExpression} class.
+ */
+@RunWith(JUnit4.class)
+public class CompiledAuthScopeExpressionTest {
+  @Test
+  public void testSingleScope() {
+    AuthScopeExpression expression = AuthScopeExpressions.interpret("scope_1");
+    assertTrue(AuthScopeExpressions.isAuthorized(expression, "scope_1"));
+    assertTrue(AuthScopeExpressions.isAuthorized(expression, "scope_0 scope_1"));
+    assertFalse(AuthScopeExpressions.isAuthorized(expression, "scope_0"));
+    assertFalse(AuthScopeExpressions.isAuthorized(expression, "scope_1x"));
+    assertFalse(AuthScopeExpressions.isAuthorized(expression, ""));
+  }
+
+  @Test
+  public void testDisjunctAndConjunctScopes() {
+    AuthScopeExpression expression =
+        AuthScopeExpressions.interpret("scope_1 scope_2", "scope_3");
+    assertTrue(AuthScopeExpressions.isAuthorized(expression, "scope_2 scope_1"));
+    assertTrue(AuthScopeExpressions.isAuthorized(expression, "scope_3"));
+    assertFalse(AuthScopeExpressions.isAuthorized(expression, "scope_1"));
+    assertTrue(AuthScopeExpressions.isAuthorized(expression, new String[] {"scope_1", "scope_2"}));
+    assertFalse(AuthScopeExpressions.isAuthorized(expression, new String[] {"scope_2"}));
+  }
+
+  @Test
+  public void testTokenizesOnAnyWhitespace() {
+    AuthScopeExpression expression = AuthScopeExpressions.interpret("scope_1 scope_2");
+    assertTrue(AuthScopeExpressions.isAuthorized(expression, " scope_1\t\n scope_2\r\n"));
+    assertTrue(AuthScopeExpressions.isAuthorized(expression, "scope_2\u000Bscope_1\f"));
+  }
+
+  @Test
+  public void testEmptyExpressions() {
+    assertFalse(AuthScopeExpressions.isAuthorized(
+        new ConjunctAuthScopeExpression(ImmutableList.<SingleAuthScopeExpression>of()), "a"));
+    assertFalse(AuthScopeExpressions.isAuthorized(
+        new DisjunctAuthScopeExpression(ImmutableList.<AbstractAuthScopeExpression>of()), "a"));
+  }
+
+  @Test
+  public void testTooManyScopesToCompile() {
+    List<String> scopes = new ArrayList<>();
+    for (int i = 0; i < 70; i++) {
+      scopes.add("scope_" + i);
+    }
+    AuthScopeExpression expression = AuthScopeExpressions.interpret(
+        String.join(" ", scopes.subList(0, 40)), String.join(" ", scopes.subList(40, 70)));
+    assertTrue(AuthScopeExpressions.isAuthorized(
+        expression, String.join(" ", scopes.subList(40, 70))));
+    assertFalse(AuthScopeExpressions.isAuthorized(
+        expression, String.join(" ", scopes.subList(1, 40))));
+  }
+
+  @Test
+  public void testUncompiledExpression() {
+    AuthScopeExpression expression = new AuthScopeExpression() {
+      @Override
+      public String[] getAllScopes() {
+        return new String[] {"scope_1"};
+      }
+
+      @Override
+      public boolean isAuthorized(java.util.Set<String> userScopes) {
+        return userScopes.equals(ImmutableSet.of("scope_1", "scope_2"));
+      }
+
+      @Override
+      public String toLoggingForm() {
+        return "custom";
+      }
+    };
+    assertTrue(AuthScopeExpressions.isAuthorized(expression, "scope_1  scope_2"));
+    assertFalse(AuthScopeExpressions.isAuthorized(expression, "scope_1"));
+  }
+}
@@ -24,17 +24,27 @@ import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.server.spi.IoUtil;
 import com.google.api.server.spi.ServiceContext;
 import com.google.api.server.spi.TypeLoader;
+import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiConfigLoader;
+import com.google.api.server.spi.config.ApiMethod;
+import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Named;
 import com.google.api.server.spi.config.annotationreader.ApiConfigAnnotationReader;
 import com.google.api.server.spi.config.model.ApiConfig;
 import com.google.api.server.spi.config.model.SchemaRepository;
 import com.google.api.server.spi.discovery.DiscoveryGenerator.DiscoveryContext;
+import com.google.api.server.spi.request.MediaUpload;
+import com.google.api.server.spi.request.StreamingBody;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.MediaContent;
+import com.google.api.server.spi.response.StreamingCollectionResponse;
 import com.google.api.server.spi.testing.AbsoluteCommonPathEndpoint;
 import com.google.api.server.spi.testing.AbsolutePathEndpoint;
 import com.google.api.server.spi.testing.ArrayEndpoint;
 import com.google.api.server.spi.testing.CustomScopesEndpoint;
 import com.google.api.server.spi.testing.EnumEndpoint;
 import com.google.api.server.spi.testing.EnumEndpointV2;
+import com.google.api.server.spi.testing.Foo;
 import com.google.api.server.spi.testing.FooDescriptionEndpoint;
 import com.google.api.server.spi.testing.FooEndpoint;
 import com.google.api.server.spi.testing.MapEndpoint;
@@ -49,9 +59,12 @@ import com.google.api.server.spi.testing.RequiredPropertiesEndpoint;
 import com.google.api.server.spi.testing.ValidationEndpoint;
 import com.google.api.services.discovery.model.DirectoryList;
 import com.google.api.services.discovery.model.RestDescription;
+import com.google.api.services.discovery.model.RestMethod;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
+import java.util.Iterator;
+import java.util.List;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -309,6 +322,90 @@ public class DiscoveryGeneratorTest {
     compareDiscovery(expected, doc);
   }
 
+  @Test
+  public void testWriteDiscovery_streamedTypesDescribedAsLists() throws Exception {
+    RestDescription streamed = getDiscovery(new DiscoveryContext(), StreamingEndpoint.class);
+    RestDescription listed = getDiscovery(new DiscoveryContext(), ListEndpoint.class);
+    assertThat(streamed.getSchemas()).isEqualTo(listed.getSchemas());
+    assertThat(streamed.getMethods()).isEqualTo(listed.getMethods());
+  }
+
+  @Test
+  public void testWriteDiscovery_mediaDownload() throws Exception {
+    RestDescription doc = getDiscovery(new DiscoveryContext(), MediaEndpoint.class);
+    RestMethod method = doc.getResources().get("files").getMethods().get("download");
+    assertThat(method.getSupportsMediaDownload()).isTrue();
+    assertThat(method.getResponse()).isNull();
+    // The metadata of the media is the response without alt=media.
+    RestMethod get = doc.getResources().get("files").getMethods().get("get");
+    assertThat(get.getSupportsMediaDownload()).isTrue();
+    assertThat(get.getResponse().get$ref()).isEqualTo("Foo");
+    assertThat(doc.getParameters().get("alt").getEnum()).containsExactly("json", "media");
+    RestDescription plain = getDiscovery(new DiscoveryContext(), ListEndpoint.class);
+    assertThat(plain.getParameters().get("alt").getEnum()).containsExactly("json");
+  }
+
+  @Test
+  public void testWriteDiscovery_mediaUpload() throws Exception {
+    RestDescription doc = getDiscovery(new DiscoveryContext(), MediaEndpoint.class);
+    RestMethod method = doc.getResources().get("files").getMethods().get("upload");
+    assertThat(method.getSupportsMediaUpload()).isTrue();
+    assertThat(method.getMediaUpload().getAccept()).containsExactly("*/*");
+    assertThat(method.getRequest().get$ref()).isEqualTo("Foo");
+    assertThat(method.getParameters()).isNull();
+  }
+
+  @Api(name = "media", version = "v1")
+  public static class MediaEndpoint {
+    @ApiMethod(name = "files.upload", path = "files", httpMethod = HttpMethod.POST)
+    public void upload(Foo metadata, MediaUpload media) {
+    }
+
+    @ApiMethod(name = "files.download", path = "files/{id}", httpMethod = HttpMethod.GET)
+    public MediaContent download(@Named("id") String id) {
+      return null;
+    }
+
+    @ApiMethod(name = "files.get", path = "files/{id}/metadata", httpMethod = HttpMethod.GET)
+    public MediaContent<Foo> get(@Named("id") String id) {
+      return null;
+    }
+  }
+
+  @Api(name = "streams", version = "v1")
+  public static class StreamingEndpoint {
+    @ApiMethod(name = "importFoos", path = "foos", httpMethod = HttpMethod.POST)
+    public void importFoos(StreamingBody<Foo> foos) {
+    }
+
+    @ApiMethod(name = "listFoos", path = "foos", httpMethod = HttpMethod.GET)
+    public Iterator<Foo> listFoos() {
+      return null;
+    }
+
+    @ApiMethod(name = "pageFoos", path = "pages", httpMethod = HttpMethod.GET)
+    public StreamingCollectionResponse<Foo> pageFoos() {
+      return null;
+    }
+  }
+
+  @Api(name = "streams", version = "v1")
+  public static class ListEndpoint {
+    @ApiMethod(name = "importFoos", path = "foos", httpMethod = HttpMethod.POST)
+    public void importFoos(List<Foo> foos) {
+    }
+
+    @ApiMethod(name = "listFoos", path = "foos", httpMethod = HttpMethod.GET)
+    public List<Foo> listFoos() {
+      return null;
+    }
+
+    @ApiMethod(name = "pageFoos", path = "pages", httpMethod = HttpMethod.GET)
+    public CollectionResponse<Foo> pageFoos() {
+      return null;
+    }
+  }
+
   private RestDescription getDiscovery(DiscoveryContext context, Class<?> serviceClass)
       throws Exception {
     ApiConfig config = configLoader.loadConfiguration(ServiceContext.create(), serviceClass);
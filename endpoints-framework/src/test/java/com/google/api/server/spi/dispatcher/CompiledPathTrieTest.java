@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.dispatcher;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.api.server.spi.dispatcher.PathTrie.Resolution;
+import com.google.api.server.spi.dispatcher.PathTrie.Result;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link CompiledPathTrie}.
+ */
+@RunWith(JUnit4.class)
+public class CompiledPathTrieTest {
+  private static final String[] LITERALS = {"a", "b", "discovery", "v1", "apis", "rest"};
+  private static final String[] CUSTOM_METHODS = {"batchGet", "list", ""};
+  private static final String[] PATH_SEGMENTS =
+      {"a", "b", "discovery", "v1", "apis", "rest", "x", "", "%41", "a+b", "v1:batchGet"};
+
+  @Test
+  public void literalWinsOverParameter() {
+    CompiledPathTrie<Integer> trie = CompiledPathTrie.compile(PathTrie.<Integer>builder()
+        .add(HttpMethod.GET, "{one}/three", 1234)
+        .add(HttpMethod.GET, "one/two", 4321)
+        .build());
+    Resolution<Integer> resolution = trie.newResolution();
+
+    assertThat(trie.resolve(HttpMethod.GET, "one/two", resolution)).isTrue();
+    assertThat(resolution.getValue()).isEqualTo(4321);
+    assertThat(resolution.getRawParameters()).isEmpty();
+    assertThat(trie.resolve(HttpMethod.GET, "one/three", resolution)).isTrue();
+    assertThat(resolution.getValue()).isEqualTo(1234);
+    assertThat(resolution.getRawParameters()).isEqualTo(ImmutableMap.of("one", "one"));
+    assertThat(trie.resolve(HttpMethod.PUT, "one/three", resolution)).isFalse();
+  }
+
+  @Test
+  public void backtrackAndCustomMethods() {
+    CompiledPathTrie<Integer> trie = CompiledPathTrie.compile(PathTrie.<Integer>builder()
+        .add(HttpMethod.GET, "{one}/{two}/three/{four}", 1)
+        .add(HttpMethod.GET, "one/two/{three}/four", 2)
+        .add(HttpMethod.GET, "discovery/{version}", 3)
+        .add(HttpMethod.GET, "discovery/{version}:batchGet", 4)
+        .build());
+    Resolution<Integer> resolution = trie.newResolution();
+
+    assertThat(trie.resolve(HttpMethod.GET, "one/two/three/five", resolution)).isTrue();
+    assertThat(resolution.getValue()).isEqualTo(1);
+    assertThat(resolution.getRawParameters())
+        .isEqualTo(ImmutableMap.of("one", "one", "two", "two", "four", "five"));
+    assertThat(trie.resolve(HttpMethod.GET, "discovery/v1:batchGet", resolution)).isTrue();
+    assertThat(resolution.getValue()).isEqualTo(4);
+    assertThat(resolution.getRawParameters()).isEqualTo(ImmutableMap.of("version", "v1"));
+    assertThat(trie.resolve(HttpMethod.GET, "discovery/v1:other", resolution)).isTrue();
+    assertThat(resolution.getValue()).isEqualTo(3);
+    assertThat(resolution.getRawParameters()).isEqualTo(ImmutableMap.of("version", "v1:other"));
+  }
+
+  @Test
+  public void empty() {
+    CompiledPathTrie<Integer> trie = CompiledPathTrie.compile(PathTrie.<Integer>builder().build());
+
+    assertThat(trie.resolve(HttpMethod.GET, "", trie.newResolution())).isFalse();
+    assertThat(trie.resolve(HttpMethod.GET, "a/b", trie.newResolution())).isFalse();
+  }
+
+  @Test
+  public void matchesPathTrieOnRandomRoutes() {
+    Random random = new Random(20161);
+    for (int routeSet = 0; routeSet < 200; routeSet++) {
+      PathTrie.Builder<Integer> builder = PathTrie.builder(false);
+      int routeCount = 1 + random.nextInt(40);
+      for (int route = 0; route < routeCount; route++) {
+        builder.add(randomMethod(random), randomTemplate(random), route);
+      }
+      PathTrie<Integer> trie = builder.build();
+      CompiledPathTrie<Integer> compiledTrie = CompiledPathTrie.compile(trie);
+      Resolution<Integer> resolution = compiledTrie.newResolution();
+      for (int lookup = 0; lookup < 200; lookup++) {
+        HttpMethod method = randomMethod(random);
+        String path = randomPath(random);
+        Result<Integer> expected = trie.resolve(method, path);
+        boolean resolved = compiledTrie.resolve(method, path, resolution);
+        String message = method + " " + path;
+        if (expected == null) {
+          assertWithMessage(message).that(resolved).isFalse();
+        } else {
+          assertWithMessage(message).that(resolved).isTrue();
+          assertWithMessage(message).that(resolution.getValue()).isEqualTo(expected.getResult());
+          assertWithMessage(message).that(resolution.getRawParameters())
+              .isEqualTo(expected.getRawParameters());
+        }
+      }
+    }
+  }
+
+  private static HttpMethod randomMethod(Random random) {
+    HttpMethod[] methods = HttpMethod.values();
+    return methods[random.nextInt(methods.length)];
+  }
+
+  private static String randomTemplate(Random random) {
+    StringBuilder template = new StringBuilder();
+    int segmentCount = 1 + random.nextInt(4);
+    for (int i = 0; i < segmentCount; i++) {
+      if (i > 0) {
+        template.append('/');
+      }
+      if (random.nextInt(3) == 0) {
+        template.append("{p").append(i).append('}');
+      } else {
+        template.append(LITERALS[random.nextInt(LITERALS.length)]);
+      }
+    }
+    if (random.nextInt(4) == 0) {
+      template.append(':').append(CUSTOM_METHODS[random.nextInt(CUSTOM_METHODS.length)]);
+    }
+    return template.toString();
+  }
+
+  private static String randomPath(Random random) {
+    StringBuilder path = new StringBuilder();
+    if (random.nextInt(5) == 0) {
+      path.append('/');
+    }
+    int segmentCount = random.nextInt(5);
+    for (int i = 0; i < segmentCount; i++) {
+      if (i > 0) {
+        path.append('/');
+      }
+      path.append(PATH_SEGMENTS[random.nextInt(PATH_SEGMENTS.length)]);
+    }
+    if (random.nextInt(4) == 0) {
+      path.append(':').append(CUSTOM_METHODS[random.nextInt(CUSTOM_METHODS.length)]);
+    }
+    return path.toString();
+  }
+}
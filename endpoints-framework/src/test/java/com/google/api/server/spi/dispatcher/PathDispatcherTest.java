@@ -17,6 +17,8 @@ package com.google.api.server.spi.dispatcher;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -122,6 +124,73 @@ public class PathDispatcherTest {
     }
   }
 
+  @Test
+  public void routeCache() throws IOException {
+    PathDispatcher<DispatcherContext> dispatcher = PathDispatcher.builder()
+        .add("GET", "test/one/two/{three}", getHandler)
+        .add("POST", "test/one/two/{three}", postHandler)
+        .setRouteCacheSize(16)
+        .setRouteCacheAdmissionThreshold(1)
+        .setRouteCacheStatsEnabled(true)
+        .build();
+
+    for (int i = 0; i < 3; i++) {
+      DispatcherContext requestContext = new DispatcherContext("GET", "test/one/two/3");
+      assertThat(dispatcher.dispatch("GET", "test/one/two/3", requestContext)).isTrue();
+      assertThat(requestContext.getRawPathParameters())
+          .isEqualTo(ImmutableMap.of("three", "3"));
+    }
+    assertThat(dispatcher.dispatch("POST", "test/one/two/3", context)).isTrue();
+    assertThat(dispatcher.dispatch("GET", "test/one/two", context)).isFalse();
+
+    verify(getHandler, times(3)).handle(any(DispatcherContext.class));
+    verify(postHandler, times(1)).handle(context);
+    assertThat(dispatcher.getRouteCacheStats().hitCount()).isEqualTo(2);
+    assertThat(dispatcher.getRouteCacheStats().missCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void routeCacheDisabled() throws IOException {
+    PathDispatcher<DispatcherContext> dispatcher = PathDispatcher.builder()
+        .add("GET", "test/one/two/{three}", getHandler)
+        .build();
+
+    assertThat(dispatcher.dispatch("GET", "test/one/two/3", context)).isTrue();
+    assertThat(dispatcher.dispatch("GET", "test/one/two/3", context)).isTrue();
+    assertThat(dispatcher.getRouteCacheStats().requestCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void malformedEscape() throws IOException {
+    PathDispatcher<DispatcherContext> dispatcher = PathDispatcher.builder()
+        .add("GET", "test/one/two/{three}", getHandler)
+        .build();
+
+    try {
+      dispatcher.dispatch("GET", "test/one/two/%3", context);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    verify(getHandler, never()).handle(any(DispatcherContext.class));
+  }
+
+  @Test
+  public void parametersPerDispatch() throws IOException {
+    PathDispatcher<DispatcherContext> dispatcher = PathDispatcher.builder()
+        .add("GET", "test/{one}", getHandler)
+        .add("GET", "test/{one}/{two}", postHandler)
+        .build();
+
+    DispatcherContext first = new DispatcherContext("GET", "test/a%20b");
+    assertThat(dispatcher.dispatch("GET", "test/a%20b", first)).isTrue();
+    assertThat(first.getRawPathParameters()).isEqualTo(ImmutableMap.of("one", "a b"));
+    DispatcherContext second = new DispatcherContext("GET", "test/c/d");
+    assertThat(dispatcher.dispatch("GET", "test/c/d", second)).isTrue();
+    assertThat(second.getRawPathParameters()).isEqualTo(ImmutableMap.of("one", "c", "two", "d"));
+    assertThat(first.getRawPathParameters()).isEqualTo(ImmutableMap.of("one", "a b"));
+  }
+
   @Test
   public void methodNotKnown() throws IOException {
     PathDispatcher<DispatcherContext> dispatcher = PathDispatcher.builder().build();
@@ -20,6 +20,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.fail;
 
+import com.google.api.server.spi.dispatcher.PathTrie.Resolution;
 import com.google.api.server.spi.dispatcher.PathTrie.Result;
 import com.google.common.collect.ImmutableMap;
 
@@ -312,6 +313,73 @@ public class PathTrieTest {
         trie, "%E4%B8%AD%E6%96%87", 1234, ImmutableMap.of("value", "中文"));
   }
 
+  @Test
+  public void encodedParameterWithPlus() {
+    PathTrie<Integer> trie = PathTrie.<Integer>builder()
+        .add(HttpMethod.GET, "{one}/{two}", 1234)
+        .build();
+
+    assertSuccessfulGetResolution(
+        trie, "a+b/c%2Fd", 1234, ImmutableMap.of("one", "a b", "two", "c/d"));
+  }
+
+  @Test
+  public void malformedEscape() {
+    PathTrie<Integer> trie = PathTrie.<Integer>builder()
+        .add(HttpMethod.GET, "items/{value}", 1234)
+        .build();
+
+    for (String value : new String[] {"%", "a%4", "%zz", "%4g"}) {
+      try {
+        trie.resolve(HttpMethod.GET, "items/" + value);
+        fail("expected IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        assertThat(e).hasMessageThat().contains("'value'");
+      }
+    }
+    assertSuccessfulGetResolution(trie, "items/%4a%4F", 1234, ImmutableMap.of("value", "JO"));
+  }
+
+  @Test
+  public void reusableResolution() {
+    PathTrie<Integer> trie = PathTrie.<Integer>builder()
+        .add(HttpMethod.GET, "discovery/{version}/rest", 1234)
+        .add(HttpMethod.GET, "discovery/{version}/apis/{api}", 4321)
+        .add(HttpMethod.GET, "explorer", 1)
+        .build();
+    Resolution<Integer> resolution = trie.newResolution();
+
+    assertThat(trie.resolve(HttpMethod.GET, "discovery/v1/apis/test", resolution)).isTrue();
+    assertThat(resolution.getValue()).isEqualTo(4321);
+    assertThat(resolution.getRawParameters())
+        .isEqualTo(ImmutableMap.of("version", "v1", "api", "test"));
+
+    assertThat(trie.resolve(HttpMethod.GET, "discovery/v2/rest", resolution)).isTrue();
+    assertThat(resolution.getValue()).isEqualTo(1234);
+    assertThat(resolution.getRawParameters()).isEqualTo(ImmutableMap.of("version", "v2"));
+
+    assertThat(trie.resolve(HttpMethod.GET, "/explorer", resolution)).isTrue();
+    assertThat(resolution.getValue()).isEqualTo(1);
+    assertThat(resolution.getRawParameters()).isEmpty();
+
+    assertThat(trie.resolve(HttpMethod.PUT, "explorer", resolution)).isFalse();
+    assertThat(resolution.getValue()).isNull();
+    assertThat(resolution.getRawParameters()).isEmpty();
+  }
+
+  @Test
+  public void emptySegments() {
+    PathTrie<Integer> trie = PathTrie.<Integer>builder()
+        .add(HttpMethod.GET, "test/{one}/{two}", 1234)
+        .build();
+
+    assertSuccessfulGetResolution(
+        trie, "test//foo", 1234, ImmutableMap.of("one", "", "two", "foo"));
+    assertSuccessfulGetResolution(
+        trie, "test/foo/", 1234, ImmutableMap.of("one", "foo", "two", ""));
+    assertFailedGetResolution(trie, "test/foo");
+  }
+
   @Test
   public void testResolveParameterAfterLiteral() {
     PathTrie<Integer> trie = PathTrie.<Integer>builder()
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.dispatcher;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link RouteCache}.
+ */
+@RunWith(JUnit4.class)
+public class RouteCacheTest {
+
+  @Test
+  public void getAndPut() {
+    RouteCache<Integer> cache = new RouteCache<>(8, 1, true);
+    assertThat(cache.get(HttpMethod.GET, "a/b")).isNull();
+
+    cache.put(HttpMethod.GET, "a/b", 1, ImmutableMap.of("b", "b"));
+
+    RouteCache.Entry<Integer> entry = cache.get(HttpMethod.GET, "a/b");
+    assertThat(entry.getValue()).isEqualTo(1);
+    assertThat(entry.getParameters()).isEqualTo(ImmutableMap.of("b", "b"));
+    assertThat(cache.get(HttpMethod.POST, "a/b")).isNull();
+    assertThat(cache.get(HttpMethod.GET, "a/c")).isNull();
+    assertThat(cache.stats().hitCount()).isEqualTo(1);
+    assertThat(cache.stats().missCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void admissionThreshold() {
+    RouteCache<Integer> cache = new RouteCache<>(8, 3, false);
+
+    cache.put(HttpMethod.GET, "a/b", 1, ImmutableMap.<String, String>of());
+    cache.put(HttpMethod.GET, "a/b", 1, ImmutableMap.<String, String>of());
+    assertThat(cache.get(HttpMethod.GET, "a/b")).isNull();
+    cache.put(HttpMethod.GET, "a/b", 1, ImmutableMap.<String, String>of());
+    assertThat(cache.get(HttpMethod.GET, "a/b")).isNotNull();
+  }
+
+  @Test
+  public void bounded() {
+    RouteCache<Integer> cache = new RouteCache<>(16, 1, true);
+    for (int i = 0; i < 1000; i++) {
+      cache.put(HttpMethod.GET, "path/" + i, i, ImmutableMap.<String, String>of());
+    }
+    int cached = 0;
+    for (int i = 0; i < 1000; i++) {
+      RouteCache.Entry<Integer> entry = cache.get(HttpMethod.GET, "path/" + i);
+      if (entry != null) {
+        assertThat(entry.getValue()).isEqualTo(i);
+        cached++;
+      }
+    }
+    assertThat(cached).isAtMost(16);
+    assertThat(cache.stats().evictionCount()).isAtLeast(1000 - 16);
+  }
+
+  @Test
+  public void referencedEntriesSurviveEviction() {
+    RouteCache<Integer> cache = new RouteCache<>(2, 1, false);
+    cache.put(HttpMethod.GET, "hot", 1, ImmutableMap.<String, String>of());
+    for (int i = 0; i < 100; i++) {
+      assertThat(cache.get(HttpMethod.GET, "hot")).isNotNull();
+      cache.put(HttpMethod.GET, "cold/" + i, i, ImmutableMap.<String, String>of());
+    }
+  }
+
+  @Test
+  public void concurrentAccess() throws Exception {
+    final RouteCache<Integer> cache = new RouteCache<>(64, 2, true);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        final int seed = thread;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (int i = 0; i < 20000; i++) {
+              int route = (i * 31 + seed) % 500;
+              String path = "api/v1/items/" + route;
+              RouteCache.Entry<Integer> entry = cache.get(HttpMethod.GET, path);
+              if (entry == null) {
+                cache.put(HttpMethod.GET, path, route, ImmutableMap.of("id", "" + route));
+              } else {
+                // An entry must always match the key it was found under.
+                assertThat(entry.getValue()).isEqualTo(route);
+                assertThat(entry.getParameters()).containsExactly("id", "" + route);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(cache.stats().requestCount()).isEqualTo(8 * 20000);
+  }
+}
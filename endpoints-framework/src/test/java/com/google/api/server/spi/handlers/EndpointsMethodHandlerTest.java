@@ -20,22 +20,32 @@ import static com.google.common.truth.Truth.assertThat;
 import com.google.api.server.spi.EndpointMethod;
 import com.google.api.server.spi.EndpointsContext;
 import com.google.api.server.spi.ServiceContext;
+import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.ServletInitializationParameters;
 import com.google.api.server.spi.SystemService;
 import com.google.api.server.spi.TypeLoader;
+import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.config.Api;
+import com.google.api.server.spi.config.ApiCacheControl;
 import com.google.api.server.spi.config.ApiMethod;
+import com.google.api.server.spi.config.ApiResponseCompression;
+import com.google.api.server.spi.config.Authenticator;
+import com.google.api.server.spi.config.model.ApiCacheControlConfig;
 import com.google.api.server.spi.config.model.ApiConfig;
 import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.api.server.spi.config.model.ApiSerializationConfig;
 import com.google.api.server.spi.request.FakeParamReader;
 import com.google.api.server.spi.request.ParamReader;
+import com.google.api.server.spi.response.EntityTags;
 import com.google.api.server.spi.response.ErrorResultWriter;
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ResponseCache;
 import com.google.api.server.spi.response.ResultWriter;
 import com.google.api.server.spi.response.SuccessResultWriter;
+import com.google.api.server.spi.response.UnauthorizedException;
 import com.google.api.server.spi.testing.ArrayEndpoint;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -44,6 +54,9 @@ import org.junit.runners.JUnit4;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -112,6 +125,175 @@ public class EndpointsMethodHandlerTest {
     handler.getRestHandler().handle(context);
   }
 
+  @Test
+  public void compression() throws Exception {
+    EndpointsMethodHandler handler = createCompressingHandler("simple", RESOURCE);
+    request.addHeader("Accept-Encoding", "gzip, deflate");
+    handler.getRestHandler().handle(context);
+    assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+    assertThat(response.getHeader("Vary")).isEqualTo("Accept-Encoding");
+  }
+
+  @Test
+  public void compression_optOut() throws Exception {
+    EndpointsMethodHandler handler = createCompressingHandler("uncompressed", RESOURCE);
+    request.addHeader("Accept-Encoding", "gzip, deflate");
+    handler.getRestHandler().handle(context);
+    assertThat(response.getHeader("Content-Encoding")).isNull();
+    assertThat(response.getHeader("Vary")).isNull();
+    assertThat(response.getContentAsString()).contains("1234");
+  }
+
+  @Test
+  public void fields() throws Exception {
+    EndpointsMethodHandler handler = createHandler(
+        ServletInitializationParameters.builder().build(), "pair", RESOURCE);
+    request.setParameter("fields", "first");
+    request.setParameter("prettyPrint", "false");
+    handler.getRestHandler().handle(context);
+    assertThat(response.getContentAsString()).isEqualTo("{\"first\":{\"x\":1234}}");
+  }
+
+  @Test
+  public void fields_malformed() throws Exception {
+    EndpointsMethodHandler handler = createHandler(
+        ServletInitializationParameters.builder().build(), "pair", RESOURCE);
+    request.setParameter("fields", "first(");
+    handler.getRestHandler().handle(context);
+    assertThat(response.getStatus()).isEqualTo(400);
+    assertThat(response.getContentAsString()).contains("Invalid field selection first(");
+  }
+
+  @Test
+  public void eTag_version() throws Exception {
+    EndpointsMethodHandler handler = createHandler(
+        ServletInitializationParameters.builder().build(), "getVersioned", context.getRequest());
+    request.setMethod("GET");
+    request.addHeader("If-None-Match", "\"v1\"");
+    handler.getRestHandler().handle(context);
+    assertThat(response.getStatus()).isEqualTo(304);
+    assertThat(response.getHeader("ETag")).isEqualTo("\"v1\"");
+    assertThat(response.getContentAsByteArray()).isEmpty();
+  }
+
+  @Test
+  public void eTag_hashed() throws Exception {
+    ServletInitializationParameters initParameters =
+        ServletInitializationParameters.builder().setETagsEnabled(true).build();
+    EndpointsMethodHandler handler = createHandler(initParameters, "get");
+    request.setMethod("GET");
+    handler.getRestHandler().handle(context);
+    String entityTag = response.getHeader("ETag");
+    assertThat(entityTag).isNotNull();
+
+    response = new MockHttpServletResponse();
+    context = new EndpointsContext("", "", request, response, true);
+    request.addHeader("If-None-Match", entityTag);
+    handler.getRestHandler().handle(context);
+    assertThat(response.getStatus()).isEqualTo(304);
+  }
+
+  @Test
+  public void cacheControl_notCacheable() throws Exception {
+    EndpointsMethodHandler handler =
+        createHandler(ServletInitializationParameters.builder().build(), "get");
+    request.setMethod("GET");
+    handler.getRestHandler().handle(context);
+    assertThat(response.getHeader("Cache-Control")).isNull();
+  }
+
+  @Test
+  public void responseCache() throws Exception {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    EndpointsMethodHandler handler =
+        createCachingHandler(cache, ApiCacheControl.Type.PUBLIC, "getCounted", false);
+    request.setMethod("GET");
+    handler.getRestHandler().handle(context);
+    assertThat(response.getHeader("Cache-Control")).isEqualTo("public, max-age=60");
+    String body = response.getContentAsString();
+    assertThat(body).contains("1");
+
+    assertThat(handle(handler).getContentAsString()).isEqualTo(body);
+    assertThat(response.getHeader("Cache-Control")).isEqualTo("public, max-age=60");
+    assertThat(TestEndpoint.counter.get()).isEqualTo(1);
+    assertThat(cache.stats().hitCount()).isEqualTo(1);
+
+    request.setParameter("prettyPrint", "false");
+    assertThat(handle(handler).getContentAsString()).contains("2");
+    cache.invalidate(TestEndpoint.class, "getCounted");
+    request.removeParameter("prettyPrint");
+    assertThat(handle(handler).getContentAsString()).contains("3");
+  }
+
+  @Test
+  public void responseCache_publicWithUser() throws Exception {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    EndpointsMethodHandler handler = createCachingHandler(cache, ApiCacheControl.Type.PUBLIC,
+        "getCountedForUser", true, (Object) null);
+    request.setMethod("GET");
+    request.addHeader(HeaderAuthenticator.HEADER, "user1");
+    assertThat(handle(handler).getContentAsString()).contains("1");
+    assertThat(response.getHeader("Cache-Control")).isEqualTo("private, max-age=60");
+    request = newRequest("user1");
+    assertThat(handle(handler).getContentAsString()).contains("1");
+
+    request = newRequest(null);
+    assertThat(handle(handler).getContentAsString()).contains("2");
+    request = newRequest("user2");
+    assertThat(handle(handler).getContentAsString()).contains("3");
+    assertThat(TestEndpoint.counter.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void responseCache_publicWithRequest() throws Exception {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    EndpointsMethodHandler handler = createCachingHandler(cache, ApiCacheControl.Type.PUBLIC,
+        "getCountedForRequest", false, (Object) null);
+    request = newRequest(null);
+    assertThat(handle(handler).getContentAsString()).contains("1");
+    assertThat(response.getHeader("Cache-Control")).isEqualTo("private, max-age=60");
+  }
+
+  @Test
+  public void responseCache_publicWithAuthenticators() throws Exception {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    EndpointsMethodHandler handler = createCachingHandler(cache, ApiCacheControl.Type.PUBLIC);
+    request = newRequest("user1");
+    assertThat(handle(handler).getContentAsString()).contains("1");
+    assertThat(response.getHeader("Cache-Control")).isEqualTo("private, max-age=60");
+    request = newRequest("user1");
+    assertThat(handle(handler).getContentAsString()).contains("1");
+
+    // Authentication still runs when the response is cached.
+    request = newRequest(HeaderAuthenticator.INVALID);
+    assertThat(handle(handler).getStatus()).isEqualTo(401);
+    assertThat(TestEndpoint.counter.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void responseCache_privateKeyedOnIdAndEmail() throws Exception {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    EndpointsMethodHandler handler = createCachingHandler(cache, ApiCacheControl.Type.PRIVATE);
+    request = newRequest("user1");
+    assertThat(handle(handler).getContentAsString()).contains("1");
+    request = newRequest("user1");
+    request.addHeader(HeaderAuthenticator.EMAIL_HEADER, "other@example.com");
+    assertThat(handle(handler).getContentAsString()).contains("2");
+    request = newRequest("user1");
+    assertThat(handle(handler).getContentAsString()).contains("1");
+  }
+
+  @Test
+  public void responseCache_noCache() throws Exception {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    EndpointsMethodHandler handler = createCachingHandler(cache, ApiCacheControl.Type.NO_CACHE);
+    request.setMethod("GET");
+    handler.getRestHandler().handle(context);
+    handle(handler);
+    assertThat(TestEndpoint.counter.get()).isEqualTo(2);
+    assertThat(cache.weight()).isEqualTo(0);
+  }
+
   @Test
   public void rootMethodHandler() throws Exception {
     EndpointMethod method = systemService.resolveService("TestEndpoint", "root");
@@ -133,6 +315,74 @@ public class EndpointsMethodHandlerTest {
         methodConfig, systemService, expectedResponse, params);
   }
 
+  private EndpointsMethodHandler createCompressingHandler(String methodName,
+      Object... params) throws Exception {
+    return createHandler(ServletInitializationParameters.builder()
+        .setResponseCompressionEnabled(true)
+        .setResponseCompressionThreshold(0)
+        .build(), methodName, params);
+  }
+
+  private EndpointsMethodHandler createHandler(ServletInitializationParameters initParameters,
+      String methodName, final Object... params) throws Exception {
+    EndpointMethod method = systemService.resolveService("TestEndpoint", methodName);
+    ApiMethodConfig methodConfig = new ApiMethodConfig(method, typeLoader,
+        apiConfig.getApiClassConfig());
+    return new EndpointsMethodHandler(initParameters, null /* servletContext */, method,
+        methodConfig, systemService) {
+      @Override
+      protected ParamReader createRestParamReader(EndpointsContext context,
+          ApiSerializationConfig serializationConfig, Object apiService) {
+        return new FakeParamReader(params);
+      }
+    };
+  }
+
+  private EndpointsMethodHandler createCachingHandler(ResponseCache cache, String type)
+      throws Exception {
+    return createCachingHandler(cache, type, "getCounted", true);
+  }
+
+  private EndpointsMethodHandler createCachingHandler(ResponseCache cache, String type,
+      String methodName, boolean authenticated, final Object... params) throws Exception {
+    TestEndpoint.counter.set(0);
+    EndpointMethod method = systemService.resolveService("TestEndpoint", methodName);
+    ApiMethodConfig methodConfig = new ApiMethodConfig(method, typeLoader,
+        apiConfig.getApiClassConfig());
+    ApiCacheControlConfig cacheControlConfig = new ApiCacheControlConfig();
+    cacheControlConfig.setType(type);
+    cacheControlConfig.setMaxAge(60);
+    methodConfig.setCacheControlConfig(cacheControlConfig);
+    if (authenticated) {
+      methodConfig.setAuthenticators(
+          ImmutableList.<Class<? extends Authenticator>>of(HeaderAuthenticator.class));
+    }
+    return new EndpointsMethodHandler(ServletInitializationParameters.builder().build(),
+        null /* servletContext */, method, methodConfig, systemService, cache) {
+      @Override
+      protected ParamReader createRestParamReader(EndpointsContext context,
+          ApiSerializationConfig serializationConfig, Object apiService) {
+        return new FakeParamReader(params);
+      }
+    };
+  }
+
+  private MockHttpServletRequest newRequest(String user) {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    if (user != null) {
+      request.addHeader(HeaderAuthenticator.HEADER, user);
+    }
+    return request;
+  }
+
+  private MockHttpServletResponse handle(EndpointsMethodHandler handler) throws Exception {
+    response = new MockHttpServletResponse();
+    context = new EndpointsContext("", "", request, response, true);
+    handler.getRestHandler().handle(context);
+    return response;
+  }
+
   private static class TestMethodHandler extends EndpointsMethodHandler {
     private final Object[] params;
     private final Object expectedResult;
@@ -175,8 +425,20 @@ public class EndpointsMethodHandlerTest {
     }
   }
 
+  private static class TestPair {
+    public TestResource first;
+    public TestResource second;
+
+    TestPair(TestResource first, TestResource second) {
+      this.first = first;
+      this.second = second;
+    }
+  }
+
   @Api
   public static class TestEndpoint {
+    static final AtomicInteger counter = new AtomicInteger();
+
     public TestResource simple(TestResource resource) {
       return resource;
     }
@@ -187,5 +449,58 @@ public class EndpointsMethodHandlerTest {
 
     @ApiMethod(path = "/root")
     public void root() { }
+
+    public TestPair pair(TestResource resource) {
+      return new TestPair(resource, resource);
+    }
+
+    @ApiMethod(httpMethod = "GET")
+    public TestResource get() {
+      return RESOURCE;
+    }
+
+    @ApiMethod(httpMethod = "GET", path = "versioned")
+    public TestResource getVersioned(HttpServletRequest request) throws ServiceException {
+      EntityTags.checkVersion(request, "v1");
+      return RESOURCE;
+    }
+
+    @ApiMethod(httpMethod = "GET", path = "counted")
+    public TestResource getCounted() {
+      return new TestResource(counter.incrementAndGet());
+    }
+
+    @ApiMethod(httpMethod = "GET", path = "countedForUser")
+    public TestResource getCountedForUser(User user) {
+      return new TestResource(counter.incrementAndGet());
+    }
+
+    @ApiMethod(httpMethod = "GET", path = "countedForRequest")
+    public TestResource getCountedForRequest(HttpServletRequest request) {
+      return new TestResource(counter.incrementAndGet());
+    }
+
+    @ApiResponseCompression
+    public TestResource uncompressed(TestResource resource) {
+      return resource;
+    }
+  }
+
+  /**
+   * Authenticates the user named in a request header.
+   */
+  public static class HeaderAuthenticator implements Authenticator {
+    static final String HEADER = "X-Test-User";
+    static final String EMAIL_HEADER = "X-Test-Email";
+    static final String INVALID = "invalid";
+
+    @Override
+    public User authenticate(HttpServletRequest request) throws ServiceException {
+      String id = request.getHeader(HEADER);
+      if (INVALID.equals(id)) {
+        throw new UnauthorizedException("invalid user");
+      }
+      return id == null ? null : new User(id, request.getHeader(EMAIL_HEADER));
+    }
   }
 }
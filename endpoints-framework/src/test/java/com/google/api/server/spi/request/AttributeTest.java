@@ -17,9 +17,11 @@ package com.google.api.server.spi.request;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
+import com.google.api.server.spi.EndpointsContext;
 import com.google.api.server.spi.EndpointsServlet;
 import com.google.api.server.spi.ServletInitializationParameters;
 import com.google.api.server.spi.config.model.ApiMethodConfig;
@@ -31,6 +33,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -96,6 +99,24 @@ public class AttributeTest {
     assertEquals(attr.get(Attribute.API_METHOD_CONFIG), methodConfig);
   }
 
+  @Test
+  public void bindStandardAttributes() {
+    EndpointsContext context =
+        new EndpointsContext("GET", "", request, new MockHttpServletResponse(), false);
+    assertSame(request, context.getRequest());
+    context.bindStandardAttributes();
+    assertFalse(request.getAttributeNames().hasMoreElements());
+
+    // The attributes are only set on the request when bound.
+    context.setMethod(methodConfig, null, true, true);
+    assertFalse(request.getAttributeNames().hasMoreElements());
+    context.bindStandardAttributes();
+    Attribute attr = Attribute.from(request);
+    assertSame(methodConfig, attr.get(Attribute.API_METHOD_CONFIG));
+    assertTrue(attr.isEnabled(Attribute.ENABLE_CLIENT_ID_WHITELIST));
+    assertTrue(attr.isEnabled(Attribute.SKIP_TOKEN_AUTH));
+  }
+
   /**
    * Sets up some expectations for {@link #servletConfig} when it is passed to
    * {@link EndpointsServlet#init(ServletConfig)}.
@@ -20,8 +20,10 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.api.server.spi.EndpointsContext;
 import com.google.api.server.spi.EnvUtil;
 import com.google.api.server.spi.auth.EndpointsAuthenticator;
 import com.google.api.server.spi.config.Authenticator;
@@ -39,6 +41,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.util.List;
 
@@ -137,6 +140,32 @@ public class AuthTest {
     assertEquals(PassAuthenticator.USER, auth.authenticate());
   }
 
+  @Test
+  public void testAuthenticate_boundChain() throws Exception {
+    MockHttpServletRequest dispatched = new MockHttpServletRequest();
+    EndpointsContext context =
+        new EndpointsContext("GET", "", dispatched, new MockHttpServletResponse(), false);
+    AuthenticatorChain chain = AuthenticatorChain.of(
+        ImmutableList.<Class<? extends Authenticator>>of(PassAuthenticator.class));
+    context.setMethod(config, chain, false, false);
+    assertEquals(PassAuthenticator.USER, Auth.from(context).authenticate());
+    assertSame(config, dispatched.getAttribute(Attribute.API_METHOD_CONFIG));
+  }
+
+  @Test
+  public void testGetAuthenticatedUser() throws Exception {
+    EndpointsContext context =
+        new EndpointsContext("GET", "", request, new MockHttpServletResponse(), false);
+    context.setMethod(config, null, false, false);
+    when(config.getAuthenticators()).thenReturn(
+        ImmutableList.of(FailAuthenticator.class, PassAuthenticator.class));
+    assertEquals(PassAuthenticator.USER, Auth.getAuthenticatedUser(context));
+    assertEquals(PassAuthenticator.USER, context.getAuthenticatedUser());
+    // The authenticators run once per request.
+    assertEquals(PassAuthenticator.USER, Auth.getAuthenticatedUser(context));
+    verify(config).getAuthenticators();
+  }
+
   @Test
   public void testAuthenticate_appEngine() throws Exception {
     when(config.getAuthenticators()).thenReturn(
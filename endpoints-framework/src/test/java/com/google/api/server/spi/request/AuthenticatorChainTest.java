@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.server.spi.auth.EndpointsAuthenticator;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.Authenticator;
+import com.google.api.server.spi.testing.FailAuthenticator;
+import com.google.api.server.spi.testing.PassAuthenticator;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Tests for {@link AuthenticatorChain}.
+ */
+@RunWith(JUnit4.class)
+public class AuthenticatorChainTest {
+  private MockHttpServletRequest request;
+
+  @Before
+  public void setUp() {
+    request = new MockHttpServletRequest();
+    CountingAuthenticator.instances.set(0);
+  }
+
+  @Test
+  public void of_default() {
+    List<Authenticator> authenticators = AuthenticatorChain.of(null).getInstances();
+
+    assertThat(authenticators).hasSize(1);
+    assertThat(authenticators.get(0)).isInstanceOf(EndpointsAuthenticator.class);
+    assertThat(AuthenticatorChain.of(null).getInstances().get(0))
+        .isSameInstanceAs(authenticators.get(0));
+  }
+
+  @Test
+  public void of_skipsAuthenticatorsWhichCannotBeInstantiated() {
+    AuthenticatorChain chain = AuthenticatorChain.of(ImmutableList.of(
+        AbstractAuthenticator.class, PrivateAuthenticator.class, FailAuthenticator.class));
+
+    assertThat(chain.getInstances()).hasSize(1);
+    assertThat(chain.getInstances().get(0)).isInstanceOf(FailAuthenticator.class);
+  }
+
+  @Test
+  public void getInstances_sharesSingletons() {
+    AuthenticatorChain chain = AuthenticatorChain.of(
+        ImmutableList.of(PassAuthenticator.class, CountingAuthenticator.class));
+
+    List<Authenticator> first = chain.getInstances();
+    List<Authenticator> second = chain.getInstances();
+
+    assertThat(second.get(0)).isSameInstanceAs(first.get(0));
+    assertThat(second.get(1)).isNotSameInstanceAs(first.get(1));
+    assertThat(CountingAuthenticator.instances.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void authenticate_stopsAtFirstUser() throws Exception {
+    AuthenticatorChain chain = AuthenticatorChain.of(ImmutableList.of(
+        FailAuthenticator.class, PassAuthenticator.class, CountingAuthenticator.class));
+
+    assertThat(chain.authenticate(request)).isEqualTo(PassAuthenticator.USER);
+    assertThat(CountingAuthenticator.instances.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void authenticate_createsAuthenticatorsPerRequest() throws Exception {
+    AuthenticatorChain chain = AuthenticatorChain.of(
+        ImmutableList.<Class<? extends Authenticator>>of(CountingAuthenticator.class));
+    assertThat(CountingAuthenticator.instances.get()).isEqualTo(0);
+
+    assertThat(chain.authenticate(request)).isNull();
+    assertThat(chain.authenticate(request)).isNull();
+
+    assertThat(CountingAuthenticator.instances.get()).isEqualTo(2);
+  }
+
+  /**
+   * An authenticator which is not a singleton, counting its instances.
+   */
+  public static class CountingAuthenticator implements Authenticator {
+    static final AtomicInteger instances = new AtomicInteger();
+
+    public CountingAuthenticator() {
+      instances.incrementAndGet();
+    }
+
+    @Override
+    public User authenticate(HttpServletRequest request) {
+      return null;
+    }
+  }
+
+  public abstract static class AbstractAuthenticator implements Authenticator {
+  }
+
+  public static class PrivateAuthenticator extends FailAuthenticator {
+    private PrivateAuthenticator() {
+    }
+  }
+}
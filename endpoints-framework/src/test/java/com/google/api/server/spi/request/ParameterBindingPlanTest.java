@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.server.spi.EndpointMethod;
+import com.google.api.server.spi.ServiceContext;
+import com.google.api.server.spi.TypeLoader;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.Api;
+import com.google.api.server.spi.config.ApiMethod;
+import com.google.api.server.spi.config.DefaultValue;
+import com.google.api.server.spi.config.Named;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.config.annotationreader.ApiConfigAnnotationReader;
+import com.google.api.server.spi.config.model.ApiConfig;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.api.server.spi.request.ParameterBinder.Kind;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Tests for {@link ParameterBindingPlan}.
+ */
+@RunWith(JUnit4.class)
+public class ParameterBindingPlanTest {
+  private ApiConfig apiConfig;
+
+  @Before
+  public void setUp() throws Exception {
+    ServiceContext serviceContext = ServiceContext.create();
+    apiConfig = new ApiConfig.Factory().create(serviceContext, new TypeLoader(), TestApi.class);
+    ApiConfigAnnotationReader annotationReader = new ApiConfigAnnotationReader();
+    annotationReader.loadEndpointClass(serviceContext, TestApi.class, apiConfig);
+    annotationReader.loadEndpointMethods(serviceContext, TestApi.class,
+        apiConfig.getApiClassConfig().getMethods());
+  }
+
+  @Test
+  public void compile() throws Exception {
+    EndpointMethod method = EndpointMethod.create(TestApi.class, TestApi.class.getMethod("test",
+        User.class, HttpServletRequest.class, ServletContext.class, String.class, long.class,
+        Integer.class, List.class, String.class, Resource.class));
+    ParameterBindingPlan plan = compile(method);
+
+    assertThat(plan.getParameterCount()).isEqualTo(9);
+    assertThat(plan.getResourceClass()).isEqualTo(Resource.class);
+    assertBinder(plan.getBinder(0), Kind.USER, null, false);
+    assertBinder(plan.getBinder(1), Kind.REQUEST, null, false);
+    assertBinder(plan.getBinder(2), Kind.SERVLET_CONTEXT, null, false);
+    assertBinder(plan.getBinder(3), Kind.STANDARD, "alt", false);
+    assertBinder(plan.getBinder(4), Kind.NAMED, "id", true);
+    assertBinder(plan.getBinder(5), Kind.NAMED, "count", false);
+    assertThat(plan.getBinder(5).getDefaultValue()).isEqualTo("10");
+    assertBinder(plan.getBinder(6), Kind.NAMED, "tags", true);
+    assertThat(plan.getBinder(6).isRepeated()).isTrue();
+    assertThat(plan.getBinder(6).isCollection()).isTrue();
+    assertBinder(plan.getBinder(7), Kind.NAMED, "required", true);
+    assertThat(plan.getBinder(7).isRepeated()).isFalse();
+    assertThat(plan.getBinder(7).isCollection()).isFalse();
+    assertBinder(plan.getBinder(8), Kind.RESOURCE, null, true);
+    assertThat(plan.getBinder(8).getIndex()).isEqualTo(8);
+  }
+
+  @Test
+  public void compile_severalResources() throws Exception {
+    EndpointMethod method = EndpointMethod.create(TestApi.class,
+        TestApi.class.getMethod("twoResources", Resource.class, Resource.class));
+    ParameterBindingPlan plan = compile(method);
+
+    assertThat(plan.getResourceClass()).isNull();
+    assertThat(plan.getBinder(0).getKind()).isEqualTo(Kind.RESOURCE);
+    assertThat(plan.getBinder(1).getKind()).isEqualTo(Kind.RESOURCE);
+  }
+
+  @Test
+  public void compile_withoutMethodConfig() throws Exception {
+    EndpointMethod method = EndpointMethod.create(TestApi.class, TestApi.class.getMethod("test",
+        User.class, HttpServletRequest.class, ServletContext.class, String.class, long.class,
+        Integer.class, List.class, String.class, Resource.class));
+    ParameterBindingPlan plan = ParameterBindingPlan.compile(method, null, (ApiSerializationConfig) null);
+
+    assertThat(plan.getBinder(5).getDefaultValue()).isNull();
+    assertThat(plan.getBinder(6).isRepeated()).isFalse();
+    assertThat(plan.getBinder(6).isCollection()).isTrue();
+  }
+
+  private ParameterBindingPlan compile(EndpointMethod method) {
+    ApiMethodConfig methodConfig = apiConfig.getApiClassConfig().getMethods().get(method);
+    return ParameterBindingPlan.compile(method, methodConfig, new ApiSerializationConfig());
+  }
+
+  private static void assertBinder(ParameterBinder binder, Kind kind, String name,
+      boolean required) {
+    assertThat(binder.getKind()).isEqualTo(kind);
+    assertThat(binder.getName()).isEqualTo(name);
+    assertThat(binder.isRequired()).isEqualTo(required);
+    assertThat(binder.getReader() != null).isEqualTo(kind.compareTo(Kind.RESOURCE) >= 0);
+  }
+
+  public static class Resource {
+    public String value;
+  }
+
+  @Api
+  public static class TestApi {
+    @ApiMethod(name = "test", path = "test/{id}")
+    public void test(
+        User user,
+        HttpServletRequest request,
+        ServletContext context,
+        @Nullable @Named("alt") String alt,
+        @Nullable @Named("id") long id,
+        @Nullable @Named("count") @DefaultValue("10") Integer count,
+        @Named("tags") List<String> tags,
+        @Named("required") String required,
+        Resource resource) {
+    }
+
+    @ApiMethod(name = "twoResources", path = "twoResources")
+    public void twoResources(Resource first, Resource second) {
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.request;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.api.server.spi.types.DateAndTime;
+import com.google.api.server.spi.types.SimpleDate;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Tests for {@link ParameterConverter}.
+ */
+@RunWith(JUnit4.class)
+public class ParameterConverterTest {
+  private static final ObjectReader READER = ServletRequestParamReader.createObjectReader(null);
+
+  @Test
+  public void convert_sameAsJackson() throws Exception {
+    assertSameAsJackson(String.class, "", " a ", "null");
+    assertSameAsJackson(boolean.class, "true", "false", "True", "1", "", " true");
+    assertSameAsJackson(Boolean.class, "true", "false", "null");
+    assertSameAsJackson(int.class, "0", "-0", "007", "-2147483648", "2147483647", "2147483648",
+        "99999999999", "+1", " 1", "1.5", "1e3", "", "-");
+    assertSameAsJackson(Integer.class, "42", "-42", "null");
+    assertSameAsJackson(long.class, "0", "-9223372036854775808", "9223372036854775807",
+        "9223372036854775808", "1.0", "0x10");
+    assertSameAsJackson(Long.class, "123456789012", "");
+    assertSameAsJackson(float.class, "1.5", "-1e10", "3.4028236e38", "NaN", "1f", ".5", "1.");
+    assertSameAsJackson(Double.class, "1.5", "-1E-300", "2.2250738585072012e-308", "Infinity",
+        "1d", "");
+    assertSameAsJackson(TestEnum.class, "VALUE1", "VALUE2", "value1", "", "0");
+    assertSameAsJackson(Date.class, "2016-01-02T03:04:05.678Z", "2016-01-02");
+    assertSameAsJackson(DateAndTime.class, "2016-01-02T03:04:05.678+01:00");
+    assertSameAsJackson(SimpleDate.class, "2016-01-02", "2016-13-02", "2016-1-02", "16-01-02",
+        " 2016-01-02", "2016-01-0x");
+  }
+
+  @Test
+  public void convert_invalid() {
+    assertInvalid(int.class, "+1", " 1", "1.5", "", "-", "2147483648");
+    assertInvalid(long.class, "9223372036854775808", "0x10");
+    assertInvalid(boolean.class, "True", "1");
+    assertInvalid(double.class, "NaN", "1d", "2.2250738585072012e-308");
+    assertInvalid(TestEnum.class, "value1", "");
+    assertInvalid(SimpleDate.class, "2016-13-02", " 2016-01-02");
+  }
+
+  @Test
+  public void forClass_unsupported() {
+    assertThat(ParameterConverter.forClass(Object.class, null)).isNull();
+    assertThat(ParameterConverter.forClass(List.class, null)).isNull();
+    assertThat(ParameterConverter.forClass(String[].class, null)).isNull();
+    assertThat(ParameterConverter.forClass(AnnotatedEnum.class, null)).isNull();
+  }
+
+  @Test
+  public void forArray() {
+    Object array = ParameterConverter.forArray(int[].class, null).convert(new String[] {"1", "2"});
+    assertThat(array).isInstanceOf(int[].class);
+    assertThat((int[]) array).asList().containsExactly(1, 2).inOrder();
+    assertThat(ParameterConverter.forArray(Object[].class, null)).isNull();
+  }
+
+  @Test
+  public void forCollection() {
+    Object list = ParameterConverter.forCollection(new ArrayList<>(), Long.class, null)
+        .convert(new String[] {"1", "2"});
+    assertThat(list).isInstanceOf(ArrayList.class);
+    assertThat((List<?>) list).containsExactly(1L, 2L).inOrder();
+    Object set = ParameterConverter.forCollection(new HashSet<>(), TestEnum.class, null)
+        .convert(new String[] {"VALUE1", "VALUE1"});
+    assertThat(set).isInstanceOf(HashSet.class);
+    assertThat((Set<?>) set).containsExactly(TestEnum.VALUE1);
+    assertThat(ParameterConverter.forCollection(new PriorityQueue<>(), Long.class, null)).isNull();
+  }
+
+  private static void assertSameAsJackson(Class<?> clazz, String... values) throws Exception {
+    ParameterConverter converter = ParameterConverter.forClass(clazz, null);
+    assertThat(converter).isNotNull();
+    for (String value : values) {
+      Object converted;
+      try {
+        converted = converter.convert(new String[] {value});
+      } catch (IllegalArgumentException e) {
+        // Left to Jackson.
+        continue;
+      }
+      assertThat(converted).isEqualTo(READER.forType(clazz).readValue(TextNode.valueOf(value)));
+    }
+  }
+
+  private static void assertInvalid(Class<?> clazz, String... values) {
+    ParameterConverter converter = ParameterConverter.forClass(clazz, null);
+    for (String value : values) {
+      try {
+        converter.convert(new String[] {value});
+        fail("expected IllegalArgumentException for " + value);
+      } catch (IllegalArgumentException expected) {
+        // expected
+      }
+    }
+  }
+
+  private enum TestEnum {
+    VALUE1, VALUE2
+  }
+
+  private enum AnnotatedEnum {
+    @JsonProperty("value1") VALUE1
+  }
+}
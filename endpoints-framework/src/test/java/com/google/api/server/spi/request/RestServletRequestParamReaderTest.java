@@ -40,6 +40,7 @@ import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.types.SimpleDate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 
 import java.util.ArrayList;
 import org.junit.Assert;
@@ -52,9 +53,11 @@ import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -306,6 +309,37 @@ public class RestServletRequestParamReaderTest {
     Assert.assertEquals("Parse error", e.getMessage());
   }
   
+  @Test
+  public void parseErrorWithoutResourceParameter() throws Exception {
+    endpointMethod = EndpointMethod.create(TestApi.class,
+        TestApi.class.getMethod("testArrayPathParam", ArrayList.class));
+    methodConfig = apiConfig.getApiClassConfig().getMethods().get(endpointMethod);
+    request.setContent("{\"field\": [1, 2".getBytes(StandardCharsets.UTF_8));
+    RestServletRequestParamReader reader = createReader(ImmutableMap.of("values", "1"));
+
+    BadRequestException e = Assert.assertThrows(BadRequestException.class, reader::read);
+    Assert.assertEquals("Parse error", e.getMessage());
+  }
+
+  @Test
+  public void largeResource() throws Exception {
+    StringBuilder content = new StringBuilder("{\"array\": [");
+    for (int i = 0; i < 100000; i++) {
+      content.append(i).append(',');
+    }
+    content.setCharAt(content.length() - 1, ']');
+    content.append(", \"simpleInt\": 7}  ");
+    request.setContent(content.toString().getBytes(StandardCharsets.UTF_8));
+    RestServletRequestParamReader reader = createReader(ImmutableMap.of("path", "1234"));
+
+    Object[] params = reader.read();
+
+    TestResource resource = (TestResource) params[4];
+    assertThat(resource.simpleInt).isEqualTo(7);
+    assertThat(resource.array).hasLength(100000);
+    assertThat(resource.array[99999]).isEqualTo(99999);
+  }
+
   @Test
   public void gzippedRequest() throws Exception {
     request.addParameter("path", "1234");
@@ -370,6 +404,19 @@ public class RestServletRequestParamReaderTest {
     }
   }
 
+  @Test
+  public void contentTypeValidationEnabled_invalidJson() throws Exception {
+    request.setContent("<objInt>42</objInt>".getBytes(StandardCharsets.UTF_8));
+    request.setContentType("application/xml");
+    endpointMethod = EndpointMethod.create(TestApi.class,
+        TestApi.class.getMethod("testContentType", TestResource.class));
+    RestServletRequestParamReader reader = createReader(Collections.emptyMap(),
+        ServletInitializationParameters.builder().setContentTypeValidationEnabled(true).build());
+
+    ServiceException e = Assert.assertThrows(ServiceException.class, reader::read);
+    assertEquals(406, e.getStatusCode());
+  }
+
   @Test
   public void contentTypeValidationEnabled_empty() throws Exception {
     try {
@@ -411,6 +458,213 @@ public class RestServletRequestParamReaderTest {
         .containsExactly("test", 1234);
   }
   
+  @Test
+  public void streamingBody() throws Exception {
+    useMethod("testStreaming", StreamingBody.class);
+    request.setContent(
+        "[{\"simpleInt\": 1}, null, {\"simpleInt\": 3}]".getBytes(StandardCharsets.UTF_8));
+
+    @SuppressWarnings("unchecked")
+    StreamingBody<NestedResource> body =
+        (StreamingBody<NestedResource>) createReader(ImmutableMap.of()).read()[0];
+
+    assertThat(body.next().simpleInt).isEqualTo(1);
+    assertThat(body.next()).isNull();
+    assertThat(body.next().simpleInt).isEqualTo(3);
+    assertThat(body.hasNext()).isFalse();
+    assertThat(body.getCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void streamingBody_ndjson() throws Exception {
+    useMethod("testIterator", Iterator.class);
+    request.setContentType(StreamingBody.NDJSON_CONTENT_TYPE);
+    request.setContent(
+        "{\"simpleInt\": 1}\n{\"simpleInt\": 2}\n".getBytes(StandardCharsets.UTF_8));
+    RestServletRequestParamReader reader = createReader(ImmutableMap.of(),
+        ServletInitializationParameters.builder().setContentTypeValidationEnabled(true).build());
+
+    @SuppressWarnings("unchecked")
+    Iterator<NestedResource> body = (Iterator<NestedResource>) reader.read()[0];
+
+    assertThat(body.next().simpleInt).isEqualTo(1);
+    assertThat(body.next().simpleInt).isEqualTo(2);
+    assertThat(body.hasNext()).isFalse();
+  }
+
+  @Test
+  public void streamingBody_empty() throws Exception {
+    useMethod("testStreaming", StreamingBody.class);
+
+    StreamingBody<?> body = (StreamingBody<?>) createReader(ImmutableMap.of()).read()[0];
+
+    assertThat(body.hasNext()).isFalse();
+  }
+
+  @Test
+  public void streamingBody_notArray() throws Exception {
+    useMethod("testStreaming", StreamingBody.class);
+    request.setContent("{\"simpleInt\": 1}".getBytes(StandardCharsets.UTF_8));
+    RestServletRequestParamReader reader = createReader(ImmutableMap.of());
+
+    BadRequestException e = Assert.assertThrows(BadRequestException.class, reader::read);
+    assertThat(e.getMessage()).contains("expected a JSON array body");
+  }
+
+  @Test
+  public void streamingBody_elementError() throws Exception {
+    useMethod("testStreaming", StreamingBody.class);
+    request.setContent(
+        "[{\"simpleInt\": 1}, {\"simpleInt\": \"one\"}]".getBytes(StandardCharsets.UTF_8));
+    StreamingBody<?> body = (StreamingBody<?>) createReader(ImmutableMap.of()).read()[0];
+
+    body.next();
+    StreamingBody.ReadException e =
+        Assert.assertThrows(StreamingBody.ReadException.class, body::next);
+    assertThat(e.getCause().getMessage()).contains("element [1]");
+    assertThat(e.getCause().getReason()).isEqualTo("parseError");
+    assertThat(body.hasNext()).isFalse();
+  }
+
+  @Test
+  public void streamingBody_truncated() throws Exception {
+    useMethod("testStreaming", StreamingBody.class);
+    request.setContent("[{\"simpleInt\": 1}, {\"simp".getBytes(StandardCharsets.UTF_8));
+    StreamingBody<?> body = (StreamingBody<?>) createReader(ImmutableMap.of()).read()[0];
+
+    body.next();
+    StreamingBody.ReadException e =
+        Assert.assertThrows(StreamingBody.ReadException.class, body::next);
+    assertThat(e.getCause().getMessage()).contains("element [1]");
+  }
+
+  @Test
+  public void mediaUpload_rawBody() throws Exception {
+    useMethod("testUpload", String.class, MediaUpload.class);
+    request.setMethod("POST");
+    request.setContentType("image/png");
+    request.setContent(new byte[] {1, 2, 3});
+    request.addParameter("title", "cat");
+    RestServletRequestParamReader reader = createReader(ImmutableMap.of());
+
+    Object[] params = reader.read();
+
+    assertThat(params[0]).isEqualTo("cat");
+    MediaUpload media = (MediaUpload) params[1];
+    assertThat(media.getContentType()).isEqualTo("image/png");
+    assertThat(media.getLength()).isEqualTo(3);
+    assertThat(ByteStreams.toByteArray(media.getInputStream())).isEqualTo(new byte[] {1, 2, 3});
+    reader.close();
+  }
+
+  @Test
+  public void mediaUpload_missing() throws Exception {
+    useMethod("testUpload", String.class, MediaUpload.class);
+    request.setMethod("POST");
+    request.setContent(new byte[0]);
+    RestServletRequestParamReader reader = createReader(ImmutableMap.of());
+
+    BadRequestException e = Assert.assertThrows(BadRequestException.class, reader::read);
+    assertThat(e.getMessage()).contains("media upload required");
+  }
+
+  @Test
+  public void mediaUpload_formData() throws Exception {
+    useMethod("testUpload", String.class, MediaUpload.class);
+    request.setContentType("multipart/form-data; boundary=----test");
+    request.setMethod("POST");
+    String requestContent =
+        "------test\r\n" +
+        "Content-Disposition: form-data; name=\"title\"\r\n\r\n" +
+        "cat\r\n" +
+        "------test\r\n" +
+        "Content-Disposition: form-data; name=\"file\"; filename=\"cat.txt\"\r\n" +
+        "Content-Type: text/plain\r\n\r\n" +
+        "meow\r\n" +
+        "------test--\r\n";
+    request.setContent(requestContent.getBytes(StandardCharsets.UTF_8));
+
+    Object[] params = createReader(ImmutableMap.of()).read();
+
+    assertThat(params[0]).isEqualTo("cat");
+    MediaUpload media = (MediaUpload) params[1];
+    assertThat(media.getFileName()).isEqualTo("cat.txt");
+    assertThat(media.getContentType()).isEqualTo("text/plain");
+    assertThat(new String(ByteStreams.toByteArray(media.getInputStream()), StandardCharsets.UTF_8))
+        .isEqualTo("meow");
+  }
+
+  @Test
+  public void mediaUpload_related() throws Exception {
+    readRelatedUpload("POST");
+  }
+
+  @Test
+  public void mediaUpload_relatedUpdate() throws Exception {
+    // Multipart bodies are not limited to POST, unlike for ServletFileUpload.isMultipartContent.
+    readRelatedUpload("PUT");
+  }
+
+  private void readRelatedUpload(String httpMethod) throws Exception {
+    useMethod("testRelated", NestedResource.class, InputStream.class);
+    request.setContentType("multipart/related; boundary=----test");
+    request.setMethod(httpMethod);
+    String requestContent =
+        "------test\r\n" +
+        "Content-Type: application/json\r\n\r\n" +
+        "{\"simpleInt\": 7}\r\n" +
+        "------test\r\n" +
+        "Content-Type: application/octet-stream\r\n\r\n" +
+        "payload\r\n" +
+        "------test--\r\n";
+    request.setContent(requestContent.getBytes(StandardCharsets.UTF_8));
+    RestServletRequestParamReader reader = createReader(ImmutableMap.of(),
+        ServletInitializationParameters.builder().setContentTypeValidationEnabled(true).build());
+
+    Object[] params = reader.read();
+
+    assertThat(((NestedResource) params[0]).simpleInt).isEqualTo(7);
+    assertThat(new String(ByteStreams.toByteArray((InputStream) params[1]), StandardCharsets.UTF_8))
+        .isEqualTo("payload");
+  }
+
+  @Test
+  public void mediaUpload_bufferedPartSpills() throws Exception {
+    useMethod("testUploads", MediaUpload.class, MediaUpload.class);
+    request.setContentType("multipart/form-data; boundary=----test");
+    request.setMethod("POST");
+    String requestContent =
+        "------test\r\n" +
+        "Content-Disposition: form-data; name=\"file\"; filename=\"full.txt\"\r\n\r\n" +
+        "full size\r\n" +
+        "------test\r\n" +
+        "Content-Disposition: form-data; name=\"thumbnail\"; filename=\"small.txt\"\r\n\r\n" +
+        "small\r\n" +
+        "------test--\r\n";
+    request.setContent(requestContent.getBytes(StandardCharsets.UTF_8));
+    RestServletRequestParamReader reader = createReader(ImmutableMap.of(),
+        ServletInitializationParameters.builder().setMediaUploadSpillThreshold(0).build());
+
+    Object[] params = reader.read();
+
+    MediaUpload thumbnail = (MediaUpload) params[0];
+    MediaUpload media = (MediaUpload) params[1];
+    assertThat(thumbnail.getFileName()).isEqualTo("small.txt");
+    assertThat(new String(ByteStreams.toByteArray(thumbnail.getInputStream()), StandardCharsets.UTF_8))
+        .isEqualTo("small");
+    assertThat(media.getFileName()).isEqualTo("full.txt");
+    assertThat(media.getLength()).isEqualTo(9);
+    assertThat(new String(ByteStreams.toByteArray(media.getInputStream()), StandardCharsets.UTF_8))
+        .isEqualTo("full size");
+    reader.close();
+  }
+
+  private void useMethod(String name, Class<?>... parameterClasses) throws Exception {
+    endpointMethod = EndpointMethod.create(TestApi.class,
+        TestApi.class.getMethod(name, parameterClasses));
+    methodConfig = apiConfig.getApiClassConfig().getMethods().get(endpointMethod);
+  }
+
   private RestServletRequestParamReader createReader(Map<String, String> rawPathParameters) {
     return createReader(rawPathParameters, ServletInitializationParameters.builder().build());
   }
@@ -516,6 +770,41 @@ public class RestServletRequestParamReaderTest {
         @Nullable @Named("foo") String foo,
         @Nullable @Named("bar") Integer bar) {
     }
+
+    @ApiMethod(
+        name = "testStreaming",
+        httpMethod = HttpMethod.POST,
+        path = "testStreaming")
+    public void testStreaming(StreamingBody<NestedResource> resources) {
+    }
+
+    @ApiMethod(
+        name = "testIterator",
+        httpMethod = HttpMethod.POST,
+        path = "testIterator")
+    public void testIterator(Iterator<NestedResource> resources) {
+    }
+
+    @ApiMethod(
+        name = "testUpload",
+        httpMethod = HttpMethod.POST,
+        path = "testUpload")
+    public void testUpload(@Nullable @Named("title") String title, MediaUpload media) {
+    }
+
+    @ApiMethod(
+        name = "testRelated",
+        httpMethod = HttpMethod.POST,
+        path = "testRelated")
+    public void testRelated(NestedResource metadata, InputStream media) {
+    }
+
+    @ApiMethod(
+        name = "testUploads",
+        httpMethod = HttpMethod.POST,
+        path = "testUploads")
+    public void testUploads(@Named("thumbnail") MediaUpload thumbnail, MediaUpload media) {
+    }
   }
 
   private static byte[] compress(byte[] bytes) {
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.api.server.spi.request.Attribute;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link EntityTags}.
+ */
+@RunWith(JUnit4.class)
+public class EntityTagsTest {
+  private MockHttpServletRequest request;
+  private MockHttpServletResponse response;
+
+  @Before
+  public void setUp() {
+    request = new MockHttpServletRequest("GET", "/");
+    response = new MockHttpServletResponse();
+  }
+
+  @Test
+  public void matches() {
+    assertThat(EntityTags.matches(null, "\"a\"", true)).isFalse();
+    assertThat(EntityTags.matches("\"a\"", null, true)).isFalse();
+    assertThat(EntityTags.matches("*", null, true)).isFalse();
+    assertThat(EntityTags.matches("*", "\"a\"", false)).isTrue();
+    assertThat(EntityTags.matches("\"a\"", "\"a\"", false)).isTrue();
+    assertThat(EntityTags.matches("\"b\", \"a\"", "\"a\"", false)).isTrue();
+    assertThat(EntityTags.matches("\"ab\"", "\"a\"", false)).isFalse();
+    assertThat(EntityTags.matches("\"a,b\"", "\"a,b\"", false)).isTrue();
+    assertThat(EntityTags.matches("W/\"a\"", "\"a\"", true)).isTrue();
+    assertThat(EntityTags.matches("W/\"a\"", "\"a\"", false)).isFalse();
+    assertThat(EntityTags.matches("\"a;gzip\"", "\"a\"", false)).isTrue();
+    assertThat(EntityTags.matches("\"a\"", "\"a;deflate\"", false)).isTrue();
+    assertThat(EntityTags.matches("\";gzip\"", "\"a\"", false)).isFalse();
+    assertThat(EntityTags.matches("\"a-gzip\"", "\"a\"", false)).isFalse();
+    assertThat(EntityTags.matches("\"a-gzip\"", "\"a-gzip\"", false)).isTrue();
+    assertThat(EntityTags.matches("\"a-gzip;gzip\"", "\"a-gzip\"", false)).isTrue();
+    assertThat(EntityTags.matches("a", "\"a\"", true)).isFalse();
+    assertThat(EntityTags.matches("\"a", "\"a\"", true)).isFalse();
+  }
+
+  @Test
+  public void fromHash() {
+    assertThat(EntityTags.fromHash(0)).isEqualTo("\"0000000000000000\"");
+    assertThat(EntityTags.fromHash(-1)).isEqualTo("\"ffffffffffffffff\"");
+    assertThat(EntityTags.fromHash(0x1234abcdL)).isEqualTo("\"000000001234abcd\"");
+    assertThat(EntityTags.withEncoding("\"a\"", ResponseCompression.Encoding.GZIP))
+        .isEqualTo("\"a;gzip\"");
+  }
+
+  @Test
+  public void checkVersion() throws Exception {
+    EntityTags.checkVersion(request, "v1");
+    assertThat(EntityTags.getVersionTag(request)).isEqualTo("\"v1\"");
+  }
+
+  @Test
+  public void checkVersion_notModified() throws Exception {
+    request.addHeader("If-None-Match", "\"v1\"");
+    try {
+      EntityTags.checkVersion(request, "v1");
+      fail("expected NotModifiedException");
+    } catch (NotModifiedException expected) {
+      assertThat(expected.getEntityTag()).isEqualTo("\"v1\"");
+    }
+    EntityTags.checkVersion(request, "v2");
+  }
+
+  @Test
+  public void checkVersion_notModifiedWithMethodOverride() throws Exception {
+    ApiMethodConfig methodConfig = mock(ApiMethodConfig.class);
+    when(methodConfig.getHttpMethod()).thenReturn("GET");
+    request.setMethod("POST");
+    request.addHeader("X-HTTP-Method-Override", "GET");
+    request.setAttribute(Attribute.API_METHOD_CONFIG, methodConfig);
+    request.addHeader("If-None-Match", "\"v1\"");
+    try {
+      EntityTags.checkVersion(request, "v1");
+      fail("expected NotModifiedException");
+    } catch (NotModifiedException expected) {
+      assertThat(expected.getEntityTag()).isEqualTo("\"v1\"");
+    }
+  }
+
+  @Test
+  public void checkVersion_notModifiedWithMethodOverrideHeader() throws Exception {
+    // Without a bound method configuration, the override header is honored like the servlet does.
+    request.setMethod("POST");
+    request.addHeader("X-HTTP-Method-Override", "get");
+    request.addHeader("If-None-Match", "\"v1\"");
+    try {
+      EntityTags.checkVersion(request, "v1");
+      fail("expected NotModifiedException");
+    } catch (NotModifiedException expected) {
+      assertThat(expected.getEntityTag()).isEqualTo("\"v1\"");
+    }
+  }
+
+  @Test
+  public void checkVersion_ifMatch() throws Exception {
+    request.setMethod("PUT");
+    request.addHeader("If-Match", "\"v1\"");
+    EntityTags.checkVersion(request, "v1");
+    try {
+      EntityTags.checkVersion(request, "v2");
+      fail("expected PreconditionFailedException");
+    } catch (PreconditionFailedException expected) {
+      assertThat(expected.getStatusCode()).isEqualTo(412);
+    }
+    try {
+      EntityTags.checkVersion(request, null);
+      fail("expected PreconditionFailedException");
+    } catch (PreconditionFailedException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void checkVersion_ifNoneMatchOnUpdate() throws Exception {
+    request.setMethod("PUT");
+    request.addHeader("If-None-Match", "*");
+    EntityTags.checkVersion(request, null);
+    try {
+      EntityTags.checkVersion(request, "v1");
+      fail("expected PreconditionFailedException");
+    } catch (PreconditionFailedException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void setVersion_quotes() {
+    try {
+      EntityTags.setVersion(request, "\"v1\"");
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void setVersion_encodingSeparator() {
+    try {
+      EntityTags.setVersion(request, "v1;gzip");
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void write_hashed() throws Exception {
+    String entityTag = write(true, ImmutableMap.of("a", "b"));
+    assertThat(entityTag).matches("\"[0-9a-f]{16}\"");
+    assertThat(response.getContentAsString()).isEqualTo("{\"a\":\"b\"}");
+    // The same body gets the same tag, and a different one another.
+    assertThat(write(true, ImmutableMap.of("a", "b"))).isEqualTo(entityTag);
+    assertThat(write(true, ImmutableMap.of("a", "c"))).isNotEqualTo(entityTag);
+  }
+
+  @Test
+  public void write_notModified() throws Exception {
+    String entityTag = write(true, ImmutableMap.of("a", "b"));
+    request.addHeader("If-None-Match", entityTag);
+    assertThat(write(true, ImmutableMap.of("a", "b"))).isEqualTo(entityTag);
+    assertThat(response.getStatus()).isEqualTo(304);
+    assertThat(response.getContentAsByteArray()).isEmpty();
+    assertThat(response.getContentType()).isNull();
+  }
+
+  @Test
+  public void write_notModifiedOnlyForGet() throws Exception {
+    String entityTag = write(true, ImmutableMap.of("a", "b"));
+    request.setMethod("POST");
+    request.addHeader("If-None-Match", entityTag);
+    write(true, ImmutableMap.of("a", "b"));
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
+
+  @Test
+  public void write_compressed() throws Exception {
+    String entityTag = write(true, ImmutableMap.of("a", "b"));
+    ServletResponseResultWriter writer = createWriter(true);
+    writer.setCompression(new ResponseCompression(0), ResponseCompression.Encoding.GZIP);
+    writer.write(ImmutableMap.of("a", "b"), 200);
+    assertThat(response.getHeader("ETag"))
+        .isEqualTo(EntityTags.withEncoding(entityTag, ResponseCompression.Encoding.GZIP));
+    // Clients may send back the tag of the compressed body.
+    request.addHeader("If-None-Match", response.getHeader("ETag"));
+    write(true, ImmutableMap.of("a", "b"));
+    assertThat(response.getStatus()).isEqualTo(304);
+  }
+
+  @Test
+  public void write_version() throws Exception {
+    EntityTags.setVersion(request, "v1");
+    assertThat(write(true, ImmutableMap.of("a", "b"))).isEqualTo("\"v1\"");
+    request.addHeader("If-None-Match", "\"v1\"");
+    assertThat(write(false, ImmutableMap.of("a", "b"))).isEqualTo("\"v1\"");
+    assertThat(response.getStatus()).isEqualTo(304);
+    assertThat(response.getContentAsByteArray()).isEmpty();
+  }
+
+  @Test
+  public void write_notHashedIfDisabled() throws Exception {
+    assertThat(write(false, ImmutableMap.of("a", "b"))).isNull();
+  }
+
+  @Test
+  public void writeError_notModified() throws Exception {
+    ServletResponseResultWriter writer = createWriter(false);
+    writer.writeError(new NotModifiedException("\"v1\""));
+    assertThat(response.getStatus()).isEqualTo(304);
+    assertThat(response.getHeader("ETag")).isEqualTo("\"v1\"");
+    assertThat(response.getContentAsByteArray()).isEmpty();
+  }
+
+  @Test
+  public void writeError_notTagged() throws Exception {
+    ServletResponseResultWriter writer = createWriter(true);
+    writer.writeError(new NotFoundException(Strings.repeat("missing ", 10)));
+    assertThat(response.getStatus()).isEqualTo(404);
+    assertThat(response.getHeader("ETag")).isNull();
+  }
+
+  private String write(boolean hashBody, Object result) throws Exception {
+    response = new MockHttpServletResponse();
+    createWriter(hashBody).write(result, 200);
+    return response.getHeader("ETag");
+  }
+
+  private ServletResponseResultWriter createWriter(boolean hashBody) {
+    ServletResponseResultWriter writer = new ServletResponseResultWriter(
+        response, (ApiSerializationConfig) null, false /* prettyPrint */,
+        false /* addContentLength */);
+    writer.setEntityTags(request, hashBody);
+    return writer;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link FieldMask}.
+ */
+@RunWith(JUnit4.class)
+public class FieldMaskTest {
+  @Test
+  public void compile() throws Exception {
+    assertThat(FieldMask.compile("a").toString()).isEqualTo("a");
+    assertThat(FieldMask.compile("a,b").toString()).isEqualTo("a,b");
+    assertThat(FieldMask.compile("items(id,name),nextPageToken").toString())
+        .isEqualTo("items(id,name),nextPageToken");
+    assertThat(FieldMask.compile("a/b/c").toString()).isEqualTo("a(b(c))");
+    assertThat(FieldMask.compile("a(b/c,d)").toString()).isEqualTo("a(b(c),d)");
+    assertThat(FieldMask.compile(" a , b ( c ) ").toString()).isEqualTo("a,b(c)");
+  }
+
+  @Test
+  public void compile_merges() throws Exception {
+    assertThat(FieldMask.compile("a/b,a/c").toString()).isEqualTo("a(b,c)");
+    assertThat(FieldMask.compile("a(b),a(c)").toString()).isEqualTo("a(b,c)");
+    assertThat(FieldMask.compile("a/b,a").toString()).isEqualTo("a");
+    assertThat(FieldMask.compile("a,a/b").toString()).isEqualTo("a");
+  }
+
+  @Test
+  public void compile_cached() throws Exception {
+    assertThat(FieldMask.compile("x(y,z)")).isSameInstanceAs(FieldMask.compile("x(y,z)"));
+  }
+
+  @Test
+  public void compile_malformed() {
+    for (String fields : new String[] {
+        "", ",", "a,", ",a", "a//b", "a/", "a(", "a()", "a(b", "a)", "a(b))", "a(b)c", "(a)"}) {
+      try {
+        FieldMask.compile(fields);
+        fail("Expected BadRequestException for " + fields);
+      } catch (BadRequestException expected) {
+        assertThat(expected.getMessage()).isEqualTo("Invalid field selection " + fields);
+      }
+    }
+  }
+
+  @Test
+  public void getChild() throws Exception {
+    FieldMask mask = FieldMask.compile("a(b),*");
+    assertThat(mask.getChild("a").toString()).isEqualTo("b");
+    assertThat(mask.getChild("other")).isSameInstanceAs(FieldMask.ALL);
+    assertThat(FieldMask.compile("a").getChild("b")).isNull();
+    assertThat(FieldMask.ALL.getChild("b")).isSameInstanceAs(FieldMask.ALL);
+  }
+
+  @Test
+  public void write_collectionResponse() throws Exception {
+    AtomicInteger descriptionReads = new AtomicInteger();
+    List<Item> items = ImmutableList.of(
+        new Item("1", "one", descriptionReads), new Item("2", "two", descriptionReads));
+    CollectionResponse<Item> result =
+        CollectionResponse.<Item>builder().setItems(items).setNextPageToken("next").build();
+    assertThat(write(result, "items(id,name),nextPageToken")).isEqualTo(
+        "{\"items\":[{\"id\":\"1\",\"name\":\"one\"},{\"id\":\"2\",\"name\":\"two\"}],"
+            + "\"nextPageToken\":\"next\"}");
+    // Unselected properties are skipped before their getters are invoked.
+    assertThat(descriptionReads.get()).isEqualTo(0);
+    assertThat(write(result, "items/description")).isEqualTo(
+        "{\"items\":[{\"description\":\"one!\"},{\"description\":\"two!\"}]}");
+    assertThat(descriptionReads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void write_nested() throws Exception {
+    Parent parent = new Parent(new Item("1", "one", new AtomicInteger()));
+    assertThat(write(parent, "child/name")).isEqualTo("{\"child\":{\"name\":\"one\"}}");
+    assertThat(write(parent, "child")).isEqualTo(
+        "{\"child\":{\"id\":\"1\",\"name\":\"one\",\"description\":\"one!\"}}");
+    assertThat(write(parent, "*")).isEqualTo(write(parent, null));
+  }
+
+  @Test
+  public void write_maps() throws Exception {
+    Object result = ImmutableMap.of(
+        "a", ImmutableMap.of("b", 1, "c", 2), "d", new Item("1", "one", new AtomicInteger()));
+    assertThat(write(result, "a/c,d/id")).isEqualTo("{\"a\":{\"c\":2},\"d\":{\"id\":\"1\"}}");
+    // Collections are wrapped in a map.
+    assertThat(write(ImmutableList.of(new Item("1", "one", new AtomicInteger())), "items/id"))
+        .isEqualTo("{\"items\":[{\"id\":\"1\"}]}");
+  }
+
+  @Test
+  public void write_mapsSkipNullValues() throws Exception {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("a", null);
+    result.put("b", 1);
+    result.put("c", "x");
+    assertThat(write(result, null)).isEqualTo("{\"b\":1,\"c\":\"x\"}");
+    assertThat(write(result, "a,b")).isEqualTo("{\"b\":1}");
+  }
+
+  @Test
+  public void writeError_notMasked() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer = new ServletResponseResultWriter(
+        response, (ApiSerializationConfig) null, false /* prettyPrint */, false /* addContentLength */);
+    writer.setFieldMask(FieldMask.compile("id"));
+    writer.writeError(new NotFoundException("missing"));
+    assertThat(response.getContentAsString()).contains("missing");
+  }
+
+  private static String write(Object result, String fields) throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer = new ServletResponseResultWriter(
+        response, (ApiSerializationConfig) null, false /* prettyPrint */, false /* addContentLength */);
+    if (fields != null) {
+      writer.setFieldMask(FieldMask.compile(fields));
+    }
+    writer.write(result, 200);
+    return response.getContentAsString();
+  }
+
+  public static class Parent {
+    private final Item child;
+
+    Parent(Item child) {
+      this.child = child;
+    }
+
+    public Item getChild() {
+      return child;
+    }
+  }
+
+  public static class Item {
+    private final String id;
+    private final String name;
+    private final AtomicInteger descriptionReads;
+
+    Item(String id, String name, AtomicInteger descriptionReads) {
+      this.id = id;
+      this.name = name;
+      this.descriptionReads = descriptionReads;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getDescription() {
+      descriptionReads.incrementAndGet();
+      return name + "!";
+    }
+  }
+}
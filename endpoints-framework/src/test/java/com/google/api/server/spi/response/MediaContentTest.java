@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.server.spi.Headers;
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.api.server.spi.request.Attribute;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Tests for {@link MediaContent} and media downloads by {@link ServletResponseResultWriter}.
+ */
+@RunWith(JUnit4.class)
+public class MediaContentTest {
+  private static final byte[] DATA = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media");
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private final ServletResponseResultWriter writer = new ServletResponseResultWriter(
+      response, (ApiSerializationConfig) null, false, true /* addContentLength */);
+
+  @Test
+  public void testWrite_stream() throws Exception {
+    writer.setMediaRequest(request);
+    TrackingInputStream in = new TrackingInputStream(DATA);
+    writer.write(MediaContent.of(in, "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentType()).isEqualTo("text/plain");
+    assertThat(response.getContentAsString()).isEqualTo("0123456789");
+    assertThat(response.getHeader(Headers.CONTENT_LENGTH)).isNull();
+    // The length of a stream is unknown, so ranges cannot be served.
+    assertThat(response.getHeader(Headers.ACCEPT_RANGES)).isNull();
+    assertThat(in.closed).isTrue();
+  }
+
+  @Test
+  public void testWrite_byteBuffer() throws Exception {
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(ByteBuffer.wrap(DATA), "application/octet-stream"),
+        HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsByteArray()).isEqualTo(DATA);
+    assertThat(response.getHeader(Headers.CONTENT_LENGTH)).isEqualTo("10");
+    assertThat(response.getHeader(Headers.ACCEPT_RANGES)).isEqualTo("bytes");
+  }
+
+  @Test
+  public void testWrite_fileChannelRange() throws Exception {
+    File file = tempFolder.newFile();
+    Files.write(file.toPath(), DATA);
+    FileChannel channel = new FileInputStream(file).getChannel();
+    request.addHeader(Headers.RANGE, "bytes=2-5");
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(channel, "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_PARTIAL_CONTENT);
+    assertThat(response.getContentAsString()).isEqualTo("2345");
+    assertThat(response.getHeader(Headers.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+    assertThat(response.getHeader(Headers.CONTENT_LENGTH)).isEqualTo("4");
+    assertThat(channel.isOpen()).isFalse();
+  }
+
+  @Test
+  public void testWrite_streamRange() throws Exception {
+    request.addHeader(Headers.RANGE, "bytes=7-");
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(new ByteArrayInputStream(DATA), "text/plain", DATA.length),
+        HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_PARTIAL_CONTENT);
+    assertThat(response.getContentAsString()).isEqualTo("789");
+    assertThat(response.getHeader(Headers.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+  }
+
+  @Test
+  public void testWrite_suffixRange() throws Exception {
+    request.addHeader(Headers.RANGE, "bytes=-3");
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(ByteBuffer.wrap(DATA), "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_PARTIAL_CONTENT);
+    assertThat(response.getContentAsString()).isEqualTo("789");
+  }
+
+  @Test
+  public void testWrite_unsatisfiableRange() throws Exception {
+    request.addHeader(Headers.RANGE, "bytes=10-");
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(ByteBuffer.wrap(DATA), "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus())
+        .isEqualTo(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    assertThat(response.getHeader(Headers.CONTENT_RANGE)).isEqualTo("bytes */10");
+    assertThat(response.getContentAsByteArray()).isEmpty();
+  }
+
+  @Test
+  public void testWrite_multipleRangesIgnored() throws Exception {
+    request.addHeader(Headers.RANGE, "bytes=0-1,4-5");
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(ByteBuffer.wrap(DATA), "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsByteArray()).isEqualTo(DATA);
+  }
+
+  @Test
+  public void testWrite_ifRange() throws Exception {
+    request.setAttribute(Attribute.ENTITY_TAG, "\"v2\"");
+    request.addHeader(Headers.RANGE, "bytes=0-1");
+    request.addHeader(Headers.IF_RANGE, "\"v2\"");
+    writer.setEntityTags(request, false);
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(ByteBuffer.wrap(DATA), "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_PARTIAL_CONTENT);
+    assertThat(response.getContentAsString()).isEqualTo("01");
+    assertThat(response.getHeader(Headers.ETAG)).isEqualTo("\"v2\"");
+  }
+
+  @Test
+  public void testWrite_ifRangeChanged() throws Exception {
+    request.setAttribute(Attribute.ENTITY_TAG, "\"v2\"");
+    request.addHeader(Headers.RANGE, "bytes=0-1");
+    request.addHeader(Headers.IF_RANGE, "\"v1\"");
+    writer.setEntityTags(request, false);
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(ByteBuffer.wrap(DATA), "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsByteArray()).isEqualTo(DATA);
+  }
+
+  @Test
+  public void testWrite_invalidRangeIgnored() throws Exception {
+    request.addHeader(Headers.RANGE, "bytes=20-10");
+    writer.setMediaRequest(request);
+    writer.write(MediaContent.of(ByteBuffer.wrap(DATA), "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsByteArray()).isEqualTo(DATA);
+  }
+
+  @Test
+  public void testWrite_metadataWithoutAltMedia() throws Exception {
+    TrackingInputStream in = new TrackingInputStream(DATA);
+    writer.write(MediaContent.<String>of(in, "text/plain").withMetadata("image"),
+        HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentType()).startsWith("application/json");
+    assertThat(response.getContentAsString()).isEqualTo("\"image\"");
+    assertThat(in.closed).isTrue();
+  }
+
+  @Test
+  public void testWrite_noMetadataWithoutAltMedia() throws Exception {
+    writer.write(MediaContent.of(ByteBuffer.wrap(DATA), "text/plain"), HttpServletResponse.SC_OK);
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_NO_CONTENT);
+    assertThat(response.getContentAsByteArray()).isEmpty();
+  }
+
+  @Test
+  public void testParseRange() {
+    assertThat(ByteRange.parse("bytes=0-0", 10).toContentRange(10)).isEqualTo("bytes 0-0/10");
+    assertThat(ByteRange.parse("bytes=5-100", 10).toContentRange(10)).isEqualTo("bytes 5-9/10");
+    assertThat(ByteRange.parse("bytes=-100", 10).toContentRange(10)).isEqualTo("bytes 0-9/10");
+    assertThat(ByteRange.parse("bytes=-0", 10)).isSameInstanceAs(ByteRange.UNSATISFIABLE);
+    assertThat(ByteRange.parse("bytes=3-1", 10)).isNull();
+    assertThat(ByteRange.parse("bytes=20-10", 10)).isNull();
+    assertThat(ByteRange.parse("bytes=a-b", 10)).isNull();
+    assertThat(ByteRange.parse("items=0-1", 10)).isNull();
+    assertThat(ByteRange.parse("bytes=5", 10)).isNull();
+  }
+
+  private static class TrackingInputStream extends ByteArrayInputStream {
+    private boolean closed;
+
+    TrackingInputStream(byte[] data) {
+      super(data);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link ResponseBuffer} and {@link ResponseSizeEstimator}.
+ */
+@RunWith(JUnit4.class)
+public class ResponseBufferTest {
+  @Test
+  public void sizeClass() {
+    assertThat(ResponseBuffer.sizeClass(0)).isEqualTo(1024);
+    assertThat(ResponseBuffer.sizeClass(1024)).isEqualTo(1024);
+    assertThat(ResponseBuffer.sizeClass(1025)).isEqualTo(2048);
+    assertThat(ResponseBuffer.sizeClass(65536)).isEqualTo(65536);
+  }
+
+  @Test
+  public void write_grows() throws Exception {
+    byte[] content = new byte[10000];
+    Arrays.fill(content, (byte) 'a');
+    ResponseBuffer buffer = new ResponseBuffer(0);
+    buffer.write('{');
+    buffer.write(content, 0, content.length);
+    buffer.write('}');
+    assertThat(buffer.size()).isEqualTo(10002);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    buffer.writeTo(out);
+    buffer.release();
+    byte[] written = out.toByteArray();
+    assertThat(written.length).isEqualTo(10002);
+    assertThat(written[0]).isEqualTo((byte) '{');
+    assertThat(written[5000]).isEqualTo((byte) 'a');
+    assertThat(written[10001]).isEqualTo((byte) '}');
+  }
+
+  @Test
+  public void release_reusesArrays() {
+    int sizeClass = 32 * 1024;
+    ResponseBuffer buffer = new ResponseBuffer(sizeClass);
+    int pooled = ResponseBuffer.POOL.pooledCount(sizeClass);
+    buffer.release();
+    buffer.release();
+    assertThat(ResponseBuffer.POOL.pooledCount(sizeClass)).isEqualTo(pooled + 1);
+    new ResponseBuffer(sizeClass - 1);
+    assertThat(ResponseBuffer.POOL.pooledCount(sizeClass)).isEqualTo(pooled);
+  }
+
+  @Test
+  public void release_largeArraysNotPooled() throws Exception {
+    ResponseBuffer buffer = new ResponseBuffer(ResponseBuffer.MAX_POOLED_SIZE);
+    buffer.write(new byte[ResponseBuffer.MAX_POOLED_SIZE + 1], 0, ResponseBuffer.MAX_POOLED_SIZE + 1);
+    assertThat(buffer.size()).isEqualTo(ResponseBuffer.MAX_POOLED_SIZE + 1);
+    buffer.release();
+    assertThat(ResponseBuffer.POOL.pooledCount(2 * ResponseBuffer.MAX_POOLED_SIZE)).isEqualTo(0);
+  }
+
+  @Test
+  public void sizeEstimator() {
+    ResponseSizeEstimator estimator = new ResponseSizeEstimator();
+    assertThat(estimator.getInitialSize()).isEqualTo(0);
+    estimator.record(8000);
+    assertThat(estimator.getInitialSize()).isEqualTo(10000);
+    for (int i = 0; i < 100; i++) {
+      estimator.record(800);
+    }
+    assertThat(estimator.getInitialSize()).isLessThan(1100);
+    for (int i = 0; i < 100; i++) {
+      estimator.record(Integer.MAX_VALUE);
+    }
+    assertThat(estimator.getInitialSize()).isEqualTo(ResponseBuffer.MAX_POOLED_SIZE);
+  }
+}
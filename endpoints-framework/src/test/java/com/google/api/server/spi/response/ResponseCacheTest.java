@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.testing.FakeTicker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ResponseCache}.
+ */
+@RunWith(JUnit4.class)
+public class ResponseCacheTest {
+  private static final byte[] BODY = "{\"x\":1}".getBytes();
+  private static final ImmutableMap<String, String> NO_PATH = ImmutableMap.of();
+  private static final ImmutableMap<String, String[]> NO_QUERY = ImmutableMap.of();
+
+  private FakeTicker ticker;
+  private ResponseCache cache;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+    cache = new ResponseCache(1 << 20, ticker);
+  }
+
+  @Test
+  public void getAndPut() {
+    ResponseCache.Key key = key("get", "1");
+    assertThat(cache.get(key)).isNull();
+    cache.put(key, BODY, "\"tag\"", 60, cache.generation());
+    ResponseCache.Entry entry = cache.get(key);
+    assertThat(entry.getBody()).isEqualTo(BODY);
+    assertThat(entry.getEntityTag()).isEqualTo("\"tag\"");
+    assertThat(cache.get(key("get", "2"))).isNull();
+    assertThat(cache.get(key("list", "1"))).isNull();
+    assertThat(cache.stats().hitCount()).isEqualTo(1);
+    assertThat(cache.stats().missCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void expires() {
+    ResponseCache.Key key = key("get", "1");
+    cache.put(key, BODY, null, 60, cache.generation());
+    ticker.advance(59, TimeUnit.SECONDS);
+    assertThat(cache.get(key)).isNotNull();
+    ticker.advance(1, TimeUnit.SECONDS);
+    assertThat(cache.get(key)).isNull();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.weight()).isEqualTo(0);
+  }
+
+  @Test
+  public void put_notCacheable() {
+    cache.put(key("get", "1"), BODY, null, 0, cache.generation());
+    cache.put(key("get", "2"), new byte[1 << 20], null, 60, cache.generation());
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void key_queryParameters() {
+    ResponseCache.Key key = ResponseCache.key(methodId("list"), NO_PATH,
+        ImmutableMap.of("a", new String[] {"1"}, "b", new String[] {"2", "3"}), null);
+    assertThat(key).isEqualTo(ResponseCache.key(methodId("list"), NO_PATH,
+        ImmutableMap.of("b", new String[] {"2", "3"}, "a", new String[] {"1"}), null));
+    assertThat(key).isNotEqualTo(ResponseCache.key(methodId("list"), NO_PATH,
+        ImmutableMap.of("a", new String[] {"1"}, "b", new String[] {"3", "2"}), null));
+    assertThat(key).isNotEqualTo(ResponseCache.key(methodId("list"), NO_PATH,
+        ImmutableMap.of("a", new String[] {"1", "b"}, "2", new String[] {"3"}), null));
+    assertThat(key).isNotEqualTo(ResponseCache.key(methodId("list"), NO_PATH,
+        ImmutableMap.of("a", new String[] {"1"}, "b", new String[] {"2", "3"}), "user"));
+  }
+
+  @Test
+  public void invalidate() {
+    cache.put(key("get", "1"), BODY, null, 60, cache.generation());
+    cache.put(key("get", "2"), BODY, null, 60, cache.generation());
+    cache.put(key("list", "1"), BODY, null, 60, cache.generation());
+    cache.invalidate(Endpoint.class, "get", ImmutableMap.of("id", "1"));
+    assertThat(cache.get(key("get", "1"))).isNull();
+    assertThat(cache.get(key("get", "2"))).isNotNull();
+    cache.invalidate(Endpoint.class, "get");
+    assertThat(cache.get(key("get", "2"))).isNull();
+    assertThat(cache.get(key("list", "1"))).isNotNull();
+    cache.invalidateAll();
+    assertThat(cache.get(key("list", "1"))).isNull();
+    assertThat(cache.weight()).isEqualTo(0);
+    assertThat(cache.stats().evictionCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void boundedByWeight() {
+    for (int i = 0; i < 1000; i++) {
+      ResponseCache.Key key = key("get", Integer.toString(i));
+      cache.get(key);
+      cache.put(key, new byte[10000], null, 60, cache.generation());
+      assertThat(cache.weight()).isAtMost(1 << 20);
+    }
+    assertThat(cache.size()).isGreaterThan(50L);
+    assertThat(cache.stats().evictionCount()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void admission_keepsFrequentResponses() {
+    for (int i = 0; i < 50; i++) {
+      ResponseCache.Key key = key("get", Integer.toString(i));
+      for (int j = 0; j < 5; j++) {
+        cache.get(key);
+      }
+      cache.put(key, new byte[10000], null, 60, cache.generation());
+    }
+    // One-off requests do not evict the frequently requested responses.
+    for (int i = 1000; i < 2000; i++) {
+      ResponseCache.Key key = key("get", Integer.toString(i));
+      cache.get(key);
+      cache.put(key, new byte[10000], null, 60, cache.generation());
+    }
+    int hits = 0;
+    for (int i = 0; i < 50; i++) {
+      if (cache.get(key("get", Integer.toString(i))) != null) {
+        hits++;
+      }
+    }
+    assertThat(hits).isEqualTo(50);
+  }
+
+  @Test
+  public void writeCached() throws Exception {
+    cache.put(key("get", "1"), BODY, "\"tag\"", 60, cache.generation());
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer =
+        new ServletResponseResultWriter(response, (ApiSerializationConfig) null, false, true);
+    writer.setCacheControl("public, max-age=60");
+    writer.writeCached(cache.get(key("get", "1")));
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getContentAsByteArray()).isEqualTo(BODY);
+    assertThat(response.getContentLength()).isEqualTo(BODY.length);
+    assertThat(response.getHeader("ETag")).isEqualTo("\"tag\"");
+    assertThat(response.getHeader("Cache-Control")).isEqualTo("public, max-age=60");
+  }
+
+  @Test
+  public void writeCached_compressed() throws Exception {
+    byte[] gzipped = {1, 2, 3};
+    cache.put(key("get", "1"), BODY, ImmutableMap.of(ResponseCompression.Encoding.GZIP, gzipped),
+        "\"tag\"", 60, cache.generation());
+    assertThat(cache.weight()).isGreaterThan((long) (BODY.length + gzipped.length));
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer =
+        new ServletResponseResultWriter(response, (ApiSerializationConfig) null, false, true);
+    writer.setCompression(new ResponseCompression(0), ResponseCompression.Encoding.GZIP);
+    writer.writeCached(cache.get(key("get", "1")));
+    assertThat(response.getContentAsByteArray()).isEqualTo(gzipped);
+    assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+    assertThat(response.getHeader("ETag")).isEqualTo("\"tag;gzip\"");
+
+    // Encodings which were not cached fall back to the uncompressed body.
+    response = new MockHttpServletResponse();
+    writer = new ServletResponseResultWriter(response, (ApiSerializationConfig) null, false, true);
+    writer.setCompression(new ResponseCompression(0), ResponseCompression.Encoding.DEFLATE);
+    writer.writeCached(cache.get(key("get", "1")));
+    assertThat(response.getContentAsByteArray()).isEqualTo(BODY);
+    assertThat(response.getHeader("Content-Encoding")).isNull();
+  }
+
+  @Test
+  public void key_overloads() throws Exception {
+    ResponseCache.Key key = key("get", "1");
+    ResponseCache.Key overloadKey = ResponseCache.key(
+        ResponseCache.methodId(Endpoint.class, Endpoint.class.getMethod("get", int.class)),
+        ImmutableMap.of("id", "1"), NO_QUERY, null);
+    assertThat(key).isNotEqualTo(overloadKey);
+    cache.put(key, BODY, null, 60, cache.generation());
+    assertThat(cache.get(overloadKey)).isNull();
+    cache.put(overloadKey, BODY, null, 60, cache.generation());
+    cache.invalidate(Endpoint.class, "get");
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void put_afterInvalidation() {
+    long generation = cache.generation();
+    cache.invalidate(Endpoint.class, "get", ImmutableMap.of("id", "1"));
+    cache.put(key("get", "1"), BODY, null, 60, generation);
+    assertThat(cache.get(key("get", "1"))).isNull();
+    cache.put(key("get", "1"), BODY, null, 60, cache.generation());
+    assertThat(cache.get(key("get", "1"))).isNotNull();
+  }
+
+  private static ResponseCache.Key key(String methodName, String id) {
+    return ResponseCache.key(methodId(methodName), ImmutableMap.of("id", id), NO_QUERY, null);
+  }
+
+  private static ResponseCache.MethodId methodId(String methodName) {
+    try {
+      Method method = methodName.equals("get")
+          ? Endpoint.class.getMethod("get", String.class) : Endpoint.class.getMethod(methodName);
+      return ResponseCache.methodId(Endpoint.class, method);
+    } catch (NoSuchMethodException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * The API methods whose responses are cached.
+   */
+  public static class Endpoint {
+    public String get(String id) {
+      return id;
+    }
+
+    public String get(int id) {
+      return Integer.toString(id);
+    }
+
+    public String list() {
+      return "";
+    }
+  }
+}
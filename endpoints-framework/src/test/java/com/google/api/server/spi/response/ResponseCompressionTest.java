@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.server.spi.response.ResponseCompression.Encoding;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Tests for {@link ResponseCompression}.
+ */
+@RunWith(JUnit4.class)
+public class ResponseCompressionTest {
+  private static final ImmutableMap<String, String> LARGE_RESULT =
+      ImmutableMap.of("value", Strings.repeat("compressible ", 200));
+
+  @Test
+  public void negotiate() {
+    assertThat(ResponseCompression.negotiate(null)).isNull();
+    assertThat(ResponseCompression.negotiate("")).isNull();
+    assertThat(ResponseCompression.negotiate("identity")).isNull();
+    assertThat(ResponseCompression.negotiate("gzip")).isEqualTo(Encoding.GZIP);
+    assertThat(ResponseCompression.negotiate("x-gzip")).isEqualTo(Encoding.GZIP);
+    assertThat(ResponseCompression.negotiate("GZIP")).isEqualTo(Encoding.GZIP);
+    assertThat(ResponseCompression.negotiate("deflate")).isEqualTo(Encoding.DEFLATE);
+    assertThat(ResponseCompression.negotiate("deflate, gzip")).isEqualTo(Encoding.GZIP);
+    assertThat(ResponseCompression.negotiate("gzip, deflate, br")).isEqualTo(Encoding.GZIP);
+    assertThat(ResponseCompression.negotiate("*")).isEqualTo(Encoding.GZIP);
+  }
+
+  @Test
+  public void negotiate_quality() {
+    assertThat(ResponseCompression.negotiate("gzip;q=0.5, deflate")).isEqualTo(Encoding.DEFLATE);
+    assertThat(ResponseCompression.negotiate("gzip ; q=0.8, deflate;q=0.2"))
+        .isEqualTo(Encoding.GZIP);
+    assertThat(ResponseCompression.negotiate("gzip;q=0")).isNull();
+    assertThat(ResponseCompression.negotiate("gzip;q=0, *")).isEqualTo(Encoding.DEFLATE);
+    assertThat(ResponseCompression.negotiate("*;q=0")).isNull();
+    assertThat(ResponseCompression.negotiate("gzip;q=bad")).isNull();
+  }
+
+  @Test
+  public void compress_gzip() throws Exception {
+    byte[] content = content();
+    byte[] compressed = compress(content, Encoding.GZIP);
+    assertThat(compressed.length).isLessThan(content.length);
+    assertThat(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))))
+        .isEqualTo(content);
+  }
+
+  @Test
+  public void compress_deflate() throws Exception {
+    byte[] content = content();
+    byte[] compressed = compress(content, Encoding.DEFLATE);
+    assertThat(compressed.length).isLessThan(content.length);
+    assertThat(ByteStreams.toByteArray(
+        new InflaterInputStream(new ByteArrayInputStream(compressed)))).isEqualTo(content);
+  }
+
+  @Test
+  public void compress_reusesDeflaters() throws Exception {
+    byte[] content = content();
+    // A reused deflater must be reset, so that results are the same each time.
+    assertThat(compress(content, Encoding.GZIP)).isEqualTo(compress(content, Encoding.GZIP));
+    assertThat(compress(content, Encoding.DEFLATE)).isEqualTo(compress(content, Encoding.DEFLATE));
+  }
+
+  @Test
+  public void deflaterPool() {
+    ResponseCompression.DeflaterPool pool = new ResponseCompression.DeflaterPool(true);
+    Deflater deflater = pool.acquire();
+    pool.release(deflater);
+    assertThat(pool.acquire()).isSameInstanceAs(deflater);
+    assertThat(pool.acquire()).isNotSameInstanceAs(deflater);
+  }
+
+  @Test
+  public void write_compressed() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer = createWriter(response, true);
+    writer.setCompression(new ResponseCompression(1024), Encoding.GZIP);
+    writer.write(LARGE_RESULT, HttpServletResponse.SC_OK);
+    byte[] body = response.getContentAsByteArray();
+    assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+    assertThat(response.getHeader("Vary")).isEqualTo("Accept-Encoding");
+    assertThat(response.getContentLength()).isEqualTo(body.length);
+    assertThat(new String(
+        ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(body))),
+        StandardCharsets.UTF_8)).contains("compressible");
+  }
+
+  @Test
+  public void write_compressedWithoutContentLength() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer = createWriter(response, false);
+    writer.setCompression(new ResponseCompression(1024), Encoding.DEFLATE);
+    writer.write(LARGE_RESULT, HttpServletResponse.SC_OK);
+    assertThat(response.getHeader("Content-Encoding")).isEqualTo("deflate");
+    assertThat(response.getHeader("Content-Length")).isNull();
+    InputStream in = new InflaterInputStream(
+        new ByteArrayInputStream(response.getContentAsByteArray()));
+    assertThat(new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8))
+        .contains("compressible");
+  }
+
+  @Test
+  public void write_belowThreshold() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer = createWriter(response, true);
+    writer.setCompression(new ResponseCompression(1024), Encoding.GZIP);
+    writer.write(ImmutableMap.of("value", "small"), HttpServletResponse.SC_OK);
+    assertThat(response.getHeader("Content-Encoding")).isNull();
+    assertThat(response.getHeader("Vary")).isEqualTo("Accept-Encoding");
+    assertThat(response.getContentAsString()).isEqualTo("{\"value\":\"small\"}");
+    assertThat(response.getContentLength()).isEqualTo(17);
+  }
+
+  @Test
+  public void write_notAccepted() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer = createWriter(response, false);
+    writer.setCompression(new ResponseCompression(0), null);
+    writer.write(LARGE_RESULT, HttpServletResponse.SC_OK);
+    assertThat(response.getHeader("Content-Encoding")).isNull();
+    // Caches must still tell apart clients which accept compressed responses.
+    assertThat(response.getHeader("Vary")).isEqualTo("Accept-Encoding");
+    assertThat(response.getContentAsString()).contains("compressible");
+  }
+
+  @Test
+  public void writeError_notCompressed() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ServletResponseResultWriter writer = createWriter(response, true);
+    writer.setCompression(new ResponseCompression(0), Encoding.GZIP);
+    writer.writeError(new NotFoundException(Strings.repeat("missing ", 200)));
+    assertThat(response.getHeader("Content-Encoding")).isNull();
+    assertThat(response.getHeader("Vary")).isNull();
+    assertThat(response.getContentAsString()).contains("missing");
+  }
+
+  private static ServletResponseResultWriter createWriter(
+      HttpServletResponse response, boolean addContentLength) {
+    return new ServletResponseResultWriter(response, ServletResponseResultWriter
+        .createObjectWriter(null), ServletResponseResultWriter.createObjectWriter(null),
+        addContentLength);
+  }
+
+  private static byte[] content() {
+    return Strings.repeat("{\"name\":\"value\",\"count\":12345},", 1000)
+        .getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] compress(byte[] content, Encoding encoding) throws Exception {
+    ResponseBuffer body = new ResponseBuffer(0);
+    body.write(content, 0, content.length);
+    ResponseBuffer out = new ResponseBuffer(0);
+    ResponseCompression.compress(body, encoding, out);
+    body.release();
+    byte[] compressed = out.toByteArray();
+    out.release();
+    return compressed;
+  }
+}
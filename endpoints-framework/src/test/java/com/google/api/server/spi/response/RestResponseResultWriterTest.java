@@ -24,6 +24,8 @@ import com.google.api.server.spi.ServiceException;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import org.junit.Test;
@@ -322,6 +324,58 @@ public class RestResponseResultWriterTest {
     JSONAssert.assertEquals(expectedError, response.getContentAsString(), true);
   }
 
+  @Test
+  public void writeError_sameAsTree() throws Exception {
+    for (boolean prettyPrint : new boolean[] {false, true}) {
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      RestResponseResultWriter writer = new RestResponseResultWriter(response, null, prettyPrint,
+          false /* addContentLength */, true /* enableExceptionCompatibility */);
+      ServiceException serviceException = new ServiceException(400, "customMessage");
+      serviceException.putExtraField("someExtraLong", 1234567890L);
+      writer.writeError(serviceException);
+
+      ObjectNode error = JsonNodeFactory.instance.objectNode()
+          .put("domain", "global")
+          .put("reason", "badRequest")
+          .put("message", "customMessage")
+          .putPOJO("someExtraLong", 1234567890L);
+      ObjectNode topError = JsonNodeFactory.instance.objectNode();
+      topError.set("errors", JsonNodeFactory.instance.arrayNode().add(error));
+      topError.put("code", 400).put("message", "customMessage");
+      ObjectNode topLevel = JsonNodeFactory.instance.objectNode();
+      topLevel.set("error", topError);
+      ObjectWriter objectWriter = ServletResponseResultWriter.createObjectWriter(null);
+      if (prettyPrint) {
+        objectWriter = ServletResponseResultWriter.prettyPrinting(objectWriter);
+      }
+      assertThat(response.getContentAsString())
+          .isEqualTo(objectWriter.writeValueAsString(topLevel));
+    }
+  }
+
+  @Test
+  public void writeError_preEncoded() throws Exception {
+    ObjectWriter objectWriter = ServletResponseResultWriter.prettyPrinting(
+        ServletResponseResultWriter.createObjectWriter(null));
+    MockHttpServletResponse expected = new MockHttpServletResponse();
+    new RestResponseResultWriter(expected, objectWriter, objectWriter,
+        true /* addContentLength */, true /* enableExceptionCompatibility */)
+        .writeError(new InternalServerErrorException("backend error"));
+
+    RestResponseResultWriter.PreEncodedError error = RestResponseResultWriter.preEncodeError(
+        new InternalServerErrorException("backend error"), objectWriter,
+        true /* enableExceptionCompatibility */);
+    for (int i = 0; i < 2; i++) {
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      new RestResponseResultWriter(response, objectWriter, objectWriter,
+          true /* addContentLength */, true /* enableExceptionCompatibility */).writeError(error);
+      assertThat(response.getStatus()).isEqualTo(503);
+      assertThat(response.getContentType()).isEqualTo(expected.getContentType());
+      assertThat(response.getContentLength()).isEqualTo(expected.getContentLength());
+      assertThat(response.getContentAsString()).isEqualTo(expected.getContentAsString());
+    }
+  }
+
   enum TestEnum {
     VALUE1, VALUE2, VALUE3;
   }
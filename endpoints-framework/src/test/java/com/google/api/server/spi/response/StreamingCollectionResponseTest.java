@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.api.server.spi.response;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.api.server.spi.Headers;
+import com.google.api.server.spi.ObjectMapperUtil;
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Tests for {@link StreamingCollectionResponse} and the streaming of results by
+ * {@link ServletResponseResultWriter}.
+ */
+@RunWith(JUnit4.class)
+public class StreamingCollectionResponseTest {
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private final ServletResponseResultWriter writer = new ServletResponseResultWriter(
+      response, (ApiSerializationConfig) null, false, true /* addContentLength */);
+
+  @Test
+  public void testWriteIterator_buffered() throws Exception {
+    writer.write(ImmutableList.of("a", "b", "c").iterator(), HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString()).isEqualTo("{\"items\":[\"a\",\"b\",\"c\"]}");
+    assertThat(response.getContentLength()).isEqualTo(response.getContentAsByteArray().length);
+  }
+
+  @Test
+  public void testWriteIterableBean_notStreamed() throws Exception {
+    writer.write(new Page(), HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString()).isEqualTo("{\"nextPageToken\":\"next\"}");
+  }
+
+  @Test
+  public void testWriteEmpty() throws Exception {
+    writer.write(ImmutableList.of().iterator(), HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString()).isEqualTo("{}");
+  }
+
+  @Test
+  public void testWriteStream_closed() throws Exception {
+    AtomicBoolean closed = new AtomicBoolean();
+    writer.write(IntStream.range(0, 3).boxed().onClose(() -> closed.set(true)),
+        HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString()).isEqualTo("{\"items\":[0,1,2]}");
+    assertThat(closed.get()).isTrue();
+  }
+
+  @Test
+  public void testWriteStreamingCollectionResponse_committed() throws Exception {
+    writer.setStreamingFlushThreshold(64);
+    AtomicBoolean exhausted = new AtomicBoolean();
+    Iterator<Integer> items = IntStream.range(0, 1000).iterator();
+    writer.write(StreamingCollectionResponse.<Integer>builder()
+        .setItems(items)
+        .setNextPageTokenSupplier(() -> {
+          exhausted.set(!items.hasNext());
+          return "next";
+        })
+        .build(), HttpServletResponse.SC_OK);
+
+    assertThat(response.isCommitted()).isTrue();
+    assertThat(response.getHeader("Content-Length")).isNull();
+    JsonNode body = ObjectMapperUtil.createStandardObjectMapper()
+        .readTree(response.getContentAsString());
+    assertThat(body.get("items").size()).isEqualTo(1000);
+    assertThat(body.get("items").get(999).asInt()).isEqualTo(999);
+    assertThat(body.get("nextPageToken").asText()).isEqualTo("next");
+    assertThat(exhausted.get()).isTrue();
+  }
+
+  @Test
+  public void testWriteStreaming_compressed() throws Exception {
+    writer.setStreamingFlushThreshold(64);
+    writer.setCompression(new ResponseCompression(0), ResponseCompression.Encoding.GZIP);
+    writer.write(IntStream.range(0, 1000).boxed(), HttpServletResponse.SC_OK);
+
+    assertThat(response.getHeader(Headers.CONTENT_ENCODING)).isEqualTo("gzip");
+    byte[] body = ByteStreams.toByteArray(
+        new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray())));
+    JsonNode json = ObjectMapperUtil.createStandardObjectMapper().readTree(body);
+    assertThat(json.get("items").size()).isEqualTo(1000);
+  }
+
+  @Test
+  public void testWriteStreaming_fieldMask() throws Exception {
+    writer.setFieldMask(FieldMask.compile("nextPageToken"));
+    writer.write(StreamingCollectionResponse.<String>builder()
+        .setItems(ImmutableList.of("a"))
+        .setNextPageToken("next")
+        .build(), HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString()).isEqualTo("{\"nextPageToken\":\"next\"}");
+  }
+
+  @Test
+  public void testWriteStreaming_errorBeforeCommit() throws Exception {
+    try {
+      writer.write(failingAfter(3), HttpServletResponse.SC_OK);
+      fail("expected StreamedResultException");
+    } catch (StreamedResultException expected) {
+      // Reported by the caller like an exception of the API method.
+      assertThat(expected).hasCauseThat().isInstanceOf(IllegalStateException.class);
+    }
+    assertThat(response.isCommitted()).isFalse();
+    assertThat(response.getContentAsString()).isEmpty();
+  }
+
+  @Test
+  public void testWriteStreaming_errorAfterCommit() throws Exception {
+    writer.setStreamingFlushThreshold(64);
+    try {
+      writer.write(failingAfter(1000), HttpServletResponse.SC_OK);
+      fail("expected IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+    assertThat(response.isCommitted()).isTrue();
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString()).startsWith("{\"items\":[0,");
+  }
+
+  private static Iterator<Integer> failingAfter(int count) {
+    return new AbstractIterator<Integer>() {
+      private int next;
+
+      @Override
+      protected Integer computeNext() {
+        if (next == count) {
+          throw new IllegalStateException("failed");
+        }
+        return next++;
+      }
+    };
+  }
+
+  /**
+   * A bean which is also iterable, and is serialized by its properties.
+   */
+  public static class Page implements Iterable<String> {
+    public String getNextPageToken() {
+      return "next";
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return ImmutableList.of("a").iterator();
+    }
+  }
+}